@@ -8,8 +8,12 @@ import java.io.PrintWriter;
 
 import features.FeatureVector;
 import features.WeightVector;
+import features.feature_sets.BaseFeatureSet;
 import gnu.trove.list.array.TFloatArrayList;
 import main.collections.FVector;
+import main.collections.FastArrayList;
+import other.context.Context;
+import other.move.Move;
 
 /**
  * A linear function approximator
@@ -50,6 +54,25 @@ public class LinearFunction
 		return effectiveParams().dot(featureVector);
 	}
 	
+	/**
+	 * @param featureSet Feature set that our parameters correspond to
+	 * @param context
+	 * @param moves
+	 * @param thresholded
+	 * @return Vector of predicted values for all the given moves in given context,
+	 * 	computed in a single pass without building any feature vectors
+	 */
+	public FVector computeLogits
+	(
+		final BaseFeatureSet featureSet,
+		final Context context,
+		final FastArrayList<Move> moves,
+		final boolean thresholded
+	)
+	{
+		return featureSet.computeLogits(context, moves, effectiveParams(), thresholded);
+	}
+	
 	/**
 	 * @return Vector of effective parameters, used for making predictions. For this
 	 *         class, a reference to theta.
@@ -1,6 +1,5 @@
 package playout_move_selectors;
 
-import features.FeatureVector;
 import features.WeightVector;
 import features.feature_sets.BaseFeatureSet;
 import main.collections.FVector;
@@ -73,16 +72,7 @@ public class FeaturesSoftmaxMoveSelector extends PlayoutMoveSelector		// TODO al
 			weightVector = weights[p];
 		}
 
-		final FeatureVector[] featureVectors = featureSet.computeFeatureVectors(context, maybeLegalMoves, thresholded);
-
-		final float[] logits = new float[featureVectors.length];
-
-		for (int i = 0; i < featureVectors.length; ++i)
-		{
-			logits[i] = weightVector.dot(featureVectors[i]);
-		}
-
-		final FVector distribution = FVector.wrap(logits);
+		final FVector distribution = featureSet.computeLogits(context, maybeLegalMoves, weightVector, thresholded);
 		distribution.softmax();
 		
 		int numLegalMoves = maybeLegalMoves.size();
@@ -161,6 +161,26 @@ public class GreedyPolicy extends Policy
 		return linearFunction.predict(featureSet.computeFeatureVector(context, move, true));
 	}
 	
+	@Override
+	public FVector computeLogits(final Context context, final FastArrayList<Move> moves)
+	{
+		final LinearFunction linearFunction;
+		
+		if (linearFunctions.length == 1)
+			linearFunction = linearFunctions[0];
+		else
+			linearFunction = linearFunctions[context.state().mover()];
+		
+		final BaseFeatureSet featureSet;
+		
+		if (featureSets.length == 1)
+			featureSet = featureSets[0];
+		else
+			featureSet = featureSets[context.state().mover()];
+		
+		return linearFunction.computeLogits(featureSet, context, moves, true);
+	}
+	
 	/**
 	 * @param featureVectors One feature vector per action
 	 * @param player Player for which to use features
@@ -370,30 +390,7 @@ public class GreedyPolicy extends Policy
 	) 
 	{
 		final Moves actions = game.moves(context);
-		final BaseFeatureSet featureSet;
-		
-		if (featureSets.length == 1)
-		{
-			featureSet = featureSets[0];
-		}
-		else
-		{
-			featureSet = featureSets[context.state().mover()];
-		}
-		
-		return actions.moves().get(FVector.wrap
-				(
-					computeLogits
-					(
-						featureSet.computeFeatureVectors
-						(
-							context, 
-							actions.moves(),
-							true
-						),
-						context.state().mover()
-					)
-				).argMaxRand());
+		return actions.moves().get(computeLogits(context, actions.moves()).argMaxRand());
 	}
 	
 	//-------------------------------------------------------------------------
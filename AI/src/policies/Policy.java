@@ -43,6 +43,25 @@ public abstract class Policy extends AI implements PlayoutStrategy
 	 */
 	public abstract float computeLogit(final Context context, final Move move);
 	
+	/**
+	 * The default implementation simply calls computeLogit() for every move;
+	 * subclasses can override this to share work across all the moves.
+	 * 
+	 * @param context
+	 * @param moves
+	 * @return Logits for all the given moves in a single state (computed
+	 * 	in the same way as by computeLogit()).
+	 */
+	public FVector computeLogits(final Context context, final FastArrayList<Move> moves)
+	{
+		final float[] logits = new float[moves.size()];
+		for (int i = 0; i < logits.length; ++i)
+		{
+			logits[i] = computeLogit(context, moves.get(i));
+		}
+		return FVector.wrap(logits);
+	}
+	
 	//-------------------------------------------------------------------------
 
 }
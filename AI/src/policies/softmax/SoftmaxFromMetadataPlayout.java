@@ -139,6 +139,12 @@ public final class SoftmaxFromMetadataPlayout extends SoftmaxPolicy
 	{
 		return wrappedSoftmax.computeLogit(context, move);
 	}
+	
+	@Override
+	public FVector computeLogits(final Context context, final FastArrayList<Move> moves) 
+	{
+		return wrappedSoftmax.computeLogits(context, moves);
+	}
 
 	@Override
 	public FVector computeDistribution(final Context context, final FastArrayList<Move> actions, final boolean thresholded) 
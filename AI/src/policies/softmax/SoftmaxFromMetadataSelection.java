@@ -158,6 +158,12 @@ public class SoftmaxFromMetadataSelection extends SoftmaxPolicy
 	{
 		return wrappedSoftmax.computeLogit(context, move);
 	}
+	
+	@Override
+	public FVector computeLogits(final Context context, final FastArrayList<Move> moves) 
+	{
+		return wrappedSoftmax.computeLogits(context, moves);
+	}
 
 	@Override
 	public FVector computeDistribution(final Context context, final FastArrayList<Move> actions, final boolean thresholded) 
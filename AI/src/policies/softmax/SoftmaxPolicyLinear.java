@@ -204,7 +204,17 @@ public class SoftmaxPolicyLinear extends SoftmaxPolicy
 		else
 			featureSet = featureSets[context.state().mover()];
 		
-		return computeDistribution(featureSet.computeFeatureVectors(context, actions, thresholded), context.state().mover());
+		final LinearFunction linearFunction;
+		
+		if (linearFunctions.length == 1)
+			linearFunction = linearFunctions[0];
+		else
+			linearFunction = linearFunctions[context.state().mover()];
+		
+		final FVector distribution = linearFunction.computeLogits(featureSet, context, actions, thresholded);
+		distribution.softmax();
+		
+		return distribution;
 	}
 	
 	@Override
@@ -227,6 +237,26 @@ public class SoftmaxPolicyLinear extends SoftmaxPolicy
 		return linearFunction.predict(featureSet.computeFeatureVector(context, move, true));
 	}
 	
+	@Override
+	public FVector computeLogits(final Context context, final FastArrayList<Move> moves)
+	{
+		final BaseFeatureSet featureSet;
+		
+		if (featureSets.length == 1)
+			featureSet = featureSets[0];
+		else
+			featureSet = featureSets[context.state().mover()];
+		
+		final LinearFunction linearFunction;
+		
+		if (linearFunctions.length == 1)
+			linearFunction = linearFunctions[0];
+		else
+			linearFunction = linearFunctions[context.state().mover()];
+		
+		return linearFunction.computeLogits(featureSet, context, moves, true);
+	}
+	
 	/**
 	 * @param featureVectors
 	 * @param player
@@ -620,33 +650,7 @@ public class SoftmaxPolicyLinear extends SoftmaxPolicy
 	)
 	{
 		final Moves actions = game.moves(context);
-		final BaseFeatureSet featureSet;
-			
-		if (featureSets.length == 1)
-		{
-			featureSet = featureSets[0];
-		}
-		else
-		{
-			featureSet = featureSets[context.state().mover()];
-		}
-
-		return actions.moves().get
-				(
-					selectActionFromDistribution
-					(
-						computeDistribution
-						(
-							featureSet.computeFeatureVectors
-							(
-								context, 
-								actions.moves(), 
-								true
-							), 
-							context.state().mover()
-						)
-					)
-				);
+		return actions.moves().get(selectActionFromDistribution(computeDistribution(context, actions.moves(), true)));
 	}
 	
 	//-------------------------------------------------------------------------
@@ -183,6 +183,36 @@ public class SoftmaxPolicyLogitTree extends SoftmaxPolicy
 		return regressionTreeRoot.predict(featureSet.computeFeatureVector(context, move, true));
 	}
 	
+	@Override
+	public FVector computeLogits(final Context context, final FastArrayList<Move> moves)
+	{
+		final BaseFeatureSet featureSet;
+		
+		if (featureSets.length == 1)
+			featureSet = featureSets[0];
+		else
+			featureSet = featureSets[context.state().mover()];
+		
+		final LogitTreeNode regressionTreeRoot;
+		
+		if (regressionTreeRoots.length == 1)
+			regressionTreeRoot = regressionTreeRoots[0];
+		else
+			regressionTreeRoot = regressionTreeRoots[context.state().mover()];
+		
+		// Trees branch on individual features, so we do need complete feature vectors 
+		// (but we compute them for all moves at once)
+		final FeatureVector[] featureVectors = featureSet.computeFeatureVectors(context, moves, true);
+		final float[] logits = new float[featureVectors.length];
+		
+		for (int i = 0; i < featureVectors.length; ++i)
+		{
+			logits[i] = regressionTreeRoot.predict(featureVectors[i]);
+		}
+		
+		return FVector.wrap(logits);
+	}
+	
 	/**
 	 * @param featureVectors
 	 * @param player
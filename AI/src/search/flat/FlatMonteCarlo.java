@@ -12,6 +12,8 @@ import other.RankUtils;
 import other.context.Context;
 import other.model.Model;
 import other.move.Move;
+import other.playout.BatchedPlayouts;
+import other.playout.PlayoutOutcomes;
 import utils.AIUtils;
 
 /**
@@ -39,6 +41,9 @@ public class FlatMonteCarlo extends AI
 	/** We'll automatically return our move after at most this number of seconds if we only have one move */
 	protected double autoPlaySeconds = 0.5;
 	
+	/** Number of threads over which we spread playouts (in alternating-move games) */
+	protected int numThreads = 1;
+	
 	//-------------------------------------------------------------------------
 	
 	/**
@@ -86,7 +91,35 @@ public class FlatMonteCarlo extends AI
 				
 		int numIterations = 0;
 
-		// Simulate until we have to stop
+		if (game.isAlternatingMoveGame())
+		{
+			// Run batches of playouts from the successor state of every action in turn
+			final Context[] successorContexts = new Context[numActions];
+			for (int i = 0; i < numActions; ++i)
+			{
+				successorContexts[i] = copyContext(context);
+				game.apply(successorContexts[i], legalMoves.get(i));
+			}
+			
+			int actionIdx = 0;
+			while (numIterations < maxIts && System.currentTimeMillis() < stopTime)
+			{
+				final int batchSize = Math.min(numThreads, maxIts - numIterations);
+				final PlayoutOutcomes outcomes = 
+						BatchedPlayouts.runPlayouts(successorContexts[actionIdx], batchSize, null, -1, numThreads);
+				
+				for (int i = 0; i < batchSize; ++i)
+				{
+					sumScores[actionIdx] += outcomes.utility(i, player);
+				}
+				
+				numVisits[actionIdx] += batchSize;
+				numIterations += batchSize;
+				actionIdx = (actionIdx + 1) % numActions;
+			}
+		}
+		
+		// Simulate until we have to stop (only still needed for simultaneous-move games)
 		while (numIterations < maxIts && System.currentTimeMillis() < stopTime)
 		{
 			final Context copyContext = copyContext(context);
@@ -164,6 +197,15 @@ public class FlatMonteCarlo extends AI
 		lastActionList = null;
 	}
 	
+	/**
+	 * Sets the number of threads over which we spread playouts
+	 * @param numThreads
+	 */
+	public void setNumThreads(final int numThreads)
+	{
+		this.numThreads = Math.max(1, numThreads);
+	}
+	
 	/**
 	 * @return Sums of scores of last search
 	 */
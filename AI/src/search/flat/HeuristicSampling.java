@@ -179,43 +179,58 @@ public class HeuristicSampling extends AI
 		
 		//Context contextCurrent = context;
 		
+		// In games that support it, we evaluate moves by applying and undoing
+		// them in the given context, instead of copying it for every move
+		final boolean makeUnmake = game.supportsMakeUnmake();
+		
 		for (final Move move : moves) 
 		{
-			final Context contextCopy = new TempContext(context);
-			game.apply(contextCopy, move);
+			final Context childContext = makeUnmake ? context : new TempContext(context);
+			game.apply(childContext, move);
 			
-			if (!contextCopy.active(mover))
+			if (!childContext.active(mover))
 			{
-				if (contextCopy.winners().contains(mover))
+				if (childContext.winners().contains(mover))
+				{
+					if (makeUnmake)
+						game.undo(childContext);
 					return new MoveScore(move, WIN_SCORE);  // Return winning move immediately
-				else if (contextCopy.losers().contains(mover))
+				}
+				else if (childContext.losers().contains(mover))
+				{
+					if (makeUnmake)
+						game.undo(childContext);
 					continue;	// Skip losing move
+				}
 			}
 			
 			float score = 0;
-			if (!contextCopy.active(mover))
+			if (!childContext.active(mover))
 			{
 				score = 0.f;	// Must be a draw in this case
 			}
-			else if (continuation && contextCopy.state().mover() == mover && depth <= 10)
+			else if (continuation && childContext.state().mover() == mover && depth <= 10)
 			{
-				score = evaluateMoves(game, contextCopy, depth + 1).score();
+				score = evaluateMoves(game, childContext, depth + 1).score();
 			}
 			else
 			{
 				score = heuristicValueFunction.computeValue
 						(
-							contextCopy, mover, ABS_HEURISTIC_WEIGHT_THRESHOLD
+							childContext, mover, ABS_HEURISTIC_WEIGHT_THRESHOLD
 						);
 				for (final int opp : opponents(mover))
 				{
-					if (contextCopy.active(opp))
-						score -= heuristicValueFunction.computeValue(contextCopy, opp, ABS_HEURISTIC_WEIGHT_THRESHOLD);
-					else if (contextCopy.winners().contains(opp))
+					if (childContext.active(opp))
+						score -= heuristicValueFunction.computeValue(childContext, opp, ABS_HEURISTIC_WEIGHT_THRESHOLD);
+					else if (childContext.winners().contains(opp))
 						score -= PARANOID_OPP_WIN_SCORE;
 				}
 				score += (float)(ThreadLocalRandom.current().nextInt(1000) / 1000000.0);
 			}
+			
+			if (makeUnmake)
+				game.undo(childContext);
 		
 			if (score > bestScore)
 			{
@@ -1,12 +1,6 @@
 package search.mcts;
 
-import java.util.Arrays;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -64,6 +58,8 @@ import search.mcts.selection.UCB1Tuned;
 import training.expert_iteration.ExItExperience;
 import training.expert_iteration.ExpertPolicy;
 import utils.AIUtils;
+import utils.data_structures.MoveStatisticsTable;
+import utils.data_structures.transposition_table.LockFreeTranspositionTable;
 
 /**
  * A modular implementation of Monte-Carlo Tree Search (MCTS) for playing games
@@ -214,6 +210,12 @@ public class MCTS extends ExpertPolicy
 	/** Decay factor for global action statistics when reusing trees */
 	protected final double globalActionDecayFactor = 0.6;
 	
+	/** Number of stripes (separately locked parts) in tables of global action statistics */
+	protected static final int GLOBAL_ACTION_STATS_NUM_STRIPES = 16;
+	
+	/** Initial key for N-grams of moves (see extendNGramKey()) */
+	public static final long NGRAM_KEY_SEED = 0x2545F4914F6CDD1DL;
+	
 	//-------------------------------------------------------------------------
 	
 	/** A learned policy to use in Selection phase */
@@ -225,6 +227,16 @@ public class MCTS extends ExpertPolicy
 	/** Do we want to track pessimistic and optimistic score bounds in nodes, for solving? */
 	protected boolean useScoreBounds = false;
 	
+	/** Size (in MB) of table in which we store proven values of nodes when using score bounds (no table if <= 0) */
+	protected int solverTranspositionTableSizeMB = 0;
+	
+	/** 
+	 * Compact table, kept across searches, in which we store proven values of nodes 
+	 * when using score bounds, such that transpositions do not need to be solved again.
+	 * Null if not used.
+	 */
+	protected LockFreeTranspositionTable solverTranspositionTable = null;
+	
 	/** 
 	 * If we have heuristic value estimates in nodes, we assign this weight to playout outcomes, 
 	 * and 1 minus this weight to the value estimate of node before playout.
@@ -240,10 +252,10 @@ public class MCTS extends ExpertPolicy
 	//-------------------------------------------------------------------------
 	
 	/** Table of global (MCTS-wide) action stats (e.g., for Progressive History) */
-    protected final Map<MoveKey, ActionStatistics> globalActionStats;
+    protected final MoveStatisticsTable globalActionStats;
     
     /** Table of global (MCTS-wide) N-gram action stats (e.g., for NST) */
-    protected final Map<NGramMoveKey, ActionStatistics> globalNGramActionStats;
+    protected final MoveStatisticsTable globalNGramActionStats;
     
     /** Max length of N-grams of actions we consider */
     protected final int maxNGramLength;
@@ -446,13 +458,13 @@ public class MCTS extends ExpertPolicy
 		this.finalMoveSelectionStrategy = finalMoveSelectionStrategy;
 		
 		if ((backpropFlags & BackpropagationStrategy.GLOBAL_ACTION_STATS) != 0)
-			globalActionStats = new ConcurrentHashMap<MoveKey, ActionStatistics>();
+			globalActionStats = new MoveStatisticsTable(GLOBAL_ACTION_STATS_NUM_STRIPES, 64);
 		else
 			globalActionStats = null;
 		
 		if ((backpropFlags & BackpropagationStrategy.GLOBAL_NGRAM_ACTION_STATS) != 0)
 		{
-			globalNGramActionStats = new ConcurrentHashMap<NGramMoveKey, ActionStatistics>();
+			globalNGramActionStats = new MoveStatisticsTable(GLOBAL_ACTION_STATS_NUM_STRIPES, 256);
 			maxNGramLength = 3; 	// Hardcoded to 3 for now, should make it a param...
 		}
 		else
@@ -485,6 +497,9 @@ public class MCTS extends ExpertPolicy
 		
 		// We'll assume all threads are really done now and just reset to 0
 		numThreadsBusy.set(0);
+		
+		if (solverTranspositionTable != null)
+			solverTranspositionTable.newSearch();
 				
 		final AtomicInteger numIterations = new AtomicInteger();
 		
@@ -543,39 +558,13 @@ public class MCTS extends ExpertPolicy
 		if (globalActionStats != null)
 		{
 			// Decay global action statistics
-			final Set<Entry<MoveKey, ActionStatistics>> entries = globalActionStats.entrySet();
-			final Iterator<Entry<MoveKey, ActionStatistics>> it = entries.iterator();
-			
-			while (it.hasNext())
-			{
-				final Entry<MoveKey, ActionStatistics> entry = it.next();
-				final ActionStatistics stats = entry.getValue();
-				stats.visitCount *= globalActionDecayFactor;
-				
-				if (stats.visitCount < 1.0)
-					it.remove();
-				else
-					stats.accumulatedScore *= globalActionDecayFactor;
-			}
+			globalActionStats.decay(globalActionDecayFactor, 1.0);
 		}
 		
 		if (globalNGramActionStats != null)
 		{
 			// Decay global N-gram action statistics
-			final Set<Entry<NGramMoveKey, ActionStatistics>> entries = globalNGramActionStats.entrySet();
-			final Iterator<Entry<NGramMoveKey, ActionStatistics>> it = entries.iterator();
-			
-			while (it.hasNext())
-			{
-				final Entry<NGramMoveKey, ActionStatistics> entry = it.next();
-				final ActionStatistics stats = entry.getValue();
-				stats.visitCount *= globalActionDecayFactor;
-				
-				if (stats.visitCount < 1.0)
-					it.remove();
-				else
-					stats.accumulatedScore *= globalActionDecayFactor;
-			}
+			globalNGramActionStats.decay(globalActionDecayFactor, 1.0);
 		}
 		
 		if (heuristicStats != null)
@@ -703,6 +692,9 @@ public class MCTS extends ExpertPolicy
 								
 								final int numActionsBeforePlayout = current.contextRef().trial().numMoves();
 								
+								// Playout contexts are copies or thread-local, so only used by this thread
+								playoutContext.setThreadConfined(true);
+								
 								endTrial = playoutStrategy.runPlayout(this, playoutContext);
 								numPlayoutActions = (endTrial.numMoves() - numActionsBeforePlayout);
 								
@@ -890,6 +882,14 @@ public class MCTS extends ExpertPolicy
 		return backpropFlags;
 	}
 	
+	/**
+	 * @return Table of proven node values for score-bounded nodes (null if not used)
+	 */
+	public LockFreeTranspositionTable solverTranspositionTable()
+	{
+		return solverTranspositionTable;
+	}
+	
 	/**
 	 * @return Learned (linear or tree) policy for Selection phase
 	 */
@@ -965,6 +965,17 @@ public class MCTS extends ExpertPolicy
 		useScoreBounds = val;
 	}
 	
+	/**
+	 * Sets the size (in MB) of the table in which we store proven values of nodes 
+	 * when using score bounds (takes effect on the next call to initAI()). We only use 
+	 * such a table in two-player games, and only if the size is > 0.
+	 * @param sizeMB
+	 */
+	public void setSolverTranspositionTableSizeMB(final int sizeMB)
+	{
+		solverTranspositionTableSizeMB = sizeMB;
+	}
+	
 	/**
 	 * Sets the Q-init strategy
 	 * @param init
@@ -1124,6 +1135,24 @@ public class MCTS extends ExpertPolicy
 		if (globalNGramActionStats != null)
 			globalNGramActionStats.clear();
 		
+		if 
+		(
+			useScoreBounds && solverTranspositionTableSizeMB > 0 && game.players().count() == 2 
+			&& 
+			!(game.usesNoRepeatPositionalInGame() || game.usesNoRepeatPositionalInTurn())
+		)
+		{
+			solverTranspositionTable = 
+					LockFreeTranspositionTable.withSizeMB
+					(
+						solverTranspositionTableSizeMB, LockFreeTranspositionTable.DEFAULT_SLOTS_PER_BUCKET
+					);
+		}
+		else
+		{
+			solverTranspositionTable = null;
+		}
+		
 		if ((backpropFlags & BackpropagationStrategy.GLOBAL_HEURISTIC_STATS) != 0)
 		{
 			heuristicStats = new IncrementalStats[game.players().count() + 1];
@@ -1260,49 +1289,20 @@ public class MCTS extends ExpertPolicy
 	//-------------------------------------------------------------------------
 	
 	/**
-     * @param moveKey
-     * @return global MCTS-wide action statistics for given move key
-     */
-    public ActionStatistics getOrCreateActionStatsEntry(final MoveKey moveKey)
-    {
-    	ActionStatistics stats = globalActionStats.get(moveKey);
-    	
-    	if (stats == null)
-    	{
-    		stats = new ActionStatistics();
-    		globalActionStats.put(moveKey, stats);
-    		//System.out.println("creating entry for " + moveKey + " in " + this);
-    	}
-    	
-    	return stats;
-    }
-    
-    /**
-     * @param nGramMoveKey
-     * @return global MCTS-wide N-gram action statistics for given N-gram move key,
-     * 	or null if it doesn't exist yet
+     * @return Table of global MCTS-wide action statistics, keyed by moveKey()
      */
-    public ActionStatistics getNGramActionStatsEntry(final NGramMoveKey nGramMoveKey)
+    public MoveStatisticsTable globalActionStats()
     {
-    	return globalNGramActionStats.get(nGramMoveKey);
+    	return globalActionStats;
     }
     
     /**
-     * @param nGramMoveKey
-     * @return global MCTS-wide N-gram action statistics for given N-gram move key
+     * @return Table of global MCTS-wide N-gram action statistics, keyed by
+     * 	N-gram keys built using extendNGramKey()
      */
-    public ActionStatistics getOrCreateNGramActionStatsEntry(final NGramMoveKey nGramMoveKey)
+    public MoveStatisticsTable globalNGramActionStats()
     {
-    	ActionStatistics stats = globalNGramActionStats.get(nGramMoveKey);
-    	
-    	if (stats == null)
-    	{
-    		stats = new ActionStatistics();
-    		globalNGramActionStats.put(nGramMoveKey, stats);
-    		//System.out.println("creating entry for " + nGramMoveKey + " in " + this);
-    	}
-    	
-    	return stats;
+    	return globalNGramActionStats;
     }
     
     //-------------------------------------------------------------------------
@@ -1374,6 +1374,7 @@ public class MCTS extends ExpertPolicy
 		// Defaults - some extras
 		boolean treeReuse = false;
 		boolean useScoreBounds = false;
+		int solverTTSizeMB = 0;
 		int numThreads = 1;
 		Policy learnedSelectionPolicy = null;
 		Heuristics heuristics = null;
@@ -1520,6 +1521,10 @@ public class MCTS extends ExpertPolicy
 					System.err.println("Error in line: " + line);
 				}
 			}
+			else if (lineParts[0].toLowerCase().startsWith("solver_tt_size_mb="))
+			{
+				solverTTSizeMB = Integer.parseInt(lineParts[0].substring("solver_tt_size_mb=".length()));
+			}
 			else if (lineParts[0].toLowerCase().startsWith("num_threads="))
 			{
 				numThreads = Integer.parseInt(lineParts[0].substring("num_threads=".length()));
@@ -1571,6 +1576,7 @@ public class MCTS extends ExpertPolicy
 
 		mcts.setTreeReuse(treeReuse);
 		mcts.setUseScoreBounds(useScoreBounds);
+		mcts.setSolverTranspositionTableSizeMB(solverTTSizeMB);
 		mcts.setNumThreads(numThreads);
 		mcts.setLearnedSelectionPolicy(learnedSelectionPolicy);
 		mcts.setHeuristics(heuristics);
@@ -1608,306 +1614,74 @@ public class MCTS extends ExpertPolicy
 	//-------------------------------------------------------------------------
 	
 	/**
-     * Wrapper class for global (MCTS-wide) action statistics
-     * (accumulated scores + visit count)
+     * Computes a primitive key for a move, to be used in tables of move
+     * statistics. Two moves get the same key if they have the same mover and:
+     * 	- are both passes played at the same depth, or
+     * 	- are both swaps played at the same depth, or
+     * 	- have the same from and to positions (in either order for non-oriented
+     * 	moves) and state value.
      * 
-     * @author Dennis Soemers
-     */
-    public static class ActionStatistics
-    {
-    	/** Visit count (not int because we want to be able to decay) */
-    	public double visitCount = 0.0;
-    	
-    	/** Accumulated score */
-    	public double accumulatedScore = 0.0;
-    	
-    	@Override
-    	public String toString()
-    	{
-    		return "[visits = " + visitCount + ", accum. score = " + accumulatedScore + "]";
-    	}
-    }
-    
-    /**
-     * Object to be used as key for a move in hash tables.
+     * Fields are packed into disjoint bit ranges, so keys only collide for
+     * moves with positions or states outside of the ranges we can pack.
      * 
-     * @author Dennis Soemers
+     * @param move
+     * @param depth Depth at which the move was played. Can be 0 if not known.
+     * Only used to distinguish pass/swap moves at different levels of search tree.
+     * @return Key for move
      */
-    public static class MoveKey
+    public static long moveKey(final Move move, final int depth)
     {
-    	/** The full move object */
-    	public final Move move;
+    	final long mover = (move.mover() & 0x1FL) << 56;
+    	
+    	if (move.isPass())
+    		return (2L << 62) | mover | (depth & 0xFFFFFFFFL);
     	
-    	/** Depth at which move was played (only taken into account for passes and swaps) */
-    	public final int moveDepth;
+    	if (move.isSwap())
+    		return (3L << 62) | mover | (depth & 0xFFFFFFFFL);
     	
-    	/** Cached hashCode */
-    	private final int cachedHashCode;
+    	final int to = move.toNonDecision();
+    	final int from = move.fromNonDecision();
+    	final long orientation;
+    	final long first;
+    	final long second;
     	
-    	/**
-    	 * Constructor
-    	 * @param move
-    	 * @param depth Depth at which the move was played. Can be 0 if not known.
-    	 * Only used to distinguish pass/swap moves at different levels of search tree.
-    	 */
-    	public MoveKey(final Move move, final int depth)
+    	if (move.isOrientedMove())
     	{
-    		this.move = move;
-    		this.moveDepth = depth;
-    		final int prime = 31;
-			int result = 1;
-			
-			if (move.isPass())
-			{
-				result = prime * result + depth + 1297;
-			}
-			else if (move.isSwap())
-			{
-				result = prime * result + depth + 587;
-			}
-			else
-			{
-				if (!move.isOrientedMove())
-				{
-					result = prime * result + (move.toNonDecision() + move.fromNonDecision());
-				}
-				else
-				{
-					result = prime * result + move.toNonDecision();
-					result = prime * result + move.fromNonDecision();
-				}
-				
-				result = prime * result + move.stateNonDecision();
-			}
-				
-			result = prime * result + move.mover();
-			
-			cachedHashCode = result;
+    		orientation = 1L << 61;
+    		first = to;
+    		second = from;
     	}
-
-		@Override
-		public int hashCode()
-		{
-			return cachedHashCode;
-		}
-
-		@Override
-		public boolean equals(final Object obj)
-		{
-			if (this == obj)
-				return true;
-
-			if (!(obj instanceof MoveKey))
-				return false;
-			
-			final MoveKey other = (MoveKey) obj;
-			if (move == null)
-				return (other.move == null);
-			
-			if (move.mover() != other.move.mover())
-				return false;
-			
-			final boolean movePass = move.isPass();
-			final boolean otherMovePass = other.move.isPass();
-			final boolean moveSwap = move.isSwap();
-			final boolean otherMoveSwap = other.move.isSwap();
-			
-			if (movePass)
-			{
-				return (otherMovePass && moveDepth == other.moveDepth);
-			}
-			else if (moveSwap)
-			{
-				return (otherMoveSwap && moveDepth == other.moveDepth);
-			}
-			else
-			{
-				if (otherMovePass || otherMoveSwap)
-					return false;
-				
-				if (move.isOrientedMove() != other.move.isOrientedMove())
-					return false;
-				
-				if (move.isOrientedMove()) 
-				{
-					if (move.toNonDecision() != other.move.toNonDecision() || move.fromNonDecision() != other.move.fromNonDecision())
-						return false;
-				}
-				else
-				{
-					boolean fine = false;
-					
-					if 
-					(
-						(move.toNonDecision() == other.move.toNonDecision() && move.fromNonDecision() == other.move.fromNonDecision())
-						||
-						(move.toNonDecision() == other.move.fromNonDecision() && move.fromNonDecision() == other.move.toNonDecision())
-					)
-					{
-						fine = true;
-					}
-					
-					if (!fine)
-						return false;
-				}
-				
-				return (move.stateNonDecision() == other.move.stateNonDecision());
-			}
-		}
-		
-		@Override
-		public String toString()
-		{
-			return "[Move = " + move + ", Hash = " + cachedHashCode + "]";
-		}
+    	else
+    	{
+    		// Order of from and to positions doesn't matter for non-oriented moves
+    		orientation = 0L;
+    		first = Math.min(to, from);
+    		second = Math.max(to, from);
+    	}
+    	
+    	return (1L << 62) | orientation | mover 
+    			| (((move.stateNonDecision() + 1L) & 0xFFFFL) << 40)
+    			| (((first + 1L) & 0xFFFFFL) << 20) 
+    			| ((second + 1L) & 0xFFFFFL);
     }
     
     /**
-     * Object to be used as key for an N-gram of moves in hash tables.
+     * Extends the key for an N-gram of moves with one more move (appended
+     * at the end of the N-gram). The key for an N-gram of moves m_1, ..., m_N
+     * played from depth d onwards is obtained by starting with NGRAM_KEY_SEED,
+     * and extending it with moveKey(m_i, d + i - 1) for i = 1, ..., N.
+     * 
+     * Unlike moveKey(), N-gram keys are hashes that may (rarely) collide.
      * 
-     * @author Dennis Soemers
+     * @param nGramKey
+     * @param moveKey
+     * @return Key for extended N-gram
      */
-    public static class NGramMoveKey
+    public static long extendNGramKey(final long nGramKey, final long moveKey)
     {
-    	/** The array of full move object */
-    	public final Move[] moves;
-    	
-    	/** Depth at which move was played (only taken into account for passes and swaps) */
-    	private final int moveDepth;
-    	
-    	/** Cached hashCode */
-    	private final int cachedHashCode;
-    	
-    	/**
-    	 * Constructor
-    	 * @param moves
-    	 * @param depth Depth at which the first move of N-gram was played. Can be 0 if not known.
-    	 * Only used to distinguish pass/swap moves at different levels of search tree.
-    	 */
-    	public NGramMoveKey(final Move[] moves, final int depth)
-    	{
-    		this.moves = moves;
-    		this.moveDepth = depth;
-    		final int prime = 31;
-			int result = 1;
-			
-			for (int i = 0; i < moves.length; ++i)
-			{
-				final Move move = moves[i];
-				if (move.isPass())
-				{
-					result = prime * result + depth + i + 1297;
-				}
-				else if (move.isSwap())
-				{
-					result = prime * result + depth + i + 587;
-				}
-				else
-				{
-					if (!move.isOrientedMove())
-					{
-						result = prime * result + (move.toNonDecision() + move.fromNonDecision());
-					}
-					else
-					{
-						result = prime * result + move.toNonDecision();
-						result = prime * result + move.fromNonDecision();
-					}
-					
-					result = prime * result + move.stateNonDecision();
-				}
-					
-				result = prime * result + move.mover();
-			}
-			
-			cachedHashCode = result;
-    	}
-
-		@Override
-		public int hashCode()
-		{
-			return cachedHashCode;
-		}
-
-		@Override
-		public boolean equals(final Object obj)
-		{
-			if (this == obj)
-				return true;
-
-			if (!(obj instanceof NGramMoveKey))
-				return false;
-			
-			final NGramMoveKey other = (NGramMoveKey) obj;
-			
-			if (moves.length != other.moves.length)
-				return false;
-			
-			for (int i = 0; i < moves.length; ++i)
-			{
-				final Move move = moves[i];
-				final Move otherMove = other.moves[i];
-				
-				if (move.mover() != otherMove.mover())
-					return false;
-				
-				final boolean movePass = move.isPass();
-				final boolean otherMovePass = otherMove.isPass();
-				final boolean moveSwap = move.isSwap();
-				final boolean otherMoveSwap = otherMove.isSwap();
-				
-				if (movePass)
-				{
-					return (otherMovePass && moveDepth == other.moveDepth);
-				}
-				else if (moveSwap)
-				{
-					return (otherMoveSwap && moveDepth == other.moveDepth);
-				}
-				else
-				{
-					if (otherMovePass || otherMoveSwap)
-						return false;
-					
-					if (move.isOrientedMove() != otherMove.isOrientedMove())
-						return false;
-					
-					if (move.isOrientedMove()) 
-					{
-						if (move.toNonDecision() != otherMove.toNonDecision() || move.fromNonDecision() != otherMove.fromNonDecision())
-							return false;
-					}
-					else
-					{
-						boolean fine = false;
-						
-						if 
-						(
-							(move.toNonDecision() == otherMove.toNonDecision() && move.fromNonDecision() == otherMove.fromNonDecision())
-							||
-							(move.toNonDecision() == otherMove.fromNonDecision() && move.fromNonDecision() == otherMove.toNonDecision())
-						)
-						{
-							fine = true;
-						}
-						
-						if (!fine)
-							return false;
-						
-						if (!(move.stateNonDecision() == otherMove.stateNonDecision()))
-							return false;
-					}
-				}
-			}
-				
-			return true;
-		}
-		
-		@Override
-		public String toString()
-		{
-			return "[Moves = " + Arrays.toString(moves) + ", Hash = " + cachedHashCode + "]";
-		}
+    	long h = (nGramKey ^ moveKey) * 0x9E3779B97F4A7C15L;
+    	h ^= h >>> 32;
+    	return h;
     }
 
 }
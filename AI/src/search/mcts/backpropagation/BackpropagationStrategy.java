@@ -1,19 +1,16 @@
 package search.mcts.backpropagation;
 
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
 
 import org.json.JSONObject;
 
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
 import other.context.Context;
 import other.move.Move;
 import search.mcts.MCTS;
-import search.mcts.MCTS.ActionStatistics;
-import search.mcts.MCTS.MoveKey;
-import search.mcts.MCTS.NGramMoveKey;
 import search.mcts.nodes.BaseNode;
-import search.mcts.nodes.BaseNode.NodeStatistics;
+import utils.data_structures.MoveStatisticsTable;
 
 /**
  * Abstract class for implementations of backpropagation in MCTS
@@ -100,7 +97,8 @@ public abstract class BackpropagationStrategy
 		final boolean updateGRAVE = ((backpropFlags & GRAVE_STATS) != 0);
 		final boolean updateGlobalActionStats = ((backpropFlags & GLOBAL_ACTION_STATS) != 0);
 		final boolean updateGlobalNGramActionStats = ((backpropFlags & GLOBAL_NGRAM_ACTION_STATS) != 0);
-		final List<MoveKey> moveKeysAMAF = new ArrayList<MoveKey>();
+		final TLongArrayList moveKeysAMAF = new TLongArrayList();
+		final TIntArrayList moversAMAF = new TIntArrayList();
 		final Iterator<Move> reverseMovesIterator = context.trial().reverseMoveIterator();
 		final int numTrialMoves = context.trial().numMoves();
 		int movesIdxAMAF = numTrialMoves - 1;
@@ -110,7 +108,9 @@ public abstract class BackpropagationStrategy
 			// collect all move keys for playout moves
 			while (movesIdxAMAF >= (numTrialMoves - numPlayoutMoves))
 			{
-				moveKeysAMAF.add(new MoveKey(reverseMovesIterator.next(), movesIdxAMAF));
+				final Move move = reverseMovesIterator.next();
+				moveKeysAMAF.add(MCTS.moveKey(move, movesIdxAMAF));
+				moversAMAF.add(move.mover());
 				--movesIdxAMAF;
 			}
 		}
@@ -123,12 +123,15 @@ public abstract class BackpropagationStrategy
 				
 				if (updateGRAVE)
 				{
-					for (final MoveKey moveKey : moveKeysAMAF)
+					final MoveStatisticsTable graveStats = node.graveStats();
+					for (int i = 0; i < moveKeysAMAF.size(); ++i)
 					{
-						final NodeStatistics graveStats = node.getOrCreateGraveStatsEntry(moveKey);
-						//System.out.println("updating GRAVE stats in " + node + " for move: " + moveKey);
-						graveStats.visitCount += 1;
-						graveStats.accumulatedScore += utilities[context.state().playerToAgent(moveKey.move.mover())];
+						//System.out.println("updating GRAVE stats in " + node + " for move: " + moveKeysAMAF.getQuick(i));
+						graveStats.addSample
+						(
+							moveKeysAMAF.getQuick(i), 
+							utilities[context.state().playerToAgent(moversAMAF.getQuick(i))]
+						);
 	
 						// the below would be sufficient for RAVE, but for GRAVE we also need moves
 						// made by the "incorrect" colour in higher-up nodes
@@ -150,7 +153,9 @@ public abstract class BackpropagationStrategy
 				// we're going up one level, so also one more move to count as AMAF-move
 				if (movesIdxAMAF >= 0)
 				{
-					moveKeysAMAF.add(new MoveKey(reverseMovesIterator.next(), movesIdxAMAF));
+					final Move move = reverseMovesIterator.next();
+					moveKeysAMAF.add(MCTS.moveKey(move, movesIdxAMAF));
+					moversAMAF.add(move.mover());
 					--movesIdxAMAF;
 				}
 			}
@@ -160,7 +165,7 @@ public abstract class BackpropagationStrategy
 		
 		updateGlobalActionStats
 		(
-			mcts, updateGlobalActionStats, updateGlobalNGramActionStats, moveKeysAMAF, context, utilities
+			mcts, updateGlobalActionStats, updateGlobalNGramActionStats, moveKeysAMAF, moversAMAF, context, utilities
 		);
 	}
 	
@@ -175,7 +180,8 @@ public abstract class BackpropagationStrategy
 	 * @param mcts
 	 * @param updateGlobalActionStats
 	 * @param updateGlobalNGramActionStats
-	 * @param moveKeysAMAF
+	 * @param moveKeysAMAF Keys (see MCTS.moveKey()) of moves, in reverse order
+	 * @param moversAMAF Movers of moves, in reverse order
 	 * @param context
 	 * @param utilities
 	 */
@@ -184,7 +190,8 @@ public abstract class BackpropagationStrategy
 		final MCTS mcts,
 		final boolean updateGlobalActionStats,
 		final boolean updateGlobalNGramActionStats,
-		final List<MoveKey> moveKeysAMAF,
+		final TLongArrayList moveKeysAMAF,
+		final TIntArrayList moversAMAF,
 		final Context context,
 		final double[] utilities
 	)
@@ -192,35 +199,33 @@ public abstract class BackpropagationStrategy
 		if (updateGlobalActionStats || updateGlobalNGramActionStats)
 		{
 			// Update global, MCTS-wide action statistics
-			for (final MoveKey moveKey : moveKeysAMAF)
+			final MoveStatisticsTable globalActionStats = mcts.globalActionStats();
+			for (int i = 0; i < moveKeysAMAF.size(); ++i)
 			{
-				final ActionStatistics actionStats = mcts.getOrCreateActionStatsEntry(moveKey);
-				//System.out.println("updating global action stats for move: " + moveKey);
-				actionStats.visitCount += 1.0;
-				actionStats.accumulatedScore += utilities[context.state().playerToAgent(moveKey.move.mover())];
+				//System.out.println("updating global action stats for move: " + moveKeysAMAF.getQuick(i));
+				globalActionStats.addSample
+				(
+					moveKeysAMAF.getQuick(i), 
+					utilities[context.state().playerToAgent(moversAMAF.getQuick(i))]
+				);
 			}
 			
 			if (updateGlobalNGramActionStats)
 			{
 				// Also do N-grams for N > 1
 				// note: list of move keys is stored in reverse order
+				final MoveStatisticsTable globalNGramActionStats = mcts.globalNGramActionStats();
 				for (int startMove = moveKeysAMAF.size() - 1; startMove >= 1; --startMove)
 				{
 					final int maxNGramLength = Math.min(mcts.maxNGramLength(), startMove + 1);
-					final int nGramsDepth = moveKeysAMAF.get(startMove).moveDepth;
-					final int nGramsMover = moveKeysAMAF.get(startMove).move.mover();
+					final int nGramsMover = moversAMAF.getQuick(startMove);
+					long nGramKey = MCTS.extendNGramKey(MCTS.NGRAM_KEY_SEED, moveKeysAMAF.getQuick(startMove));
 					
 					// Start at 2, since the 1-length "n-grams" are already handled in normal action stats table
 					for (int n = 2; n <= maxNGramLength; ++n)
 					{
-						final Move[] nGram = new Move[n];
-						for (int i = 0; i < n; ++i)
-						{
-							nGram[i] = moveKeysAMAF.get(startMove - i).move;
-						}
-						final ActionStatistics nGramStats = mcts.getOrCreateNGramActionStatsEntry(new NGramMoveKey(nGram, nGramsDepth));
-						nGramStats.visitCount += 1.0;
-						nGramStats.accumulatedScore += utilities[context.state().playerToAgent(nGramsMover)];
+						nGramKey = MCTS.extendNGramKey(nGramKey, moveKeysAMAF.getQuick(startMove - n + 1));
+						globalNGramActionStats.addSample(nGramKey, utilities[context.state().playerToAgent(nGramsMover)]);
 					}
 				}
 			}
@@ -2,8 +2,6 @@ package search.mcts.nodes;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -16,10 +14,10 @@ import other.move.Move;
 import other.state.State;
 import policies.softmax.SoftmaxPolicyLinear;
 import search.mcts.MCTS;
-import search.mcts.MCTS.MoveKey;
 import search.mcts.backpropagation.BackpropagationStrategy;
 import training.expert_iteration.ExItExperience;
 import training.expert_iteration.ExItExperience.ExItExperienceState;
+import utils.data_structures.MoveStatisticsTable;
 
 /**
  * Abstract base class for nodes in MCTS search trees.
@@ -58,8 +56,8 @@ public abstract class BaseNode
     /** Value estimates based on heuristic score function, normalised to appropriate range in [-1, 1]. Can be null. */
     protected double[] heuristicValueEstimates;
     
-    /** Table of AMAF stats for GRAVE */
-    protected final Map<MoveKey, NodeStatistics> graveStats;
+    /** Table of AMAF stats for GRAVE (keyed by MCTS.moveKey()) */
+    protected final MoveStatisticsTable graveStats;
     
     /** Lock for MCTS code that modifies/reads node data in ways that should be synchronised */
     protected transient ReentrantLock nodeLock = new ReentrantLock();
@@ -95,7 +93,7 @@ public abstract class BaseNode
 		final int backpropFlags = mcts.backpropFlags();
 		
 		if ((backpropFlags & BackpropagationStrategy.GRAVE_STATS) != 0)
-			graveStats = new ConcurrentHashMap<MoveKey, NodeStatistics>();
+			graveStats = new MoveStatisticsTable(1, 8);
 		else
 			graveStats = null;
 	}
@@ -383,40 +381,11 @@ public abstract class BaseNode
 	//-------------------------------------------------------------------------
     
     /**
-     * @param moveKey
-     * @return GRAVE's AMAF stats for given move key. Creates new entry if it
-     * does not yet exist in this node's table.
+     * @return Table of GRAVE's AMAF stats, keyed by MCTS.moveKey()
      */
-    public NodeStatistics getOrCreateGraveStatsEntry(final MoveKey moveKey)
+    public MoveStatisticsTable graveStats()
     {
-    	NodeStatistics stats = graveStats.get(moveKey);
-    	
-    	if (stats == null)
-    	{
-    		stats = new NodeStatistics();
-    		graveStats.put(moveKey, stats);
-    		//System.out.println("creating entry for " + moveKey + " in " + this);
-    	}
-    	
-    	return stats;
-    }
-    
-    /**
-     * @param moveKey
-     * @return GRAVE's AMAF stats for given move key.
-     */
-    public NodeStatistics graveStats(final MoveKey moveKey)
-    {
-//    	if (!graveStats.containsKey(moveKey))
-//    	{
-//    		System.out.println("will be returning null! Total num keys in this node = " + graveStats.keySet().size());
-//    		for (final MoveKey key : graveStats.keySet())
-//    		{
-//    			System.out.println("key = " + key + ", stats = " + graveStats.get(key));
-//    		}
-//    	}
-    	
-    	return graveStats.get(moveKey);
+    	return graveStats;
     }
     
     //-------------------------------------------------------------------------
@@ -726,28 +695,5 @@ public abstract class BaseNode
     }
     
     //-------------------------------------------------------------------------
-    
-    /**
-     * Wrapper class for statistics we may want to store inside nodes
-     * (accumulated scores + visit count)
-     * 
-     * @author Dennis Soemers
-     */
-    public static class NodeStatistics
-    {
-    	/** Visit count */
-    	public int visitCount = 0;
-    	
-    	/** Accumulated score */
-    	public double accumulatedScore = 0.0;
-    	
-    	@Override
-    	public String toString()
-    	{
-    		return "[visits = " + visitCount + ", accum. score = " + accumulatedScore + "]";
-    	}
-    }
-    
-    //-------------------------------------------------------------------------
 
 }
@@ -4,6 +4,8 @@ import other.RankUtils;
 import other.context.Context;
 import other.move.Move;
 import search.mcts.MCTS;
+import utils.data_structures.transposition_table.LockFreeTranspositionTable;
+import utils.data_structures.transposition_table.TranspositionTable;
 
 /**
  * Node for MCTS tree that tracks pessimistic and optimistic score bounds, for
@@ -29,6 +31,12 @@ public final class ScoreBoundsNode extends DeterministicNode
 	 */
 	private boolean pruned = false;
 	
+	/** Full hash code of our state (only computed if MCTS has a table of proven values) */
+	private final long fullHash;
+	
+	/** Multiplied by agent and XORed into our full hash code for keys in table of proven values */
+	private static final long AGENT_SALT = 0x9E3779B97F4A7C15L;
+	
 	//-------------------------------------------------------------------------
     
     /**
@@ -59,6 +67,10 @@ public final class ScoreBoundsNode extends DeterministicNode
     	final double nextBestScore = RankUtils.rankToUtil(context.computeNextWinRank(), numPlayers);
     	final double[] currentUtils = RankUtils.agentUtilities(context);
     	
+    	final LockFreeTranspositionTable provenTable = mcts.solverTranspositionTable();
+    	fullHash = (provenTable != null) ? context.state().fullHash(context) : 0L;
+    	final boolean[] provenInTable = new boolean[numPlayers + 1];
+    	
     	for (int p = 1; p <= numPlayers; ++p)
     	{
     		if (!context.active(p))		// Have a proven outcome
@@ -68,8 +80,22 @@ public final class ScoreBoundsNode extends DeterministicNode
     		}
     		else
     		{
-    			pessimisticScores[p] = nextWorstScore;
-    			optimisticScores[p] = nextBestScore;
+    			final long data = 
+    					(provenTable != null) ? 
+    					provenTable.retrieve(fullHash ^ (p * AGENT_SALT)) : LockFreeTranspositionTable.NO_DATA;
+    			
+    			if (data != LockFreeTranspositionTable.NO_DATA)
+    			{
+    				// Proven outcome from an earlier search, or a transposition
+    				pessimisticScores[p] = LockFreeTranspositionTable.value(data);
+    				optimisticScores[p] = pessimisticScores[p];
+    				provenInTable[p] = true;
+    			}
+    			else
+    			{
+	    			pessimisticScores[p] = nextWorstScore;
+	    			optimisticScores[p] = nextBestScore;
+    			}
     		}
     	}
     	
@@ -78,7 +104,7 @@ public final class ScoreBoundsNode extends DeterministicNode
     	{
     		for (int p = 1; p <= numPlayers; ++p)
 	    	{
-	    		if (currentUtils[p] != 0.0)
+	    		if (currentUtils[p] != 0.0 || provenInTable[p])
 	    		{
 	    			((ScoreBoundsNode) parent).updatePessBounds(p, pessimisticScores[p], this);
 		    		((ScoreBoundsNode) parent).updateOptBounds(p, optimisticScores[p], this);
@@ -140,6 +166,7 @@ public final class ScoreBoundsNode extends DeterministicNode
     			// The agent for which one of our children has a new pessimistic bound
     			// is the agent to move in this node. Hence, we can update directly
     			pessimisticScores[agent] = pessBound;
+    			storeIfProven(agent);
     			
     			// Mark any children with an optimistic bound less than or equal to our
     			// new pessimistic bound as pruned
@@ -204,6 +231,7 @@ public final class ScoreBoundsNode extends DeterministicNode
     			
     			// We can update
     			pessimisticScores[agent] = minPess;
+    			storeIfProven(agent);
     			if (parent != null)
     				((ScoreBoundsNode) parent).updatePessBounds(agent, minPess, this);
     		}
@@ -266,11 +294,34 @@ public final class ScoreBoundsNode extends DeterministicNode
 			
 			// We can update
 			optimisticScores[agent] = maxOpt;
+			storeIfProven(agent);
 			if (parent != null)
 				((ScoreBoundsNode) parent).updateOptBounds(agent, maxOpt, this);
     	}
     }
     
+    /**
+     * Stores our value for the given agent in MCTS' table of proven values,
+     * if we have a table and the value is proven.
+     * 
+     * @param agent
+     */
+    private void storeIfProven(final int agent)
+    {
+    	if (pessimisticScores[agent] != optimisticScores[agent])
+    		return;
+    	
+    	final LockFreeTranspositionTable provenTable = mcts.solverTranspositionTable();
+    	if (provenTable != null)
+    	{
+    		provenTable.store
+    		(
+    			-1, fullHash ^ (agent * AGENT_SALT), (float) pessimisticScores[agent], 
+    			LockFreeTranspositionTable.MAX_DEPTH, TranspositionTable.EXACT_VALUE
+    		);
+    	}
+    }
+    
     //-------------------------------------------------------------------------
     
     /**
@@ -274,44 +274,72 @@ public class HeuristicSampingPlayout extends AI implements PlayoutStrategy
 		
 		//Context contextCurrent = context;
 		
+		// In games that support it, we evaluate moves by applying and undoing
+		// them in the given context, instead of copying it for every move. The
+		// heuristic scores below use opponents' status before the move, so we
+		// look that up before applying anything.
+		final boolean makeUnmake = game.supportsMakeUnmake();
+		final int[] opponents = opponents(mover, context);
+		final boolean[] opponentActive = new boolean[opponents.length];
+		final boolean[] opponentWinner = new boolean[opponents.length];
+		for (int i = 0; i < opponents.length; ++i)
+		{
+			opponentActive[i] = context.active(opponents[i]);
+			opponentWinner[i] = context.winners().contains(opponents[i]);
+		}
+		
 		for (Move move: moves) 
 		{
-			final Context contextCopy = new Context(context);
-			game.apply(contextCopy, move);
+			final Context childContext = makeUnmake ? context : new Context(context);
+			game.apply(childContext, move);
 			
-			if (contextCopy.trial().status() != null) 
+			if (childContext.trial().status() != null) 
 			{
 				// Check if move is a winner
-				final int winner = contextCopy.state().playerToAgent(contextCopy.trial().status().winner());
+				final int winner = childContext.state().playerToAgent(childContext.trial().status().winner());
 					
 				if (winner == mover)
+				{
+					if (makeUnmake)
+						game.undo(childContext);
 					return new MoveScore(move, WIN_SCORE);  // return winning move immediately
+				}
 					
 				if (winner != 0)
+				{
+					if (makeUnmake)
+						game.undo(childContext);
 					continue;  // skip losing move
+				}
 			}
 			
 			float score = 0;
-			if (continuation && contextCopy.state().mover() == mover)
+			if (continuation && childContext.state().mover() == mover)
 			{
 				//System.out.println("Recursing...");
-				return new MoveScore(move, evaluateMoves(game, contextCopy).score());
+				final float continuationScore = evaluateMoves(game, childContext).score();
+				if (makeUnmake)
+					game.undo(childContext);
+				return new MoveScore(move, continuationScore);
 			}
 			else
 			{
 				score = heuristicValueFunction.computeValue
 						(
-							contextCopy, mover, ABS_HEURISTIC_WEIGHT_THRESHOLD
+							childContext, mover, ABS_HEURISTIC_WEIGHT_THRESHOLD
 						);
-				for (final int opp : opponents(mover, context))
+				for (int i = 0; i < opponents.length; ++i)
 				{
-					if (context.active(opp))
-						score -= heuristicValueFunction.computeValue(contextCopy, opp, ABS_HEURISTIC_WEIGHT_THRESHOLD);
-					else if (context.winners().contains(opp))
+					if (opponentActive[i])
+						score -= heuristicValueFunction.computeValue(childContext, opponents[i], ABS_HEURISTIC_WEIGHT_THRESHOLD);
+					else if (opponentWinner[i])
 						score -= PARANOID_OPP_WIN_SCORE;
 				}
 				score += (float)(ThreadLocalRandom.current().nextInt(1000) / 1000000.0);
 			}
+			
+			if (makeUnmake)
+				game.undo(childContext);
 		
 			if (score > bestScore)
 			{
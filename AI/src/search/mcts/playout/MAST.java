@@ -11,9 +11,8 @@ import other.playout.PlayoutMoveSelector;
 import other.trial.Trial;
 import playout_move_selectors.EpsilonGreedyWrapper;
 import search.mcts.MCTS;
-import search.mcts.MCTS.ActionStatistics;
-import search.mcts.MCTS.MoveKey;
 import search.mcts.backpropagation.BackpropagationStrategy;
+import utils.data_structures.MoveStatisticsTable;
 
 /**
  * Move-Average Sampling Technique (MAST) playout strategy (epsilon-greedy)
@@ -135,15 +134,12 @@ public class MAST implements PlayoutStrategy
 		)
 		{
 			final FVector actionScores = new FVector(maybeLegalMoves.size());
+			final MoveStatisticsTable globalActionStats = mcts.globalActionStats();
+			final int depth = context.trial().numMoves();
 			for (int i = 0; i < maybeLegalMoves.size(); ++i)
 			{
-				final ActionStatistics actionStats = mcts.getOrCreateActionStatsEntry(
-						new MoveKey(maybeLegalMoves.get(i), context.trial().numMoves()));
-				
-				if (actionStats.visitCount > 0.0)
-					actionScores.set(i, (float) (actionStats.accumulatedScore / actionStats.visitCount));
-				else
-					actionScores.set(i, 1.f);
+				final long moveKey = MCTS.moveKey(maybeLegalMoves.get(i), depth);
+				actionScores.set(i, (float) globalActionStats.meanScore(moveKey, 1.0));
 			}
 			
 			int numLegalMoves = maybeLegalMoves.size();
@@ -1,8 +1,6 @@
 package search.mcts.playout;
 
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
 
 import game.Game;
@@ -14,10 +12,8 @@ import other.playout.PlayoutMoveSelector;
 import other.trial.Trial;
 import playout_move_selectors.EpsilonGreedyWrapper;
 import search.mcts.MCTS;
-import search.mcts.MCTS.ActionStatistics;
-import search.mcts.MCTS.MoveKey;
-import search.mcts.MCTS.NGramMoveKey;
 import search.mcts.backpropagation.BackpropagationStrategy;
+import utils.data_structures.MoveStatisticsTable;
 
 /**
  * N-gram Selection Technique playouts
@@ -140,6 +136,17 @@ public class NST implements PlayoutStrategy
 		{
 			final FVector actionScores = new FVector(maybeLegalMoves.size());
 			final int maxNGramLength = Math.min(mcts.maxNGramLength(), context.trial().numberRealMoves() + 1);
+			final MoveStatisticsTable globalActionStats = mcts.globalActionStats();
+			final MoveStatisticsTable globalNGramActionStats = mcts.globalNGramActionStats();
+			final int depth = context.trial().numMoves();
+			
+			// Keys of the most recent moves in trial (reverse order, index 0 unused)
+			final long[] reversePrevMoveKeys = new long[maxNGramLength];
+			final Iterator<Move> reverseTrialIterator = context.trial().reverseMoveIterator();
+			for (int k = 1; k < maxNGramLength; ++k)
+			{
+				reversePrevMoveKeys[k] = MCTS.moveKey(reverseTrialIterator.next(), depth - k);
+			}
 			
 			for (int i = 0; i < maybeLegalMoves.size(); ++i)
 			{
@@ -147,45 +154,29 @@ public class NST implements PlayoutStrategy
 				float scoresSum = 0.f;
 				
 				// Start with "N-grams" for N = 1
-				final ActionStatistics actionStats = mcts.getOrCreateActionStatsEntry(
-						new MoveKey(maybeLegalMoves.get(i), context.trial().numMoves()));
+				final long moveKey = MCTS.moveKey(maybeLegalMoves.get(i), depth);
 				
 				++numNGramsConsidered;
-				if (actionStats.visitCount > 0.0)
-					scoresSum += (float) (actionStats.accumulatedScore / actionStats.visitCount);
-				else
-					scoresSum += 1.f;
+				scoresSum += (float) globalActionStats.meanScore(moveKey, 1.0);
 				
 				// Now N-grams for N > 1
-				final List<Move> reverseActionSequence = new ArrayList<Move>();
-				reverseActionSequence.add(maybeLegalMoves.get(i));
-				final Iterator<Move> reverseTrialIterator = context.trial().reverseMoveIterator();
-
 				for (int n = 2; n <= maxNGramLength; ++n)
 				{
-					reverseActionSequence.add(reverseTrialIterator.next());
-					final Move[] nGram = new Move[n];
-					
-					for (int j = 0; j < n; ++j)
+					// Key for N-gram consisting of (N - 1) most recent moves followed by our move
+					long nGramKey = MCTS.NGRAM_KEY_SEED;
+					for (int k = n - 1; k >= 1; --k)
 					{
-						nGram[j] = reverseActionSequence.get(n - j - 1);
+						nGramKey = MCTS.extendNGramKey(nGramKey, reversePrevMoveKeys[k]);
 					}
+					nGramKey = MCTS.extendNGramKey(nGramKey, moveKey);
 					
-					final ActionStatistics nGramStats = 
-							mcts.getNGramActionStatsEntry
-							(
-								new NGramMoveKey
-								(
-									nGram, 
-									context.trial().numberRealMoves() - n + 1
-								)
-							);
+					final double nGramScore = globalNGramActionStats.meanScore(nGramKey, Double.NaN);
 					
-					if (nGramStats == null)
+					if (Double.isNaN(nGramScore))
 						break;
 					
 					++numNGramsConsidered;
-					scoresSum += (float) (nGramStats.accumulatedScore / nGramStats.visitCount);
+					scoresSum += (float) nGramScore;
 				}
 				
 				actionScores.set(i, scoresSum / numNGramsConsidered);
@@ -5,10 +5,9 @@ import java.util.concurrent.ThreadLocalRandom;
 import other.move.Move;
 import other.state.State;
 import search.mcts.MCTS;
-import search.mcts.MCTS.MoveKey;
 import search.mcts.backpropagation.BackpropagationStrategy;
 import search.mcts.nodes.BaseNode;
-import search.mcts.nodes.BaseNode.NodeStatistics;
+import utils.data_structures.MoveStatisticsTable;
 
 /**
  * TODO
@@ -78,18 +77,14 @@ public class McBRAVE implements SelectionStrategy
         		
         		int accumVisits = 0;
         		double accumScore = 0.0;
-        		final MoveKey moveKey = new MoveKey(move, current.contextRef().trial().numMoves());
+        		final long moveKey = MCTS.moveKey(move, current.contextRef().trial().numMoves());
         		
         		BaseNode raveNode = current;
         		while (raveNode != null)
         		{
-        			final NodeStatistics graveStats = raveNode.graveStats(moveKey);
-        			
-        			if (graveStats != null)
-        			{
-        				accumScore += graveStats.accumulatedScore;
-        				accumVisits += graveStats.visitCount;
-        			}
+        			final MoveStatisticsTable graveStats = raveNode.graveStats();
+        			accumScore += graveStats.accumulatedScore(moveKey);
+        			accumVisits += (int) graveStats.visitCount(moveKey);
         			
         			raveNode = raveNode.parent();
         		}
@@ -5,10 +5,9 @@ import java.util.concurrent.ThreadLocalRandom;
 import other.move.Move;
 import other.state.State;
 import search.mcts.MCTS;
-import search.mcts.MCTS.MoveKey;
 import search.mcts.backpropagation.BackpropagationStrategy;
 import search.mcts.nodes.BaseNode;
-import search.mcts.nodes.BaseNode.NodeStatistics;
+import utils.data_structures.MoveStatisticsTable;
 
 /**
  * A Monte-Carlo variant of Generalized Rapid Action Value Estimation (GRAVE).
@@ -97,7 +96,9 @@ public class McGRAVE implements SelectionStrategy
         	{
         		meanScore = child.exploitationScore(moverAgent);
         		final Move move = child.parentMove();
-        		final NodeStatistics graveStats = currentRefNode.get().graveStats(new MoveKey(move, current.contextRef().trial().numMoves()));
+        		final MoveStatisticsTable graveStats = currentRefNode.get().graveStats();
+        		final long moveKey = MCTS.moveKey(move, current.contextRef().trial().numMoves());
+        		final int graveVisits = (int) graveStats.visitCount(moveKey);
 //        		if (graveStats == null)
 //        		{
 //        			System.out.println("currentRefNode = " + currentRefNode.get());
@@ -108,7 +109,7 @@ public class McGRAVE implements SelectionStrategy
 //        			System.out.println("current context legal moves = " + current.contextRef().activeGame().moves(current.contextRef()));
 //        		}
         		
-        		if (graveStats == null)
+        		if (graveVisits == 0)
         		{
         			// In single-threaded MCTS this should always be a bug, 
         			// but in multi-threaded MCTS it can happen
@@ -117,8 +118,7 @@ public class McGRAVE implements SelectionStrategy
         		}
         		else
         		{
-        			final double graveScore = graveStats.accumulatedScore;
-	        		final int graveVisits = graveStats.visitCount;
+        			final double graveScore = graveStats.accumulatedScore(moveKey);
 	        		final int childVisits = child.numVisits() + child.numVirtualVisits();
 	        		meanAMAF = graveScore / graveVisits;
 	        		beta = graveVisits / (graveVisits + childVisits + bias * graveVisits * childVisits);
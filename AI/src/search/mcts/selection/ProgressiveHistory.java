@@ -5,8 +5,6 @@ import java.util.concurrent.ThreadLocalRandom;
 import other.move.Move;
 import other.state.State;
 import search.mcts.MCTS;
-import search.mcts.MCTS.ActionStatistics;
-import search.mcts.MCTS.MoveKey;
 import search.mcts.backpropagation.BackpropagationStrategy;
 import search.mcts.nodes.BaseNode;
 
@@ -75,11 +73,12 @@ public class ProgressiveHistory implements SelectionStrategy
         	final int childNumVisits = child == null ? 0 : child.numVisits() + child.numVirtualVisits();
 
         	final Move move = current.nthLegalMove(i);
-        	final ActionStatistics actionStats = mcts.getOrCreateActionStatsEntry(new MoveKey(move, current.contextRef().trial().numMoves()));
-        	if (actionStats.visitCount == 0)
-        		meanGlobalActionScore = unvisitedValueEstimate;
-        	else
-        		meanGlobalActionScore = actionStats.accumulatedScore / actionStats.visitCount;
+        	meanGlobalActionScore = 
+        			mcts.globalActionStats().meanScore
+        			(
+        				MCTS.moveKey(move, current.contextRef().trial().numMoves()), 
+        				unvisitedValueEstimate
+        			);
 
         	if (child == null)
         	{
@@ -5,10 +5,9 @@ import java.util.concurrent.ThreadLocalRandom;
 import other.move.Move;
 import other.state.State;
 import search.mcts.MCTS;
-import search.mcts.MCTS.MoveKey;
 import search.mcts.backpropagation.BackpropagationStrategy;
 import search.mcts.nodes.BaseNode;
-import search.mcts.nodes.BaseNode.NodeStatistics;
+import utils.data_structures.MoveStatisticsTable;
 
 /**
  * A UCB1 variant of Generalized Rapid Action Value Estimation (GRAVE).
@@ -106,7 +105,8 @@ public class UCB1GRAVE implements SelectionStrategy
         	{
         		meanScore = child.exploitationScore(moverAgent);
         		final Move move = child.parentMove();
-        		final NodeStatistics graveStats = currentRefNode.get().graveStats(new MoveKey(move, current.contextRef().trial().numMoves()));
+        		final MoveStatisticsTable graveStats = currentRefNode.get().graveStats();
+        		final long moveKey = MCTS.moveKey(move, current.contextRef().trial().numMoves());
 //        		if (graveStats == null)
 //        		{
 //        			System.out.println("currentRefNode = " + currentRefNode.get());
@@ -116,8 +116,8 @@ public class UCB1GRAVE implements SelectionStrategy
 //        			System.out.println("current legal actions = " + Arrays.toString(((Node) current).legalActions()));
 //        			System.out.println("current context legal moves = " + current.contextRef().activeGame().moves(current.contextRef()));
 //        		}
-        		final double graveScore = graveStats.accumulatedScore;
-        		final int graveVisits = graveStats.visitCount;
+        		final double graveScore = graveStats.accumulatedScore(moveKey);
+        		final int graveVisits = (int) graveStats.visitCount(moveKey);
         		final int childVisits = child.numVisits() + child.numVirtualVisits();
         		meanAMAF = graveScore / graveVisits;
         		beta = graveVisits / (graveVisits + childVisits + bias * graveVisits * childVisits);
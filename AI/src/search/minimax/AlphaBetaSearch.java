@@ -6,9 +6,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import game.Game;
+import main.DaemonThreadFactory;
 import main.FileHandling;
 import main.collections.FVector;
 import main.collections.FastArrayList;
@@ -25,6 +31,7 @@ import other.trial.Trial;
 import training.expert_iteration.ExItExperience;
 import training.expert_iteration.ExItExperience.ExItExperienceState;
 import training.expert_iteration.ExpertPolicy;
+import utils.data_structures.transposition_table.LockFreeTranspositionTable;
 import utils.data_structures.transposition_table.TranspositionTable;
 import utils.data_structures.transposition_table.TranspositionTable.ABTTData;
 
@@ -36,6 +43,11 @@ import utils.data_structures.transposition_table.TranspositionTable.ABTTData;
  * For games with > 2 players, we use Paranoid search (i.e. all other players
  * just try to minimise the score for the maximising player).
  * 
+ * When using more than one thread, we use Lazy SMP: helper threads run the
+ * same iterative deepening search (with staggered depths and different move 
+ * orderings), all sharing a single lock-free transposition table. Only the 
+ * result of the main thread's search is used.
+ * 
  * @author Dennis Soemers
  */
 public class AlphaBetaSearch extends ExpertPolicy
@@ -73,6 +85,16 @@ public class AlphaBetaSearch extends ExpertPolicy
 	/** We skip computing heuristics with absolute weight value lower than this */
 	public static final float ABS_HEURISTIC_WEIGHT_THRESHOLD = 0.001f;
 	
+	/** Size (in MB) of compact transposition table if we need one (i.e. for Lazy SMP) but no size was specified */
+	public static final int DEFAULT_COMPACT_TT_SIZE_MB = 32;
+	
+	/** 
+	 * Multiplied by maximising player and XORed into hash codes for keys of Transposition
+	 * Tables. The compact table is kept across searches, and the values we store in it
+	 * are from the maximising player's perspective.
+	 */
+	protected static final long TRANSPOSITION_TABLE_PLAYER_SALT = 0x9E3779B97F4A7C15L;
+	
 	//-------------------------------------------------------------------------
 	
 	/** Our heuristic value function estimator */
@@ -134,6 +156,45 @@ public class AlphaBetaSearch extends ExpertPolicy
 	
 	/** Do we allow any search depth, or only odd, or only even? */
 	protected AllowedSearchDepths allowedSearchDepths = AllowedSearchDepths.Any;
+	
+	/** Number of threads to use (> 1 means we use Lazy SMP) */
+	protected int numThreads = 1;
+	
+	/** 
+	 * Compact Transposition Table, kept across searches, and shared by all threads 
+	 * in Lazy SMP (null if we're using the standard Transposition Table, or none at all)
+	 */
+	protected LockFreeTranspositionTable compactTranspositionTable = null;
+	
+	/** 
+	 * Size (in MB) of our compact Transposition Table. If <= 0, we only use a
+	 * compact Transposition Table if we need one for Lazy SMP (with default size).
+	 */
+	protected int transpositionTableSizeMB = 0;
+	
+	/** Helper searchers for Lazy SMP (null if we're not using Lazy SMP) */
+	protected AlphaBetaSearch[] helpers = null;
+	
+	/** Thread pool in which we run our helpers for Lazy SMP */
+	private ExecutorService threadPool = null;
+	
+	/** True if we are a helper in Lazy SMP (in which case we use slightly different move orderings) */
+	protected boolean isHelper = false;
+	
+	/** Number of nodes visited by alpha-beta during the last search */
+	protected long numNodesSearched = 0L;
+	
+	/** Deepest search depth that was completed during last search */
+	protected int lastCompletedSearchDepth = 0;
+	
+	/** 
+	 * Do we allow searching by applying and undoing moves on a single context,
+	 * instead of copying contexts, in games that support it?
+	 */
+	protected boolean allowMakeUnmake = true;
+	
+	/** Are we searching by applying and undoing moves on a single context? */
+	protected boolean useMakeUnmake = false;
 
 	//-------------------------------------------------------------------------
 	
@@ -214,9 +275,15 @@ public class AlphaBetaSearch extends ExpertPolicy
 		final int depthLimit = maxDepth > 0 ? maxDepth : Integer.MAX_VALUE;
 		lastSearchedRootContext = context;
 		
+		// With make/unmake we apply and undo moves on a private copy, never on the caller's context
+		final Context searchContext = useMakeUnmake ? copyContext(context) : context;
+		
 		if (transpositionTable != null)
 			transpositionTable.allocate();
 		
+		if (compactTranspositionTable != null && !isHelper)
+			compactTranspositionTable.newSearch();
+		
 		final int initDepth = allowedSearchDepths == AllowedSearchDepths.Even ? 2 : 1;
 		
 		if (maxSeconds > 0)
@@ -225,7 +292,7 @@ public class AlphaBetaSearch extends ExpertPolicy
 			final long stopTime = startTime + (long) (maxSeconds * 1000);
 			
 			// First do normal iterative deepening alphabeta (paranoid if > 2 players)
-			lastReturnedMove = iterativeDeepening(game, context, maxSeconds, depthLimit, initDepth);
+			lastReturnedMove = lazySMP(game, searchContext, maxSeconds, depthLimit, initDepth);
 			
 			final long currentTime = System.currentTimeMillis();
 			
@@ -245,7 +312,7 @@ public class AlphaBetaSearch extends ExpertPolicy
 				// Otherwise, we assume a loss was proven under paranoid assumption.
 				// This can lead to poor play in end-games (or extremely simple games) due
 				// to unrealistic paranoid assumption, so now we switch to Max^N and run again
-				lastReturnedMove = iterativeDeepeningMaxN(game, context, (stopTime - currentTime) / 1000.0, depthLimit, initDepth);
+				lastReturnedMove = iterativeDeepeningMaxN(game, searchContext, (stopTime - currentTime) / 1000.0, depthLimit, initDepth);
 			}
 			
 			if (transpositionTable != null)
@@ -256,7 +323,7 @@ public class AlphaBetaSearch extends ExpertPolicy
 		else
 		{
 			// We'll just do iterative deepening with the depth limit as starting depth
-			lastReturnedMove = iterativeDeepening(game, context, maxSeconds, depthLimit, depthLimit);
+			lastReturnedMove = lazySMP(game, searchContext, maxSeconds, depthLimit, depthLimit);
 			if (transpositionTable != null)
 				transpositionTable.deallocate();
 			return lastReturnedMove;
@@ -265,6 +332,136 @@ public class AlphaBetaSearch extends ExpertPolicy
 	
 	//-------------------------------------------------------------------------
 	
+	/**
+	 * Runs iterative deepening alpha-beta in our own thread, and (if we have 
+	 * any helpers) Lazy SMP helper searches in our thread pool. The helpers 
+	 * only serve to fill up the shared transposition table; we always return 
+	 * the move found by our own search. If any helper throws an exception, we
+	 * rethrow the first one after all helpers have stopped.
+	 * 
+	 * @param game
+	 * @param context
+	 * @param maxSeconds
+	 * @param maxDepth
+	 * @param startDepth
+	 * @return Move to play
+	 */
+	protected Move lazySMP
+	(
+		final Game game, 
+		final Context context, 
+		final double maxSeconds, 
+		final int maxDepth,
+		final int startDepth
+	)
+	{
+		if (helpers == null)
+			return iterativeDeepening(game, context, maxSeconds, maxDepth, startDepth);
+		
+		final long startTime = System.currentTimeMillis();
+		final int searchDepthIncrement = allowedSearchDepths == AllowedSearchDepths.Any ? 1 : 2;
+		final CountDownLatch latch = new CountDownLatch(helpers.length);
+		final AtomicReference<RuntimeException> helperException = new AtomicReference<RuntimeException>();
+		
+		for (int i = 0; i < helpers.length; ++i)
+		{
+			final AlphaBetaSearch helper = helpers[i];
+			
+			// Half of our helpers start one (allowed) depth deeper than the main thread
+			final int helperStartDepth = 
+					(maxSeconds > 0.0 && i % 2 == 0) ? 
+					Math.min(startDepth + searchDepthIncrement, maxDepth) : startDepth;
+			
+			helper.setWantsInterrupt(false);
+			final Context helperContext = copyContext(context);
+			
+			threadPool.submit
+			(
+				() -> 
+				{
+					try
+					{
+						helper.iterativeDeepening(game, helperContext, maxSeconds, maxDepth, helperStartDepth);
+					}
+					catch (final RuntimeException e)
+					{
+						helperException.compareAndSet(null, e);
+						
+						// No point in letting the other helpers continue; we'll throw once all stopped
+						for (final AlphaBetaSearch otherHelper : helpers)
+						{
+							otherHelper.setWantsInterrupt(true);
+						}
+					}
+					finally
+					{
+						latch.countDown();
+					}
+				}
+			);
+		}
+		
+		final Move move;
+		try
+		{
+			move = iterativeDeepening(game, context, maxSeconds, maxDepth, startDepth);
+		}
+		finally
+		{
+			// Our own search is done, so helpers can stop too. We have to wait until they
+			// have really stopped, because the next search re-uses the same helpers and table
+			for (final AlphaBetaSearch helper : helpers)
+			{
+				helper.setWantsInterrupt(true);
+			}
+			
+			boolean interrupted = false;
+			while (true)
+			{
+				try
+				{
+					latch.await();
+					break;
+				}
+				catch (final InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+			
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+		
+		// Don't silently continue with fewer helpers than we were asked to use
+		if (helperException.get() != null)
+			throw helperException.get();
+		
+		final StringBuilder sb = new StringBuilder(threadStatsString(0, startTime));
+		for (int i = 0; i < helpers.length; ++i)
+		{
+			sb.append(helpers[i].threadStatsString(i + 1, startTime));
+		}
+		analysisReport += sb.toString();
+		
+		return move;
+	}
+	
+	/**
+	 * @param threadIdx
+	 * @param startTime
+	 * @return String describing depth reached and nodes per second of our last search
+	 */
+	protected String threadStatsString(final int threadIdx, final long startTime)
+	{
+		final double seconds = Math.max(System.currentTimeMillis() - startTime, 1L) / 1000.0;
+		return 
+			" [thread " + threadIdx + ": depth " + lastCompletedSearchDepth + 
+			", " + (long) (numNodesSearched / seconds) + " nodes/s]";
+	}
+	
+	//-------------------------------------------------------------------------
+	
 	/**
 	 * Runs iterative deepening alpha-beta
 	 * @param game
@@ -286,6 +483,9 @@ public class AlphaBetaSearch extends ExpertPolicy
 		final long startTime = System.currentTimeMillis();
 		long stopTime = (maxSeconds > 0.0) ? startTime + (long) (maxSeconds * 1000) : Long.MAX_VALUE;
 		
+		numNodesSearched = 0L;
+		lastCompletedSearchDepth = 0;
+		
 		final int numPlayers = game.players().count();
 		currentRootMoves = new FastArrayList<Move>(game.moves(context).moves());
 		
@@ -349,11 +549,20 @@ public class AlphaBetaSearch extends ExpertPolicy
 
 			for (int i = 0; i < numRootMoves; ++i)
 			{
-				final Context copyContext = copyContext(context);
+				final Context childContext = useMakeUnmake ? context : copyContext(context);
 				final Move m = sortedRootMoves.get(i);
-				game.apply(copyContext, m);
+				game.apply(childContext, m);
 				
-				final float value = alphaBeta(copyContext, searchDepth - 1, alpha, beta, maximisingPlayer, stopTime);
+				final float value;
+				try
+				{
+					value = alphaBeta(childContext, searchDepth - 1, alpha, beta, maximisingPlayer, stopTime);
+				}
+				finally
+				{
+					if (useMakeUnmake)
+						game.undo(childContext);
+				}
 				
 				if (System.currentTimeMillis() >= stopTime || wantsInterrupt)	// time to abort search
 				{
@@ -388,6 +597,7 @@ public class AlphaBetaSearch extends ExpertPolicy
 			if (bestMove != null)		// search was not interrupted
 			{
 				estimatedRootScore = score;
+				lastCompletedSearchDepth = searchDepth;
 				
 				if (score == rootBetaInit)
 				{
@@ -478,8 +688,11 @@ public class AlphaBetaSearch extends ExpertPolicy
 		float alpha = inAlpha;
 		float beta = inBeta;
 		
-		final long zobrist = state.fullHash(context);
+		++numNodesSearched;
+		
+		final long zobrist = state.fullHash(context) ^ (maximisingPlayer * TRANSPOSITION_TABLE_PLAYER_SALT);
 		final ABTTData tableData;
+		long compactTableData = LockFreeTranspositionTable.NO_DATA;
 		if (transpositionTable != null)
 		{
 			tableData = transpositionTable.retrieve(zobrist);
@@ -512,6 +725,42 @@ public class AlphaBetaSearch extends ExpertPolicy
 		else
 		{
 			tableData = null;
+			
+			if (compactTranspositionTable != null)
+			{
+				compactTableData = compactTranspositionTable.retrieve(zobrist);
+				
+				if (compactTableData != LockFreeTranspositionTable.NO_DATA && LockFreeTranspositionTable.depth(compactTableData) >= depth)
+				{
+					// Already searched deep enough for data in compact TT, use results.
+					// Data may come from an earlier search, so we can't be sure that we
+					// are still searching a full tree.
+					final float tableValue = LockFreeTranspositionTable.value(compactTableData);
+					final boolean wasSearchingFullTree = searchedFullTree;
+					searchedFullTree = false;
+					
+					switch (LockFreeTranspositionTable.valueType(compactTableData))
+					{
+					case TranspositionTable.EXACT_VALUE:
+						return tableValue;
+					case TranspositionTable.LOWER_BOUND:
+						alpha = Math.max(alpha, tableValue);
+						break;
+					case TranspositionTable.UPPER_BOUND:
+						beta = Math.min(beta, tableValue);
+						break;
+					default:
+						System.err.println("INVALID TRANSPOSITION TABLE DATA!");
+						break;
+					}
+					
+					if (alpha >= beta)
+						return tableValue;
+					
+					// No cut-off, so we'll search this node ourselves after all
+					searchedFullTree = wasSearchingFullTree;
+				}
+			}
 		}
 		
 		if (trial.over() || !context.active(maximisingPlayer))
@@ -551,7 +800,29 @@ public class AlphaBetaSearch extends ExpertPolicy
 		FastArrayList<Move> legalMoves = game.moves(context).moves();
 		final int numLegalMoves = legalMoves.size();
 		
-		if (tableData != null)
+		// Index of move to search first, and the one to start from after that 
+		// (for helpers in Lazy SMP); we use these instead of a reordered copy
+		// of the list of legal moves when using a compact transposition table
+		int firstMoveIdx = 0;
+		int secondMoveIdx = 0;
+		
+		final int transpositionBestMoveIdx = 
+				(compactTableData == LockFreeTranspositionTable.NO_DATA) ? 
+				-1 : LockFreeTranspositionTable.bestMoveIdx(compactTableData);
+		
+		if (isHelper)
+		{
+			// Helpers use randomised move orderings (except for the best move from TT, if we have one),
+			// also when we don't have a table to share, so that they don't all search identical trees
+			secondMoveIdx = ThreadLocalRandom.current().nextInt(numLegalMoves);
+			firstMoveIdx = (transpositionBestMoveIdx >= 0 && transpositionBestMoveIdx < numLegalMoves) ? transpositionBestMoveIdx : secondMoveIdx;
+		}
+		else if (compactTranspositionTable != null)
+		{
+			if (transpositionBestMoveIdx >= 0 && transpositionBestMoveIdx < numLegalMoves)
+				firstMoveIdx = transpositionBestMoveIdx;
+		}
+		else if (tableData != null)
 		{
 			// Put best move according to Transposition Table first
 			final Move transpositionBestMove = tableData.bestMove;
@@ -583,14 +854,25 @@ public class AlphaBetaSearch extends ExpertPolicy
 		if (mover == maximisingPlayer)
 		{
 			float score = ALPHA_INIT;
+			int bestMoveIdx = firstMoveIdx;
 			
 			for (int i = 0; i < numLegalMoves; ++i)
 			{
-				final Context copyContext = copyContext(context);
-				final Move m = legalMoves.get(i);
-				game.apply(copyContext, m);
+				final Context childContext = useMakeUnmake ? context : copyContext(context);
+				final int moveIdx = nthMoveIdx(i, firstMoveIdx, secondMoveIdx, numLegalMoves);
+				final Move m = legalMoves.get(moveIdx);
+				game.apply(childContext, m);
 				
-				final float value = alphaBeta(copyContext, depth - 1, alpha, beta, maximisingPlayer, stopTime);
+				final float value;
+				try
+				{
+					value = alphaBeta(childContext, depth - 1, alpha, beta, maximisingPlayer, stopTime);
+				}
+				finally
+				{
+					if (useMakeUnmake)
+						game.undo(childContext);
+				}
 
 				if (System.currentTimeMillis() >= stopTime || wantsInterrupt)	// time to abort search
 				{
@@ -600,6 +882,7 @@ public class AlphaBetaSearch extends ExpertPolicy
 				if (value > score)
 				{
 					bestMove = m;
+					bestMoveIdx = moveIdx;
 					score = value;
 				}
 				
@@ -620,20 +903,41 @@ public class AlphaBetaSearch extends ExpertPolicy
 				else							// Found exact value
 					transpositionTable.store(bestMove, zobrist, score, depth, TranspositionTable.EXACT_VALUE);
 			}
+			else if (compactTranspositionTable != null)
+			{
+				// Store data in compact transposition table
+				if (score <= originalAlpha)		// Found upper bound
+					compactTranspositionTable.store(bestMoveIdx, zobrist, score, depth, TranspositionTable.UPPER_BOUND);
+				else if (score >= beta)			// Found lower bound
+					compactTranspositionTable.store(bestMoveIdx, zobrist, score, depth, TranspositionTable.LOWER_BOUND);
+				else							// Found exact value
+					compactTranspositionTable.store(bestMoveIdx, zobrist, score, depth, TranspositionTable.EXACT_VALUE);
+			}
 			
 			return score;
 		}
 		else
 		{
 			float score = BETA_INIT;
+			int bestMoveIdx = firstMoveIdx;
 			
 			for (int i = 0; i < numLegalMoves; ++i)
 			{
-				final Context copyContext = copyContext(context);
-				final Move m = legalMoves.get(i);
-				game.apply(copyContext, m);
+				final Context childContext = useMakeUnmake ? context : copyContext(context);
+				final int moveIdx = nthMoveIdx(i, firstMoveIdx, secondMoveIdx, numLegalMoves);
+				final Move m = legalMoves.get(moveIdx);
+				game.apply(childContext, m);
 				
-				final float value = alphaBeta(copyContext, depth - 1, alpha, beta, maximisingPlayer, stopTime);
+				final float value;
+				try
+				{
+					value = alphaBeta(childContext, depth - 1, alpha, beta, maximisingPlayer, stopTime);
+				}
+				finally
+				{
+					if (useMakeUnmake)
+						game.undo(childContext);
+				}
 				
 				if (System.currentTimeMillis() >= stopTime || wantsInterrupt)	// time to abort search
 				{
@@ -643,6 +947,7 @@ public class AlphaBetaSearch extends ExpertPolicy
 				if (value < score)
 				{
 					bestMove = m;
+					bestMoveIdx = moveIdx;
 					score = value;
 				}
 				
@@ -663,11 +968,54 @@ public class AlphaBetaSearch extends ExpertPolicy
 				else							// Found exact value
 					transpositionTable.store(bestMove, zobrist, score, depth, TranspositionTable.EXACT_VALUE);
 			}
+			else if (compactTranspositionTable != null)
+			{
+				// Store data in compact transposition table
+				if (score <= originalAlpha)		// Found upper bound
+					compactTranspositionTable.store(bestMoveIdx, zobrist, score, depth, TranspositionTable.UPPER_BOUND);
+				else if (score >= beta)			// Found lower bound
+					compactTranspositionTable.store(bestMoveIdx, zobrist, score, depth, TranspositionTable.LOWER_BOUND);
+				else							// Found exact value
+					compactTranspositionTable.store(bestMoveIdx, zobrist, score, depth, TranspositionTable.EXACT_VALUE);
+			}
 			
 			return score;
 		}
 	}
 	
+	/**
+	 * Helper for move ordering in alpha-beta without creating reordered
+	 * copies of lists of legal moves. The move at firstMoveIdx is searched
+	 * first, followed by all other moves in order starting from secondMoveIdx 
+	 * (wrapping around at the end of the list).
+	 * 
+	 * @param n
+	 * @param firstMoveIdx
+	 * @param secondMoveIdx
+	 * @param numLegalMoves
+	 * @return Index of the n'th move to search in the list of legal moves.
+	 */
+	private static int nthMoveIdx
+	(
+		final int n, 
+		final int firstMoveIdx, 
+		final int secondMoveIdx, 
+		final int numLegalMoves
+	)
+	{
+		if (n == 0)
+			return firstMoveIdx;
+		
+		// We skip over firstMoveIdx when we encounter it
+		final int offset = (secondMoveIdx + n - 1) % numLegalMoves;
+		final int firstOffset = (firstMoveIdx - secondMoveIdx + numLegalMoves) % numLegalMoves;
+		
+		if ((n - 1) >= firstOffset)
+			return (offset + 1) % numLegalMoves;
+		
+		return offset;
+	}
+	
 	//-------------------------------------------------------------------------
 	
 	/**
@@ -733,10 +1081,19 @@ public class AlphaBetaSearch extends ExpertPolicy
 			
 			for (int i = 0; i < numRootMoves; ++i)
 			{
-				final Context copyContext = copyContext(context);
+				final Context childContext = useMakeUnmake ? context : copyContext(context);
 				final Move m = sortedRootMoves.get(i);
-				game.apply(copyContext, m);
-				final float[] values = maxN(copyContext, searchDepth - 1, maximisingPlayer, rootAlphaInit, rootBetaInit, numPlayers, stopTime);
+				game.apply(childContext, m);
+				final float[] values;
+				try
+				{
+					values = maxN(childContext, searchDepth - 1, maximisingPlayer, rootAlphaInit, rootBetaInit, numPlayers, stopTime);
+				}
+				finally
+				{
+					if (useMakeUnmake)
+						game.undo(childContext);
+				}
 				
 				if (System.currentTimeMillis() >= stopTime || wantsInterrupt)	// time to abort search
 				{
@@ -932,10 +1289,19 @@ public class AlphaBetaSearch extends ExpertPolicy
 		float maximisingPlayerTieBreaker = BETA_INIT;
 		for (int i = 0; i < numLegalMoves; ++i)
 		{
-			final Context copyContext = copyContext(context);
+			final Context childContext = useMakeUnmake ? context : copyContext(context);
 			final Move m = legalMoves.get(i);
-			game.apply(copyContext, m);
-			final float[] values = maxN(copyContext, depth - 1, maximisingPlayer, alpha, beta, numPlayers, stopTime);
+			game.apply(childContext, m);
+			final float[] values;
+			try
+			{
+				values = maxN(childContext, depth - 1, maximisingPlayer, alpha, beta, numPlayers, stopTime);
+			}
+			finally
+			{
+				if (useMakeUnmake)
+					game.undo(childContext);
+			}
 
 			if (System.currentTimeMillis() >= stopTime || wantsInterrupt)	// time to abort search
 			{
@@ -1048,13 +1414,98 @@ public class AlphaBetaSearch extends ExpertPolicy
 		lastReturnedMove = null;
 		
 		numPlayersInGame = game.players().count();
+		useMakeUnmake = allowMakeUnmake && game.supportsMakeUnmake();
 		
 		if (game.usesNoRepeatPositionalInGame() || game.usesNoRepeatPositionalInTurn())
 			transpositionTable = null;
 		else if (!allowTranspositionTable)
 			transpositionTable = null;
+		else if (numThreads > 1 || transpositionTableSizeMB > 0)
+			transpositionTable = null;		// Will use a compact transposition table instead
 		else
 			transpositionTable = new TranspositionTable(12);
+		
+		if (isHelper)
+			return;		// Our main searcher will set up anything else we need
+		
+		closeHelpers();
+		
+		if 
+		(
+			(numThreads > 1 || transpositionTableSizeMB > 0) 
+			&& 
+			allowTranspositionTable 
+			&& 
+			!(game.usesNoRepeatPositionalInGame() || game.usesNoRepeatPositionalInTurn())
+		)
+		{
+			compactTranspositionTable = 
+					LockFreeTranspositionTable.withSizeMB
+					(
+						transpositionTableSizeMB > 0 ? transpositionTableSizeMB : DEFAULT_COMPACT_TT_SIZE_MB, 
+						LockFreeTranspositionTable.DEFAULT_SLOTS_PER_BUCKET
+					);
+		}
+		
+		if (numThreads > 1 && heuristicValueFunction() != null)
+		{
+			helpers = new AlphaBetaSearch[numThreads - 1];
+			for (int i = 0; i < helpers.length; ++i)
+			{
+				final AlphaBetaSearch helper = new AlphaBetaSearch(Heuristics.copy(heuristicValueFunction()));
+				helper.friendlyName = friendlyName + " (helper " + (i + 1) + ")";
+				helper.isHelper = true;
+				helper.numThreads = numThreads;
+				helper.transpositionTableSizeMB = transpositionTableSizeMB;
+				helper.allowTranspositionTable = allowTranspositionTable;
+				helper.allowedSearchDepths = allowedSearchDepths;
+				helper.allowMakeUnmake = allowMakeUnmake;
+				helper.setWantsCheatRNG(wantsCheatRNG);
+				helper.initAI(game, playerID);
+				helper.compactTranspositionTable = compactTranspositionTable;
+				helpers[i] = helper;
+			}
+			
+			threadPool = Executors.newFixedThreadPool(helpers.length, DaemonThreadFactory.INSTANCE);
+		}
+	}
+	
+	@Override
+	public void closeAI()
+	{
+		closeHelpers();
+	}
+	
+	/**
+	 * Shuts down any Lazy SMP helpers (and the thread pool they run in),
+	 * and releases our compact transposition table
+	 */
+	private void closeHelpers()
+	{
+		if (threadPool != null)
+		{
+			threadPool.shutdownNow();
+			try
+			{
+				threadPool.awaitTermination(200L, TimeUnit.MILLISECONDS);
+			} 
+			catch (final InterruptedException e)
+			{
+				e.printStackTrace();
+			}
+			threadPool = null;
+		}
+		
+		if (helpers != null)
+		{
+			for (final AlphaBetaSearch helper : helpers)
+			{
+				helper.closeAI();
+			}
+			helpers = null;
+		}
+		
+		compactTranspositionTable = null;
 	}
 	
 	@Override
@@ -1219,6 +1670,8 @@ public class AlphaBetaSearch extends ExpertPolicy
 	{
 		String friendlyName = "Alpha-Beta";
 		Heuristics heuristics = null;
+		int numThreads = 1;
+		int ttSizeMB = 0;
 
 		for (final String line : lines)
 		{
@@ -1232,6 +1685,14 @@ public class AlphaBetaSearch extends ExpertPolicy
 			{
 				friendlyName = lineParts[0].substring("friendly_name=".length());
 			}
+			else if (lineParts[0].toLowerCase().startsWith("num_threads="))
+			{
+				numThreads = Integer.parseInt(lineParts[0].substring("num_threads=".length()));
+			}
+			else if (lineParts[0].toLowerCase().startsWith("tt_size_mb="))
+			{
+				ttSizeMB = Integer.parseInt(lineParts[0].substring("tt_size_mb=".length()));
+			}
 		}
 		
 		AlphaBetaSearch alphaBeta = null;
@@ -1243,6 +1704,8 @@ public class AlphaBetaSearch extends ExpertPolicy
 			alphaBeta = new AlphaBetaSearch();
 
 		alphaBeta.friendlyName = friendlyName;
+		alphaBeta.setNumThreads(numThreads);
+		alphaBeta.setTranspositionTableSizeMB(ttSizeMB);
 
 		return alphaBeta;
 	}
@@ -1265,6 +1728,38 @@ public class AlphaBetaSearch extends ExpertPolicy
 		allowedSearchDepths = allowed;
 	}
 	
+	/**
+	 * Set the number of threads to use. With more than one thread, we use
+	 * Lazy SMP (takes effect on the next call to initAI()).
+	 * @param numThreads
+	 */
+	public void setNumThreads(final int numThreads)
+	{
+		this.numThreads = numThreads;
+	}
+	
+	/**
+	 * Set the size (in MB) of the compact transposition table to use. If > 0, we
+	 * use a compact transposition table that is kept (with aging) across searches 
+	 * instead of the standard one (takes effect on the next call to initAI()).
+	 * @param sizeMB
+	 */
+	public void setTranspositionTableSizeMB(final int sizeMB)
+	{
+		transpositionTableSizeMB = sizeMB;
+	}
+	
+	/**
+	 * Sets whether we allow searching by applying and undoing moves on a single
+	 * context, rather than copying contexts, in games that support it (takes 
+	 * effect on the next call to initAI()).
+	 * @param allow
+	 */
+	public void setAllowMakeUnmake(final boolean allow)
+	{
+		allowMakeUnmake = allow;
+	}
+	
 	//-------------------------------------------------------------------------
 	
 }
@@ -82,14 +82,11 @@ public class BiasedUBFM extends UBFM
 		final int mover = state.playerToAgent(state.mover());
 		
 		final List<ScoredIndex> consideredMoveIndices = new ArrayList<ScoredIndex>(numLegalMoves);
+		final FVector actionValues = learnedSelectionPolicy.computeLogits(context, legalMoves);
 		
 		for (int i = 0; i < numLegalMoves; ++i)
 		{
-			final Move m = legalMoves.get(i);
-			
-			final float actionValue = learnedSelectionPolicy.computeLogit(context,m);
-			
-			consideredMoveIndices.add(new ScoredIndex(i,actionValue));
+			consideredMoveIndices.add(new ScoredIndex(i, actionValues.get(i)));
 		}
 		Collections.sort(consideredMoveIndices);
 
@@ -100,19 +97,26 @@ public class BiasedUBFM extends UBFM
 			moveScores.set(i, (mover==maximisingPlayer)? -BETA_INIT+1: BETA_INIT-1);
 		}
 		
+		// In games that support it, we evaluate moves by applying and undoing
+		// them in the given context, instead of copying it for every move
+		final boolean makeUnmake = game.supportsMakeUnmake();
+		
 		for (int k = 0; k < Math.min(nbStateEvaluationsPerNode, numLegalMoves); k++)
 		{
 			final int i = consideredMoveIndices.get(k).index;
 			
 			final Move m = legalMoves.get(i);
-			final Context contextCopy = new TempContext(context);
+			final Context childContext = makeUnmake ? context : new TempContext(context);
 			
-			game.apply(contextCopy, m);
+			game.apply(childContext, m);
 
-			nodeHashes.add(contextCopy.state().fullHash(contextCopy));
-			final float heuristicScore = getContextValue(contextCopy, maximisingPlayer, nodeHashes,depth);
+			nodeHashes.add(childContext.state().fullHash(childContext));
+			final float heuristicScore = getContextValue(childContext, maximisingPlayer, nodeHashes,depth);
 			nodeHashes.removeAt(nodeHashes.size()-1);
 			
+			if (makeUnmake)
+				game.undo(childContext);
+			
 			moveScores.set(i, heuristicScore);
 			
 			if ((System.currentTimeMillis() >= stopTime) || wantsInterrupt)
@@ -125,11 +125,10 @@ public class LazyUBFM extends UBFM
 		final FVector moveScores = new FVector(numLegalMoves);
 		
 		// Computing action scores (stored in moveScores)
+		final FVector actionValues = learnedSelectionPolicy.computeLogits(context, legalMoves);
 		for (int i = 0; i < numLegalMoves; ++i)
 		{
-			final Move m = legalMoves.get(i);
-			
-			final float actionValue = learnedSelectionPolicy.computeLogit(context, m);
+			final float actionValue = actionValues.get(i);
 			
 			actionLogitSum += actionValue;
 			actionLogitComputations += 1;
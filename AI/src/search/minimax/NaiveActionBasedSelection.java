@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
 
 import game.Game;
+import main.collections.FVector;
 import main.collections.FastArrayList;
 import other.AI;
 import other.context.Context;
@@ -64,14 +65,13 @@ public class NaiveActionBasedSelection extends AI
 			final int numRootMoves = currentRootMoves.size();
 			
 			final List<ScoredMove> consideredMoveIndices = new ArrayList<ScoredMove>(numRootMoves);
+			final FVector actionValues = learnedSelectionPolicy.computeLogits(context, currentRootMoves);
 			
 			for (int i=0; i<numRootMoves; ++i)
 			{
 				final Move m = currentRootMoves.get(i);
 				
-				final float actionValue = learnedSelectionPolicy.computeLogit(context,m);
-				
-				consideredMoveIndices.add(new ScoredMove(m, actionValue, 1));
+				consideredMoveIndices.add(new ScoredMove(m, actionValues.get(i), 1));
 			}
 			Collections.sort(consideredMoveIndices);
 			
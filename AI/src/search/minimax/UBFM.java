@@ -29,6 +29,7 @@ import training.expert_iteration.ExItExperience;
 import training.expert_iteration.ExItExperience.ExItExperienceState;
 import training.expert_iteration.ExpertPolicy;
 import utils.data_structures.ScoredMove;
+import utils.data_structures.transposition_table.LockFreeTranspositionTable;
 import utils.data_structures.transposition_table.TranspositionTableUBFM;
 import utils.data_structures.transposition_table.TranspositionTableUBFM.UBFMTTData;
 
@@ -161,6 +162,15 @@ public class UBFM extends ExpertPolicy
 	/** Transposition Table */
 	protected TranspositionTableUBFM transpositionTable = null;
 	
+	/** 
+	 * Compact table in which we cache heuristic evaluations of states, kept (with aging) 
+	 * across turns even if the Transposition Table is reset each turn. Null if not used.
+	 */
+	protected LockFreeTranspositionTable evaluationCache = null;
+	
+	/** Size (in MB) of our evaluation cache (no cache if <= 0) */
+	protected int evaluationCacheSizeMB = 0;
+	
 	//-------------------------------------------------------------------------
 	
 	/** Maximum depth of the analysis performed, for an analysis report */
@@ -175,6 +185,9 @@ public class UBFM extends ExpertPolicy
 	/** numBitsPrimaryCode argument given when a TT is created (to avoid magic numbers in the code)*/
 	protected final int numBitsPrimaryCodeForTT = 12;
 	
+	/** Multiplied by maximising player and XORed into hash codes for keys of evaluation cache */
+	protected static final long EVALUATION_CACHE_PLAYER_SALT = 0x9E3779B97F4A7C15L;
+	
 	//-------------------------------------------------------------------------
 	
 	public StringBuffer searchTreeOutput = new StringBuffer();
@@ -253,6 +266,9 @@ public class UBFM extends ExpertPolicy
 		nbStatesEvaluated = 0;
 		callsOfMinimax = 0;
 		
+		if (evaluationCache != null)
+			evaluationCache.newSearch();
+		
 		lastReturnedMove = BFSSelection(game, context, (maxSeconds >= 0) ? maxSeconds : Double.MAX_VALUE, maxIterations);
 
 		return lastReturnedMove;
@@ -681,17 +697,24 @@ public class UBFM extends ExpertPolicy
 		if (savingSearchTreeDescription)
 			getContextValue(context, maximisingPlayer, nodeHashes, depth-1); //to make sure we recorded the visit of the parent node
 		
+		// In games that support it, we evaluate moves by applying and undoing
+		// them in the given context, instead of copying it for every move
+		final boolean makeUnmake = game.supportsMakeUnmake();
+		
 		for (int i = 0; i < numLegalMoves; ++i)
 		{			
 			final Move m = legalMoves.get(i);
-			final Context contextCopy = new TempContext(context);
+			final Context childContext = makeUnmake ? context : new TempContext(context);
 			
-			game.apply(contextCopy, m);
+			game.apply(childContext, m);
 
-			nodeHashes.add(contextCopy.state().fullHash(contextCopy));
-			final float heuristicScore = getContextValue(contextCopy, maximisingPlayer, nodeHashes, depth);
+			nodeHashes.add(childContext.state().fullHash(childContext));
+			final float heuristicScore = getContextValue(childContext, maximisingPlayer, nodeHashes, depth);
 			nodeHashes.removeAt(nodeHashes.size()-1);
 			
+			if (makeUnmake)
+				game.undo(childContext);
+			
 			moveScores.set(i,heuristicScore);
 
 			// If this process is taking to long we abort the process and give the worst possible score (+-1) to the moves not evaluated:
@@ -751,9 +774,20 @@ public class UBFM extends ExpertPolicy
 			}
 		}
 		
+		// Evaluations in our cache depend on the maximising player, so include that in the key
+		final long cacheKey = zobrist ^ (maximisingPlayer * EVALUATION_CACHE_PLAYER_SALT);
+		final long cachedData = 
+				(valueRetrievedFromMemory || evaluationCache == null) ? 
+				LockFreeTranspositionTable.NO_DATA : evaluationCache.retrieve(cacheKey);
+		
 		// Only compute heuristicScore if we didn't have a score registered in the TT
 		if (!valueRetrievedFromMemory) {
-			if (context.trial().over() || !context.active(maximisingPlayer))
+			if (cachedData != LockFreeTranspositionTable.NO_DATA)
+			{
+				// evaluated this state before (possibly in an earlier turn)
+				heuristicScore = LockFreeTranspositionTable.value(cachedData);
+			}
+			else if (context.trial().over() || !context.active(maximisingPlayer))
 			{
 				// terminal node (at least for maximising player)
 				heuristicScore = (float) RankUtils.agentUtilities(context)[maximisingPlayer] * BETA_INIT;
@@ -777,6 +811,9 @@ public class UBFM extends ExpertPolicy
 			// Every time a state is evaluated, we store the value in the transposition table (worth?)
 			transpositionTable.store(zobrist, heuristicScore, depth, TranspositionTableUBFM.EXACT_VALUE, null);
 			
+			if (evaluationCache != null && cachedData == LockFreeTranspositionTable.NO_DATA)
+				evaluationCache.store(-1, cacheKey, heuristicScore, 0, TranspositionTableUBFM.EXACT_VALUE);
+			
 			// Invert scores if players swapped (to check)
 			if (context.state().playerToAgent(maximisingPlayer) != maximisingPlayer)
 				heuristicScore = -heuristicScore;
@@ -883,6 +920,11 @@ public class UBFM extends ExpertPolicy
 		numPlayersInGame = game.players().count();
 		
 		transpositionTable = new TranspositionTableUBFM(numBitsPrimaryCodeForTT);
+		
+		if (evaluationCacheSizeMB > 0)
+			evaluationCache = LockFreeTranspositionTable.withSizeMB(evaluationCacheSizeMB, LockFreeTranspositionTable.DEFAULT_SLOTS_PER_BUCKET);
+		else
+			evaluationCache = null;
 	}
 	
 	@Override
@@ -1023,6 +1065,16 @@ public class UBFM extends ExpertPolicy
 		return transpositionTable;
 	}
 	
+	/**
+	 * Sets the size (in MB) of a compact cache of heuristic evaluations that we keep across 
+	 * turns (takes effect on the next call to initAI()). No cache is used if size <= 0.
+	 * @param sizeMB
+	 */
+	public void setEvaluationCacheSizeMB(final int sizeMB)
+	{
+		evaluationCacheSizeMB = sizeMB;
+	}
+	
 	/**
 	 * Sets if we want the maximisingPLayer to remain the same regardless of whose turn it is when selectAction is called.
 	 * @parama player
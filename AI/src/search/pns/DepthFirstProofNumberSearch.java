@@ -0,0 +1,727 @@
+package search.pns;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import game.Game;
+import gnu.trove.list.array.TLongArrayList;
+import main.DaemonThreadFactory;
+import main.collections.FastArrayList;
+import other.AI;
+import other.context.Context;
+import other.context.TempContext;
+import other.move.Move;
+import search.pns.PNSNode.PNSNodeValues;
+import search.pns.ProofNumberSearch.ProofGoals;
+import utils.data_structures.transposition_table.ProofNumberTranspositionTable;
+
+/**
+ * Depth-first proof-number search (df-pn), as described in
+ * "Proof-Number Search and Its Variants" (Kishimoto, Winands, Müller and Saito, 2012).
+ *
+ * Unlike our regular ProofNumberSearch, this does not keep an explicit
+ * search tree in memory. Proof and disproof numbers are instead stored in a
+ * transposition table (keyed on full hash codes of states) with a fixed
+ * memory budget, in which entries that required the least amount of work
+ * to compute are replaced first.
+ *
+ * With more than one thread, we run df-pn from the root in every thread,
+ * with all threads sharing the same (lock-free) transposition table. Helper
+ * threads break ties between equally promising children randomly, so that
+ * they tend to explore different parts of the tree and fill the table with
+ * results that the main thread can use.
+ *
+ * NOTE: states that repeat a state on the current search path are treated
+ * as failing to reach the proof goal. Results stored in the table for states
+ * affected by this may be incorrect in games where the same state can be
+ * reached through different paths (the Graph History Interaction problem).
+ *
+ * @author Dennis Soemers
+ */
+public class DepthFirstProofNumberSearch extends AI
+{
+
+	//-------------------------------------------------------------------------
+
+	/** Proof or disproof number we use to represent infinity */
+	protected static final int INF = Integer.MAX_VALUE;
+
+	/**
+	 * Epsilon for the 1 + epsilon trick (Pawlewicz and Lew, 2007): we allow
+	 * the most-proving child to grow up to (1 + epsilon) times the second-best
+	 * child, rather than just 1 more, before switching. This greatly reduces
+	 * the number of re-expansions, which matters most when the table is full.
+	 */
+	protected static final double EPSILON = 0.25;
+
+	/** Size of transposition table we use by default (in megabytes) */
+	public static final int DEFAULT_TT_SIZE_MB = 256;
+
+	//-------------------------------------------------------------------------
+
+	/** Our proof goal */
+	protected final ProofGoals proofGoal;
+
+	/** The player for which we aim to prove either a win or a loss */
+	protected int proofPlayer = -1;
+
+	/** The best possible rank we can get from the root state we're searching for */
+	protected double bestPossibleRank = -1.0;
+
+	/** The worst possible rank we can get from the root state we're searching for */
+	protected double worstPossibleRank = -1.0;
+
+	/** Number of threads we use for search */
+	protected int numThreads = 1;
+
+	/** Maximum amount of memory our transposition table may use (in megabytes) */
+	protected int transpositionTableSizeMB = DEFAULT_TT_SIZE_MB;
+
+	/** Our transposition table (shared by all threads) */
+	protected ProofNumberTranspositionTable transpositionTable = null;
+
+	/** Thread pool for helper threads (null if we only use a single thread) */
+	private ExecutorService threadPool = null;
+
+	/** Time at which all threads should stop searching */
+	private volatile long stopTime = Long.MAX_VALUE;
+
+	/** Set to true when all threads should stop searching */
+	private volatile boolean stopSearch = false;
+
+	/** Proof and disproof numbers of root, if solved by a helper thread (NO_DATA otherwise) */
+	private volatile long helperRootData = ProofNumberTranspositionTable.NO_DATA;
+
+	/** Result of our last search */
+	protected PNSNodeValues lastResult = PNSNodeValues.UNKNOWN;
+
+	/** String to print to Analysis tab of the Ludii app */
+	protected String analysisReport = null;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 */
+	public DepthFirstProofNumberSearch()
+	{
+		this(ProofGoals.PROVE_WIN);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param proofGoal
+	 */
+	public DepthFirstProofNumberSearch(final ProofGoals proofGoal)
+	{
+		friendlyName = "df-pn";
+		this.proofGoal = proofGoal;
+	}
+
+	//-------------------------------------------------------------------------
+
+	@Override
+	public Move selectAction
+	(
+		final Game game,
+		final Context context,
+		final double maxSeconds,
+		final int maxIterations,
+		final int maxDepth
+	)
+	{
+		bestPossibleRank = context.computeNextWinRank();
+		worstPossibleRank = context.computeNextLossRank();
+
+		if (proofPlayer != context.state().mover())
+		{
+			System.err.println("Warning: Current mover = " + context.state().mover() + ", but proof player = " + proofPlayer + "!");
+		}
+
+		final long startTime = System.currentTimeMillis();
+		stopTime = (maxSeconds > 0.0) ? startTime + (long) (maxSeconds * 1000) : Long.MAX_VALUE;
+		stopSearch = false;
+		helperRootData = ProofNumberTranspositionTable.NO_DATA;
+
+		final long rootHash = context.state().fullHash(context);
+		final long maxNodes = (maxIterations > 0) ? maxIterations : Long.MAX_VALUE;
+
+		final Worker mainWorker = new Worker(false, maxNodes);
+		final Worker[] helperWorkers = new Worker[numThreads - 1];
+		final CountDownLatch latch = new CountDownLatch(helperWorkers.length);
+		final AtomicReference<RuntimeException> helperException = new AtomicReference<RuntimeException>();
+
+		for (int i = 0; i < helperWorkers.length; ++i)
+		{
+			final Worker helper = new Worker(true, maxNodes);
+			helperWorkers[i] = helper;
+			final Context helperContext = copyContext(context);
+
+			threadPool.submit
+			(
+				() ->
+				{
+					try
+					{
+						final long data = helper.mid(helperContext, rootHash, INF, INF);
+
+						// Only stop other threads if we actually solved the root; if we
+						// just ran out of nodes, only this helper stops
+						if (isSolved(data))
+						{
+							helperRootData = data;
+							stopSearch = true;
+						}
+					}
+					catch (final RuntimeException e)
+					{
+						// Stop all other threads; we'll rethrow this once they stopped
+						helperException.compareAndSet(null, e);
+						stopSearch = true;
+					}
+					finally
+					{
+						latch.countDown();
+					}
+				}
+			);
+		}
+
+		final long rootData;
+		try
+		{
+			rootData = mainWorker.mid(copyContext(context), rootHash, INF, INF);
+		}
+		finally
+		{
+			stopSearch = true;
+
+			// Helpers stop quickly once stopSearch is set, and we have to wait until
+			// they have really stopped because the next search re-uses the same table
+			boolean interrupted = false;
+			while (true)
+			{
+				try
+				{
+					latch.await();
+					break;
+				}
+				catch (final InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		// Don't silently return a result of a search in which a helper failed
+		if (helperException.get() != null)
+			throw helperException.get();
+
+		// Helpers may have finished the proof before the main thread did
+		long finalRootData = rootData;
+		if (!isSolved(finalRootData) && helperRootData != ProofNumberTranspositionTable.NO_DATA)
+			finalRootData = helperRootData;
+
+		final int rootPn = ProofNumberTranspositionTable.proofNumber(finalRootData);
+		final int rootDn = ProofNumberTranspositionTable.disproofNumber(finalRootData);
+
+		if (rootPn == 0)
+			lastResult = PNSNodeValues.TRUE;
+		else if (rootDn == 0)
+			lastResult = PNSNodeValues.FALSE;
+		else
+			lastResult = PNSNodeValues.UNKNOWN;
+
+		long totalNodes = mainWorker.numNodesSearched;
+		for (final Worker helper : helperWorkers)
+		{
+			totalNodes += helper.numNodesSearched;
+		}
+
+		final String goalString = (proofGoal == ProofGoals.PROVE_WIN) ? "a win" : "a loss";
+		final String resultString;
+		if (lastResult == PNSNodeValues.TRUE)
+			resultString = "Proved " + goalString;
+		else if (lastResult == PNSNodeValues.FALSE)
+			resultString = "Disproved " + goalString;
+		else
+			resultString = "Could not prove or disprove " + goalString;
+
+		final double seconds = Math.max(System.currentTimeMillis() - startTime, 1L) / 1000.0;
+		analysisReport = friendlyName + " (player " + proofPlayer + "): " + resultString +
+				" (" + totalNodes + " nodes in " + String.format("%.2f", Double.valueOf(seconds)) + "s, " +
+				transpositionTable.nbEntries() + "/" + transpositionTable.capacity() + " TT entries).";
+
+		return selectRootMove(context);
+	}
+
+	/**
+	 * Selects a move to play in the root state after completing a search.
+	 * In OR nodes, we pick the child with the lowest proof number; in AND
+	 * nodes, we pick the child with the lowest disproof number.
+	 *
+	 * @param context
+	 * @return Move to play
+	 */
+	private Move selectRootMove(final Context context)
+	{
+		final FastArrayList<Move> legalMoves = context.game().moves(context).moves();
+		final boolean orNode = isOrNode(context.state().mover());
+
+		Move bestMove = null;
+		long bestNumber = Long.MAX_VALUE;
+		int numBestFound = 0;
+
+		for (final Move move : legalMoves)
+		{
+			final Context childContext = new Context(context);
+			childContext.game().apply(childContext, move);
+
+			final long childData;
+			if (childContext.trial().over())
+				childData = terminalData(childContext);
+			else
+				childData = transpositionTable.retrieve(childContext.state().fullHash(childContext));
+
+			final long number;
+			if (childData == ProofNumberTranspositionTable.NO_DATA)
+				number = 1L;
+			else if (orNode)
+				number = ProofNumberTranspositionTable.proofNumber(childData);
+			else
+				number = ProofNumberTranspositionTable.disproofNumber(childData);
+
+			if (number < bestNumber)
+			{
+				bestMove = move;
+				bestNumber = number;
+				numBestFound = 1;
+			}
+			else if (number == bestNumber && ThreadLocalRandom.current().nextInt(++numBestFound) == 0)
+			{
+				bestMove = move;
+			}
+		}
+
+		return bestMove;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param mover
+	 * @return True if a node in which the given player is to move is an OR node
+	 */
+	protected boolean isOrNode(final int mover)
+	{
+		if (mover == proofPlayer)
+			return (proofGoal == ProofGoals.PROVE_WIN);
+		else
+			return (proofGoal != ProofGoals.PROVE_WIN);
+	}
+
+	/**
+	 * @param context Context for a terminal game state
+	 * @return Packed proof and disproof numbers for given terminal state
+	 */
+	protected long terminalData(final Context context)
+	{
+		final double rank = context.trial().ranking()[proofPlayer];
+		final boolean goalReached;
+
+		if (rank == bestPossibleRank)
+			goalReached = (proofGoal == ProofGoals.PROVE_WIN);
+		else if (rank == worstPossibleRank)
+			goalReached = (proofGoal != ProofGoals.PROVE_WIN);
+		else
+			goalReached = false;
+
+		return goalReached ? pack(0, INF) : pack(INF, 0);
+	}
+
+	/**
+	 * @param data Packed proof and disproof numbers
+	 * @return True if given data describes a proven or disproven state
+	 */
+	private static boolean isSolved(final long data)
+	{
+		return
+				(
+					ProofNumberTranspositionTable.proofNumber(data) == 0 ||
+					ProofNumberTranspositionTable.disproofNumber(data) == 0
+				);
+	}
+
+	/**
+	 * @param proofNumber
+	 * @param disproofNumber
+	 * @return Packed data in same format as used by transposition table
+	 */
+	private static long pack(final int proofNumber, final int disproofNumber)
+	{
+		return (((long) proofNumber) << 32) | (disproofNumber & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @param a
+	 * @param b
+	 * @return Sum of a and b, saturated at INF
+	 */
+	private static int saturatedAdd(final int a, final int b)
+	{
+		return (int) Math.min((long) a + b, INF);
+	}
+
+	/**
+	 * @param secondBestNumber Proof (disproof) number of second-best child in OR (AND) node
+	 * @return Proof (disproof) number threshold for best child
+	 */
+	private static int secondBestThreshold(final int secondBestNumber)
+	{
+		if (secondBestNumber == INF)
+			return INF;
+
+		return (int) Math.min(Math.max((long) secondBestNumber + 1L, (long) Math.ceil(secondBestNumber * (1.0 + EPSILON))), INF);
+	}
+
+	/**
+	 * @param threshold Threshold of parent node
+	 * @param parentNumber Number of parent node
+	 * @param childNumber Number of child node
+	 * @return Threshold for child, such that the parent's number reaches its
+	 * 	threshold when the child's number reaches the child threshold
+	 */
+	private static int childThreshold(final int threshold, final int parentNumber, final int childNumber)
+	{
+		if (threshold == INF)
+			return INF;
+
+		return (int) Math.min(Math.max((long) threshold - parentNumber + childNumber, 0L), INF);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Runs df-pn in a single thread. Every thread has its own worker.
+	 *
+	 * @author Dennis Soemers
+	 */
+	private final class Worker
+	{
+
+		/** Hash codes of states on our current search path */
+		private final TLongArrayList pathHashes = new TLongArrayList();
+
+		/** Whether we're a helper thread (which breaks ties randomly) */
+		private final boolean isHelper;
+
+		/** Maximum number of nodes we may search */
+		private final long maxNodes;
+
+		/** Number of nodes searched so far */
+		protected long numNodesSearched = 0L;
+
+		/**
+		 * Constructor
+		 * @param isHelper
+		 * @param maxNodes
+		 */
+		protected Worker(final boolean isHelper, final long maxNodes)
+		{
+			this.isHelper = isHelper;
+			this.maxNodes = maxNodes;
+		}
+
+		/**
+		 * Multiple iterative deepening (MID) procedure of df-pn. Keeps searching
+		 * below the given (non-terminal) state until its proof number reaches
+		 * the proof number threshold, or its disproof number reaches the
+		 * disproof number threshold, or we run out of time.
+		 *
+		 * @param context
+		 * @param fullHash Full hash code of state in context
+		 * @param thpn Proof number threshold
+		 * @param thdn Disproof number threshold
+		 * @return Packed proof and disproof numbers for state
+		 */
+		protected long mid
+		(
+			final Context context,
+			final long fullHash,
+			final int thpn,
+			final int thdn
+		)
+		{
+			final long startNodes = numNodesSearched++;
+			final Game game = context.game();
+			final boolean orNode = isOrNode(context.state().mover());
+
+			final FastArrayList<Move> legalMoves = game.moves(context).moves();
+			final int numChildren = legalMoves.size();
+
+			// Contexts of non-terminal children are temp (copy-on-write) contexts,
+			// which we re-use whenever we descend into the same child again. This
+			// is safe because we never modify our own context while searching.
+			final Context[] childContexts = new Context[numChildren];
+			final long[] childHashes = new long[numChildren];
+			final long[] childFixedData = new long[numChildren];
+
+			// Results returned by the last searches we ran for children, used
+			// whenever their data has been replaced in the transposition table
+			final long[] childLastData = new long[numChildren];
+
+			pathHashes.add(fullHash);
+
+			for (int i = 0; i < numChildren; ++i)
+			{
+				final Context childContext = new TempContext(context);
+				game.apply(childContext, legalMoves.get(i));
+
+				if (childContext.trial().over())
+				{
+					childFixedData[i] = terminalData(childContext);
+				}
+				else
+				{
+					childContexts[i] = childContext;
+					childHashes[i] = childContext.state().fullHash(childContext);
+
+					if (pathHashes.contains(childHashes[i]))
+					{
+						// Repetition of a state on our current path, treat
+						// as a failure to reach our proof goal
+						childFixedData[i] = pack(INF, 0);
+					}
+				}
+			}
+
+			int pn;
+			int dn;
+
+			while (true)
+			{
+				// Compute our proof and disproof numbers from children
+				int minNumber = INF;
+				int secondMinNumber = INF;
+				int sumNumber = 0;
+				int bestChild = -1;
+				int numBestFound = 0;
+				int bestChildPn = INF;
+				int bestChildDn = INF;
+
+				for (int i = 0; i < numChildren; ++i)
+				{
+					long childData = childFixedData[i];
+
+					if (childData == ProofNumberTranspositionTable.NO_DATA)
+					{
+						childData = transpositionTable.retrieve(childHashes[i]);
+
+						if (childData == ProofNumberTranspositionTable.NO_DATA)
+							childData = childLastData[i];
+
+						if (childData == ProofNumberTranspositionTable.NO_DATA)
+							childData = pack(1, 1);
+					}
+
+					final int childPn = ProofNumberTranspositionTable.proofNumber(childData);
+					final int childDn = ProofNumberTranspositionTable.disproofNumber(childData);
+
+					// In OR nodes we minimise proof numbers and sum disproof
+					// numbers, in AND nodes the other way around
+					final int minimised = orNode ? childPn : childDn;
+					final int summed = orNode ? childDn : childPn;
+
+					sumNumber = saturatedAdd(sumNumber, summed);
+
+					if (minimised < minNumber)
+					{
+						secondMinNumber = minNumber;
+						minNumber = minimised;
+						bestChild = i;
+						numBestFound = 1;
+						bestChildPn = childPn;
+						bestChildDn = childDn;
+					}
+					else
+					{
+						if (minimised < secondMinNumber)
+							secondMinNumber = minimised;
+
+						if
+						(
+							minimised == minNumber &&
+							isHelper &&
+							ThreadLocalRandom.current().nextInt(++numBestFound) == 0
+						)
+						{
+							bestChild = i;
+							bestChildPn = childPn;
+							bestChildDn = childDn;
+						}
+					}
+				}
+
+				if (orNode)
+				{
+					pn = minNumber;
+					dn = sumNumber;
+				}
+				else
+				{
+					pn = sumNumber;
+					dn = minNumber;
+				}
+
+				if (pn >= thpn || dn >= thdn)
+					break;
+
+				if
+				(
+					numNodesSearched >= maxNodes ||
+					stopSearch ||
+					wantsInterrupt ||
+					System.currentTimeMillis() >= stopTime
+				)
+				{
+					break;
+				}
+
+				// Compute thresholds for most-proving child
+				final int childThpn;
+				final int childThdn;
+
+				if (orNode)
+				{
+					childThpn = Math.min(thpn, secondBestThreshold(secondMinNumber));
+					childThdn = childThreshold(thdn, dn, bestChildDn);
+				}
+				else
+				{
+					childThpn = childThreshold(thpn, pn, bestChildPn);
+					childThdn = Math.min(thdn, secondBestThreshold(secondMinNumber));
+				}
+
+				childLastData[bestChild] = mid(childContexts[bestChild], childHashes[bestChild], childThpn, childThdn);
+			}
+
+			pathHashes.removeAt(pathHashes.size() - 1);
+			transpositionTable.store(fullHash, pn, dn, numNodesSearched - startNodes);
+			return pack(pn, dn);
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Result of our last search (TRUE if proof goal was proven, FALSE
+	 * 	if it was disproven, UNKNOWN if we could not decide it in time)
+	 */
+	public PNSNodeValues lastResult()
+	{
+		return lastResult;
+	}
+
+	/**
+	 * @return Our proof goal
+	 */
+	public ProofGoals proofGoal()
+	{
+		return proofGoal;
+	}
+
+	/**
+	 * Sets the number of threads to use for search
+	 * @param numThreads
+	 */
+	public void setNumThreads(final int numThreads)
+	{
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Sets the maximum amount of memory our transposition table may use
+	 * @param sizeMB
+	 */
+	public void setTranspositionTableSizeMB(final int sizeMB)
+	{
+		transpositionTableSizeMB = sizeMB;
+	}
+
+	//-------------------------------------------------------------------------
+
+	@Override
+	public void initAI(final Game game, final int playerID)
+	{
+		proofPlayer = playerID;
+		transpositionTable = ProofNumberTranspositionTable.withSizeMB(transpositionTableSizeMB);
+
+		closeThreadPool();
+		if (numThreads > 1)
+			threadPool = Executors.newFixedThreadPool(numThreads - 1, DaemonThreadFactory.INSTANCE);
+	}
+
+	@Override
+	public void closeAI()
+	{
+		closeThreadPool();
+		transpositionTable = null;
+	}
+
+	/**
+	 * Shuts down our thread pool (if we have one)
+	 */
+	private void closeThreadPool()
+	{
+		if (threadPool != null)
+		{
+			threadPool.shutdownNow();
+
+			try
+			{
+				threadPool.awaitTermination(200L, TimeUnit.MILLISECONDS);
+			}
+			catch (final InterruptedException e)
+			{
+				e.printStackTrace();
+			}
+
+			threadPool = null;
+		}
+	}
+
+	@Override
+	public String generateAnalysisReport()
+	{
+		return analysisReport;
+	}
+
+	@Override
+	public boolean supportsGame(final Game game)
+	{
+		if (game.players().count() > 2)
+			return false;
+
+		if (game.isDeductionPuzzle())
+			return false;
+
+		if (game.isStochasticGame())
+			return false;
+
+		if (game.hiddenInformation())
+			return false;
+
+		return game.isAlternatingMoveGame();
+	}
+
+	//-------------------------------------------------------------------------
+
+}
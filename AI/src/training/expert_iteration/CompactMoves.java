@@ -0,0 +1,330 @@
+package training.expert_iteration;
+
+import game.types.board.SiteType;
+import gnu.trove.list.array.TLongArrayList;
+import main.Constants;
+import main.collections.FastArrayList;
+import other.action.Action;
+import other.action.move.ActionAdd;
+import other.action.move.move.ActionMove;
+import other.action.move.move.ActionMoveTopPiece;
+import other.move.Move;
+
+/**
+ * Compact representation of the legal moves in ExIt experience (see
+ * EncodedExItExperience and ExItExperienceWriter), as single longs. Only
+ * simple moves can be encoded: placements of a piece on a site, or movements
+ * of a top piece from one site to another (without any consequents).
+ *
+ * Encoded moves are stored in primitive arrays instead of lists of Move
+ * objects with their own Lists of Action objects, and only materialised into
+ * Move objects when an experience is decoded. A materialised move is equal
+ * (see Move.equals()) to the move it was encoded from, but does not know the
+ * Moves ludeme it was generated by.
+ *
+ * Bit layout (from most to least significant):
+ * 	- 2 bits: kind of move (see KIND_ constants)
+ * 	- 1 bit: decision flag of the action
+ * 	- 2 bits: site type
+ * 	- 5 bits: mover
+ * 	- 10 bits: what (component index, only for placements)
+ * 	- 6 bits: min level
+ * 	- 6 bits: max level
+ * 	- 16 bits: from site
+ * 	- 16 bits: to site
+ *
+ * @author Dennis Soemers
+ */
+final class CompactMoves
+{
+
+	//-------------------------------------------------------------------------
+
+	/** Returned when trying to encode a move that cannot be encoded */
+	public static final long NOT_ENCODABLE = 0L;
+
+	/** Kind of moves that add a single piece to a site */
+	private static final int KIND_ADD = 1;
+
+	/** Kind of moves that move a top piece from one site to another */
+	private static final int KIND_MOVE = 2;
+
+	/** Site types we can encode (index in this array is the code) */
+	private static final SiteType[] SITE_TYPES = new SiteType[]{ null, SiteType.Cell, SiteType.Vertex, SiteType.Edge };
+
+	private static final int KIND_SHIFT = 62;
+	private static final int DECISION_SHIFT = 61;
+	private static final int TYPE_SHIFT = 59;
+	private static final int MOVER_SHIFT = 54;
+	private static final int WHAT_SHIFT = 44;
+	private static final int LEVEL_MIN_SHIFT = 38;
+	private static final int LEVEL_MAX_SHIFT = 32;
+	private static final int FROM_SHIFT = 16;
+
+	private static final int TYPE_MASK = 0x3;
+	private static final int MOVER_MASK = 0x1F;
+	private static final int WHAT_MASK = 0x3FF;
+	private static final int LEVEL_MASK = 0x3F;
+	private static final int SITE_MASK = 0xFFFF;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor (private, should not be instantiated)
+	 */
+	private CompactMoves()
+	{
+		// Do not instantiate
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param move
+	 * @return Compact encoding of the given move, or NOT_ENCODABLE if the
+	 * 	move is not simple enough to be encoded.
+	 */
+	public static long encode(final Move move)
+	{
+		if (!move.then().isEmpty() || move.actions().size() != 1)
+			return NOT_ENCODABLE;
+
+		if (!move.isOrientedMove() || move.stateNonDecision() != Constants.UNDEFINED || !move.betweenNonDecision().isEmpty())
+			return NOT_ENCODABLE;
+
+		final Action action = move.actions().get(0);
+		final int kind;
+		final int what;
+		final SiteType type;
+
+		if (action instanceof ActionAdd)
+		{
+			if (action.isStacking() || action.levelTo() != Constants.GROUND_LEVEL)
+				return NOT_ENCODABLE;
+
+			kind = KIND_ADD;
+			what = action.what();
+			type = action.toType();
+		}
+		else if (action instanceof ActionMoveTopPiece)
+		{
+			if (action.fromType() != action.toType())
+				return NOT_ENCODABLE;
+
+			kind = KIND_MOVE;
+			what = 0;
+			type = action.fromType();
+		}
+		else
+		{
+			return NOT_ENCODABLE;
+		}
+
+		final int typeCode = siteTypeCode(type);
+		final int from = move.fromNonDecision();
+		final int to = move.toNonDecision();
+		final int mover = move.mover();
+		final int levelMin = move.levelMinNonDecision();
+		final int levelMax = move.levelMaxNonDecision();
+
+		if
+		(
+			typeCode < 0
+			||
+			from < 0 || from > SITE_MASK || to < 0 || to > SITE_MASK
+			||
+			mover < 0 || mover > MOVER_MASK || what < 0 || what > WHAT_MASK
+			||
+			levelMin < 0 || levelMin > LEVEL_MASK || levelMax < 0 || levelMax > LEVEL_MASK
+		)
+		{
+			return NOT_ENCODABLE;
+		}
+
+		final long encoded =
+				(((long) kind) << KIND_SHIFT)
+				|
+				((action.isDecision() ? 1L : 0L) << DECISION_SHIFT)
+				|
+				(((long) typeCode) << TYPE_SHIFT)
+				|
+				(((long) mover) << MOVER_SHIFT)
+				|
+				(((long) what) << WHAT_SHIFT)
+				|
+				(((long) levelMin) << LEVEL_MIN_SHIFT)
+				|
+				(((long) levelMax) << LEVEL_MAX_SHIFT)
+				|
+				(((long) from) << FROM_SHIFT)
+				|
+				to;
+
+		// Data we do not encode (state, rotation, value, count of the action,
+		// etc.) must have default values; simplest way to make sure of that
+		// is to check that the move we would decode is equal to the original
+		if (!toMove(encoded).equals(move))
+			return NOT_ENCODABLE;
+
+		return encoded;
+	}
+
+	/**
+	 * Encodes all the given moves.
+	 *
+	 * @param moves
+	 * @param outList List to add encoded moves to
+	 * @return True if all moves could be encoded. If false is returned,
+	 * 	the out list may have been partially filled.
+	 */
+	public static boolean encodeAll(final FastArrayList<Move> moves, final TLongArrayList outList)
+	{
+		outList.ensureCapacity(outList.size() + moves.size());
+
+		for (int i = 0; i < moves.size(); ++i)
+		{
+			final long encoded = encode(moves.get(i));
+			if (encoded == NOT_ENCODABLE)
+				return false;
+
+			outList.add(encoded);
+		}
+
+		return true;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Materialises an encoded move into a new Move object.
+	 *
+	 * @param encoded
+	 * @return Move object
+	 */
+	public static Move toMove(final long encoded)
+	{
+		final SiteType type = SITE_TYPES[(int) (encoded >>> TYPE_SHIFT) & TYPE_MASK];
+		final int from = from(encoded);
+		final int to = to(encoded);
+
+		final Action action;
+		if (kind(encoded) == KIND_ADD)
+		{
+			action = new ActionAdd
+					(
+						type, to, what(encoded), 1, Constants.UNDEFINED,
+						Constants.UNDEFINED, Constants.UNDEFINED, null
+					);
+		}
+		else
+		{
+			action = ActionMove.construct
+					(
+						type, from, Constants.UNDEFINED, type, to, Constants.UNDEFINED,
+						Constants.UNDEFINED, Constants.UNDEFINED, Constants.UNDEFINED, false
+					);
+		}
+
+		action.setDecision(isDecision(encoded));
+
+		final Move move = new Move(action);
+		move.setFromNonDecision(from);
+		move.setToNonDecision(to);
+		move.setLevelMinNonDecision((int) (encoded >>> LEVEL_MIN_SHIFT) & LEVEL_MASK);
+		move.setLevelMaxNonDecision((int) (encoded >>> LEVEL_MAX_SHIFT) & LEVEL_MASK);
+		move.setMover(mover(encoded));
+		return move;
+	}
+
+	/**
+	 * @param encodedMoves
+	 * @return List of materialised moves
+	 */
+	public static FastArrayList<Move> toMoves(final TLongArrayList encodedMoves)
+	{
+		final FastArrayList<Move> moves = new FastArrayList<Move>(encodedMoves.size());
+
+		for (int i = 0; i < encodedMoves.size(); ++i)
+		{
+			moves.add(toMove(encodedMoves.getQuick(i)));
+		}
+
+		return moves;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param encoded
+	 * @return From site of encoded move
+	 */
+	private static int from(final long encoded)
+	{
+		return (int) (encoded >>> FROM_SHIFT) & SITE_MASK;
+	}
+
+	/**
+	 * @param encoded
+	 * @return To site of encoded move
+	 */
+	private static int to(final long encoded)
+	{
+		return (int) encoded & SITE_MASK;
+	}
+
+	/**
+	 * @param encoded
+	 * @return Mover of encoded move
+	 */
+	private static int mover(final long encoded)
+	{
+		return (int) (encoded >>> MOVER_SHIFT) & MOVER_MASK;
+	}
+
+	/**
+	 * @param encoded
+	 * @return Component index of placed piece (0 for non-placement moves)
+	 */
+	private static int what(final long encoded)
+	{
+		return (int) (encoded >>> WHAT_SHIFT) & WHAT_MASK;
+	}
+
+	/**
+	 * @param encoded
+	 * @return Is the encoded move's action a decision?
+	 */
+	private static boolean isDecision(final long encoded)
+	{
+		return ((encoded >>> DECISION_SHIFT) & 1L) != 0L;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param encoded
+	 * @return Kind of encoded move
+	 */
+	private static int kind(final long encoded)
+	{
+		return (int) (encoded >>> KIND_SHIFT);
+	}
+
+	/**
+	 * @param type
+	 * @return Code for given site type, or -1 if we can't encode it
+	 */
+	private static int siteTypeCode(final SiteType type)
+	{
+		for (int i = 1; i < SITE_TYPES.length; ++i)
+		{
+			if (SITE_TYPES[i] == type)
+				return i;
+		}
+
+		return -1;
+	}
+
+	//-------------------------------------------------------------------------
+
+}
@@ -0,0 +1,235 @@
+package training.expert_iteration;
+
+import java.util.BitSet;
+
+import gnu.trove.list.array.TLongArrayList;
+import main.collections.FVector;
+import main.collections.FastArrayList;
+import other.context.Context;
+import other.move.Move;
+import training.expert_iteration.ExItExperience.ExItExperienceState;
+
+/**
+ * Compact encoding of a sample of ExIt experience, as stored in experience
+ * buffers. Instead of a full copy of the game state (and the context it was
+ * generated in), we store a reference to the record of the game in which the
+ * sample was generated and the number of moves played before the sample.
+ * Legal moves are stored as compact longs (see CompactMoves) whenever possible.
+ *
+ * Samples are only decoded back into full ExItExperience objects when they
+ * are sampled from a buffer. Samples that cannot be encoded (because they do
+ * not have a game record, or re-playing the game does not reproduce their
+ * state) are simply wrapped.
+ *
+ * @author Dennis Soemers
+ */
+public final class EncodedExItExperience
+{
+
+	//-------------------------------------------------------------------------
+
+	/** Full sample of experience, if we could not encode it (null otherwise) */
+	final ExItExperience fullExperience;
+
+	/** Record of the game in which this sample was generated */
+	final ExItGameRecord gameRecord;
+
+	/** Number of moves played in the game before this sample */
+	final int numMoves;
+
+	/** Compact encodings of legal moves (null if not all moves could be encoded) */
+	final long[] encodedMoves;
+
+	/** Legal moves (only if they could not be encoded, null otherwise) */
+	final FastArrayList<Move> moves;
+
+	/** Distribution over actions computed by Expert (not adjusted for winning/losing moves) */
+	final FVector expertDistribution;
+
+	/** Value estimates computed by Expert */
+	final FVector expertValueEstimates;
+
+	/** Feature vector for state (heuristic terms), may be null */
+	final FVector stateFeatureVector;
+
+	/** Duration of full episode in which this experience was generated */
+	final int episodeDuration;
+
+	/** Outcomes at the end of the game in which this experience occurred (one per agent), may be null */
+	final double[] playerOutcomes;
+
+	/** Which legal moves are winning moves? */
+	final BitSet winningMoves;
+
+	/** Which legal moves are losing moves? */
+	final BitSet losingMoves;
+
+	/** Which legal moves are anti-defeating moves? */
+	final BitSet antiDefeatingMoves;
+
+	/** Importance sampling weight assigned to this sample based on tree search visit count */
+	final float weightVisitCount;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor for samples that we could not encode
+	 * @param fullExperience
+	 */
+	EncodedExItExperience(final ExItExperience fullExperience)
+	{
+		this.fullExperience = fullExperience;
+		this.gameRecord = null;
+		this.numMoves = -1;
+		this.encodedMoves = null;
+		this.moves = null;
+		this.expertDistribution = null;
+		this.expertValueEstimates = null;
+		this.stateFeatureVector = null;
+		this.episodeDuration = -1;
+		this.playerOutcomes = null;
+		this.winningMoves = null;
+		this.losingMoves = null;
+		this.antiDefeatingMoves = null;
+		this.weightVisitCount = 0.f;
+	}
+
+	/**
+	 * Constructor for encoded samples
+	 * @param gameRecord
+	 * @param numMoves
+	 * @param encodedMoves
+	 * @param moves
+	 * @param expertDistribution
+	 * @param expertValueEstimates
+	 * @param stateFeatureVector
+	 * @param episodeDuration
+	 * @param playerOutcomes
+	 * @param winningMoves
+	 * @param losingMoves
+	 * @param antiDefeatingMoves
+	 * @param weightVisitCount
+	 */
+	EncodedExItExperience
+	(
+		final ExItGameRecord gameRecord,
+		final int numMoves,
+		final long[] encodedMoves,
+		final FastArrayList<Move> moves,
+		final FVector expertDistribution,
+		final FVector expertValueEstimates,
+		final FVector stateFeatureVector,
+		final int episodeDuration,
+		final double[] playerOutcomes,
+		final BitSet winningMoves,
+		final BitSet losingMoves,
+		final BitSet antiDefeatingMoves,
+		final float weightVisitCount
+	)
+	{
+		this.fullExperience = null;
+		this.gameRecord = gameRecord;
+		this.numMoves = numMoves;
+		this.encodedMoves = encodedMoves;
+		this.moves = moves;
+		this.expertDistribution = expertDistribution;
+		this.expertValueEstimates = expertValueEstimates;
+		this.stateFeatureVector = stateFeatureVector;
+		this.episodeDuration = episodeDuration;
+		this.playerOutcomes = playerOutcomes;
+		this.winningMoves = winningMoves;
+		this.losingMoves = losingMoves;
+		this.antiDefeatingMoves = antiDefeatingMoves;
+		this.weightVisitCount = weightVisitCount;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param experience
+	 * @return Encoding of the given sample of experience
+	 */
+	public static EncodedExItExperience encode(final ExItExperience experience)
+	{
+		final ExItGameRecord gameRecord = experience.gameRecord();
+		final Context context = experience.context();
+
+		if (gameRecord == null || context == null)
+			return new EncodedExItExperience(experience);
+
+		final int numMoves = context.trial().numMoves();
+		if (!gameRecord.reproduces(numMoves, experience.state()))
+			return new EncodedExItExperience(experience);
+
+		final TLongArrayList encoded = new TLongArrayList(experience.moves().size());
+		final boolean allEncoded = CompactMoves.encodeAll(experience.moves(), encoded);
+
+		return new EncodedExItExperience
+				(
+					gameRecord,
+					numMoves,
+					allEncoded ? encoded.toArray() : null,
+					allEncoded ? null : experience.moves(),
+					experience.expertDistribution,
+					experience.expertValueEstimates,
+					experience.stateFeatureVector,
+					experience.episodeDuration,
+					experience.playerOutcomes,
+					experience.winningMoves,
+					experience.losingMoves,
+					experience.antiDefeatingMoves,
+					experience.weightVisitCount
+				);
+	}
+
+	/**
+	 * Decodes this sample into a full sample of experience. For encoded samples,
+	 * this re-plays the game in which the sample was generated, and returns a new
+	 * object every time.
+	 *
+	 * @return Decoded sample of experience
+	 */
+	public ExItExperience decode()
+	{
+		if (fullExperience != null)
+			return fullExperience;
+
+		final Context context = gameRecord.replay(numMoves);
+		final FastArrayList<Move> decodedMoves =
+				(encodedMoves != null) ? CompactMoves.toMoves(TLongArrayList.wrap(encodedMoves)) : moves;
+
+		final ExItExperience experience =
+				new ExItExperience
+				(
+					context,
+					new ExItExperienceState(context),
+					decodedMoves,
+					expertDistribution,
+					expertValueEstimates,
+					weightVisitCount
+				);
+
+		experience.setStateFeatureVector(stateFeatureVector);
+		experience.setEpisodeDuration(episodeDuration);
+		experience.setPlayerOutcomes(playerOutcomes);
+		experience.setWinningMoves(winningMoves);
+		experience.setLosingMoves(losingMoves);
+		experience.setAntiDefeatingMoves(antiDefeatingMoves);
+		experience.setGameRecord(gameRecord);
+
+		return experience;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return True if this sample is encoded, false if it just wraps a full sample
+	 */
+	public boolean isEncoded()
+	{
+		return (fullExperience == null);
+	}
+
+	//-------------------------------------------------------------------------
+
+}
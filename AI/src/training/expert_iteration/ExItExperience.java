@@ -74,6 +74,9 @@ public class ExItExperience extends ExperienceSample implements Serializable
 	/** The index in replay buffer from which we sampled this if using PER */
 	protected int bufferIdx = -1;
 	
+	/** Record of the game in which this experience was generated (transient, not serialised) */
+	protected transient ExItGameRecord gameRecord = null;
+	
 	//-------------------------------------------------------------------------
 	
 	/**
@@ -127,6 +130,14 @@ public class ExItExperience extends ExperienceSample implements Serializable
 		return moves;
 	}
 	
+	/**
+	 * @return Record of the game in which this experience was generated (may be null)
+	 */
+	public ExItGameRecord gameRecord()
+	{
+		return gameRecord;
+	}
+	
 	/**
 	 * @return The index in replay buffer from which we sampled this if using PER
 	 */
@@ -203,6 +214,15 @@ public class ExItExperience extends ExperienceSample implements Serializable
 		this.bufferIdx = bufferIdx;
 	}
 	
+	/**
+	 * Sets the record of the game in which this experience was generated
+	 * @param gameRecord
+	 */
+	public void setGameRecord(final ExItGameRecord gameRecord)
+	{
+		this.gameRecord = gameRecord;
+	}
+	
 	/**
 	 * Sets the episode duration
 	 * @param episodeDuration
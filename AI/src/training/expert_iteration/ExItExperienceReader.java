@@ -0,0 +1,377 @@
+package training.expert_iteration;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.commons.rng.core.RandomProviderDefaultState;
+
+import game.Game;
+import game.equipment.container.Container;
+import main.collections.FVector;
+import main.collections.FastArrayList;
+import other.move.Move;
+import other.state.container.ContainerState;
+
+/**
+ * Streaming reader of ExIt experience from binary files written by
+ * ExItExperienceWriter. Only keeps one chunk of samples in memory at
+ * a time (and the game records referred to by samples).
+ *
+ * @author Dennis Soemers
+ */
+public final class ExItExperienceReader
+{
+
+	//-------------------------------------------------------------------------
+
+	/** Stream we read from */
+	private final DataInputStream in;
+
+	/** Game for which we're reading experience */
+	private final Game game;
+
+	/** All game records we've read so far, indexed by ID */
+	private final List<ExItGameRecord> records = new ArrayList<ExItGameRecord>();
+
+	/** Slots of samples in the current chunk */
+	private int[] chunkSlots = new int[0];
+
+	/** Samples in the current chunk */
+	private EncodedExItExperience[] chunkSamples = new EncodedExItExperience[0];
+
+	/** Index of current sample in current chunk */
+	private int chunkIdx = 0;
+
+	/** Set to true once we've reached the end of the stream */
+	private boolean finished = false;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor. Immediately reads the header from the given stream (after
+	 * which callers can read any additional data they wrote directly after it).
+	 *
+	 * @param in
+	 * @param game
+	 * @throws IOException If the stream does not start with a valid header
+	 */
+	public ExItExperienceReader(final DataInputStream in, final Game game) throws IOException
+	{
+		this.in = in;
+		this.game = game;
+
+		if (in.readInt() != ExItExperienceWriter.MAGIC_NUMBER)
+			throw new IOException("Not a file of ExIt experience!");
+
+		final int version = in.readInt();
+		if (version != ExItExperienceWriter.FORMAT_VERSION)
+			throw new IOException("Unsupported version of ExIt experience file format: " + version);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Moves on to the next sample
+	 * @return False if there are no more samples
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException
+	{
+		++chunkIdx;
+
+		while (chunkIdx >= chunkSamples.length)
+		{
+			if (finished || !readChunk())
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return Slot of the current sample
+	 */
+	public int slot()
+	{
+		return chunkSlots[chunkIdx];
+	}
+
+	/**
+	 * @return The current sample
+	 */
+	public EncodedExItExperience sample()
+	{
+		return chunkSamples[chunkIdx];
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Reads the next chunk
+	 * @return False if we reached the end of the stream
+	 * @throws IOException
+	 */
+	private boolean readChunk() throws IOException
+	{
+		final int numNewRecords = in.readInt();
+		if (numNewRecords < 0)
+		{
+			finished = true;
+			return false;
+		}
+
+		for (int i = 0; i < numNewRecords; ++i)
+		{
+			final byte[] rngState = new byte[in.readInt()];
+			in.readFully(rngState);
+			final FastArrayList<Move> moves = readMoves();
+
+			final List<Move> movesList = new ArrayList<Move>(moves.size());
+			for (final Move move : moves)
+				movesList.add(move);
+
+			records.add(new ExItGameRecord(game, new RandomProviderDefaultState(rngState), movesList));
+		}
+
+		final int numSamples = in.readInt();
+		chunkSlots = new int[numSamples];
+		chunkSamples = new EncodedExItExperience[numSamples];
+		chunkIdx = 0;
+
+		for (int i = 0; i < numSamples; ++i)
+		{
+			chunkSlots[i] = in.readInt();
+		}
+
+		final byte[] kinds = new byte[numSamples];
+		int numEncoded = 0;
+		for (int i = 0; i < numSamples; ++i)
+		{
+			kinds[i] = in.readByte();
+			if (kinds[i] == ExItExperienceWriter.KIND_ENCODED)
+				++numEncoded;
+		}
+
+		// Read all the columns for encoded samples
+		final int[] recordIDs = new int[numEncoded];
+		for (int i = 0; i < numEncoded; ++i)
+			recordIDs[i] = in.readInt();
+
+		final int[] numMoves = new int[numEncoded];
+		for (int i = 0; i < numEncoded; ++i)
+			numMoves[i] = in.readInt();
+
+		final int[] episodeDurations = new int[numEncoded];
+		for (int i = 0; i < numEncoded; ++i)
+			episodeDurations[i] = in.readInt();
+
+		final float[] weightsVisitCount = new float[numEncoded];
+		for (int i = 0; i < numEncoded; ++i)
+			weightsVisitCount[i] = in.readFloat();
+
+		final long[][] encodedMoves = new long[numEncoded][];
+		final List<FastArrayList<Move>> moves = new ArrayList<FastArrayList<Move>>(numEncoded);
+		for (int i = 0; i < numEncoded; ++i)
+		{
+			if (in.readBoolean())
+			{
+				encodedMoves[i] = new long[in.readInt()];
+				for (int j = 0; j < encodedMoves[i].length; ++j)
+					encodedMoves[i][j] = in.readLong();
+
+				moves.add(null);
+			}
+			else
+			{
+				moves.add(readMoveStrings());
+			}
+		}
+
+		final FVector[] expertDistributions = new FVector[numEncoded];
+		for (int i = 0; i < numEncoded; ++i)
+			expertDistributions[i] = readVector();
+
+		final FVector[] expertValueEstimates = new FVector[numEncoded];
+		for (int i = 0; i < numEncoded; ++i)
+			expertValueEstimates[i] = readVector();
+
+		final FVector[] stateFeatureVectors = new FVector[numEncoded];
+		for (int i = 0; i < numEncoded; ++i)
+			stateFeatureVectors[i] = readVector();
+
+		final double[][] playerOutcomes = new double[numEncoded][];
+		for (int i = 0; i < numEncoded; ++i)
+		{
+			final int numOutcomes = in.readInt();
+			if (numOutcomes >= 0)
+			{
+				playerOutcomes[i] = new double[numOutcomes];
+				for (int j = 0; j < numOutcomes; ++j)
+					playerOutcomes[i][j] = in.readDouble();
+			}
+		}
+
+		final BitSet[] winningMoves = new BitSet[numEncoded];
+		for (int i = 0; i < numEncoded; ++i)
+			winningMoves[i] = readBitSet();
+
+		final BitSet[] losingMoves = new BitSet[numEncoded];
+		for (int i = 0; i < numEncoded; ++i)
+			losingMoves[i] = readBitSet();
+
+		final BitSet[] antiDefeatingMoves = new BitSet[numEncoded];
+		for (int i = 0; i < numEncoded; ++i)
+			antiDefeatingMoves[i] = readBitSet();
+
+		// Now assemble all the samples
+		int encodedIdx = 0;
+		for (int i = 0; i < numSamples; ++i)
+		{
+			if (kinds[i] == ExItExperienceWriter.KIND_ENCODED)
+			{
+				chunkSamples[i] =
+						new EncodedExItExperience
+						(
+							records.get(recordIDs[encodedIdx]),
+							numMoves[encodedIdx],
+							encodedMoves[encodedIdx],
+							moves.get(encodedIdx),
+							expertDistributions[encodedIdx],
+							expertValueEstimates[encodedIdx],
+							stateFeatureVectors[encodedIdx],
+							episodeDurations[encodedIdx],
+							playerOutcomes[encodedIdx],
+							winningMoves[encodedIdx],
+							losingMoves[encodedIdx],
+							antiDefeatingMoves[encodedIdx],
+							weightsVisitCount[encodedIdx]
+						);
+				++encodedIdx;
+			}
+		}
+
+		// And the samples that were serialised in full
+		for (int i = 0; i < numSamples; ++i)
+		{
+			if (kinds[i] == ExItExperienceWriter.KIND_SERIALISED)
+			{
+				final byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+
+				try (final ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes)))
+				{
+					final ExItExperience experience = (ExItExperience) objectIn.readObject();
+					fixContainerReferences(experience);
+					chunkSamples[i] = new EncodedExItExperience(experience);
+				}
+				catch (final ClassNotFoundException e)
+				{
+					throw new IOException(e);
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return List of moves
+	 * @throws IOException
+	 */
+	private FastArrayList<Move> readMoves() throws IOException
+	{
+		if (in.readBoolean())
+		{
+			final int numMoves = in.readInt();
+			final FastArrayList<Move> moves = new FastArrayList<Move>(numMoves);
+			for (int i = 0; i < numMoves; ++i)
+				moves.add(CompactMoves.toMove(in.readLong()));
+
+			return moves;
+		}
+
+		return readMoveStrings();
+	}
+
+	/**
+	 * @return List of moves, written in trial format
+	 * @throws IOException
+	 */
+	private FastArrayList<Move> readMoveStrings() throws IOException
+	{
+		final int numMoves = in.readInt();
+		final FastArrayList<Move> moves = new FastArrayList<Move>(numMoves);
+		for (int i = 0; i < numMoves; ++i)
+			moves.add(new Move(in.readUTF()));
+
+		return moves;
+	}
+
+	/**
+	 * @return Vector (may be null)
+	 * @throws IOException
+	 */
+	private FVector readVector() throws IOException
+	{
+		final int dim = in.readInt();
+		if (dim < 0)
+			return null;
+
+		final float[] floats = new float[dim];
+		for (int i = 0; i < dim; ++i)
+			floats[i] = in.readFloat();
+
+		return FVector.wrap(floats);
+	}
+
+	/**
+	 * @return Bitset
+	 * @throws IOException
+	 */
+	private BitSet readBitSet() throws IOException
+	{
+		final long[] words = new long[in.readInt()];
+		for (int i = 0; i < words.length; ++i)
+			words[i] = in.readLong();
+
+		return BitSet.valueOf(words);
+	}
+
+	/**
+	 * Special handling of deserialised objects that contain game states;
+	 * we need to fix their references to containers for all ItemStates
+	 * @param experience
+	 */
+	private void fixContainerReferences(final ExItExperience experience)
+	{
+		if (experience.state() == null)
+			return;
+		
+		final ContainerState[] containerStates = experience.state().state().containerStates();
+
+		for (final ContainerState containerState : containerStates)
+		{
+			if (containerState != null)
+			{
+				final String containerName = containerState.nameFromFile();
+
+				for (final Container container : game.equipment().containers())
+				{
+					if (container != null && container.name().equals(containerName))
+					{
+						containerState.setContainer(container);
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+}
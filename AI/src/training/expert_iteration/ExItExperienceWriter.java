@@ -0,0 +1,309 @@
+package training.expert_iteration;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import gnu.trove.list.array.TIntArrayList;
+import main.collections.FVector;
+import other.move.Move;
+
+/**
+ * Streaming writer of (encoded) ExIt experience to binary files. Samples are
+ * written in chunks of at most CHUNK_SIZE samples, and within every chunk we
+ * write the data column by column (first the slots of all samples, then their
+ * numbers of moves, etc.). Every game record is written only once, in the
+ * first chunk that contains a sample referring to it.
+ *
+ * Format of a chunk:
+ * 	- int: number of new game records (-1 marks the end of the stream)
+ * 	- new game records (RNG start state + moves)
+ * 	- int: number of samples
+ * 	- columns: slots, kinds (encoded or not), and then columns for all the data
+ * 		of encoded samples, and Java-serialised blobs for samples that could not
+ * 		be encoded.
+ *
+ * Moves are written as compact longs (see CompactMoves) if all the moves in a
+ * list can be encoded as such, and in the same string format as in trial files
+ * otherwise.
+ *
+ * @author Dennis Soemers
+ */
+public final class ExItExperienceWriter
+{
+
+	//-------------------------------------------------------------------------
+
+	/** Magic number at the start of every file of ExIt experience */
+	public static final int MAGIC_NUMBER = 0x45784974;
+
+	/** Version of the file format */
+	public static final int FORMAT_VERSION = 1;
+
+	/** Maximum number of samples per chunk */
+	public static final int CHUNK_SIZE = 1024;
+
+	/** Kind of samples that are encoded */
+	static final byte KIND_ENCODED = 1;
+
+	/** Kind of samples that could not be encoded, written as Java-serialised blobs */
+	static final byte KIND_SERIALISED = 0;
+
+	//-------------------------------------------------------------------------
+
+	/** Stream we write to */
+	private final DataOutputStream out;
+
+	/** IDs of game records we have already written (or will write in the current chunk) */
+	private final Map<ExItGameRecord, Integer> recordIDs = new IdentityHashMap<ExItGameRecord, Integer>();
+
+	/** Game records we still need to write in the current chunk */
+	private final List<ExItGameRecord> newRecords = new ArrayList<ExItGameRecord>();
+
+	/** Slots of samples in the current chunk */
+	private final TIntArrayList chunkSlots = new TIntArrayList(CHUNK_SIZE);
+
+	/** Samples in the current chunk */
+	private final List<EncodedExItExperience> chunkSamples = new ArrayList<EncodedExItExperience>(CHUNK_SIZE);
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor. Immediately writes a header to the given stream. Callers may
+	 * write additional data of their own directly after that, before writing
+	 * any samples.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public ExItExperienceWriter(final DataOutputStream out) throws IOException
+	{
+		this.out = out;
+		out.writeInt(MAGIC_NUMBER);
+		out.writeInt(FORMAT_VERSION);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Writes a sample of experience
+	 * @param slot Slot (e.g. index in buffer) that the sample is in
+	 * @param sample
+	 * @throws IOException
+	 */
+	public void write(final int slot, final EncodedExItExperience sample) throws IOException
+	{
+		if (sample.isEncoded() && !recordIDs.containsKey(sample.gameRecord))
+		{
+			recordIDs.put(sample.gameRecord, Integer.valueOf(recordIDs.size()));
+			newRecords.add(sample.gameRecord);
+		}
+
+		chunkSlots.add(slot);
+		chunkSamples.add(sample);
+
+		if (chunkSamples.size() >= CHUNK_SIZE)
+			writeChunk();
+	}
+
+	/**
+	 * Writes any remaining samples, and marks the end of the stream
+	 * (does not close the stream).
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException
+	{
+		if (!chunkSamples.isEmpty())
+			writeChunk();
+
+		out.writeInt(-1);
+		out.flush();
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Writes the current chunk
+	 * @throws IOException
+	 */
+	private void writeChunk() throws IOException
+	{
+		out.writeInt(newRecords.size());
+		for (final ExItGameRecord record : newRecords)
+		{
+			final byte[] rngState = record.rngStartState().getState();
+			out.writeInt(rngState.length);
+			out.write(rngState);
+			writeMoves(null, record.moves());
+		}
+		newRecords.clear();
+
+		final int numSamples = chunkSamples.size();
+		out.writeInt(numSamples);
+
+		for (int i = 0; i < numSamples; ++i)
+		{
+			out.writeInt(chunkSlots.getQuick(i));
+		}
+
+		final List<EncodedExItExperience> encoded = new ArrayList<EncodedExItExperience>(numSamples);
+		final List<EncodedExItExperience> serialised = new ArrayList<EncodedExItExperience>();
+		for (final EncodedExItExperience sample : chunkSamples)
+		{
+			if (sample.isEncoded())
+			{
+				out.writeByte(KIND_ENCODED);
+				encoded.add(sample);
+			}
+			else
+			{
+				out.writeByte(KIND_SERIALISED);
+				serialised.add(sample);
+			}
+		}
+
+		for (final EncodedExItExperience sample : encoded)
+			out.writeInt(recordIDs.get(sample.gameRecord).intValue());
+
+		for (final EncodedExItExperience sample : encoded)
+			out.writeInt(sample.numMoves);
+
+		for (final EncodedExItExperience sample : encoded)
+			out.writeInt(sample.episodeDuration);
+
+		for (final EncodedExItExperience sample : encoded)
+			out.writeFloat(sample.weightVisitCount);
+
+		for (final EncodedExItExperience sample : encoded)
+			writeMoves(sample.encodedMoves, (sample.moves == null) ? null : sample.moves.toArray(new Move[sample.moves.size()]));
+
+		for (final EncodedExItExperience sample : encoded)
+			writeVector(sample.expertDistribution);
+
+		for (final EncodedExItExperience sample : encoded)
+			writeVector(sample.expertValueEstimates);
+
+		for (final EncodedExItExperience sample : encoded)
+			writeVector(sample.stateFeatureVector);
+
+		for (final EncodedExItExperience sample : encoded)
+		{
+			if (sample.playerOutcomes == null)
+			{
+				out.writeInt(-1);
+			}
+			else
+			{
+				out.writeInt(sample.playerOutcomes.length);
+				for (final double outcome : sample.playerOutcomes)
+					out.writeDouble(outcome);
+			}
+		}
+
+		for (final EncodedExItExperience sample : encoded)
+			writeBitSet(sample.winningMoves);
+
+		for (final EncodedExItExperience sample : encoded)
+			writeBitSet(sample.losingMoves);
+
+		for (final EncodedExItExperience sample : encoded)
+			writeBitSet(sample.antiDefeatingMoves);
+
+		for (final EncodedExItExperience sample : serialised)
+		{
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (final ObjectOutputStream objectOut = new ObjectOutputStream(bytes))
+			{
+				objectOut.writeObject(sample.fullExperience);
+			}
+
+			out.writeInt(bytes.size());
+			bytes.writeTo(out);
+		}
+
+		chunkSlots.resetQuick();
+		chunkSamples.clear();
+	}
+
+	/**
+	 * Writes a list of moves
+	 * @param encodedMoves Compact encodings of the moves (may be null)
+	 * @param moves The moves, only used if encodedMoves is null
+	 * @throws IOException
+	 */
+	private void writeMoves(final long[] encodedMoves, final Move[] moves) throws IOException
+	{
+		long[] toWrite = encodedMoves;
+
+		if (toWrite == null)
+		{
+			// See if we can encode them all ourselves
+			toWrite = new long[moves.length];
+			for (int i = 0; i < moves.length; ++i)
+			{
+				toWrite[i] = CompactMoves.encode(moves[i]);
+				if (toWrite[i] == CompactMoves.NOT_ENCODABLE)
+				{
+					toWrite = null;
+					break;
+				}
+			}
+		}
+
+		if (toWrite != null)
+		{
+			out.writeBoolean(true);
+			out.writeInt(toWrite.length);
+			for (final long encoded : toWrite)
+				out.writeLong(encoded);
+		}
+		else
+		{
+			out.writeBoolean(false);
+			out.writeInt(moves.length);
+			for (final Move move : moves)
+				out.writeUTF(move.toTrialFormat(null));
+		}
+	}
+
+	/**
+	 * Writes a vector (may be null)
+	 * @param vector
+	 * @throws IOException
+	 */
+	private void writeVector(final FVector vector) throws IOException
+	{
+		if (vector == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+
+		out.writeInt(vector.dim());
+		for (int i = 0; i < vector.dim(); ++i)
+			out.writeFloat(vector.get(i));
+	}
+
+	/**
+	 * Writes a bitset
+	 * @param bitset
+	 * @throws IOException
+	 */
+	private void writeBitSet(final BitSet bitset) throws IOException
+	{
+		final long[] words = bitset.toLongArray();
+		out.writeInt(words.length);
+		for (final long word : words)
+			out.writeLong(word);
+	}
+
+	//-------------------------------------------------------------------------
+
+}
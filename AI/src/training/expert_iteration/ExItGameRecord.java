@@ -0,0 +1,171 @@
+package training.expert_iteration;
+
+import java.util.List;
+
+import org.apache.commons.rng.core.RandomProviderDefaultState;
+
+import game.Game;
+import other.context.Context;
+import other.move.Move;
+import other.trial.Trial;
+
+/**
+ * Record of a complete game played for Expert Iteration: the internal state
+ * of the RNG before the game was started, and the list of all moves played.
+ * This is enough to re-play the game up to any point, so experience samples
+ * generated in this game only need to remember the number of moves played
+ * before them, rather than a full copy of the game state.
+ *
+ * Upon construction, we re-play the game once and remember a hash of the
+ * state after every move. Only samples for which the re-played state has
+ * the same hash can be encoded by referring to this record (re-playing may
+ * not always reproduce the same states, e.g. for experience generated in
+ * non-root nodes of search trees). We ignore stalemated flags in hashes,
+ * since these can differ between states in the real game and in search trees.
+ *
+ * Records are immutable after construction, and are shared by all the
+ * experience samples generated in the same game.
+ *
+ * @author Dennis Soemers
+ */
+public final class ExItGameRecord
+{
+
+	//-------------------------------------------------------------------------
+
+	/** The game that was played */
+	private final Game game;
+
+	/** Internal state of the RNG before the game was started */
+	private final RandomProviderDefaultState rngStartState;
+
+	/** Complete list of moves of the game (including moves applied by starting the game) */
+	private final Move[] moves;
+
+	/** Number of moves applied by starting the game */
+	private final int numStartMoves;
+
+	/** Number of moves up to which we managed to re-play the game */
+	private final int numReplayedMoves;
+
+	/** For every number of moves played (up to numReplayedMoves), hash of the re-played state */
+	private final long[] stateHashes;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 * @param game
+	 * @param rngStartState Internal state of the RNG before the game was started
+	 * @param moves Complete list of moves of the game
+	 */
+	public ExItGameRecord(final Game game, final RandomProviderDefaultState rngStartState, final List<Move> moves)
+	{
+		this.game = game;
+		this.rngStartState = rngStartState;
+		this.moves = moves.toArray(new Move[moves.size()]);
+
+		stateHashes = new long[this.moves.length + 1];
+
+		final Context context = new Context(game, new Trial(game));
+		context.rng().restoreState(rngStartState);
+		game.start(context);
+		numStartMoves = context.trial().numMoves();
+		stateHashes[numStartMoves] = context.state().fullHashIgnoringStalemated();
+
+		int numMovesReplayed = numStartMoves;
+		try
+		{
+			for (int i = numStartMoves; i < this.moves.length; ++i)
+			{
+				game.apply(context, this.moves[i]);
+
+				if (context.trial().numMoves() != i + 1)
+					break;		// Something went wrong, can't re-play any further
+
+				stateHashes[i + 1] = context.state().fullHashIgnoringStalemated();
+				numMovesReplayed = i + 1;
+			}
+		}
+		catch (final Exception e)
+		{
+			// Can't re-play any further; samples from later in the game will just not be encoded
+		}
+
+		numReplayedMoves = numMovesReplayed;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param numMoves
+	 * @param state
+	 * @return True if re-playing the first numMoves moves of this game
+	 * 	reproduces the given state (and last decision move).
+	 */
+	public boolean reproduces(final int numMoves, final ExItExperience.ExItExperienceState state)
+	{
+		if (numMoves < numStartMoves || numMoves > numReplayedMoves)
+			return false;
+
+		if (stateHashes[numMoves] != state.state().fullHashIgnoringStalemated())
+			return false;
+
+		if (numMoves == 0)
+			return state.lastDecisionMove() == null;
+
+		return moves[numMoves - 1].equals(state.lastDecisionMove());
+	}
+
+	/**
+	 * Re-plays the game up to the given number of moves, in a new context.
+	 *
+	 * @param numMoves
+	 * @return Context with the first numMoves moves of the game played
+	 */
+	public Context replay(final int numMoves)
+	{
+		assert (numMoves >= numStartMoves && numMoves <= numReplayedMoves);
+
+		final Context context = new Context(game, new Trial(game));
+		context.rng().restoreState(rngStartState);
+		game.start(context);
+
+		for (int i = context.trial().numMoves(); i < numMoves; ++i)
+		{
+			game.apply(context, moves[i]);
+		}
+
+		assert (context.state().fullHashIgnoringStalemated() == stateHashes[numMoves]);
+		return context;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return The game that was played
+	 */
+	public Game game()
+	{
+		return game;
+	}
+
+	/**
+	 * @return Internal state of the RNG before the game was started
+	 */
+	public RandomProviderDefaultState rngStartState()
+	{
+		return rngStartState;
+	}
+
+	/**
+	 * @return Complete list of moves of the game (should not be modified)
+	 */
+	public Move[] moves()
+	{
+		return moves;
+	}
+
+	//-------------------------------------------------------------------------
+
+}
@@ -16,7 +16,15 @@ import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.rng.core.RandomProviderDefaultState;
 
 import features.FeatureVector;
 import features.WeightVector;
@@ -33,6 +41,7 @@ import gnu.trove.list.array.TLongArrayList;
 import main.CommandLineArgParse;
 import main.CommandLineArgParse.ArgOption;
 import main.CommandLineArgParse.OptionTypes;
+import main.DaemonThreadFactory;
 import main.FileHandling;
 import main.StringRoutines;
 import main.collections.FVector;
@@ -50,6 +59,7 @@ import other.trial.Trial;
 import policies.softmax.SoftmaxPolicyLinear;
 import search.mcts.MCTS;
 import training.expert_iteration.gradients.Gradients;
+import training.expert_iteration.gradients.SparseGradientBatch;
 import training.expert_iteration.menageries.Menagerie;
 import training.expert_iteration.menageries.Menagerie.DrawnAgentsData;
 import training.expert_iteration.menageries.NaiveSelfPlay;
@@ -81,8 +91,12 @@ import utils.experiments.InterruptableExperiment;
  * with additional support for feature learning instead of the standard
  * DNNs (see our various papers).
  * 
- * Currently, this is a sequential implementation, where experience generation
- * and training are all performed on a single thread.
+ * By default, this is a sequential implementation, where experience generation
+ * and training are all performed on a single thread. With multiple self-play
+ * threads, we instead run in an actor/learner mode: every self-play worker
+ * plays complete games (with its own context and experts drawn from the
+ * menagerie), and the main thread learns from games as they are finished.
+ * Workers pick up new weights whenever they draw experts for a new game.
  * 
  * @author Dennis Soemers
  */
@@ -170,10 +184,21 @@ public class ExpertIteration
 	 */
 	public void startExperiment()
 	{
+		// Agents drawn by different self-play workers (with different weights) must not share feature set 
+		// instances, since initialising a feature set with new weights re-instantiates its features and caches.
+		// We only disable the cache for this training run, and restore the previous setting afterwards.
+		final boolean allowFeatureSetCache = JITSPatterNetFeatureSet.ALLOW_FEATURE_SET_CACHE;
+		if (trainingParams.numSelfPlayThreads > 1)
+			JITSPatterNetFeatureSet.ALLOW_FEATURE_SET_CACHE = false;
+		
 		try (final PrintWriter logWriter = createLogWriter())
 		{
 			startTraining(logWriter);
 		}
+		finally
+		{
+			JITSPatterNetFeatureSet.ALLOW_FEATURE_SET_CACHE = allowFeatureSetCache;
+		}
 	}
 	
 	//-------------------------------------------------------------------------
@@ -249,6 +274,9 @@ public class ExpertIteration
 			/** Filename corresponding to our current optimiser for Value function */
 			protected String currentOptimiserValueFilename;
 			
+			/** Sparse minibatch representation and gradient kernels, reused for all weight updates */
+			protected SparseGradientBatch sparseGradientBatch;
+			
 			/**
 			 * Init class members. Cant do this in field declarations because
 			 * runExperiment() is called inside constructor of parent class.
@@ -271,6 +299,7 @@ public class ExpertIteration
 				currentOptimiserTSPGFilenames = new String[numPlayers + 1];
 				currentOptimiserCEEFilenames = new String[numPlayers + 1];
 				currentOptimiserValueFilename = null;
+				sparseGradientBatch = new SparseGradientBatch(trainingParams.numPolicyGradientThreads);
 			}
 			
 			//-----------------------------------------------------------------
@@ -415,6 +444,7 @@ public class ExpertIteration
 				// instantiate trial / context
 				final Trial trial = new Trial(game);
 				final Context context = new Context(game, trial);
+				context.setThreadConfined(true);
 				
 				// Prepare our replay buffers (we use one per player)
 				final ExperienceBuffer[] experienceBuffers = prepareExperienceBuffers(trainingParams.prioritizedExperienceReplay);
@@ -489,6 +519,61 @@ public class ExpertIteration
 //					}
 				}
 				
+				// In actor/learner mode, self-play workers play games (in parallel) while we learn from finished games
+				final ExecutorService selfPlayThreadPool;
+				final LinkedBlockingQueue<SelfPlayGame> finishedGames = new LinkedBlockingQueue<SelfPlayGame>();
+				final AtomicInteger numActiveSelfPlayWorkers = new AtomicInteger(0);
+				final AtomicInteger numGamesToStart = new AtomicInteger(trainingParams.numTrainingGames - gameCounter);
+				final AtomicLong publishedWeightsVersion = new AtomicLong(weightsUpdateCounter);
+				final AtomicBoolean stopSelfPlay = new AtomicBoolean(false);
+				final AtomicReference<RuntimeException> selfPlayException = new AtomicReference<RuntimeException>();
+				
+				if (trainingParams.numSelfPlayThreads > 1)
+				{
+					// NOTE: feature set cache is disabled for actor/learner mode in startExperiment()
+					selfPlayThreadPool = Executors.newFixedThreadPool(trainingParams.numSelfPlayThreads, DaemonThreadFactory.INSTANCE);
+					numActiveSelfPlayWorkers.set(trainingParams.numSelfPlayThreads);
+					
+					for (int th = 0; th < trainingParams.numSelfPlayThreads; ++th)
+					{
+						selfPlayThreadPool.submit
+						(
+							() ->
+							{
+								try
+								{
+									while (!stopSelfPlay.get() && numGamesToStart.getAndDecrement() > 0)
+									{
+										final SelfPlayGame finishedGame = playSelfPlayGame(menagerie, publishedWeightsVersion, stopSelfPlay);
+										
+										if (finishedGame != null)
+											finishedGames.add(finishedGame);
+									}
+								}
+								catch (final RuntimeException e)
+								{
+									// Stop all other workers too; the learner will rethrow this and fail the run
+									selfPlayException.compareAndSet(null, e);
+									stopSelfPlay.set(true);
+								}
+								finally
+								{
+									numActiveSelfPlayWorkers.decrementAndGet();
+								}
+							}
+						);
+					}
+				}
+				else
+				{
+					selfPlayThreadPool = null;
+				}
+				
+				// For reporting throughput
+				final long selfPlayStartTime = System.currentTimeMillis();
+				long numGamesFinished = 0L;
+				long numSamplesFinished = 0L;
+				
 				for (/**/; gameCounter < trainingParams.numTrainingGames; ++gameCounter)
 				{
 					checkWallTime(0.05);
@@ -644,7 +729,10 @@ public class ExpertIteration
 
 						selectionPolicy.updateFeatureSets(expandedFeatureSets);
 						playoutPolicy.updateFeatureSets(expandedFeatureSets);
-						menagerie.updateDevFeatures(AIUtils.generateFeaturesMetadata(selectionPolicy, playoutPolicy));
+						synchronized (menagerie)
+						{
+							menagerie.updateDevFeatures(AIUtils.generateFeaturesMetadata(selectionPolicy, playoutPolicy));
+						}
 						
 						if (objectiveParams.trainTSPG)
 							tspgPolicy.updateFeatureSets(expandedFeatureSets);
@@ -652,9 +740,89 @@ public class ExpertIteration
 						featureSets = expandedFeatureSets;
 					}
 					
+					if (selfPlayThreadPool != null)
+					{
+						// Actor/learner mode: learn from the next game finished by any of our self-play workers
+						final SelfPlayGame finishedGame = takeFinishedGame(finishedGames, numActiveSelfPlayWorkers);
+						
+						if (selfPlayException.get() != null)
+						{
+							// A self-play worker failed, so we fail the training run
+							stopSelfPlay.set(true);
+							selfPlayThreadPool.shutdown();
+							sparseGradientBatch.close();
+							throw selfPlayException.get();
+						}
+						
+						if (finishedGame == null)
+						{
+							logLine(logWriter, "interrupting experiment...");
+							break;
+						}
+						
+						for (int p = 1; p <= numPlayers; ++p)
+						{
+							for (final ExItExperience newExperience : finishedGame.experienceSamples.get(p))
+							{
+								processNewExperience
+								(
+									newExperience, p, valueFunction, featureSets, 
+									featureLifetimes, featureActiveRatios, featureOccurrences, 
+									winningMovesFeatures, losingMovesFeatures, antiDefeatingMovesFeatures
+								);
+							}
+						}
+						
+						// Perform as many weight updates as we would have performed while playing this game ourselves
+						final long prevActionCounter = actionCounter;
+						actionCounter += finishedGame.numActions;
+						final long numWeightUpdates = 
+								actionCounter / trainingParams.updateWeightsEvery - prevActionCounter / trainingParams.updateWeightsEvery;
+						
+						for (long i = 0; i < numWeightUpdates; ++i)
+						{
+							updateWeights
+							(
+								featureSets, selectionPolicy, playoutPolicy, tspgPolicy, 
+								selectionFunctions, playoutFunctions, tspgFunctions, valueFunction, 
+								experienceBuffers, selectionOptimisers, playoutOptimisers, tspgOptimisers, 
+								valueFunctionOptimiser, avgGameDurations, menagerie
+							);
+							
+							++weightsUpdateCounter;
+						}
+						
+						// Workers draw new experts from the menagerie, which now has the updated weights
+						publishedWeightsVersion.set(weightsUpdateCounter);
+						
+						storeGameExperience
+						(
+							finishedGame.experienceSamples, finishedGame.playerOutcomes, finishedGame.gameRecord,
+							experienceBuffers, specialMoveExperienceBuffers, avgGameDurations
+						);
+						
+						synchronized (menagerie)
+						{
+							menagerie.updateOutcome(finishedGame.context, finishedGame.drawnExperts);
+						}
+						
+						++numGamesFinished;
+						numSamplesFinished += finishedGame.numSamples();
+						
+						logLine
+						(
+							logWriter, 
+							"Finished running game " + (gameCounter + 1) + " (played with weights version " 
+							+ finishedGame.weightsVersion + ", current version " + weightsUpdateCounter + ")"
+						);
+						logThroughput(numGamesFinished, numSamplesFinished, selfPlayStartTime);
+						continue;
+					}
+					
 					logLine(logWriter, "starting game " + (gameCounter + 1));
 					
 					// play a game
+					final RandomProviderDefaultState rngStartState = (RandomProviderDefaultState) context.rng().saveState();
 					game.start(context);
 					
 					// here we'll collect all tuples of experience during this game
@@ -664,20 +832,11 @@ public class ExpertIteration
 					// Get agents from menagerie
 					final DrawnAgentsData drawnExperts = menagerie.drawAgents(game, agentsParams);
 					final List<ExpertPolicy> experts = drawnExperts.getAgents();
+					initExperts(experts);
 					
 					for (int p = 1; p < experts.size(); ++p)
 					{
-						if (experts.get(p) instanceof MCTS)
-						{
-							((MCTS)experts.get(p)).setNumThreads(agentsParams.numAgentThreads);
-							((MCTS)experts.get(p)).setUseScoreBounds(true);
-						}
-						
-						experts.get(p).initAI(game, p);
 						gameExperienceSamples.add(new ArrayList<ExItExperience>());
-						
-						if (objectiveParams.trainTSPG && !(experts.get(p) instanceof MCTS))
-							System.err.println("A non-MCTS expert cannot be used for training the TSPG objective!");
 					}
 					
 					// init some stuff for CE exploration
@@ -724,16 +883,11 @@ public class ExpertIteration
 						{
 							final int experienceMover = newExperience.state().state().mover();
 							
-							if (valueFunction != null)
-								newExperience.setStateFeatureVector(valueFunction.computeStateFeatureVector(newExperience.context(), experienceMover));
-							
-							// Update feature lifetimes, active ratios, winning/losing/anti-defeating features, etc.
-							updateFeatureActivityData
+							processNewExperience
 							(
-								newExperience.context(), experienceMover, featureSets, 
+								newExperience, experienceMover, valueFunction, featureSets, 
 								featureLifetimes, featureActiveRatios, featureOccurrences, 
-								winningMovesFeatures, losingMovesFeatures, antiDefeatingMovesFeatures,
-								newExperience
+								winningMovesFeatures, losingMovesFeatures, antiDefeatingMovesFeatures
 							);
 							
 							gameExperienceSamples.get(experienceMover).add(newExperience);
@@ -746,220 +900,13 @@ public class ExpertIteration
 						if (actionCounter % trainingParams.updateWeightsEvery == 0)
 						{
 							// Time to update our weights a bit (once for every player-specific model)
-							final int batchSize = trainingParams.batchSize;
-							for (int p = 1; p <= numPlayers; ++p)
-							{
-								final List<ExItExperience> batch = experienceBuffers[p].sampleExperienceBatch(batchSize);
-
-								if (batch.size() == 0)
-									continue;
-								
-								final List<FVector> gradientsSelection = new ArrayList<FVector>(batch.size());
-								final List<FVector> gradientsPlayout = new ArrayList<FVector>(batch.size());
-								final List<FVector> gradientsTSPG = new ArrayList<FVector>(batch.size());
-								final List<FVector> gradientsCEExplore = new ArrayList<FVector>(batch.size());
-								final List<FVector> gradientsValueFunction = new ArrayList<FVector>(batch.size());
-								
-								// for PER
-								final int[] indices = new int[batch.size()];
-								final float[] priorities = new float[batch.size()];
-								
-								// for WIS
-								double sumImportanceSamplingWeights = 0.0;
-								
-								for (int idx = 0; idx < batch.size(); ++idx)
-								{
-									final ExItExperience sample = batch.get(idx);
-									final FeatureVector[] featureVectors = 
-											featureSets[p].computeFeatureVectors
-											(
-												sample.state().state(),
-												sample.state().lastDecisionMove(),
-												sample.moves(), 
-												false
-											);
-
-									final FVector expertPolicy = sample.expertDistribution();
-									
-									// Note: NOT using sample.state().state().mover(), but p here, important to update
-									// shared weights correctly!
-									final FVector selectionErrors = 
-											Gradients.computeCrossEntropyErrors
-											(
-												selectionPolicy, expertPolicy, featureVectors, p, objectiveParams.handleAliasing
-											);
-									final FVector playoutErrors = 
-											Gradients.computeCrossEntropyErrors
-											(
-												playoutPolicy, expertPolicy, featureVectors, p, objectiveParams.handleAliasingPlayouts
-											);
-
-									final FVector selectionGradients = selectionPolicy.computeParamGradients
-										(
-											selectionErrors,
-											featureVectors,
-											p
-										);
-									final FVector playoutGradients = selectionPolicy.computeParamGradients
-										(
-											playoutErrors,
-											featureVectors,
-											p
-										);
-									
-									final FVector valueGradients = Gradients.computeValueGradients(valueFunction, p, sample);
-
-									double importanceSamplingWeight = sample.weightVisitCount();
-									double nonImportanceSamplingWeight = 1.0;	// Also used to scale gradients, but doesn't count as IS
-									
-									if (objectiveParams.importanceSamplingEpisodeDurations)
-										importanceSamplingWeight *= (avgGameDurations[sample.state().state().mover()].movingAvg() / sample.episodeDuration());
-									
-									if (trainingParams.prioritizedExperienceReplay)
-									{
-										final FVector absErrors = selectionErrors.copy();
-										absErrors.abs();
-										
-										// Minimum priority of 0.05 to avoid crashes with 0-error samples
-										priorities[idx] = Math.max(0.05f, absErrors.sum());
-										importanceSamplingWeight *= sample.weightPER();
-										indices[idx] = sample.bufferIdx();
-									}
-									
-									sumImportanceSamplingWeights += importanceSamplingWeight;
-									selectionGradients.mult((float) (importanceSamplingWeight * nonImportanceSamplingWeight));
-									playoutGradients.mult((float) (importanceSamplingWeight * nonImportanceSamplingWeight));
-									
-									gradientsSelection.add(selectionGradients);
-									gradientsPlayout.add(playoutGradients);
-									
-									if (valueGradients != null)
-									{
-										valueGradients.mult((float) importanceSamplingWeight); 
-										gradientsValueFunction.add(valueGradients);
-									}
-									
-									if (objectiveParams.trainTSPG && p > 0)
-									{
-										// and gradients for TSPG
-										final FVector pi = 
-												tspgPolicy.computeDistribution(featureVectors, sample.state().state().mover());
-										final FVector expertQs = sample.expertValueEstimates();
-										
-										final FVector grads = new FVector(tspgFunctions[p].trainableParams().allWeights().dim());
-										for (int i = 0; i < sample.moves().size(); ++i)
-										{
-											final float expertQ = expertQs.get(i);
-											final float pi_sa = pi.get(i);
-											
-											for (int j = 0; j < sample.moves().size(); ++j)
-											{
-												final FeatureVector featureVector = featureVectors[j];
-												
-												// Dense representation for aspatial features
-												final FVector aspatialFeatureVals = featureVector.aspatialFeatureValues();
-												final int numAspatialFeatures = aspatialFeatureVals.dim();
-												
-												for (int k = 0; k < numAspatialFeatures; ++k)
-												{
-													if (i == j)
-														grads.addToEntry(k, aspatialFeatureVals.get(k) * expertQ * pi_sa * (1.f - pi_sa));
-													else
-														grads.addToEntry(k, aspatialFeatureVals.get(k) * expertQ * pi_sa * (0.f - pi.get(j)));
-												}
-												
-												// Sparse representation for spatial features (num aspatial features as offset for indexing)
-												final TIntArrayList sparseSpatialFeatures = featureVector.activeSpatialFeatureIndices();
-												
-												for (int k = 0; k < sparseSpatialFeatures.size(); ++k)
-												{
-													final int feature = sparseSpatialFeatures.getQuick(k);
-													
-													if (i == j)
-														grads.addToEntry(feature + numAspatialFeatures, expertQ * pi_sa * (1.f - pi_sa));
-													else
-														grads.addToEntry(feature + numAspatialFeatures, expertQ * pi_sa * (0.f - pi.get(j)));
-												}
-											}
-										}
-
-										grads.mult((float) (importanceSamplingWeight * nonImportanceSamplingWeight));
-										gradientsTSPG.add(grads);
-									}
-								}
-								
-								final FVector meanGradientsSelection;
-								final FVector meanGradientsPlayout;
-								final FVector meanGradientsValue;
-								final FVector meanGradientsTSPG;
-								
-								if (objectiveParams.weightedImportanceSampling)
-								{
-									// For WIS, we don't divide by number of vectors, but by sum of IS weights
-									meanGradientsSelection = Gradients.wisGradients(gradientsSelection, (float)sumImportanceSamplingWeights);
-									meanGradientsPlayout = Gradients.wisGradients(gradientsPlayout, (float)sumImportanceSamplingWeights);
-									meanGradientsValue = Gradients.wisGradients(gradientsValueFunction, (float)sumImportanceSamplingWeights);
-									meanGradientsTSPG = Gradients.wisGradients(gradientsTSPG, (float)sumImportanceSamplingWeights);
-								}
-								else
-								{
-									meanGradientsSelection = Gradients.meanGradients(gradientsSelection);
-									meanGradientsPlayout = Gradients.meanGradients(gradientsPlayout);
-									meanGradientsValue = Gradients.meanGradients(gradientsValueFunction);
-									meanGradientsTSPG = Gradients.meanGradients(gradientsTSPG);
-								}
-								
-								Gradients.minimise
-								(
-									selectionOptimisers[p], 
-									selectionFunctions[p].trainableParams().allWeights(), 
-									meanGradientsSelection, 
-									(float)objectiveParams.weightDecayLambda
-								);
-								Gradients.minimise
-								(
-									playoutOptimisers[p], 
-									playoutFunctions[p].trainableParams().allWeights(), 
-									meanGradientsPlayout, 
-									(float)objectiveParams.weightDecayLambda
-								);
-								
-								menagerie.updateDevFeatures(AIUtils.generateFeaturesMetadata(selectionPolicy, playoutPolicy));
-								
-								if (meanGradientsValue != null && valueFunction != null)
-								{
-									final FVector valueFunctionParams = valueFunction.paramsVector();
-									Gradients.minimise
-									(
-										valueFunctionOptimiser, 	// TODO dont we need separate one per player??????
-										valueFunctionParams, 
-										meanGradientsValue, 
-										(float)objectiveParams.weightDecayLambda
-									);
-									
-									valueFunction.updateParams(game, valueFunctionParams, 0);
-									menagerie.updateDevHeuristics(Heuristics.copy(valueFunction));
-								}
-								
-								if (objectiveParams.trainTSPG && p > 0)
-								{
-									// NOTE: maximise here instead of minimise!
-									Gradients.maximise
-									(
-										tspgOptimisers[p], 
-										tspgFunctions[p].trainableParams().allWeights(), 
-										meanGradientsTSPG, 
-										(float)objectiveParams.weightDecayLambda
-									);
-								}
-								
-								// update PER priorities
-								if (trainingParams.prioritizedExperienceReplay && p > 0)
-								{
-									final PrioritizedReplayBuffer buffer = (PrioritizedReplayBuffer) experienceBuffers[p];
-									buffer.setPriorities(indices, priorities);
-								}
-							}
+							updateWeights
+							(
+								featureSets, selectionPolicy, playoutPolicy, tspgPolicy, 
+								selectionFunctions, playoutFunctions, tspgFunctions, valueFunction, 
+								experienceBuffers, selectionOptimisers, playoutOptimisers, tspgOptimisers, 
+								valueFunctionOptimiser, avgGameDurations, menagerie
+							);
 							
 							++weightsUpdateCounter;
 						}
@@ -968,45 +915,12 @@ public class ExpertIteration
 					if (!interrupted)
 					{
 						// Game is over, we can now store all experience collected in the real buffers
-						for (int p = 1; p <= numPlayers; ++p)
-						{
-							final List<ExItExperience> pExperience = gameExperienceSamples.get(p);
-
-							// Note: not really game duration! Just from perspective of one player!
-							final int gameDuration = pExperience.size();	// NOTE: technically wrong for non-root experiences
-							
-							avgGameDurations[p].observe(gameDuration);
-							
-//							// For WED we want to weigh this observation proportionally to the value of the observation itself
-//							for (int i = 0; i < gameDuration; ++i)
-//							{
-//								avgGameDurations[p].observe(gameDuration);
-//							}
-							
-							final double[] playerOutcomes = RankUtils.agentUtilities(context);
-							
-							// Shuffle experiences so they're no longer in chronological order
-							Collections.shuffle(pExperience, ThreadLocalRandom.current());
-							
-							for (final ExItExperience experience : pExperience)
-							{
-								experience.setEpisodeDuration(gameDuration);
-								experience.setPlayerOutcomes(playerOutcomes);
-								experienceBuffers[p].add(experience);
-								
-								if 
-								(
-									!experience.winningMoves().isEmpty() 
-									|| 
-									!experience.losingMoves().isEmpty() 
-									|| 
-									!experience.antiDefeatingMoves().isEmpty()
-								)
-								{
-									specialMoveExperienceBuffers[p].add(experience);
-								}
-							}
-						}
+						storeGameExperience
+						(
+							gameExperienceSamples, RankUtils.agentUtilities(context), 
+							new ExItGameRecord(game, rngStartState, context.trial().generateCompleteMovesList()),
+							experienceBuffers, specialMoveExperienceBuffers, avgGameDurations
+						);
 					}
 					
 					if (context.trial().over())
@@ -1015,6 +929,13 @@ public class ExpertIteration
 						menagerie.updateOutcome(context, drawnExperts);
 						
 						logLine(logWriter, "Finished running game " + (gameCounter + 1));
+						
+						++numGamesFinished;
+						for (int p = 1; p <= numPlayers; ++p)
+						{
+							numSamplesFinished += gameExperienceSamples.get(p).size();
+						}
+						logThroughput(numGamesFinished, numSamplesFinished, selfPlayStartTime);
 					}
 					
 					for (int p = 1; p < experts.size(); ++p)
@@ -1023,6 +944,15 @@ public class ExpertIteration
 					}
 				}
 				
+				if (selfPlayThreadPool != null)
+				{
+					// Any games still being played by workers are no longer needed
+					stopSelfPlay.set(true);
+					selfPlayThreadPool.shutdown();
+				}
+				
+				sparseGradientBatch.close();
+				
 				// Final forced save of checkpoints at end of run
 				saveCheckpoints
 				(
@@ -1053,8 +983,579 @@ public class ExpertIteration
 			
 			//-----------------------------------------------------------------
 			
+			/**
+			 * Initialises the given experts for playing a training game
+			 * @param experts
+			 */
+			private void initExperts(final List<ExpertPolicy> experts)
+			{
+				for (int p = 1; p < experts.size(); ++p)
+				{
+					if (experts.get(p) instanceof MCTS)
+					{
+						((MCTS)experts.get(p)).setNumThreads(agentsParams.numAgentThreads);
+						((MCTS)experts.get(p)).setUseScoreBounds(true);
+					}
+					
+					experts.get(p).initAI(game, p);
+					
+					if (objectiveParams.trainTSPG && !(experts.get(p) instanceof MCTS))
+						System.err.println("A non-MCTS expert cannot be used for training the TSPG objective!");
+				}
+			}
+			
+			/**
+			 * Plays a complete self-play game on the calling (worker) thread, 
+			 * with its own context and experts drawn from the menagerie. Only
+			 * collects experience; everything that touches data shared with 
+			 * the learner is left to the learner.
+			 * 
+			 * @param menagerie
+			 * @param publishedWeightsVersion Version of weights that the menagerie currently uses
+			 * @param stopSelfPlay Flag telling us to abort
+			 * @return The finished game, or null if we aborted it
+			 */
+			private SelfPlayGame playSelfPlayGame
+			(
+				final Menagerie menagerie,
+				final AtomicLong publishedWeightsVersion,
+				final AtomicBoolean stopSelfPlay
+			)
+			{
+				final Context context = new Context(game, new Trial(game));
+				context.setThreadConfined(true);
+				final RandomProviderDefaultState rngStartState = (RandomProviderDefaultState) context.rng().saveState();
+				game.start(context);
+				
+				// Get agents from menagerie
+				final DrawnAgentsData drawnExperts;
+				final long weightsVersion;
+				synchronized (menagerie)
+				{
+					weightsVersion = publishedWeightsVersion.get();
+					drawnExperts = menagerie.drawAgents(game, agentsParams);
+				}
+				final List<ExpertPolicy> experts = drawnExperts.getAgents();
+				initExperts(experts);
+				
+				// here we'll collect all tuples of experience during this game
+				final List<List<ExItExperience>> gameExperienceSamples = new ArrayList<List<ExItExperience>>(numPlayers + 1);
+				gameExperienceSamples.add(null);
+				for (int p = 1; p < experts.size(); ++p)
+				{
+					gameExperienceSamples.add(new ArrayList<ExItExperience>());
+				}
+				
+				int numActions = 0;
+				
+				while (!context.trial().over())
+				{
+					if (interrupted || stopSelfPlay.get())
+						break;
+					
+					// have expert choose action
+					final int mover = context.state().mover();
+					final ExpertPolicy expert = experts.get(context.state().playerToAgent(mover));
+					
+					expert.selectAction
+					(
+						game, 
+						expert.copyContext(context), 
+						agentsParams.thinkingTime,
+						agentsParams.iterationLimit,
+						agentsParams.depthLimit
+					);
+
+					final FastArrayList<Move> legalMoves = new FastArrayList<Move>();
+					for (final Move legalMove : expert.lastSearchRootMoves())
+					{
+						legalMoves.add(legalMove);
+					}
+
+					final FVector expertDistribution = expert.computeExpertPolicy(1.0);
+					final Move move = legalMoves.get(expertDistribution.sampleProportionally());
+					
+					// Collect experiences for this game (the learner will process and store them)
+					for (final ExItExperience newExperience : expert.generateExItExperiences())
+					{
+						gameExperienceSamples.get(newExperience.state().state().mover()).add(newExperience);
+					}
+					
+					// Apply chosen action
+					game.apply(context, move);
+					++numActions;
+				}
+				
+				for (int p = 1; p < experts.size(); ++p)
+				{
+					experts.get(p).closeAI();
+				}
+				
+				if (!context.trial().over())
+					return null;
+				
+				return new SelfPlayGame
+						(
+							context, drawnExperts, gameExperienceSamples, RankUtils.agentUtilities(context), 
+							new ExItGameRecord(game, rngStartState, context.trial().generateCompleteMovesList()),
+							numActions, weightsVersion
+						);
+			}
+			
+			/**
+			 * Waits until a self-play worker has finished a game
+			 * @param finishedGames
+			 * @param numActiveSelfPlayWorkers
+			 * @return The finished game, or null if we were interrupted (or all workers stopped)
+			 */
+			private SelfPlayGame takeFinishedGame
+			(
+				final LinkedBlockingQueue<SelfPlayGame> finishedGames,
+				final AtomicInteger numActiveSelfPlayWorkers
+			)
+			{
+				while (!interrupted)
+				{
+					try
+					{
+						final SelfPlayGame finishedGame = finishedGames.poll(1L, TimeUnit.SECONDS);
+						
+						if (finishedGame != null)
+							return finishedGame;
+						
+						if (numActiveSelfPlayWorkers.get() == 0 && finishedGames.isEmpty())
+							return null;
+					}
+					catch (final InterruptedException e)
+					{
+						e.printStackTrace();
+						return null;
+					}
+					
+					checkWallTime(0.05);
+				}
+				
+				return null;
+			}
+			
+			/**
+			 * Computes the state feature vector for the value function, and
+			 * updates data on feature activity, for a new experience.
+			 * 
+			 * @param experience
+			 * @param experienceMover
+			 * @param valueFunction
+			 * @param featureSets
+			 * @param featureLifetimes
+			 * @param featureActiveRatios
+			 * @param featureOccurrences
+			 * @param winningMovesFeatures
+			 * @param losingMovesFeatures
+			 * @param antiDefeatingMovesFeatures
+			 */
+			private void processNewExperience
+			(
+				final ExItExperience experience,
+				final int experienceMover,
+				final Heuristics valueFunction,
+				final BaseFeatureSet[] featureSets,
+				final TLongArrayList[] featureLifetimes,
+				final TDoubleArrayList[] featureActiveRatios,
+				final TLongArrayList[] featureOccurrences,
+				final BitSet[] winningMovesFeatures,
+				final BitSet[] losingMovesFeatures,
+				final BitSet[] antiDefeatingMovesFeatures
+			)
+			{
+				if (valueFunction != null)
+					experience.setStateFeatureVector(valueFunction.computeStateFeatureVector(experience.context(), experienceMover));
+				
+				// Update feature lifetimes, active ratios, winning/losing/anti-defeating features, etc.
+				updateFeatureActivityData
+				(
+					experience.context(), experienceMover, featureSets, 
+					featureLifetimes, featureActiveRatios, featureOccurrences, 
+					winningMovesFeatures, losingMovesFeatures, antiDefeatingMovesFeatures,
+					experience
+				);
+			}
+			
+			/**
+			 * Updates our weights once for every player-specific model, using
+			 * a batch sampled from that player's experience buffer.
+			 * 
+			 * @param featureSets
+			 * @param selectionPolicy
+			 * @param playoutPolicy
+			 * @param tspgPolicy
+			 * @param selectionFunctions
+			 * @param playoutFunctions
+			 * @param tspgFunctions
+			 * @param valueFunction
+			 * @param experienceBuffers
+			 * @param selectionOptimisers
+			 * @param playoutOptimisers
+			 * @param tspgOptimisers
+			 * @param valueFunctionOptimiser
+			 * @param avgGameDurations
+			 * @param menagerie
+			 */
+			private void updateWeights
+			(
+				final BaseFeatureSet[] featureSets,
+				final SoftmaxPolicyLinear selectionPolicy,
+				final SoftmaxPolicyLinear playoutPolicy,
+				final SoftmaxPolicyLinear tspgPolicy,
+				final LinearFunction[] selectionFunctions,
+				final LinearFunction[] playoutFunctions,
+				final LinearFunction[] tspgFunctions,
+				final Heuristics valueFunction,
+				final ExperienceBuffer[] experienceBuffers,
+				final Optimiser[] selectionOptimisers,
+				final Optimiser[] playoutOptimisers,
+				final Optimiser[] tspgOptimisers,
+				final Optimiser valueFunctionOptimiser,
+				final ExponentialMovingAverage[] avgGameDurations,
+				final Menagerie menagerie
+			)
+			{
+				final int batchSize = trainingParams.batchSize;
+				for (int p = 1; p <= numPlayers; ++p)
+				{
+					final List<ExItExperience> batch = experienceBuffers[p].sampleExperienceBatch(batchSize);
+
+					if (batch.size() == 0)
+						continue;
+					
+					final List<FVector> gradientsTSPG = new ArrayList<FVector>(batch.size());
+					final List<FVector> gradientsValueFunction = new ArrayList<FVector>(batch.size());
+					
+					// for PER
+					final int[] indices = new int[batch.size()];
+					final float[] priorities = new float[batch.size()];
+					
+					// for WIS
+					double sumImportanceSamplingWeights = 0.0;
+					
+					// Compute all the feature vectors for the batch at once (in sparse CSR format)
+					final FeatureVector[][] batchFeatureVectors = sparseGradientBatch.build(featureSets[p], batch);
+					
+					final FVector[] selectionTargets = new FVector[batch.size()];
+					final FVector[] playoutTargets = new FVector[batch.size()];
+					final float[] gradientWeights = new float[batch.size()];
+					final double[] importanceSamplingWeights = new double[batch.size()];
+					
+					for (int idx = 0; idx < batch.size(); ++idx)
+					{
+						final ExItExperience sample = batch.get(idx);
+						final FVector expertPolicy = sample.expertDistribution();
+						
+						selectionTargets[idx] = 
+								Gradients.computeTargetDistribution
+								(
+									expertPolicy, batchFeatureVectors[idx], objectiveParams.handleAliasing
+								);
+						playoutTargets[idx] = 
+								Gradients.computeTargetDistribution
+								(
+									expertPolicy, batchFeatureVectors[idx], objectiveParams.handleAliasingPlayouts
+								);
+
+						double importanceSamplingWeight = sample.weightVisitCount();
+						double nonImportanceSamplingWeight = 1.0;	// Also used to scale gradients, but doesn't count as IS
+						
+						if (objectiveParams.importanceSamplingEpisodeDurations)
+							importanceSamplingWeight *= (avgGameDurations[sample.state().state().mover()].movingAvg() / sample.episodeDuration());
+						
+						if (trainingParams.prioritizedExperienceReplay)
+						{
+							importanceSamplingWeight *= sample.weightPER();
+							indices[idx] = sample.bufferIdx();
+						}
+						
+						sumImportanceSamplingWeights += importanceSamplingWeight;
+						importanceSamplingWeights[idx] = importanceSamplingWeight;
+						gradientWeights[idx] = (float) (importanceSamplingWeight * nonImportanceSamplingWeight);
+					}
+					
+					// Note: NOT using sample.state().state().mover(), but p here, important to update
+					// shared weights correctly!
+					final FVector sumGradientsSelection = 
+							new FVector(selectionFunctions[p].trainableParams().allWeights().dim());
+					final FVector sumGradientsPlayout = 
+							new FVector(playoutFunctions[p].trainableParams().allWeights().dim());
+					final float[] absSelectionErrors = new float[batch.size()];
+					
+					sparseGradientBatch.computeCrossEntropyGradients
+					(
+						policyWeights(selectionPolicy, p), selectionTargets, gradientWeights, 
+						sumGradientsSelection, absSelectionErrors
+					);
+					sparseGradientBatch.computeCrossEntropyGradients
+					(
+						policyWeights(playoutPolicy, p), playoutTargets, gradientWeights, 
+						sumGradientsPlayout, null
+					);
+					
+					for (int idx = 0; idx < batch.size(); ++idx)
+					{
+						final ExItExperience sample = batch.get(idx);
+						final FeatureVector[] featureVectors = batchFeatureVectors[idx];
+						final double importanceSamplingWeight = importanceSamplingWeights[idx];
+						
+						if (trainingParams.prioritizedExperienceReplay)
+						{
+							// Minimum priority of 0.05 to avoid crashes with 0-error samples
+							priorities[idx] = Math.max(0.05f, absSelectionErrors[idx]);
+						}
+						
+						final FVector valueGradients = Gradients.computeValueGradients(valueFunction, p, sample);
+						
+						if (valueGradients != null)
+						{
+							valueGradients.mult((float) importanceSamplingWeight); 
+							gradientsValueFunction.add(valueGradients);
+						}
+						
+						if (objectiveParams.trainTSPG && p > 0)
+						{
+							// and gradients for TSPG
+							final FVector pi = 
+									tspgPolicy.computeDistribution(featureVectors, sample.state().state().mover());
+							final FVector expertQs = sample.expertValueEstimates();
+							
+							final FVector grads = new FVector(tspgFunctions[p].trainableParams().allWeights().dim());
+							for (int i = 0; i < sample.moves().size(); ++i)
+							{
+								final float expertQ = expertQs.get(i);
+								final float pi_sa = pi.get(i);
+								
+								for (int j = 0; j < sample.moves().size(); ++j)
+								{
+									final FeatureVector featureVector = featureVectors[j];
+									
+									// Dense representation for aspatial features
+									final FVector aspatialFeatureVals = featureVector.aspatialFeatureValues();
+									final int numAspatialFeatures = aspatialFeatureVals.dim();
+									
+									for (int k = 0; k < numAspatialFeatures; ++k)
+									{
+										if (i == j)
+											grads.addToEntry(k, aspatialFeatureVals.get(k) * expertQ * pi_sa * (1.f - pi_sa));
+										else
+											grads.addToEntry(k, aspatialFeatureVals.get(k) * expertQ * pi_sa * (0.f - pi.get(j)));
+									}
+									
+									// Sparse representation for spatial features (num aspatial features as offset for indexing)
+									final TIntArrayList sparseSpatialFeatures = featureVector.activeSpatialFeatureIndices();
+									
+									for (int k = 0; k < sparseSpatialFeatures.size(); ++k)
+									{
+										final int feature = sparseSpatialFeatures.getQuick(k);
+										
+										if (i == j)
+											grads.addToEntry(feature + numAspatialFeatures, expertQ * pi_sa * (1.f - pi_sa));
+										else
+											grads.addToEntry(feature + numAspatialFeatures, expertQ * pi_sa * (0.f - pi.get(j)));
+									}
+								}
+							}
+
+							grads.mult(gradientWeights[idx]);
+							gradientsTSPG.add(grads);
+						}
+					}
+					
+					final FVector meanGradientsSelection;
+					final FVector meanGradientsPlayout;
+					final FVector meanGradientsValue;
+					final FVector meanGradientsTSPG;
+					
+					if (objectiveParams.weightedImportanceSampling)
+					{
+						// For WIS, we don't divide by number of vectors, but by sum of IS weights
+						meanGradientsSelection = sumGradientsSelection;
+						meanGradientsPlayout = sumGradientsPlayout;
+						
+						if (sumImportanceSamplingWeights > 0.0)
+						{
+							meanGradientsSelection.div((float)sumImportanceSamplingWeights);
+							meanGradientsPlayout.div((float)sumImportanceSamplingWeights);
+						}
+						
+						meanGradientsValue = Gradients.wisGradients(gradientsValueFunction, (float)sumImportanceSamplingWeights);
+						meanGradientsTSPG = Gradients.wisGradients(gradientsTSPG, (float)sumImportanceSamplingWeights);
+					}
+					else
+					{
+						meanGradientsSelection = sumGradientsSelection;
+						meanGradientsSelection.div(batch.size());
+						meanGradientsPlayout = sumGradientsPlayout;
+						meanGradientsPlayout.div(batch.size());
+						meanGradientsValue = Gradients.meanGradients(gradientsValueFunction);
+						meanGradientsTSPG = Gradients.meanGradients(gradientsTSPG);
+					}
+					
+					Gradients.minimise
+					(
+						selectionOptimisers[p], 
+						selectionFunctions[p].trainableParams().allWeights(), 
+						meanGradientsSelection, 
+						(float)objectiveParams.weightDecayLambda
+					);
+					Gradients.minimise
+					(
+						playoutOptimisers[p], 
+						playoutFunctions[p].trainableParams().allWeights(), 
+						meanGradientsPlayout, 
+						(float)objectiveParams.weightDecayLambda
+					);
+					
+					synchronized (menagerie)
+					{
+						menagerie.updateDevFeatures(AIUtils.generateFeaturesMetadata(selectionPolicy, playoutPolicy));
+					}
+					
+					if (meanGradientsValue != null && valueFunction != null)
+					{
+						final FVector valueFunctionParams = valueFunction.paramsVector();
+						Gradients.minimise
+						(
+							valueFunctionOptimiser, 	// TODO dont we need separate one per player??????
+							valueFunctionParams, 
+							meanGradientsValue, 
+							(float)objectiveParams.weightDecayLambda
+						);
+						
+						valueFunction.updateParams(game, valueFunctionParams, 0);
+						synchronized (menagerie)
+						{
+							menagerie.updateDevHeuristics(Heuristics.copy(valueFunction));
+						}
+					}
+					
+					if (objectiveParams.trainTSPG && p > 0)
+					{
+						// NOTE: maximise here instead of minimise!
+						Gradients.maximise
+						(
+							tspgOptimisers[p], 
+							tspgFunctions[p].trainableParams().allWeights(), 
+							meanGradientsTSPG, 
+							(float)objectiveParams.weightDecayLambda
+						);
+					}
+					
+					// update PER priorities
+					if (trainingParams.prioritizedExperienceReplay && p > 0)
+					{
+						final PrioritizedReplayBuffer buffer = (PrioritizedReplayBuffer) experienceBuffers[p];
+						buffer.setPriorities(indices, priorities);
+					}
+				}
+			}
+			
+			/**
+			 * @param policy
+			 * @param p
+			 * @return Weights used by given policy to compute logits for player p
+			 */
+			private FVector policyWeights(final SoftmaxPolicyLinear policy, final int p)
+			{
+				final LinearFunction[] linearFunctions = policy.linearFunctions();
+				
+				if (linearFunctions.length == 1)
+					return linearFunctions[0].effectiveParams().allWeights();
+				else
+					return linearFunctions[p].effectiveParams().allWeights();
+			}
+			
+			/**
+			 * Stores all the experience collected in a finished game in our buffers
+			 * @param gameExperienceSamples
+			 * @param playerOutcomes
+			 * @param gameRecord Record of the game, allows buffers to store experience in compact form
+			 * @param experienceBuffers
+			 * @param specialMoveExperienceBuffers
+			 * @param avgGameDurations
+			 */
+			private void storeGameExperience
+			(
+				final List<List<ExItExperience>> gameExperienceSamples,
+				final double[] playerOutcomes,
+				final ExItGameRecord gameRecord,
+				final ExperienceBuffer[] experienceBuffers,
+				final ExperienceBuffer[] specialMoveExperienceBuffers,
+				final ExponentialMovingAverage[] avgGameDurations
+			)
+			{
+				// Game is over, we can now store all experience collected in the real buffers
+				for (int p = 1; p <= numPlayers; ++p)
+				{
+					final List<ExItExperience> pExperience = gameExperienceSamples.get(p);
+
+					// Note: not really game duration! Just from perspective of one player!
+					final int gameDuration = pExperience.size();	// NOTE: technically wrong for non-root experiences
+					
+					avgGameDurations[p].observe(gameDuration);
+					
+//							// For WED we want to weigh this observation proportionally to the value of the observation itself
+//							for (int i = 0; i < gameDuration; ++i)
+//							{
+//								avgGameDurations[p].observe(gameDuration);
+//							}
+					
+					// Shuffle experiences so they're no longer in chronological order
+					Collections.shuffle(pExperience, ThreadLocalRandom.current());
+					
+					for (final ExItExperience experience : pExperience)
+					{
+						experience.setEpisodeDuration(gameDuration);
+						experience.setPlayerOutcomes(playerOutcomes);
+						experience.setGameRecord(gameRecord);
+						experienceBuffers[p].add(experience);
+						
+						if 
+						(
+							!experience.winningMoves().isEmpty() 
+							|| 
+							!experience.losingMoves().isEmpty() 
+							|| 
+							!experience.antiDefeatingMoves().isEmpty()
+						)
+						{
+							specialMoveExperienceBuffers[p].add(experience);
+						}
+					}
+				}
+			}
+			
+			/**
+			 * Logs throughput of self-play, in terms of finished games and experience samples
+			 * @param numGamesFinished
+			 * @param numSamplesFinished
+			 * @param startTime
+			 */
+			private void logThroughput(final long numGamesFinished, final long numSamplesFinished, final long startTime)
+			{
+				final double elapsedSeconds = Math.max(1L, System.currentTimeMillis() - startTime) / 1000.0;
+				logLine
+				(
+					logWriter, 
+					String.format
+					(
+						"Throughput: %.2f games/hour, %.2f samples/sec", 
+						Double.valueOf(numGamesFinished * 3600.0 / elapsedSeconds),
+						Double.valueOf(numSamplesFinished / elapsedSeconds)
+					)
+				);
+			}
+			
+			//-----------------------------------------------------------------
+			
 			/**
 			 * Updates data related to which features are active how often,
+
 			 * their lifetimes, whether they are special types of moves 
 			 * (like 100% winning moves), etc.
 			 * 
@@ -2527,6 +3028,83 @@ public class ExpertIteration
 	
 	//-------------------------------------------------------------------------
 	
+	/**
+	 * A game played by a self-play worker (in actor/learner mode), with all
+	 * the experience collected in it.
+	 * 
+	 * @author Dennis Soemers
+	 */
+	private static final class SelfPlayGame
+	{
+		
+		/** Context at the end of the game */
+		protected final Context context;
+		
+		/** The experts that played the game */
+		protected final DrawnAgentsData drawnExperts;
+		
+		/** For every player, the experience collected for that player (not processed yet) */
+		protected final List<List<ExItExperience>> experienceSamples;
+		
+		/** Outcomes (utilities) for all players */
+		protected final double[] playerOutcomes;
+		
+		/** Record of the game (RNG start state and moves) */
+		protected final ExItGameRecord gameRecord;
+		
+		/** Number of actions played in the game */
+		protected final int numActions;
+		
+		/** Version (number of weight updates) of the weights that the experts were created with */
+		protected final long weightsVersion;
+		
+		/**
+		 * Constructor
+		 * @param context
+		 * @param drawnExperts
+		 * @param experienceSamples
+		 * @param playerOutcomes
+		 * @param gameRecord
+		 * @param numActions
+		 * @param weightsVersion
+		 */
+		public SelfPlayGame
+		(
+			final Context context, 
+			final DrawnAgentsData drawnExperts,
+			final List<List<ExItExperience>> experienceSamples,
+			final double[] playerOutcomes,
+			final ExItGameRecord gameRecord,
+			final int numActions,
+			final long weightsVersion
+		)
+		{
+			this.context = context;
+			this.drawnExperts = drawnExperts;
+			this.experienceSamples = experienceSamples;
+			this.playerOutcomes = playerOutcomes;
+			this.gameRecord = gameRecord;
+			this.numActions = numActions;
+			this.weightsVersion = weightsVersion;
+		}
+		
+		/**
+		 * @return Total number of experience samples collected in the game
+		 */
+		public int numSamples()
+		{
+			int numSamples = 0;
+			for (int p = 1; p < experienceSamples.size(); ++p)
+			{
+				numSamples += experienceSamples.get(p).size();
+			}
+			return numSamples;
+		}
+		
+	}
+	
+	//-------------------------------------------------------------------------
+	
 	/**
 	 * Can be used for quick testing without command-line args, or proper
 	 * testing with elaborate setup through command-line args
@@ -2623,6 +3201,12 @@ public class ExpertIteration
 				.withDefault(Integer.valueOf(1))
 				.withNumVals(1)
 				.withType(OptionTypes.Int));
+		argParse.addOption(new ArgOption()
+				.withNames("--num-self-play-threads")
+				.help("Number of threads playing self-play games in parallel with learning (1 for sequential training).")
+				.withDefault(Integer.valueOf(1))
+				.withNumVals(1)
+				.withType(OptionTypes.Int));
 		
 		argParse.addOption(new ArgOption()
 				.withNames("-n", "--num-games", "--num-training-games")
@@ -2875,6 +3459,7 @@ public class ExpertIteration
 		exIt.trainingParams.pgGamma = argParse.getValueDouble("--pg-gamma");
 		exIt.trainingParams.entropyRegWeight = argParse.getValueDouble("--entropy-reg-weight");
 		exIt.trainingParams.numPolicyGradientThreads = argParse.getValueInt("--num-policy-gradient-threads");
+		exIt.trainingParams.numSelfPlayThreads = argParse.getValueInt("--num-self-play-threads");
 		exIt.trainingParams.postPGWeightScalar = argParse.getValueDouble("--post-pg-weight-scalar");
 		
 		exIt.featureDiscoveryParams.addFeatureEvery = argParse.getValueInt("--add-feature-every");
@@ -60,6 +60,26 @@ public class Gradients
 	)
 	{
 		final FVector apprenticePolicy = policy.computeDistribution(featureVectors, p);
+		final FVector expertPolicy = computeTargetDistribution(expertDistribution, featureVectors, handleAliasing);
+		return computeDistributionErrors(apprenticePolicy, expertPolicy);
+	}
+	
+	/**
+	 * @param expertDistribution
+	 * @param featureVectors
+	 * @param handleAliasing
+	 * @return Target distribution for cross-entropy losses. This is the expert 
+	 * 	distribution itself, or a modified copy in which moves with identical
+	 * 	(aliased) feature vectors all have the max probability among them if we 
+	 * 	handle aliasing.
+	 */
+	public static FVector computeTargetDistribution
+	(
+		final FVector expertDistribution, 
+		final FeatureVector[] featureVectors,
+		final boolean handleAliasing
+	)
+	{
 		final FVector expertPolicy;
 		
 		if (handleAliasing)
@@ -136,7 +156,7 @@ public class Gradients
 			expertPolicy = expertDistribution;
 		}
 		
-		return computeDistributionErrors(apprenticePolicy, expertPolicy);
+		return expertPolicy;
 	}
 	
 	/**
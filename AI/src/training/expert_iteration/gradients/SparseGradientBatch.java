@@ -0,0 +1,403 @@
+package training.expert_iteration.gradients;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import features.FeatureVector;
+import features.feature_sets.BaseFeatureSet;
+import gnu.trove.list.array.TIntArrayList;
+import main.DaemonThreadFactory;
+import main.collections.FVector;
+import training.expert_iteration.ExItExperience;
+
+/**
+ * Minibatch of sparse feature vectors for all (sample, move) pairs of a batch
+ * of experience, stored in Compressed Sparse Row (CSR) format: one row per
+ * (sample, move) pair, with dense values for aspatial features and column
+ * indices of active spatial features.
+ *
+ * Provides a kernel that computes cross-entropy gradients for a linear softmax
+ * policy over the complete batch in one pass (logits, softmax, errors), and
+ * scatter-adds the gradients into weight-sized buffers that are reused across
+ * batches, rather than allocating a dense vector of gradients for every sample.
+ * Work is split across samples over multiple threads (with one buffer per thread,
+ * summed up at the end).
+ *
+ * Objects of this class are not thread-safe themselves; they are intended to
+ * be used by a single learner.
+ *
+ * @author Dennis Soemers
+ */
+public final class SparseGradientBatch
+{
+
+	//-------------------------------------------------------------------------
+	
+	/** Number of threads we use */
+	private final int numThreads;
+	
+	/** Thread pool (null if we only use a single thread) */
+	private final ExecutorService threadPool;
+	
+	/** One reusable buffer of gradients per thread */
+	private final float[][] threadGradients;
+	
+	/** Number of samples in current batch */
+	private int numSamples = 0;
+	
+	/** For every sample, index of its first row (with one extra entry at the end) */
+	private int[] sampleRowStarts = new int[1];
+	
+	/** Number of aspatial features (same for every row) */
+	private int numAspatialFeatures = 0;
+	
+	/** Dense aspatial feature values; numAspatialFeatures consecutive entries per row */
+	private float[] aspatialValues = new float[0];
+	
+	/** For every row, index of its first active spatial feature (with one extra entry at the end) */
+	private int[] spatialRowStarts = new int[1];
+	
+	/** Indices of active spatial features, for all rows */
+	private int[] spatialIndices = new int[0];
+	
+	/** Reusable buffer for logits (and probabilities) of every row */
+	private float[] logits = new float[0];
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 * @param numThreads Number of threads to split work across samples over
+	 */
+	public SparseGradientBatch(final int numThreads)
+	{
+		this.numThreads = Math.max(1, numThreads);
+		threadPool =
+				(this.numThreads > 1) ?
+				Executors.newFixedThreadPool(this.numThreads, DaemonThreadFactory.INSTANCE) : null;
+		threadGradients = new float[this.numThreads][0];
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Computes feature vectors for all legal moves of all given samples (in
+	 * parallel across samples), and builds our CSR representation of them.
+	 *
+	 * @param featureSet
+	 * @param samples
+	 * @return For every sample, the array of feature vectors (one per legal move)
+	 */
+	public FeatureVector[][] build(final BaseFeatureSet featureSet, final List<ExItExperience> samples)
+	{
+		final FeatureVector[][] featureVectors = new FeatureVector[samples.size()][];
+		
+		runParallel
+		(
+			samples.size(),
+			(final int threadIdx, final int from, final int to) ->
+			{
+				for (int i = from; i < to; ++i)
+				{
+					final ExItExperience sample = samples.get(i);
+					featureVectors[i] =
+							featureSet.computeFeatureVectors
+							(
+								sample.state().state(),
+								sample.state().lastDecisionMove(),
+								sample.moves(),
+								false
+							);
+				}
+			}
+		);
+		
+		build(featureVectors);
+		return featureVectors;
+	}
+	
+	/**
+	 * Builds our CSR representation of the given feature vectors
+	 * @param featureVectors For every sample, one feature vector per legal move
+	 */
+	public void build(final FeatureVector[][] featureVectors)
+	{
+		numSamples = featureVectors.length;
+		
+		int numRows = 0;
+		int numSpatialEntries = 0;
+		numAspatialFeatures = 0;
+		
+		for (final FeatureVector[] sampleVectors : featureVectors)
+		{
+			numRows += sampleVectors.length;
+			for (final FeatureVector featureVector : sampleVectors)
+			{
+				numSpatialEntries += featureVector.activeSpatialFeatureIndices().size();
+				numAspatialFeatures = featureVector.aspatialFeatureValues().dim();
+			}
+		}
+		
+		if (sampleRowStarts.length < numSamples + 1)
+			sampleRowStarts = new int[numSamples + 1];
+		if (spatialRowStarts.length < numRows + 1)
+			spatialRowStarts = new int[numRows + 1];
+		if (spatialIndices.length < numSpatialEntries)
+			spatialIndices = new int[numSpatialEntries];
+		if (aspatialValues.length < numRows * numAspatialFeatures)
+			aspatialValues = new float[numRows * numAspatialFeatures];
+		if (logits.length < numRows)
+			logits = new float[numRows];
+		
+		int row = 0;
+		int spatialEntry = 0;
+		
+		for (int s = 0; s < numSamples; ++s)
+		{
+			sampleRowStarts[s] = row;
+			
+			for (final FeatureVector featureVector : featureVectors[s])
+			{
+				final FVector aspatial = featureVector.aspatialFeatureValues();
+				assert (aspatial.dim() == numAspatialFeatures);
+				for (int k = 0; k < numAspatialFeatures; ++k)
+				{
+					aspatialValues[row * numAspatialFeatures + k] = aspatial.get(k);
+				}
+				
+				spatialRowStarts[row] = spatialEntry;
+				final TIntArrayList activeSpatial = featureVector.activeSpatialFeatureIndices();
+				for (int k = 0; k < activeSpatial.size(); ++k)
+				{
+					spatialIndices[spatialEntry++] = activeSpatial.getQuick(k);
+				}
+				
+				++row;
+			}
+		}
+		
+		sampleRowStarts[numSamples] = row;
+		spatialRowStarts[row] = spatialEntry;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Computes the gradients of the cross-entropy loss of a linear softmax policy
+	 * with respect to given target distributions, summed over all samples in the batch.
+	 *
+	 * @param weights Weights of the linear function (first aspatial, then spatial features)
+	 * @param targets For every sample, target distribution over its legal moves
+	 * @param sampleWeights For every sample, weight to multiply its gradients by
+	 * @param outGradients Vector (with same dimensionality as weights) in which we'll
+	 * 	store the (weighted) sum of gradients over all samples
+	 * @param outAbsErrorSums If not null, for every sample we'll store the sum of absolute
+	 * 	errors (apprentice - target) in here
+	 */
+	public void computeCrossEntropyGradients
+	(
+		final FVector weights,
+		final FVector[] targets,
+		final float[] sampleWeights,
+		final FVector outGradients,
+		final float[] outAbsErrorSums
+	)
+	{
+		final int dim = outGradients.dim();
+		assert (targets.length == numSamples);
+		assert (sampleWeights.length == numSamples);
+		
+		runParallel
+		(
+			numSamples,
+			(final int threadIdx, final int from, final int to) ->
+			{
+				if (threadGradients[threadIdx].length < dim)
+					threadGradients[threadIdx] = new float[dim];
+				
+				final float[] grads = threadGradients[threadIdx];
+				Arrays.fill(grads, 0, dim, 0.f);
+				
+				for (int s = from; s < to; ++s)
+				{
+					final int rowStart = sampleRowStarts[s];
+					final int rowEnd = sampleRowStarts[s + 1];
+					
+					// Compute logits (keeping track of max for numerical stability of softmax)
+					float maxLogit = Float.NEGATIVE_INFINITY;
+					for (int row = rowStart; row < rowEnd; ++row)
+					{
+						float logit = 0.f;
+						
+						final int aspatialOffset = row * numAspatialFeatures;
+						for (int k = 0; k < numAspatialFeatures; ++k)
+						{
+							logit += aspatialValues[aspatialOffset + k] * weights.get(k);
+						}
+						
+						for (int e = spatialRowStarts[row]; e < spatialRowStarts[row + 1]; ++e)
+						{
+							logit += weights.get(spatialIndices[e] + numAspatialFeatures);
+						}
+						
+						logits[row] = logit;
+						maxLogit = Math.max(maxLogit, logit);
+					}
+					
+					// Softmax
+					double sumExponents = 0.0;
+					for (int row = rowStart; row < rowEnd; ++row)
+					{
+						final double exp = Math.exp(logits[row] - maxLogit);
+						sumExponents += exp;
+						logits[row] = (float) exp;
+					}
+					
+					// Errors, and scatter-add gradients
+					final FVector target = targets[s];
+					final float sampleWeight = sampleWeights[s];
+					float absErrorSum = 0.f;
+					
+					for (int row = rowStart; row < rowEnd; ++row)
+					{
+						final float error = (float) (logits[row] / sumExponents) - target.get(row - rowStart);
+						absErrorSum += Math.abs(error);
+						final float scaledError = error * sampleWeight;
+						
+						final int aspatialOffset = row * numAspatialFeatures;
+						for (int k = 0; k < numAspatialFeatures; ++k)
+						{
+							grads[k] += scaledError * aspatialValues[aspatialOffset + k];
+						}
+						
+						for (int e = spatialRowStarts[row]; e < spatialRowStarts[row + 1]; ++e)
+						{
+							grads[spatialIndices[e] + numAspatialFeatures] += scaledError;
+						}
+					}
+					
+					if (outAbsErrorSums != null)
+						outAbsErrorSums[s] = absErrorSum;
+				}
+			}
+		);
+		
+		// Sum up buffers of all threads that did any work (also split over threads, by dimension)
+		final int numActiveThreads = Math.min(numThreads, numSamples);
+		runParallel
+		(
+			dim,
+			(final int threadIdx, final int from, final int to) ->
+			{
+				for (int i = from; i < to; ++i)
+				{
+					float sum = 0.f;
+					for (int t = 0; t < numActiveThreads; ++t)
+					{
+						sum += threadGradients[t][i];
+					}
+					outGradients.set(i, sum);
+				}
+			}
+		);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Shuts down our thread pool
+	 */
+	public void close()
+	{
+		if (threadPool != null)
+			threadPool.shutdown();
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Splits the range [0, n) into contiguous chunks, one per thread, and runs
+	 * the given task for every chunk (waiting for all of them to complete).
+	 * Rethrows the first exception thrown by any of the tasks.
+	 *
+	 * @param n
+	 * @param task
+	 */
+	private void runParallel(final int n, final RangeTask task)
+	{
+		final int numTasks = Math.min(numThreads, n);
+		
+		if (numTasks <= 1)
+		{
+			if (n > 0)
+				task.run(0, 0, n);
+			return;
+		}
+		
+		final CountDownLatch latch = new CountDownLatch(numTasks);
+		final AtomicReference<RuntimeException> exception = new AtomicReference<RuntimeException>();
+		
+		for (int t = 0; t < numTasks; ++t)
+		{
+			final int threadIdx = t;
+			final int from = (int) (((long) n * t) / numTasks);
+			final int to = (int) (((long) n * (t + 1)) / numTasks);
+			
+			threadPool.submit
+			(
+				() ->
+				{
+					try
+					{
+						task.run(threadIdx, from, to);
+					}
+					catch (final RuntimeException e)
+					{
+						exception.compareAndSet(null, e);
+					}
+					finally
+					{
+						latch.countDown();
+					}
+				}
+			);
+		}
+		
+		try
+		{
+			latch.await();
+		}
+		catch (final InterruptedException e)
+		{
+			// Some tasks may still be running, so our buffers cannot be used
+			Thread.currentThread().interrupt();
+			exception.compareAndSet(null, new IllegalStateException("Interrupted while waiting for tasks", e));
+		}
+		
+		// Never let results of a failed task (zeros or partial gradients) be used
+		if (exception.get() != null)
+			throw exception.get();
+	}
+	
+	/**
+	 * Task to run for a contiguous range of indices
+	 *
+	 * @author Dennis Soemers
+	 */
+	private interface RangeTask
+	{
+		/**
+		 * @param threadIdx Index of the thread (in [0, numThreads))
+		 * @param from First index (inclusive)
+		 * @param to Last index (exclusive)
+		 */
+		void run(final int threadIdx, final int from, final int to);
+	}
+	
+	//-------------------------------------------------------------------------
+
+}
@@ -46,6 +46,9 @@ public class TrainingParams
 	/** After running policy gradients, scale obtained weights by this value */
 	public double postPGWeightScalar;
 	
+	/** Number of threads playing self-play games in parallel with learning (1 for sequential training) */
+	public int numSelfPlayThreads;
+	
 	//-------------------------------------------------------------------------
 
 }
@@ -17,11 +17,8 @@ import features.spatial.FeatureUtils;
 import features.spatial.SpatialFeature;
 import features.spatial.instances.FeatureInstance;
 import game.Game;
-import gnu.trove.impl.Constants;
 import gnu.trove.list.array.TDoubleArrayList;
 import gnu.trove.list.array.TIntArrayList;
-import gnu.trove.map.hash.TObjectDoubleHashMap;
-import gnu.trove.map.hash.TObjectIntHashMap;
 import main.collections.FVector;
 import main.collections.FastArrayList;
 import main.collections.ListUtils;
@@ -138,14 +135,6 @@ public class CorrelationBasedExpander implements FeatureSetExpander
 //		System.out.println("-------------------------------------------------------------------");
 		int numCases = 0;	// we'll increment  this as we go
 
-		// this is our C_f matrix
-		final TObjectIntHashMap<CombinableFeatureInstancePair> featurePairActivations = 
-				new TObjectIntHashMap<CombinableFeatureInstancePair>(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, 0);
-
-		// this is our C_e matrix
-		final TObjectDoubleHashMap<CombinableFeatureInstancePair> errorSums = 
-				new TObjectDoubleHashMap<CombinableFeatureInstancePair>(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, 0.0);
-
 		// these are our S and SS scalars
 		double sumErrors = 0.0;
 		double sumSquaredErrors = 0.0;
@@ -163,6 +152,11 @@ public class CorrelationBasedExpander implements FeatureSetExpander
 		{
 			existingFeatures.add(feature);
 		}
+		
+		// these are our (sparse) C_f and C_e matrices; we first collect all cases, and
+		// afterwards count co-occurrences for all of them in parallel
+		final FeatureInstancePairCounter pairCounter = 
+				new FeatureInstancePairCounter(game, existingFeatures, featureDiscoveryParams);
 
 		// For every sample in batch, first compute apprentice policies, errors, and sum of absolute errors
 		final FVector[] apprenticePolicies = new FVector[batch.size()];
@@ -374,10 +368,6 @@ public class CorrelationBasedExpander implements FeatureSetExpander
 			{
 				final int a = sortedActionIndices.getQuick(aIdx);
 				
-				// keep track of pairs we've already seen in this "case"
-				final Set<CombinableFeatureInstancePair> observedCasePairs = 
-						new HashSet<CombinableFeatureInstancePair>(256, .75f);
-
 				// list --> set --> list to get rid of duplicates
 				final List<FeatureInstance> activeInstances = new ArrayList<FeatureInstance>(new HashSet<FeatureInstance>(
 						featureSet.getActiveSpatialFeatureInstances
@@ -543,9 +533,6 @@ public class CorrelationBasedExpander implements FeatureSetExpander
 						discardedInstances.add(combinedSelf);
 				}
 
-				final int numActiveInstances = instancesToKeep.size();
-				//System.out.println("numActiveInstances = " + numActiveInstances);
-
 				float error = errors.get(a);
 				if (winningMoves.get(a))
 				{
@@ -563,172 +550,7 @@ public class CorrelationBasedExpander implements FeatureSetExpander
 				sumErrors += error;
 				sumSquaredErrors += error * error;
 
-				for (int i = 0; i < numActiveInstances; ++i)
-				{
-					final FeatureInstance instanceI = instancesToKeep.get(i);
-
-					// increment entries on ''main diagonals''
-					final CombinableFeatureInstancePair combinedSelf = instancesToKeepCombinedSelfs.get(i);
-					
-//					boolean relevantConstituent = false;
-//					if (!combinedSelf.combinedFeature.isReactive())
-//					{
-//						if (combinedSelf.combinedFeature.pattern().featureElements().length == 1)
-//						{
-//							relevantConstituent = true;
-//							final FeatureElement element = combinedSelf.combinedFeature.pattern().featureElements()[0];
-//							if 
-//							(
-//								element.not() 
-//								|| 
-//								element.type() != ElementType.Friend
-//								||
-//								((RelativeFeatureElement)element).walk().steps().size() != 2
-//								||
-//								((RelativeFeatureElement)element).walk().equals(new Walk(0.f, 0.f))
-//								||
-//								((RelativeFeatureElement)element).walk().equals(new Walk(1.f/6, 1.f/3))
-//								||
-//								((RelativeFeatureElement)element).walk().equals(new Walk(0.f, 1.f/3))
-//								||
-//								((RelativeFeatureElement)element).walk().equals(new Walk(0.5f, 1.f/3))
-//								||
-//								((RelativeFeatureElement)element).walk().equals(new Walk(0.5f, -1.f/3))
-//								||
-//								((RelativeFeatureElement)element).walk().equals(new Walk(0.f, 1.f/3))
-//								||
-//								((RelativeFeatureElement)element).walk().equals(new Walk(1.f/6, 0.f))
-//								||
-//								((RelativeFeatureElement)element).walk().equals(new Walk(1.f/3, 0.f))
-//								||
-//								((RelativeFeatureElement)element).walk().equals(new Walk(0.5f, 0.f))
-//								||
-//								((RelativeFeatureElement)element).walk().equals(new Walk(1.f/3, 1.f/3))
-//								||
-//								((RelativeFeatureElement)element).walk().equals(new Walk(-1.f/3, 1.f/3))
-//								||
-//								((RelativeFeatureElement)element).walk().equals(new Walk(0.f, -1.f/3))
-//								||
-//								((RelativeFeatureElement)element).walk().equals(new Walk(1.f/3, -1.f/3))
-//								||
-//								((RelativeFeatureElement)element).walk().equals(new Walk(-1.f/6, 1.f/3))
-//								||
-//								((RelativeFeatureElement)element).walk().equals(new Walk(1.f/6, -1.f/3))
-//							)
-//							{
-//								relevantConstituent = false;
-//							}
-//						}
-//					}
-//					if (relevantConstituent)
-//					{
-//						System.out.println("relevant constituent " + i + ": " + instanceI);
-//						++numRelevantConstituents;
-//					}
-
-					if (observedCasePairs.add(combinedSelf))
-					{
-						featurePairActivations.adjustOrPutValue(combinedSelf, 1, 1);
-						errorSums.adjustOrPutValue(combinedSelf, error, error);
-						
-//						if (relevantConstituent)
-//							System.out.println("incremented for constituent " + i);
-					}
-//					else if (relevantConstituent)
-//					{
-//						System.out.println("Already observed for this action, so no increment for constituent " + i); 
-//					}
-
-					for (int j = i + 1; j < numActiveInstances; ++j)
-					{
-						final FeatureInstance instanceJ = instancesToKeep.get(j);
-
-						// increment off-diagonal entries
-						final CombinableFeatureInstancePair combined = 
-								new CombinableFeatureInstancePair(game, instanceI, instanceJ);
-						
-//						boolean relevantCombined = false;
-//						if (!combined.combinedFeature.isReactive() && combined.combinedFeature.pattern().featureElements().length == 2)
-//						{
-//							boolean onlyFriendElements = true;
-//							for (final FeatureElement element : combined.combinedFeature.pattern().featureElements())
-//							{
-//								if 
-//								(
-//									element.not() 
-//									|| 
-//									element.type() != ElementType.Friend
-//									||
-//									((RelativeFeatureElement)element).walk().steps().size() != 2
-//									||
-//									((RelativeFeatureElement)element).walk().equals(new Walk(0.f, 0.f))
-//									||
-//									((RelativeFeatureElement)element).walk().equals(new Walk(1.f/6, 1.f/3))
-//									||
-//									((RelativeFeatureElement)element).walk().equals(new Walk(0.f, 1.f/3))
-//									||
-//									((RelativeFeatureElement)element).walk().equals(new Walk(0.5f, 1.f/3))
-//									||
-//									((RelativeFeatureElement)element).walk().equals(new Walk(0.5f, -1.f/3))
-//									||
-//									((RelativeFeatureElement)element).walk().equals(new Walk(0.f, 1.f/3))
-//									||
-//									((RelativeFeatureElement)element).walk().equals(new Walk(1.f/6, 0.f))
-//									||
-//									((RelativeFeatureElement)element).walk().equals(new Walk(1.f/3, 0.f))
-//									||
-//									((RelativeFeatureElement)element).walk().equals(new Walk(0.5f, 0.f))
-//									||
-//									((RelativeFeatureElement)element).walk().equals(new Walk(1.f/3, 1.f/3))
-//									||
-//									((RelativeFeatureElement)element).walk().equals(new Walk(-1.f/3, 1.f/3))
-//									||
-//									((RelativeFeatureElement)element).walk().equals(new Walk(0.f, -1.f/3))
-//									||
-//									((RelativeFeatureElement)element).walk().equals(new Walk(1.f/3, -1.f/3))
-//									||
-//									((RelativeFeatureElement)element).walk().equals(new Walk(-1.f/6, 1.f/3))
-//									||
-//									((RelativeFeatureElement)element).walk().equals(new Walk(1.f/6, -1.f/3))
-//								)
-//								{
-//									onlyFriendElements = false;
-//									break;
-//								}
-//							}
-//							
-//							if (onlyFriendElements)
-//								relevantCombined = true;
-//						}
-						
-//						if (relevantCombined)
-//						{
-//							System.out.println("relevant combined feature: " + combined.combinedFeature);
-//							System.out.println("from constituent " + i + " = " + instanceI);
-//							System.out.println("from constituent " + j + " = " + instanceJ);
-//						}
-
-						if (!existingFeatures.contains(combined.combinedFeature))
-						{
-							if (observedCasePairs.add(combined))
-							{
-								featurePairActivations.adjustOrPutValue(combined, 1, 1);
-								errorSums.adjustOrPutValue(combined, error, error);
-//								
-//								if (relevantCombined)
-//									System.out.println("incremented for combined");
-							}
-//							else if (relevantCombined)
-//							{
-//								System.out.println("didn't add combined because already observed for this action ");
-//							}
-						}
-//						else if (relevantCombined)
-//						{
-//							System.out.println("didn't add combined because feature already exists");
-//						}
-					}
-				}
+				pairCounter.addCase(instancesToKeep, instancesToKeepCombinedSelfs, error);
 				
 //				if (numRelevantConstituents == 1)
 //					System.out.println("origActiveInstances = " + origActiveInstances);
@@ -768,226 +590,21 @@ public class CorrelationBasedExpander implements FeatureSetExpander
 		// Randomly pick a minimum required sample size in [3, 5]
 		final int requiredSampleSize = 3 + ThreadLocalRandom.current().nextInt(3);
 
-		for (final CombinableFeatureInstancePair pair : featurePairActivations.keySet())
+		pairCounter.countPairs();
+		for 
+		(
+			final ScoredFeatureInstancePair scoredPair : 
+			pairCounter.scorePairs
+			(
+				numCases, sumErrors, sumSquaredErrors, 
+				requiredSampleSize, featureDiscoveryParams.criticalValueCorrConf
+			)
+		)
 		{
-//			int numFriendElements = 0;
-//			for (final FeatureElement element : ((RelativeFeature) pair.combinedFeature).pattern().featureElements())
-//			{
-//				if (element.type() == ElementType.Friend && !element.not())
-//					++numFriendElements;
-//			}
-//			final boolean couldBeWinFeature = (numFriendElements >= 3);
-//			final boolean couldBeLossFeature = (numFriendElements == 2);
-			
-			if (!pair.a.equals(pair.b))	// Only interested in combinations of different instances
-			{
-//				if (pair.combinedFeature.toString().equals("rel:to=<{}>:pat=<els=[f{-1/6,1/6}, f{0,-1/6}]>"))
-//				{
-//					final int pairActs = featurePairActivations.get(pair);
-//					final int actsI = featurePairActivations.get(new CombinableFeatureInstancePair(game, pair.a, pair.a));
-//					final int actsJ = featurePairActivations.get(new CombinableFeatureInstancePair(game, pair.b, pair.b));
-//					
-//					if (pairActs != actsI || pairActs != actsJ || actsI != actsJ)
-//					{
-//						System.out.println("pairActs = " + pairActs);
-//						System.out.println("actsI = " + actsI);
-//						System.out.println("actsJ = " + actsJ);
-//						System.out.println("already contains = " + existingFeatures.contains(pair.combinedFeature));
-//						System.out.println("pair = " + pair);
-//						System.out.println("errorSumsI = " + errorSums.get(new CombinableFeatureInstancePair(game, pair.a, pair.a)));
-//						System.out.println("errorSumsJ = " + errorSums.get(new CombinableFeatureInstancePair(game, pair.b, pair.b)));
-//						for (final CombinableFeatureInstancePair key : featurePairActivations.keySet())
-//						{
-//							if (featurePairActivations.get(key) <= actsI && !key.combinedFeature.isReactive())
-//							{
-//								boolean onlyFriendElements = true;
-//								for (final FeatureElement element : key.combinedFeature.pattern().featureElements())
-//								{
-//									if 
-//									(
-//										element.not() 
-//										|| 
-//										element.type() != ElementType.Friend
-//										||
-//										((RelativeFeatureElement)element).walk().steps().size() != 2
-//										||
-//										((RelativeFeatureElement)element).walk().equals(new Walk(0.f, 0.f))
-//										||
-//										((RelativeFeatureElement)element).walk().equals(new Walk(1.f/6, 1.f/3))
-//										||
-//										((RelativeFeatureElement)element).walk().equals(new Walk(0.f, 1.f/3))
-//										||
-//										((RelativeFeatureElement)element).walk().equals(new Walk(0.5f, 1.f/3))
-//										||
-//										((RelativeFeatureElement)element).walk().equals(new Walk(0.5f, -1.f/3))
-//										||
-//										((RelativeFeatureElement)element).walk().equals(new Walk(0.f, 1.f/3))
-//										||
-//										((RelativeFeatureElement)element).walk().equals(new Walk(1.f/6, 0.f))
-//										||
-//										((RelativeFeatureElement)element).walk().equals(new Walk(1.f/3, 0.f))
-//										||
-//										((RelativeFeatureElement)element).walk().equals(new Walk(0.5f, 0.f))
-//										||
-//										((RelativeFeatureElement)element).walk().equals(new Walk(1.f/3, 1.f/3))
-//										||
-//										((RelativeFeatureElement)element).walk().equals(new Walk(-1.f/3, 1.f/3))
-//										||
-//										((RelativeFeatureElement)element).walk().equals(new Walk(0.f, -1.f/3))
-//										||
-//										((RelativeFeatureElement)element).walk().equals(new Walk(1.f/3, -1.f/3))
-//										||
-//										((RelativeFeatureElement)element).walk().equals(new Walk(-1.f/6, 1.f/3))
-//										||
-//										((RelativeFeatureElement)element).walk().equals(new Walk(1.f/6, -1.f/3))
-//									)
-//									{
-//										onlyFriendElements = false;
-//										break;
-//									}
-//								}
-//								
-//								if (onlyFriendElements)
-//									System.out.println("Num activations for " + key + " = " + featurePairActivations.get(key));
-//							}
-//						}
-//						System.exit(0);
-//					}
-//				}
-				
-				final int pairActs = featurePairActivations.get(pair);
-				if (pairActs == numCases || numCases < 4)
-				{
-					// Perfect correlation, so we should just skip this one
-//					if (couldBeWinFeature || couldBeLossFeature)
-//						System.out.println("Skipping because of correlation: " + pair);
-					continue;
-				}
-				
-				if (pairActs < requiredSampleSize)
-				{
-					// Need a bigger sample size
-//					if (couldBeWinFeature || couldBeLossFeature)
-//						System.out.println("Skipping because of sample size (" + pairActs + " < " + requiredSampleSize + "): " + pair);
-					continue;	
-				}
-
-				final int actsI = featurePairActivations.get(new CombinableFeatureInstancePair(game, pair.a, pair.a));
-				final int actsJ = featurePairActivations.get(new CombinableFeatureInstancePair(game, pair.b, pair.b));
-
-				if (actsI == numCases || actsJ == numCases || pairActs == actsI || pairActs == actsJ)
-				{
-					// Perfect correlation, so we should just skip this one
-//					if (couldBeWinFeature || couldBeLossFeature)
-//						System.out.println("Skipping because of perfect correlation: " + pair);
-					continue;
-				}
-
-				final double pairErrorSum = errorSums.get(pair);
-
-				final double errorCorr = 
-						(
-							(numCases * pairErrorSum - pairActs * sumErrors) 
-							/ 
-							(
-								Math.sqrt(pairActs * (numCases - pairActs)) * 
-								Math.sqrt(numCases * sumSquaredErrors - sumErrors * sumErrors)
-							)
-						);
-				
-				// Fisher's r-to-z transformation
-				final double errorCorrZ = 0.5 * Math.log((1.0 + errorCorr) / (1.0 - errorCorr));
-				// Standard deviation of the z
-				final double stdErrorCorrZ = Math.sqrt(1.0 / (numCases - 3));
-				// Lower bound of 90% confidence interval on z
-				final double lbErrorCorrZ = errorCorrZ - featureDiscoveryParams.criticalValueCorrConf * stdErrorCorrZ;
-				// Transform lower bound on z back to r
-				final double lbErrorCorr = (Math.exp(2.0 * lbErrorCorrZ) - 1.0) / (Math.exp(2.0 * lbErrorCorrZ) + 1.0);
-				// Upper bound of 90% confidence interval on z
-				final double ubErrorCorrZ = errorCorrZ + featureDiscoveryParams.criticalValueCorrConf * stdErrorCorrZ;
-				// Transform upper bound on z back to r
-				final double ubErrorCorr = (Math.exp(2.0 * ubErrorCorrZ) - 1.0) / (Math.exp(2.0 * ubErrorCorrZ) + 1.0);
-
-				final double featureCorrI = 
-						(
-							(pairActs * (numCases - actsI)) 
-							/ 
-							(
-								Math.sqrt(pairActs * (numCases - pairActs)) * 
-								Math.sqrt(actsI * (numCases - actsI))
-							)
-						);
-
-				final double featureCorrJ = 
-						(
-							(pairActs * (numCases - actsJ)) 
-							/ 
-							(
-								Math.sqrt(pairActs * (numCases - pairActs)) * 
-								Math.sqrt(actsJ * (numCases - actsJ))
-							)
-						);
-
-				final double worstFeatureCorr = 
-						Math.max
-						(
-							Math.abs(featureCorrI), 
-							Math.abs(featureCorrJ)
-						);
-
-				final double score;
-				if (errorCorr >= 0.0)
-					score = Math.max(0.0, lbErrorCorr) * (1.0 - worstFeatureCorr*worstFeatureCorr);
-				else
-					score = -Math.min(0.0, ubErrorCorr) * (1.0 - worstFeatureCorr*worstFeatureCorr);
-
-				if (Double.isNaN(score))
-				{
-					// System.err.println("numCases = " + numCases);
-					// System.err.println("pairActs = " + pairActs);
-					// System.err.println("actsI = " + actsI);
-					// System.err.println("actsJ = " + actsJ);
-					// System.err.println("sumErrors = " + sumErrors);
-					// System.err.println("sumSquaredErrors = " + sumSquaredErrors);
-//					if (couldBeWinFeature)
-//						System.out.println("Skipping because of NaN score: " + pair);
-					continue;
-				}
-				
-//				if (couldBeWinFeature)
-//				{
-//					System.out.println("Might be win feature: " + pair);
-//					System.out.println("errorCorr = " + errorCorr);
-//					System.out.println("lbErrorCorr = " + lbErrorCorr);
-//					System.out.println("ubErrorCorr = " + ubErrorCorr);
-//					System.out.println("numCases = " + numCases);
-//					System.out.println("pairActs = " + pairActs);
-//					System.out.println("actsI = " + actsI);
-//					System.out.println("actsJ = " + actsJ);
-//					System.out.println("featureCorrI = " + featureCorrI);
-//					System.out.println("featureCorrJ = " + featureCorrJ);
-//					System.out.println("score = " + score);
-//				}
-//				else if (couldBeLossFeature)
-//				{
-//					System.out.println("Might be loss feature: " + pair);
-//					System.out.println("errorCorr = " + errorCorr);
-//					System.out.println("lbErrorCorr = " + lbErrorCorr);
-//					System.out.println("ubErrorCorr = " + ubErrorCorr);
-//					System.out.println("numCases = " + numCases);
-//					System.out.println("pairActs = " + pairActs);
-//					System.out.println("actsI = " + actsI);
-//					System.out.println("actsJ = " + actsJ);
-//					System.out.println("featureCorrI = " + featureCorrI);
-//					System.out.println("featureCorrJ = " + featureCorrJ);
-//					System.out.println("score = " + score);
-//				}
-
-				if (pair.combinedFeature.isReactive())
-					reactivePairs.add(new ScoredFeatureInstancePair(pair, score));
-				else
-					proactivePairs.add(new ScoredFeatureInstancePair(pair, score));
-			}
+			if (scoredPair.pair.combinedFeature.isReactive())
+				reactivePairs.add(scoredPair);
+			else
+				proactivePairs.add(scoredPair);
 		}
 
 //		System.out.println("--------------------------------------------------------");
@@ -999,19 +616,19 @@ public class CorrelationBasedExpander implements FeatureSetExpander
 //			final ScoredFeatureInstancePair pair = allPairs.poll();
 //			
 //			final int actsI = 
-//					featurePairActivations.get
+//					pairCounter.numActivations
 //					(
 //						new CombinableFeatureInstancePair(game, pair.pair.a, pair.pair.a)
 //					);
 //
 //			final int actsJ = 
-//					featurePairActivations.get
+//					pairCounter.numActivations
 //					(
 //						new CombinableFeatureInstancePair(game, pair.pair.b, pair.pair.b)
 //					);
 //
 //			final int pairActs = 
-//					featurePairActivations.get
+//					pairCounter.numActivations
 //					(
 //						new CombinableFeatureInstancePair(game, pair.pair.a, pair.pair.b)
 //					);
@@ -1101,13 +718,13 @@ public class CorrelationBasedExpander implements FeatureSetExpander
 			if (newFeatureSet != null)
 			{
 				final int actsI = 
-						featurePairActivations.get
+						pairCounter.numActivations
 						(
 							new CombinableFeatureInstancePair(game, bestPair.pair.a, bestPair.pair.a)
 						);
 
 				final int actsJ = 
-						featurePairActivations.get
+						pairCounter.numActivations
 						(
 							new CombinableFeatureInstancePair(game, bestPair.pair.b, bestPair.pair.b)
 						);
@@ -1115,8 +732,8 @@ public class CorrelationBasedExpander implements FeatureSetExpander
 				final CombinableFeatureInstancePair pair = 
 						new CombinableFeatureInstancePair(game, bestPair.pair.a, bestPair.pair.b);
 				
-				final int pairActs = featurePairActivations.get(pair);
-				final double pairErrorSum = errorSums.get(pair);
+				final int pairActs = pairCounter.numActivations(pair);
+				final double pairErrorSum = pairCounter.errorSum(pair);
 
 				final double errorCorr = 
 						(
@@ -1202,13 +819,13 @@ public class CorrelationBasedExpander implements FeatureSetExpander
 			if (newFeatureSet != null)
 			{
 				final int actsI = 
-						featurePairActivations.get
+						pairCounter.numActivations
 						(
 							new CombinableFeatureInstancePair(game, bestPair.pair.a, bestPair.pair.a)
 						);
 
 				final int actsJ = 
-						featurePairActivations.get
+						pairCounter.numActivations
 						(
 							new CombinableFeatureInstancePair(game, bestPair.pair.b, bestPair.pair.b)
 						);
@@ -1216,8 +833,8 @@ public class CorrelationBasedExpander implements FeatureSetExpander
 				final CombinableFeatureInstancePair pair = 
 						new CombinableFeatureInstancePair(game, bestPair.pair.a, bestPair.pair.b);
 				
-				final int pairActs = featurePairActivations.get(pair);
-				final double pairErrorSum = errorSums.get(pair);
+				final int pairActs = pairCounter.numActivations(pair);
+				final double pairErrorSum = pairCounter.errorSum(pair);
 
 				final double errorCorr = 
 						(
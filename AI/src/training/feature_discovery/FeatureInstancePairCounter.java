@@ -0,0 +1,585 @@
+package training.feature_discovery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import features.spatial.SpatialFeature;
+import features.spatial.instances.FeatureInstance;
+import game.Game;
+import gnu.trove.impl.Constants;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import main.DaemonThreadFactory;
+import training.expert_iteration.params.FeatureDiscoveryParams;
+import training.feature_discovery.FeatureSetExpander.CombinableFeatureInstancePair;
+import training.feature_discovery.FeatureSetExpander.ScoredFeatureInstancePair;
+
+/**
+ * Sparse counter of co-occurrences of feature instances, shared by the
+ * correlation-based feature set expanders. It implements the C_f and C_e
+ * "matrices" described in CorrelationBasedExpander: for every (combined)
+ * pair of feature instances, the number of cases in which both are active,
+ * and the sum of errors in those cases.
+ *
+ * Expanders first add all their cases (the instances they decided to keep
+ * for every state-action pair, and the error for it), and then let us count
+ * co-occurrences for all those cases at once. Counting is split over multiple
+ * threads (contiguous ranges of cases, one set of counts per thread, merged at
+ * the end). Every thread indexes distinct feature instances, and caches (in
+ * primitive hash tables) the index of the combined pair for every pair of
+ * instance indices, such that we only combine features once per distinct pair
+ * of instances per thread, rather than once per case in which they co-occur.
+ * Scoring of all candidate pairs is split over threads in the same way.
+ *
+ * Counts are always merged in order of cases, so the pair of instances we
+ * keep as representative for any combined feature is the first one observed,
+ * the same as it would be if we counted everything in a single thread.
+ *
+ * @author Dennis Soemers
+ */
+public final class FeatureInstancePairCounter
+{
+
+	//-------------------------------------------------------------------------
+	
+	/** Value in caches of pair indices for pairs that combine into features we already have */
+	private static final int EXISTING_FEATURE = -1;
+	
+	/** Value returned by maps of indices for keys that are not in them */
+	private static final int NO_INDEX = -2;
+	
+	//-------------------------------------------------------------------------
+	
+	/** Game in which we're discovering features */
+	private final Game game;
+	
+	/** Features already in the feature set; we don't count combinations that are already in */
+	private final Set<SpatialFeature> existingFeatures;
+	
+	/** Number of threads we use */
+	private final int numThreads;
+	
+	/** For every case, the feature instances we count co-occurrences for */
+	private final List<List<FeatureInstance>> caseInstances = new ArrayList<List<FeatureInstance>>();
+	
+	/** For every case, for every instance, the pair of that instance combined with itself */
+	private final List<List<CombinableFeatureInstancePair>> caseCombinedSelfs =
+			new ArrayList<List<CombinableFeatureInstancePair>>();
+	
+	/** For every case, the error */
+	private final TDoubleArrayList caseErrors = new TDoubleArrayList();
+	
+	/** Counts for all cases (null until we've counted) */
+	private PairCounts counts = null;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 *
+	 * NOTE: feature discovery for different players already runs in parallel
+	 * over featureDiscoveryParams.numFeatureDiscoveryThreads threads, so we
+	 * only use our share of those threads (assuming one share per player).
+	 *
+	 * @param game
+	 * @param existingFeatures
+	 * @param featureDiscoveryParams
+	 */
+	public FeatureInstancePairCounter
+	(
+		final Game game,
+		final Set<SpatialFeature> existingFeatures,
+		final FeatureDiscoveryParams featureDiscoveryParams
+	)
+	{
+		this.game = game;
+		this.existingFeatures = existingFeatures;
+		this.numThreads =
+				Math.max
+				(
+					1,
+					featureDiscoveryParams.numFeatureDiscoveryThreads / Math.max(1, game.players().count())
+				);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Adds a case (state-action pair) for which to count co-occurrences.
+	 * The given lists must not be modified afterwards.
+	 *
+	 * @param instances Feature instances active in this case
+	 * @param combinedSelfs For every instance, the pair of that instance combined with itself
+	 * @param error Error for this case
+	 */
+	public void addCase
+	(
+		final List<FeatureInstance> instances,
+		final List<CombinableFeatureInstancePair> combinedSelfs,
+		final double error
+	)
+	{
+		assert (instances.size() == combinedSelfs.size());
+		assert (counts == null);
+		caseInstances.add(instances);
+		caseCombinedSelfs.add(combinedSelfs);
+		caseErrors.add(error);
+	}
+	
+	/**
+	 * Counts co-occurrences (and sums errors) for all cases added so far.
+	 * Should be called once, after all cases have been added.
+	 */
+	public void countPairs()
+	{
+		final int numCases = caseErrors.size();
+		final int numTasks = Math.max(1, Math.min(numThreads, numCases));
+		final PairCounts[] threadCounts = new PairCounts[numTasks];
+		
+		runParallel
+		(
+			numCases,
+			(final int threadIdx, final int from, final int to) ->
+			{
+				threadCounts[threadIdx] = countCases(from, to);
+			}
+		);
+		
+		if (threadCounts[0] == null)
+			threadCounts[0] = new PairCounts();
+		
+		// Merge counts of later threads into those of first thread; threads
+		// handled contiguous ranges of cases, so merging in order of threads
+		// keeps pairs in order of first occurrence
+		counts = threadCounts[0];
+		for (int t = 1; t < numTasks; ++t)
+		{
+			final PairCounts other = threadCounts[t];
+			for (int i = 0; i < other.pairs.size(); ++i)
+			{
+				final int idx = counts.indexOf(other.pairs.get(i));
+				counts.activations.setQuick(idx, counts.activations.getQuick(idx) + other.activations.getQuick(i));
+				counts.errorSums.setQuick(idx, counts.errorSums.getQuick(idx) + other.errorSums.getQuick(i));
+			}
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @param pair
+	 * @return Number of cases in which the given pair was active (0 if never observed)
+	 */
+	public int numActivations(final CombinableFeatureInstancePair pair)
+	{
+		final int idx = counts.pairIndices.get(pair);
+		return (idx == NO_INDEX) ? 0 : counts.activations.getQuick(idx);
+	}
+	
+	/**
+	 * @param pair
+	 * @return Sum of errors in cases in which the given pair was active (0 if never observed)
+	 */
+	public double errorSum(final CombinableFeatureInstancePair pair)
+	{
+		final int idx = counts.pairIndices.get(pair);
+		return (idx == NO_INDEX) ? 0.0 : counts.errorSums.getQuick(idx);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Computes scores for all observed pairs of different feature instances
+	 * (split over multiple threads). Pairs with insufficient data, or with
+	 * perfect correlations (with errors or their constituents) are skipped.
+	 *
+	 * @param numCases Total number of cases
+	 * @param sumErrors Sum of errors over all cases
+	 * @param sumSquaredErrors Sum of squared errors over all cases
+	 * @param requiredSampleSize Minimum number of activations we require for a pair
+	 * @param criticalValueCorrConf Critical value used when computing confidence intervals for correlations
+	 * @return Scored pairs
+	 */
+	public List<ScoredFeatureInstancePair> scorePairs
+	(
+		final int numCases,
+		final double sumErrors,
+		final double sumSquaredErrors,
+		final int requiredSampleSize,
+		final double criticalValueCorrConf
+	)
+	{
+		final int numPairs = counts.pairs.size();
+		final int numTasks = Math.max(1, Math.min(numThreads, numPairs));
+		
+		@SuppressWarnings("unchecked")
+		final List<ScoredFeatureInstancePair>[] threadScoredPairs = (List<ScoredFeatureInstancePair>[]) new List<?>[numTasks];
+		
+		runParallel
+		(
+			numPairs,
+			(final int threadIdx, final int from, final int to) ->
+			{
+				final List<ScoredFeatureInstancePair> scoredPairs = new ArrayList<ScoredFeatureInstancePair>();
+				
+				for (int i = from; i < to; ++i)
+				{
+					final CombinableFeatureInstancePair pair = counts.pairs.get(i);
+					
+					if (pair.a.equals(pair.b))	// Only interested in combinations of different instances
+						continue;
+					
+					final int pairActs = counts.activations.getQuick(i);
+					if (pairActs == numCases || numCases < 4)
+					{
+						// Perfect correlation, so we should just skip this one
+						continue;
+					}
+					
+					if (pairActs < requiredSampleSize)
+					{
+						// Need a bigger sample size
+						continue;
+					}
+					
+					final int actsI = numActivations(new CombinableFeatureInstancePair(game, pair.a, pair.a));
+					final int actsJ = numActivations(new CombinableFeatureInstancePair(game, pair.b, pair.b));
+					
+					if (actsI == numCases || actsJ == numCases || pairActs == actsI || pairActs == actsJ)
+					{
+						// Perfect correlation, so we should just skip this one
+						continue;
+					}
+					
+					final double pairErrorSum = counts.errorSums.getQuick(i);
+					
+					final double errorCorr =
+							(
+								(numCases * pairErrorSum - pairActs * sumErrors)
+								/
+								(
+									Math.sqrt(pairActs * (numCases - pairActs)) *
+									Math.sqrt(numCases * sumSquaredErrors - sumErrors * sumErrors)
+								)
+							);
+					
+					// Fisher's r-to-z transformation
+					final double errorCorrZ = 0.5 * Math.log((1.0 + errorCorr) / (1.0 - errorCorr));
+					// Standard deviation of the z
+					final double stdErrorCorrZ = Math.sqrt(1.0 / (numCases - 3));
+					// Lower bound of confidence interval on z
+					final double lbErrorCorrZ = errorCorrZ - criticalValueCorrConf * stdErrorCorrZ;
+					// Transform lower bound on z back to r
+					final double lbErrorCorr = (Math.exp(2.0 * lbErrorCorrZ) - 1.0) / (Math.exp(2.0 * lbErrorCorrZ) + 1.0);
+					// Upper bound of confidence interval on z
+					final double ubErrorCorrZ = errorCorrZ + criticalValueCorrConf * stdErrorCorrZ;
+					// Transform upper bound on z back to r
+					final double ubErrorCorr = (Math.exp(2.0 * ubErrorCorrZ) - 1.0) / (Math.exp(2.0 * ubErrorCorrZ) + 1.0);
+					
+					final double featureCorrI =
+							(
+								(pairActs * (numCases - actsI))
+								/
+								(
+									Math.sqrt(pairActs * (numCases - pairActs)) *
+									Math.sqrt(actsI * (numCases - actsI))
+								)
+							);
+					
+					final double featureCorrJ =
+							(
+								(pairActs * (numCases - actsJ))
+								/
+								(
+									Math.sqrt(pairActs * (numCases - pairActs)) *
+									Math.sqrt(actsJ * (numCases - actsJ))
+								)
+							);
+					
+					final double worstFeatureCorr =
+							Math.max
+							(
+								Math.abs(featureCorrI),
+								Math.abs(featureCorrJ)
+							);
+					
+					final double score;
+					if (errorCorr >= 0.0)
+						score = Math.max(0.0, lbErrorCorr) * (1.0 - worstFeatureCorr*worstFeatureCorr);
+					else
+						score = -Math.min(0.0, ubErrorCorr) * (1.0 - worstFeatureCorr*worstFeatureCorr);
+					
+					if (Double.isNaN(score))
+						continue;
+					
+					scoredPairs.add(new ScoredFeatureInstancePair(pair, score));
+				}
+				
+				threadScoredPairs[threadIdx] = scoredPairs;
+			}
+		);
+		
+		final List<ScoredFeatureInstancePair> scoredPairs = new ArrayList<ScoredFeatureInstancePair>();
+		for (final List<ScoredFeatureInstancePair> list : threadScoredPairs)
+		{
+			if (list != null)
+				scoredPairs.addAll(list);
+		}
+		return scoredPairs;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Counts co-occurrences for a contiguous range of cases
+	 *
+	 * @param from First case (inclusive)
+	 * @param to Last case (exclusive)
+	 * @return Counts for the given range of cases
+	 */
+	private PairCounts countCases(final int from, final int to)
+	{
+		final PairCounts pairCounts = new PairCounts();
+		
+		// Indices of distinct feature instances, per feature (NOTE: equality of feature 
+		// instances does not take into account the feature they belong to, but that 
+		// does matter when combining them)
+		final TIntObjectHashMap<TObjectIntHashMap<FeatureInstance>> instanceIndices = 
+				new TIntObjectHashMap<TObjectIntHashMap<FeatureInstance>>();
+		int numInstanceIndices = 0;
+		
+		// For every instance index i, map from instance indices j >= i to index of combined pair
+		final TIntObjectHashMap<TIntIntHashMap> combinedPairIndices = new TIntObjectHashMap<TIntIntHashMap>();
+		
+		int[] caseInstanceIndices = new int[0];
+		
+		for (int c = from; c < to; ++c)
+		{
+			final List<FeatureInstance> instances = caseInstances.get(c);
+			final List<CombinableFeatureInstancePair> combinedSelfs = caseCombinedSelfs.get(c);
+			final double error = caseErrors.getQuick(c);
+			final int numInstances = instances.size();
+			
+			if (caseInstanceIndices.length < numInstances)
+				caseInstanceIndices = new int[numInstances];
+			
+			for (int i = 0; i < numInstances; ++i)
+			{
+				final FeatureInstance instance = instances.get(i);
+				final int featureIdx = instance.feature().spatialFeatureSetIndex();
+				
+				TObjectIntHashMap<FeatureInstance> featureInstanceIndices = instanceIndices.get(featureIdx);
+				if (featureInstanceIndices == null)
+				{
+					featureInstanceIndices = 
+							new TObjectIntHashMap<FeatureInstance>(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, NO_INDEX);
+					instanceIndices.put(featureIdx, featureInstanceIndices);
+				}
+				
+				int instanceIdx = featureInstanceIndices.get(instance);
+				if (instanceIdx == NO_INDEX)
+				{
+					instanceIdx = numInstanceIndices++;
+					featureInstanceIndices.put(instance, instanceIdx);
+				}
+				caseInstanceIndices[i] = instanceIdx;
+			}
+			
+			for (int i = 0; i < numInstances; ++i)
+			{
+				// increment entries on ''main diagonals''
+				pairCounts.increment(pairCounts.indexOf(combinedSelfs.get(i)), c, error);
+				
+				for (int j = i + 1; j < numInstances; ++j)
+				{
+					// increment off-diagonal entries
+					final int lowIdx = Math.min(caseInstanceIndices[i], caseInstanceIndices[j]);
+					final int highIdx = Math.max(caseInstanceIndices[i], caseInstanceIndices[j]);
+					
+					TIntIntHashMap pairIndices = combinedPairIndices.get(lowIdx);
+					if (pairIndices == null)
+					{
+						pairIndices = new TIntIntHashMap(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, NO_INDEX, NO_INDEX);
+						combinedPairIndices.put(lowIdx, pairIndices);
+					}
+					
+					int pairIdx = pairIndices.get(highIdx);
+					if (pairIdx == NO_INDEX)
+					{
+						// First time we see this pair of instances, so need to combine them
+						final CombinableFeatureInstancePair combined =
+								new CombinableFeatureInstancePair(game, instances.get(i), instances.get(j));
+						
+						if (existingFeatures.contains(combined.combinedFeature))
+							pairIdx = EXISTING_FEATURE;
+						else
+							pairIdx = pairCounts.indexOf(combined);
+						
+						pairIndices.put(highIdx, pairIdx);
+					}
+					
+					if (pairIdx != EXISTING_FEATURE)
+						pairCounts.increment(pairIdx, c, error);
+				}
+			}
+		}
+		
+		return pairCounts;
+	}
+	
+	/**
+	 * Splits the range [0, n) into contiguous chunks, one per thread, and runs
+	 * the given task for every chunk (waiting for all of them to complete).
+	 *
+	 * @param n
+	 * @param task
+	 */
+	private void runParallel(final int n, final RangeTask task)
+	{
+		final int numTasks = Math.min(numThreads, n);
+		
+		if (numTasks <= 1)
+		{
+			if (n > 0)
+				task.run(0, 0, n);
+			return;
+		}
+		
+		final ExecutorService threadPool = Executors.newFixedThreadPool(numTasks, DaemonThreadFactory.INSTANCE);
+		final CountDownLatch latch = new CountDownLatch(numTasks);
+		final AtomicReference<RuntimeException> exception = new AtomicReference<RuntimeException>();
+		
+		for (int t = 0; t < numTasks; ++t)
+		{
+			final int threadIdx = t;
+			final int from = (int) (((long) n * t) / numTasks);
+			final int to = (int) (((long) n * (t + 1)) / numTasks);
+			
+			threadPool.submit
+			(
+				() ->
+				{
+					try
+					{
+						task.run(threadIdx, from, to);
+					}
+					catch (final RuntimeException e)
+					{
+						exception.compareAndSet(null, e);
+					}
+					finally
+					{
+						latch.countDown();
+					}
+				}
+			);
+		}
+		
+		try
+		{
+			latch.await();
+		}
+		catch (final InterruptedException e)
+		{
+			// Tasks may still be running, so their results are incomplete
+			Thread.currentThread().interrupt();
+			exception.compareAndSet(null, new IllegalStateException("Interrupted while waiting for tasks", e));
+		}
+		threadPool.shutdown();
+		
+		if (exception.get() != null)
+			throw exception.get();
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Task to run for a contiguous range of indices
+	 *
+	 * @author Dennis Soemers
+	 */
+	private interface RangeTask
+	{
+		/**
+		 * @param threadIdx Index of the thread (in [0, numThreads))
+		 * @param from First index (inclusive)
+		 * @param to Last index (exclusive)
+		 */
+		void run(final int threadIdx, final int from, final int to);
+	}
+	
+	/**
+	 * Counts of activations and sums of errors, for pairs indexed in order
+	 * of first occurrence.
+	 *
+	 * @author Dennis Soemers
+	 */
+	private static final class PairCounts
+	{
+		/** Index of every pair we have observed */
+		final TObjectIntHashMap<CombinableFeatureInstancePair> pairIndices =
+				new TObjectIntHashMap<CombinableFeatureInstancePair>(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, NO_INDEX);
+		
+		/** Pairs, in order of first occurrence */
+		final List<CombinableFeatureInstancePair> pairs = new ArrayList<CombinableFeatureInstancePair>();
+		
+		/** For every pair, number of cases in which it was active */
+		final TIntArrayList activations = new TIntArrayList();
+		
+		/** For every pair, sum of errors in cases in which it was active */
+		final TDoubleArrayList errorSums = new TDoubleArrayList();
+		
+		/** For every pair, the last case for which we incremented it (to count every case at most once) */
+		final TIntArrayList lastCases = new TIntArrayList();
+		
+		/**
+		 * @param pair
+		 * @return Index of given pair (adding it first if we haven't observed it before)
+		 */
+		int indexOf(final CombinableFeatureInstancePair pair)
+		{
+			int idx = pairIndices.get(pair);
+			
+			if (idx == NO_INDEX)
+			{
+				idx = pairs.size();
+				pairIndices.put(pair, idx);
+				pairs.add(pair);
+				activations.add(0);
+				errorSums.add(0.0);
+				lastCases.add(-1);
+			}
+			
+			return idx;
+		}
+		
+		/**
+		 * Increments counts for the pair with given index, unless we already did so
+		 * for the given case.
+		 *
+		 * @param idx
+		 * @param caseIdx
+		 * @param error
+		 */
+		void increment(final int idx, final int caseIdx, final double error)
+		{
+			if (lastCases.getQuick(idx) != caseIdx)
+			{
+				lastCases.setQuick(idx, caseIdx);
+				activations.setQuick(idx, activations.getQuick(idx) + 1);
+				errorSums.setQuick(idx, errorSums.getQuick(idx) + error);
+			}
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+
+}
@@ -153,6 +153,9 @@ public final class LudiiGameWrapper
 	 */
 	protected float[] CONTAINER_POSITION_CHANNELS;
 	
+	/** Whether or not every site has its own, unique position in state tensors */
+	protected boolean uniqueTensorCoords;
+	
 	//-------------------------------------------------------------------------
 	
 	/**
@@ -328,6 +331,14 @@ public final class LudiiGameWrapper
 		return new int[] {stateTensorNumChannels, tensorDimX(), tensorDimY()};
 	}
 	
+	/**
+	 * @return Number of floats in (flat) tensors for states: numChannels * size(x dimension) * size(y dimension)
+	 */
+	public int stateTensorSize()
+	{
+		return stateTensorNumChannels * tensorDimX * tensorDimY;
+	}
+	
 	/**
 	 * @return Array of names for all the channels in our state tensors
 	 */
@@ -783,6 +794,19 @@ public final class LudiiGameWrapper
 				CONTAINER_POSITION_CHANNELS[yCoords[contStartSite + site] + tensorDimY * (xCoords[contStartSite + site] + (c * tensorDimX))] = 1.f;
 			}
 		}
+		
+		final boolean[] positionUsed = new boolean[tensorDimX * tensorDimY];
+		uniqueTensorCoords = true;
+		for (int site = 0; site < xCoords.length; ++site)
+		{
+			final int position = yCoords[site] + tensorDimY * xCoords[site];
+			if (positionUsed[position])
+			{
+				uniqueTensorCoords = false;
+				break;
+			}
+			positionUsed[position] = true;
+		}
 	}
 	
 	//-------------------------------------------------------------------------
@@ -1,18 +1,25 @@
 package utils;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
 
 import game.equipment.container.Container;
+import game.types.board.SiteType;
 import gnu.trove.list.array.TIntArrayList;
 import main.Constants;
 import main.collections.FastArrayList;
 import other.RankUtils;
+import other.action.Action;
 import other.context.Context;
-import other.context.TempContext;
 import other.move.Move;
+import other.playout.BatchedPlayouts;
+import other.playout.PlayoutOutcomes;
 import other.state.State;
 import other.state.container.ContainerState;
 import other.state.owned.Owned;
@@ -50,6 +57,7 @@ public final class LudiiStateWrapper
 		this.game = game;
 		trial = new Trial(game.game);
 		context = new Context(game.game, trial);
+		context.setThreadConfined(true);
 		game.game.start(context);
 	}
 	
@@ -73,6 +81,7 @@ public final class LudiiStateWrapper
 	{
 		this.game = other.game;
 		this.context = new Context(other.context);
+		this.context.setThreadConfined(true);
 		this.trial = this.context.trial();
 	}
 	
@@ -89,6 +98,7 @@ public final class LudiiStateWrapper
 	{
 		this.game = other.game;
 		this.context = new Context(other.context);
+		this.context.setThreadConfined(true);
 		this.trial = this.context.trial();
 	}
 	
@@ -338,6 +348,39 @@ public final class LudiiStateWrapper
 		return movesTensors;
 	}
 	
+	/**
+	 * Writes the same data as legalMovesTensors() into the given buffer, without
+	 * allocating any arrays for the result: three consecutive ints 
+	 * [channel_idx, x, y] per legal move, starting at the given index. The
+	 * buffer's position is not modified.
+	 * 
+	 * @param buffer Buffer with space for (at least) 3 * max(1, numLegalMoves()) ints after offset
+	 * @param offset Index in the buffer at which we write the first int
+	 * @return Number of move tensors written (1 for a pass move if there are no legal moves)
+	 */
+	public int legalMovesTensors(final IntBuffer buffer, final int offset)
+	{
+		final FastArrayList<Move> moves = game.game.moves(context).moves();
+		
+		if (moves.isEmpty())
+		{
+			buffer.put(offset, game.MOVE_PASS_CHANNEL_IDX);
+			buffer.put(offset + 1, 0);
+			buffer.put(offset + 2, 0);
+			return 1;
+		}
+		
+		for (int i = 0; i < moves.size(); ++i)
+		{
+			final int[] moveTensor = game.moveToTensor(moves.get(i));
+			buffer.put(offset + 3 * i, moveTensor[0]);
+			buffer.put(offset + 3 * i + 1, moveTensor[1]);
+			buffer.put(offset + 3 * i + 2, moveTensor[2]);
+		}
+		
+		return moves.size();
+	}
+	
 	/**
 	 * Runs a random playout.
 	 */
@@ -357,17 +400,29 @@ public final class LudiiStateWrapper
 	 */
 	public double getRandomRolloutsReward(final int player, final int numRollouts, final int playoutCap)
 	{
-		double sumRewards = 0.0;
-		
-		for (int i = 0; i < numRollouts; ++i)
-		{
-			final TempContext copyContext = new TempContext(context);
-			game.game.playout(copyContext, null, 0.1f, null, 0, playoutCap, ThreadLocalRandom.current());
-			final double[] returns = RankUtils.agentUtilities(copyContext);
-			sumRewards += returns[player + 1];
-		}
-		
-		return sumRewards / numRollouts;
+		return getRandomRolloutsReward(player, numRollouts, playoutCap, 1);
+	}
+	
+	/**
+	 * Estimates a reward for a given player (assumed 0-index player) based on one
+	 * or more random rollouts from the current state, spread over multiple threads.
+	 * 
+	 * @param player
+	 * @param numRollouts
+	 * @param playoutCap Max number of random actions we'll select in playout
+	 * @param numThreads Max number of threads to use for rollouts
+	 * @return Estimated reward
+	 */
+	public double getRandomRolloutsReward
+	(
+		final int player, 
+		final int numRollouts, 
+		final int playoutCap, 
+		final int numThreads
+	)
+	{
+		final PlayoutOutcomes outcomes = BatchedPlayouts.runPlayouts(context, numRollouts, null, playoutCap, numThreads);
+		return outcomes.sumAgentUtilities(player + 1) / numRollouts;
 	}
 	
 	/**
@@ -426,6 +481,294 @@ public final class LudiiStateWrapper
 	 * @return A flat, 1D array tensor representation of the current game state
 	 */
 	public float[] toTensorFlat()
+	{
+		final float[] flatTensor = new float[game.stateTensorSize()];
+		writeTensor(FloatBuffer.wrap(flatTensor), 0);
+		return flatTensor;
+	}
+	
+	/**
+	 * @return A single (3D) tensor representation of the current game state
+	 */
+	public float[][][] toTensor()
+	{
+		final int tensorDimX = game.tensorDimX();
+		final int tensorDimY = game.tensorDimY();
+		final int numChannels = game.stateTensorNumChannels;
+		
+		final float[] flatTensor = toTensorFlat();
+		final float[][][] tensor = new float[numChannels][tensorDimX][tensorDimY];
+		
+		for (int c = 0; c < numChannels; ++c)
+		{
+			for (int x = 0; x < tensorDimX; ++x)
+			{
+				System.arraycopy(flatTensor, tensorDimY * (x + (c * tensorDimX)), tensor[c][x], 0, tensorDimY);
+			}
+		}
+		
+		return tensor;
+	}
+	
+	/**
+	 * Writes the flat tensor representation of the current game state (the same
+	 * as returned by toTensorFlat()) into the given buffer, starting at the given 
+	 * index. We only use absolute puts, so the buffer's position is not modified.
+	 * 
+	 * This allows callers (e.g. Python code) to allocate one direct buffer, wrap
+	 * it without any copying, and reuse it for many states.
+	 * 
+	 * @param buffer
+	 * @param offset Index in the buffer at which we write the first float
+	 */
+	public void toTensor(final FloatBuffer buffer, final int offset)
+	{
+		final int tensorSize = game.stateTensorSize();
+		for (int i = 0; i < tensorSize; ++i)
+		{
+			buffer.put(offset + i, 0.f);
+		}
+		
+		writeTensor(buffer, offset);
+	}
+	
+	/**
+	 * Same as toTensor(FloatBuffer, int), but for a buffer of bytes. Floats
+	 * are written in the byte order of the given buffer.
+	 * 
+	 * @param buffer
+	 * @param offset Index (in floats, counting from the buffer's position) at which we write the first float
+	 */
+	public void toTensor(final ByteBuffer buffer, final int offset)
+	{
+		toTensor(buffer.asFloatBuffer(), offset);
+	}
+	
+	/**
+	 * Updates a tensor that was previously written into the given buffer (by 
+	 * toTensor() or updateTensor()) for an earlier state of our trial, such
+	 * that it represents the current game state.
+	 * 
+	 * We only rewrite the site-dependent channels for sites changed by the moves
+	 * that were applied since then, and the channels that do not depend on sites
+	 * (amounts, mover, swap, and last moves). If we cannot tell which sites were
+	 * changed (because moves were undone, because an action changed a site of a
+	 * type that is not represented in the tensor, or because multiple sites share
+	 * a position in the tensor), we write the complete tensor.
+	 * 
+	 * @param buffer
+	 * @param offset Index in the buffer at which the tensor starts
+	 * @param prevNumMoves Number of moves in our trial when the tensor was written
+	 */
+	public void updateTensor(final FloatBuffer buffer, final int offset, final int prevNumMoves)
+	{
+		final int numMoves = trial.numMoves();
+		
+		if (!game.uniqueTensorCoords || prevNumMoves < trial.numInitialPlacementMoves() || prevNumMoves > numMoves)
+		{
+			toTensor(buffer, offset);
+			return;
+		}
+		
+		final Container[] containers = game.game.equipment().containers();
+		final int[] sitesFrom = game.game.equipment().sitesFrom();
+		final int numPlayers = game.game.players().count();
+		final int numPieceTypes = game.game.equipment().components().length - 1;
+		final boolean stacking = game.game.isStacking();
+		final boolean usesCount = game.game.requiresCount();
+		final boolean usesAmount = game.game.requiresBet();
+		final boolean usesState = game.game.requiresLocalState();
+		final boolean usesSwap = game.game.metaRules().usesSwapRule();
+		final SiteType boardSiteType = game.game.board().defaultSite();
+		
+		final int[] xCoords = game.tensorCoordsX();
+		final int[] yCoords = game.tensorCoordsY();
+		final int tensorDimX = game.tensorDimX();
+		final int tensorDimY = game.tensorDimY();
+		
+		// Same layout of channels as in writeTensor()
+		final int numPieceChannels = stacking ? LudiiGameWrapper.NUM_STACK_CHANNELS * numPieceTypes + 1 : numPieceTypes;
+		int channel = numPieceChannels;
+		final int countChannel = channel;
+		if (usesCount)
+			++channel;
+		final int amountChannel = channel;
+		if (usesAmount)
+			channel += numPlayers;
+		final int moverChannel = channel;
+		if (numPlayers > 1)
+			channel += numPlayers;
+		final int stateChannel = channel;
+		if (usesState)
+			channel += LudiiGameWrapper.NUM_LOCAL_STATE_CHANNELS;
+		final int swapChannel = channel;
+		if (usesSwap)
+			++channel;
+		channel += containers.length;
+		final int lastMovesChannel = channel;
+		assert (lastMovesChannel + 4 == game.stateTensorNumChannels);
+		
+		for (int i = prevNumMoves; i < numMoves; ++i)
+		{
+			for (final Action action : trial.getMove(i).actions())
+			{
+				for (int j = 0; j < 2; ++j)
+				{
+					final int site = (j == 0) ? action.from() : action.to();
+					if (site < 0)
+						continue;
+					
+					if (site >= xCoords.length)
+					{
+						toTensor(buffer, offset);
+						return;
+					}
+					
+					int c = containers.length - 1;
+					while (c > 0 && sitesFrom[c] > site)
+					{
+						--c;
+					}
+					
+					final SiteType siteType = (c == 0) ? boardSiteType : SiteType.Cell;
+					if (((j == 0) ? action.fromType() : action.toType()) != siteType)
+					{
+						toTensor(buffer, offset);
+						return;
+					}
+					
+					final int siteOffset = offset + yCoords[site] + tensorDimY * xCoords[site];
+					final int channelSize = tensorDimX * tensorDimY;
+					
+					// Clear all the site-dependent channels for this site
+					for (int k = 0; k < numPieceChannels; ++k)
+					{
+						buffer.put(siteOffset + k * channelSize, 0.f);
+					}
+					
+					if (usesCount)
+						buffer.put(siteOffset + countChannel * channelSize, 0.f);
+					
+					if (usesState)
+					{
+						for (int k = 0; k < LudiiGameWrapper.NUM_LOCAL_STATE_CHANNELS; ++k)
+						{
+							buffer.put(siteOffset + (stateChannel + k) * channelSize, 0.f);
+						}
+					}
+					
+					// And write them again for the current state
+					final ContainerState cs = context.state().containerStates()[c];
+					final boolean inContainer = (site - sitesFrom[c] < containers[c].numSites());
+					
+					if (!stacking)
+					{
+						// Owned pieces are indexed by owners of components, not by who-values of sites
+						final int what = cs.what(site, siteType);
+						if (what > 0)
+						{
+							final int owner = game.game.equipment().components()[what].owner();
+							if (owner >= 1 && owner <= numPlayers + 1)
+								buffer.put(siteOffset + (what - 1) * channelSize, 1.f);
+						}
+					}
+					else if (inContainer)
+					{
+						writeStackChannels(buffer, offset, (BaseContainerStateStacking) cs, site);
+					}
+					
+					if (usesCount && inContainer)
+						buffer.put(siteOffset + countChannel * channelSize, cs.countCell(site));
+					
+					if (usesState && inContainer)
+					{
+						final int state = Math.min(cs.stateCell(site), LudiiGameWrapper.NUM_LOCAL_STATE_CHANNELS - 1);
+						buffer.put(siteOffset + (stateChannel + state) * channelSize, 1.f);
+					}
+				}
+			}
+		}
+		
+		// Rewrite all the channels that do not depend on sites
+		if (usesAmount)
+		{
+			for (int p = 1; p <= numPlayers; ++p)
+			{
+				fillChannel(buffer, offset, amountChannel + p - 1, context.state().amount(p));
+			}
+		}
+		
+		if (numPlayers > 1)
+			writeMoverChannels(buffer, offset, moverChannel);
+		
+		if (usesSwap)
+			fillChannel(buffer, offset, swapChannel, context.state().orderHasChanged() ? 1.f : 0.f);
+		
+		// Unmark the last moves at the time the tensor was written, and mark the current ones
+		writeLastMovesChannels(buffer, offset, lastMovesChannel, prevNumMoves, 0.f);
+		writeLastMovesChannels(buffer, offset, lastMovesChannel, numMoves, 1.f);
+	}
+	
+	/**
+	 * Same as updateTensor(FloatBuffer, int, int), but for a buffer of bytes.
+	 * 
+	 * @param buffer
+	 * @param offset Index (in floats, counting from the buffer's position) at which the tensor starts
+	 * @param prevNumMoves Number of moves in our trial when the tensor was written
+	 */
+	public void updateTensor(final ByteBuffer buffer, final int offset, final int prevNumMoves)
+	{
+		updateTensor(buffer.asFloatBuffer(), offset, prevNumMoves);
+	}
+	
+	/**
+	 * Writes the tensors of all the given states into one contiguous buffer, 
+	 * such that the tensor for the i-th state starts at index 
+	 * i * stateTensorSize() of the game.
+	 * 
+	 * @param states States to tensorise (all for the same game)
+	 * @param buffer
+	 */
+	public static void toTensors(final LudiiStateWrapper[] states, final FloatBuffer buffer)
+	{
+		for (int i = 0; i < states.length; ++i)
+		{
+			assert (states[i].game.stateTensorSize() == states[0].game.stateTensorSize());
+			states[i].toTensor(buffer, i * states[i].game.stateTensorSize());
+		}
+	}
+	
+	/**
+	 * Same as toTensors(LudiiStateWrapper[], FloatBuffer), but for a buffer of bytes
+	 * 
+	 * @param states States to tensorise (all for the same game)
+	 * @param buffer
+	 */
+	public static void toTensors(final LudiiStateWrapper[] states, final ByteBuffer buffer)
+	{
+		toTensors(states, buffer.asFloatBuffer());
+	}
+	
+	/**
+	 * @param game
+	 * @param numStates
+	 * @return A direct buffer, using the native byte order, that can hold the tensors
+	 * 	of the given number of states for the given game (see toTensors()).
+	 */
+	public static ByteBuffer allocateTensorsBuffer(final LudiiGameWrapper game, final int numStates)
+	{
+		return ByteBuffer.allocateDirect(numStates * game.stateTensorSize() * Float.BYTES).order(ByteOrder.nativeOrder());
+	}
+	
+	/**
+	 * Writes the flat tensor representation of the current game state into
+	 * the given buffer, assuming that it contains only zeros in the region
+	 * that we write to.
+	 * 
+	 * @param buffer
+	 * @param offset Index in the buffer at which we write the first float
+	 */
+	private void writeTensor(final FloatBuffer buffer, final int offset)
 	{
 		// TODO we also want to support edges and faces for some games
 		
@@ -445,8 +788,6 @@ public final class LudiiStateWrapper
 		
 		final int numChannels = game.stateTensorNumChannels;
 		
-		final float[] flatTensor = new float[numChannels * tensorDimX * tensorDimY];
-		
 		int currentChannel = 0;
 		
 		if (!stacking)
@@ -463,7 +804,7 @@ public final class LudiiStateWrapper
 					for (int i = 0; i < sites.size(); ++i)
 					{
 						final int site = sites.getQuick(i);
-						flatTensor[yCoords[site] + tensorDimY * (xCoords[site] + (currentChannel * tensorDimX))] = 1.f;
+						buffer.put(offset + yCoords[site] + tensorDimY * (xCoords[site] + (currentChannel * tensorDimX)), 1.f);
 					}
 				}
 				
@@ -481,38 +822,7 @@ public final class LudiiStateWrapper
 				
 				for (int site = 0; site < cont.numSites(); ++site)
 				{
-					final int stackSize = cs.sizeStackCell(contStartSite + site);
-					
-					if (stackSize > 0)
-					{
-						// Store in channels for bottom 5 elements of stack
-						for (int i = 0; i < LudiiGameWrapper.NUM_STACK_CHANNELS / 2; ++i)
-						{
-							if (i >= stackSize)
-								break;
-							
-							final int what = cs.whatCell(contStartSite + site, i);
-							final int channel = currentChannel + ((what - 1) * LudiiGameWrapper.NUM_STACK_CHANNELS + i);
-							flatTensor[yCoords[contStartSite + site] + tensorDimY * (xCoords[contStartSite + site] + (channel * tensorDimX))] = 1.f;
-						}
-						
-						// And same for top 5 elements of stack
-						for (int i = 0; i < LudiiGameWrapper.NUM_STACK_CHANNELS / 2; ++i)
-						{
-							if (i >= stackSize)
-								break;
-							
-							final int what = cs.whatCell(contStartSite + site, stackSize - 1 - i);
-							final int channel = 
-									currentChannel + ((what - 1) * LudiiGameWrapper.NUM_STACK_CHANNELS + 
-											(LudiiGameWrapper.NUM_STACK_CHANNELS / 2) + i);
-							flatTensor[yCoords[contStartSite + site] + tensorDimY * (xCoords[contStartSite + site] + (channel * tensorDimX))] = 1.f;
-						}
-						
-						// Finally a non-binary channel storing the height of stack
-						final int channel = currentChannel + LudiiGameWrapper.NUM_STACK_CHANNELS * numPieceTypes;
-						flatTensor[yCoords[contStartSite + site] + tensorDimY * (xCoords[contStartSite + site] + (channel * tensorDimX))] = stackSize;
-					}
+					writeStackChannels(buffer, offset, cs, contStartSite + site);
 				}
 			}
 			
@@ -531,8 +841,11 @@ public final class LudiiStateWrapper
 				
 				for (int site = 0; site < cont.numSites(); ++site)
 				{
-					flatTensor[yCoords[contStartSite + site] + tensorDimY * (xCoords[contStartSite + site] + (currentChannel * tensorDimX))] = 
-							cs.countCell(contStartSite + site);
+					buffer.put
+					(
+						offset + yCoords[contStartSite + site] + tensorDimY * (xCoords[contStartSite + site] + (currentChannel * tensorDimX)), 
+						cs.countCell(contStartSite + site)
+					);
 				}
 			}
 			
@@ -544,11 +857,7 @@ public final class LudiiStateWrapper
 			// One channel per player for their amount
 			for (int p = 1; p <= numPlayers; ++p)
 			{
-				final int amount = context.state().amount(p);
-				final int startFill = tensorDimY * currentChannel * tensorDimX;
-				final int endFill = startFill + (tensorDimY * tensorDimX);
-				Arrays.fill(flatTensor, startFill, endFill, amount);
-				
+				fillChannel(buffer, offset, currentChannel, context.state().amount(p));
 				++currentChannel;
 			}
 		}
@@ -556,12 +865,7 @@ public final class LudiiStateWrapper
 		if (numPlayers > 1)
 		{
 			// One binary channel per player for whether or not they're current mover
-			// (one will be all-1s, all the others will be all-0)
-			// Takes into account swap rule!
-			final int mover = context.state().playerToAgent(context.state().mover());
-			final int startFill = tensorDimY * (currentChannel + mover - 1) * tensorDimX;
-			System.arraycopy(game.allOnesChannelFlat(), 0, flatTensor, startFill, (tensorDimY * tensorDimX));
-
+			writeMoverChannels(buffer, offset, currentChannel);
 			currentChannel += numPlayers;
 		}
 		
@@ -577,7 +881,7 @@ public final class LudiiStateWrapper
 				for (int site = 0; site < cont.numSites(); ++site)
 				{
 					final int state = Math.min(cs.stateCell(contStartSite + site), LudiiGameWrapper.NUM_LOCAL_STATE_CHANNELS - 1);
-					flatTensor[yCoords[contStartSite + site] + tensorDimY * (xCoords[contStartSite + site] + ((currentChannel + state) * tensorDimX))] = 1.f;
+					buffer.put(offset + yCoords[contStartSite + site] + tensorDimY * (xCoords[contStartSite + site] + ((currentChannel + state) * tensorDimX)), 1.f);
 				}
 			}
 			
@@ -588,91 +892,188 @@ public final class LudiiStateWrapper
 		{
 			// Channel for whether or not swap occurred
 			if (context.state().orderHasChanged())
-			{
-				final int startFill = tensorDimY * currentChannel * tensorDimX;
-				System.arraycopy(game.allOnesChannelFlat(), 0, flatTensor, startFill, (tensorDimY * tensorDimX));
-			}
+				fillChannel(buffer, offset, currentChannel, 1.f);
 			
 			currentChannel += 1;
 		}
 		
 		// Channels for whether or not positions exist in containers
-		final int startFill = tensorDimY * currentChannel * tensorDimX;
-		System.arraycopy(game.containerPositionChannels(), 0, flatTensor, startFill, (containers.length * tensorDimY * tensorDimX));
-		currentChannel += containers.length;
-		
-		// Channels marking from and to of last Move
-		final List<Move> trialMoves = trial.generateCompleteMovesList();
-		if (trialMoves.size() - trial.numInitialPlacementMoves() > 0)
+		final int startFill = offset + tensorDimY * currentChannel * tensorDimX;
+		final float[] containerPositionChannels = game.containerPositionChannels();
+		for (int i = 0; i < containers.length * tensorDimY * tensorDimX; ++i)
 		{
-			final Move lastMove = trialMoves.get(trialMoves.size() - 1);
-			final int from = lastMove.fromNonDecision();
-			
-			if (from != Constants.OFF)
-				flatTensor[yCoords[from] + tensorDimY * (xCoords[from] + (currentChannel * tensorDimX))] = 1.f;
-			
-			++currentChannel;
-			final int to = lastMove.toNonDecision();
-			
-			if (to != Constants.OFF)
-				flatTensor[yCoords[to] + tensorDimY * (xCoords[to] + (currentChannel * tensorDimX))] = 1.f;
-			
-			++currentChannel;
-		}
-		else
-		{
-			currentChannel += 2;
+			buffer.put(startFill + i, containerPositionChannels[i]);
 		}
+		currentChannel += containers.length;
 		
-		// And the same for move before last move
-		if (trialMoves.size() - trial.numInitialPlacementMoves() > 1)
+		// Channels marking from and to of last Move, and of move before last move
+		writeLastMovesChannels(buffer, offset, currentChannel, trial.numMoves(), 1.f);
+		currentChannel += 4;
+		
+		// Assert that we correctly ran through all channels
+		assert (currentChannel == numChannels);
+	}
+	
+	/**
+	 * Writes the channels for the stack on a single site (with all pieces types' 
+	 * channels for bottom and top of stack, and the stack size channel) into the
+	 * given buffer, assuming that those channels contain only zeros for that site.
+	 * 
+	 * @param buffer
+	 * @param offset Index in the buffer at which the tensor starts
+	 * @param cs
+	 * @param site
+	 */
+	private void writeStackChannels
+	(
+		final FloatBuffer buffer, 
+		final int offset, 
+		final BaseContainerStateStacking cs, 
+		final int site
+	)
+	{
+		final int stackSize = cs.sizeStackCell(site);
+		
+		if (stackSize > 0)
 		{
-			final Move lastLastMove = trialMoves.get(trialMoves.size() - 2);
-			final int from = lastLastMove.fromNonDecision();
+			final int numPieceTypes = game.game.equipment().components().length - 1;
+			final int siteOffset = offset + game.tensorCoordsY()[site] + game.tensorDimY() * game.tensorCoordsX()[site];
+			final int channelSize = game.tensorDimX() * game.tensorDimY();
 			
-			if (from != Constants.OFF)
-				flatTensor[yCoords[from] + tensorDimY * (xCoords[from] + (currentChannel * tensorDimX))] = 1.f;
-			
-			++currentChannel;
-			final int to = lastLastMove.toNonDecision();
+			// Store in channels for bottom 5 elements of stack
+			for (int i = 0; i < LudiiGameWrapper.NUM_STACK_CHANNELS / 2; ++i)
+			{
+				if (i >= stackSize)
+					break;
+				
+				final int what = cs.whatCell(site, i);
+				final int channel = ((what - 1) * LudiiGameWrapper.NUM_STACK_CHANNELS + i);
+				buffer.put(siteOffset + channel * channelSize, 1.f);
+			}
 			
-			if (to != Constants.OFF)
-				flatTensor[yCoords[to] + tensorDimY * (xCoords[to] + (currentChannel * tensorDimX))] = 1.f;
+			// And same for top 5 elements of stack
+			for (int i = 0; i < LudiiGameWrapper.NUM_STACK_CHANNELS / 2; ++i)
+			{
+				if (i >= stackSize)
+					break;
+				
+				final int what = cs.whatCell(site, stackSize - 1 - i);
+				final int channel = 
+						((what - 1) * LudiiGameWrapper.NUM_STACK_CHANNELS + 
+								(LudiiGameWrapper.NUM_STACK_CHANNELS / 2) + i);
+				buffer.put(siteOffset + channel * channelSize, 1.f);
+			}
 			
-			++currentChannel;
+			// Finally a non-binary channel storing the height of stack
+			final int channel = LudiiGameWrapper.NUM_STACK_CHANNELS * numPieceTypes;
+			buffer.put(siteOffset + channel * channelSize, stackSize);
 		}
-		else
+	}
+	
+	/**
+	 * Writes one binary channel per player for whether or not they're current
+	 * mover (one will be all-1s, all the others will be all-0). Takes into 
+	 * account swap rule!
+	 * 
+	 * @param buffer
+	 * @param offset Index in the buffer at which the tensor starts
+	 * @param firstChannel Channel for the first player
+	 */
+	private void writeMoverChannels(final FloatBuffer buffer, final int offset, final int firstChannel)
+	{
+		final int mover = context.state().playerToAgent(context.state().mover());
+		for (int p = 1; p <= game.game.players().count(); ++p)
 		{
-			currentChannel += 2;
+			fillChannel(buffer, offset, firstChannel + p - 1, (p == mover) ? 1.f : 0.f);
 		}
+	}
+	
+	/**
+	 * Writes the given value in the channels marking from and to of the last move,
+	 * and of the move before the last move, at the time when our trial contained
+	 * the given number of moves.
+	 * 
+	 * @param buffer
+	 * @param offset Index in the buffer at which the tensor starts
+	 * @param firstChannel Channel for the from-position of the last move
+	 * @param numMoves
+	 * @param value 1.f to mark the positions, or 0.f to unmark them
+	 */
+	private void writeLastMovesChannels
+	(
+		final FloatBuffer buffer, 
+		final int offset, 
+		final int firstChannel, 
+		final int numMoves, 
+		final float value
+	)
+	{
+		final int numRealMoves = numMoves - trial.numInitialPlacementMoves();
 		
-		// Assert that we correctly ran through all channels
-		assert (currentChannel == numChannels);
+		if (numRealMoves > 0)
+			writeFromToChannels(buffer, offset, trial.getMove(numMoves - 1), firstChannel, value);
 		
-		return flatTensor;
+		if (numRealMoves > 1)
+			writeFromToChannels(buffer, offset, trial.getMove(numMoves - 2), firstChannel + 2, value);
 	}
 	
 	/**
-	 * @return A single (3D) tensor representation of the current game state
+	 * Writes the given value for the from- and to-positions of the given move
+	 * in the given channels
+	 * 
+	 * @param buffer
+	 * @param offset Index in the buffer at which the tensor starts
+	 * @param move
+	 * @param fromChannel Channel for the from-position (followed by channel for to-position)
+	 * @param value
 	 */
-	public float[][][] toTensor()
+	private void writeFromToChannels
+	(
+		final FloatBuffer buffer, 
+		final int offset, 
+		final Move move, 
+		final int fromChannel, 
+		final float value
+	)
 	{
+		final int[] xCoords = game.tensorCoordsX();
+		final int[] yCoords = game.tensorCoordsY();
 		final int tensorDimX = game.tensorDimX();
 		final int tensorDimY = game.tensorDimY();
-		final int numChannels = game.stateTensorNumChannels;
 		
-		final float[] flatTensor = toTensorFlat();
-		final float[][][] tensor = new float[numChannels][tensorDimX][tensorDimY];
+		final int from = move.fromNonDecision();
 		
-		for (int c = 0; c < numChannels; ++c)
+		if (from != Constants.OFF)
+			buffer.put(offset + yCoords[from] + tensorDimY * (xCoords[from] + (fromChannel * tensorDimX)), value);
+		
+		final int to = move.toNonDecision();
+		
+		if (to != Constants.OFF)
+			buffer.put(offset + yCoords[to] + tensorDimY * (xCoords[to] + ((fromChannel + 1) * tensorDimX)), value);
+	}
+	
+	/**
+	 * Fills a complete channel with the given value. We only use this for channels
+	 * that have the same value in every position, so we can skip all the work if 
+	 * the first position already has the given value.
+	 * 
+	 * @param buffer
+	 * @param offset Index in the buffer at which the tensor starts
+	 * @param channel
+	 * @param value
+	 */
+	private void fillChannel(final FloatBuffer buffer, final int offset, final int channel, final float value)
+	{
+		final int channelSize = game.tensorDimX() * game.tensorDimY();
+		final int startFill = offset + channel * channelSize;
+		
+		if (buffer.get(startFill) == value)
+			return;
+		
+		for (int i = startFill; i < startFill + channelSize; ++i)
 		{
-			for (int x = 0; x < tensorDimX; ++x)
-			{
-				System.arraycopy(flatTensor, tensorDimY * (x + (c * tensorDimX)), tensor[c][x], 0, tensorDimY);
-			}
+			buffer.put(i, value);
 		}
-		
-		return tensor;
 	}
 	
 	/**
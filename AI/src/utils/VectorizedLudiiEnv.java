@@ -0,0 +1,466 @@
+package utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+import gnu.trove.list.array.TIntArrayList;
+import main.DaemonThreadFactory;
+import main.collections.FastArrayList;
+import other.move.Move;
+
+/**
+ * Vectorised environment: N instances of the same game, which are all stepped
+ * in lockstep. A single call to step() applies one action in every environment
+ * (in parallel on a pool of worker threads), automatically resets environments
+ * in which the game ended, and writes observations, legal-action masks, rewards,
+ * done flags, and players to move for all environments into packed buffers.
+ *
+ * All those buffers are direct buffers (in native byte order) that are allocated
+ * once, so clients (e.g. Python code) can wrap them without any copying, and
+ * simply read them again after every call to step().
+ *
+ * Every environment is always stepped by the same worker thread, because the
+ * contexts of LudiiStateWrappers are thread-confined. Clients should therefore
+ * not use the states returned by state() while a step is running, and not
+ * modify them at all.
+ *
+ * NOTE: simultaneous-move games are not supported.
+ *
+ * @author Dennis Soemers
+ */
+public final class VectorizedLudiiEnv
+{
+
+	//-------------------------------------------------------------------------
+	
+	/** The game that we're playing in all environments */
+	private final LudiiGameWrapper game;
+	
+	/** Number of environments */
+	private final int numEnvs;
+	
+	/** Number of floats in state tensors for our game */
+	private final int tensorSize;
+	
+	/** Number of distinct actions (size of legal-action mask per environment) */
+	private final int numDistinctActions;
+	
+	/** Number of players */
+	private final int numPlayers;
+	
+	/** Our environments */
+	private final LudiiStateWrapper[] states;
+	
+	/** For every environment, legal moves in its current state */
+	private final FastArrayList<?>[] legalMoves;
+	
+	/** For every environment, int-representations of legal moves (same order as legalMoves) */
+	private final TIntArrayList[] legalMoveInts;
+	
+	/** For every environment, number of moves in its trial when we last wrote its observation */
+	private final int[] prevNumMoves;
+	
+	/** One single-thread executor per worker, such that every environment always runs on the same thread */
+	private final ExecutorService[] workers;
+	
+	/** Observations: state tensors for all environments (numEnvs * tensorSize floats) */
+	private final ByteBuffer observations;
+	
+	/** Float view of observations */
+	private final FloatBuffer observationFloats;
+	
+	/** Legal-action masks for all environments (numEnvs * numDistinctActions bytes; 1 for legal, 0 for illegal) */
+	private final ByteBuffer legalMasks;
+	
+	/** Rewards for all environments (numEnvs * numPlayers floats) */
+	private final ByteBuffer rewards;
+	
+	/** Float view of rewards */
+	private final FloatBuffer rewardFloats;
+	
+	/** Done flags for all environments (numEnvs bytes) */
+	private final ByteBuffer dones;
+	
+	/** 0-based indices of players to move in all environments (numEnvs ints) */
+	private final ByteBuffer currentPlayers;
+	
+	/** Int view of current players */
+	private final IntBuffer currentPlayerInts;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor. Creates all environments, and resets them.
+	 *
+	 * @param game
+	 * @param numEnvs Number of environments
+	 * @param numThreads Number of worker threads to step environments with
+	 */
+	public VectorizedLudiiEnv(final LudiiGameWrapper game, final int numEnvs, final int numThreads)
+	{
+		if (game.isSimultaneousMoveGame())
+			throw new IllegalArgumentException("VectorizedLudiiEnv does not support simultaneous-move games.");
+		
+		this.game = game;
+		this.numEnvs = numEnvs;
+		tensorSize = game.stateTensorSize();
+		numDistinctActions = game.numDistinctActions();
+		numPlayers = game.numPlayers();
+		
+		states = new LudiiStateWrapper[numEnvs];
+		legalMoves = new FastArrayList<?>[numEnvs];
+		legalMoveInts = new TIntArrayList[numEnvs];
+		prevNumMoves = new int[numEnvs];
+		
+		workers = new ExecutorService[Math.max(1, Math.min(numThreads, numEnvs))];
+		for (int t = 0; t < workers.length; ++t)
+		{
+			workers[t] = Executors.newSingleThreadExecutor(DaemonThreadFactory.INSTANCE);
+		}
+		
+		observations = allocate(numEnvs * tensorSize * Float.BYTES);
+		observationFloats = observations.asFloatBuffer();
+		legalMasks = allocate(numEnvs * numDistinctActions);
+		rewards = allocate(numEnvs * numPlayers * Float.BYTES);
+		rewardFloats = rewards.asFloatBuffer();
+		dones = allocate(numEnvs);
+		currentPlayers = allocate(numEnvs * Integer.BYTES);
+		currentPlayerInts = currentPlayers.asIntBuffer();
+		
+		// Create states on the worker threads that will own them
+		runParallel
+		(
+			(final int from, final int to) ->
+			{
+				for (int i = from; i < to; ++i)
+				{
+					states[i] = new LudiiStateWrapper(game);
+					legalMoveInts[i] = new TIntArrayList();
+					resetEnv(i);
+				}
+			}
+		);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Resets all environments to initial game states, and writes their
+	 * observations, legal-action masks, and players to move. Clears all
+	 * rewards and done flags.
+	 */
+	public void reset()
+	{
+		runParallel
+		(
+			(final int from, final int to) ->
+			{
+				for (int i = from; i < to; ++i)
+				{
+					resetEnv(i);
+				}
+			}
+		);
+	}
+	
+	/**
+	 * Applies the given actions in all environments. For every environment
+	 * in which the game ends, we write the returns of the finished game in
+	 * rewards(), set its done flag, and immediately reset it: its observation
+	 * is then the initial state of the next game. For all other environments,
+	 * rewards are 0 and done flags are cleared.
+	 *
+	 * @param actions For every environment, a legal action in the int
+	 * 	representation of LudiiGameWrapper.moveToInt(). If multiple legal moves
+	 * 	are represented by the same int, we randomly pick one of them.
+	 */
+	public void step(final int[] actions)
+	{
+		if (actions.length != numEnvs)
+			throw new IllegalArgumentException("Expected " + numEnvs + " actions, but got " + actions.length + ".");
+		
+		runParallel
+		(
+			(final int from, final int to) ->
+			{
+				for (int i = from; i < to; ++i)
+				{
+					stepEnv(i, actions[i]);
+				}
+			}
+		);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @return Number of environments
+	 */
+	public int numEnvs()
+	{
+		return numEnvs;
+	}
+	
+	/**
+	 * @return Buffer with numEnvs * stateTensorSize() floats: the flat state
+	 * 	tensors (see LudiiStateWrapper.toTensorFlat()) of all environments.
+	 */
+	public ByteBuffer observations()
+	{
+		return observations;
+	}
+	
+	/**
+	 * @return Buffer with numEnvs * numDistinctActions() bytes: for every environment,
+	 * 	1 for every action that is legal, and 0 for every other action.
+	 */
+	public ByteBuffer legalMasks()
+	{
+		return legalMasks;
+	}
+	
+	/**
+	 * @return Buffer with numEnvs * numPlayers() floats: for every environment,
+	 * 	the returns of all players if its game ended in the last step, or 0s otherwise.
+	 */
+	public ByteBuffer rewards()
+	{
+		return rewards;
+	}
+	
+	/**
+	 * @return Buffer with numEnvs bytes: 1 for every environment in which the
+	 * 	game ended (and was reset) in the last step, and 0 for all others.
+	 */
+	public ByteBuffer dones()
+	{
+		return dones;
+	}
+	
+	/**
+	 * @return Buffer with numEnvs ints: 0-based indices of the players to move
+	 * 	in all environments.
+	 */
+	public ByteBuffer currentPlayers()
+	{
+		return currentPlayers;
+	}
+	
+	/**
+	 * @param i
+	 * @return State of the i-th environment (should not be modified)
+	 */
+	public LudiiStateWrapper state(final int i)
+	{
+		return states[i];
+	}
+	
+	/**
+	 * Shuts down our worker threads
+	 */
+	public void close()
+	{
+		for (final ExecutorService worker : workers)
+		{
+			worker.shutdown();
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Resets the i-th environment, and writes all of its data
+	 * @param i
+	 */
+	private void resetEnv(final int i)
+	{
+		final LudiiStateWrapper state = states[i];
+		state.reset();
+		state.toTensor(observationFloats, i * tensorSize);
+		prevNumMoves[i] = state.trial().numMoves();
+		
+		for (int p = 0; p < numPlayers; ++p)
+		{
+			rewardFloats.put(i * numPlayers + p, 0.f);
+		}
+		
+		dones.put(i, (byte) 0);
+		writeLegalMoves(i);
+	}
+	
+	/**
+	 * Applies the given action in the i-th environment, and writes all of its data
+	 * @param i
+	 * @param action
+	 */
+	private void stepEnv(final int i, final int action)
+	{
+		final LudiiStateWrapper state = states[i];
+		final FastArrayList<?> moves = legalMoves[i];
+		final TIntArrayList moveInts = legalMoveInts[i];
+		
+		// Uniformly pick one of the legal moves represented by the action
+		Move move = null;
+		int numMatches = 0;
+		for (int j = 0; j < moveInts.size(); ++j)
+		{
+			if (moveInts.getQuick(j) == action)
+			{
+				++numMatches;
+				if (ThreadLocalRandom.current().nextInt(numMatches) == 0)
+					move = (Move) moves.get(j);
+			}
+		}
+		
+		if (move == null)
+			throw new IllegalArgumentException("Action " + action + " is not legal in environment " + i + ".");
+		
+		state.applyMove(move);
+		
+		if (state.isTerminal())
+		{
+			final double[] returns = state.returns();
+			resetEnv(i);
+			
+			for (int p = 0; p < numPlayers; ++p)
+			{
+				rewardFloats.put(i * numPlayers + p, (float) returns[p]);
+			}
+			
+			dones.put(i, (byte) 1);
+		}
+		else
+		{
+			state.updateTensor(observationFloats, i * tensorSize, prevNumMoves[i]);
+			prevNumMoves[i] = state.trial().numMoves();
+			
+			for (int p = 0; p < numPlayers; ++p)
+			{
+				rewardFloats.put(i * numPlayers + p, 0.f);
+			}
+			
+			dones.put(i, (byte) 0);
+			writeLegalMoves(i);
+		}
+	}
+	
+	/**
+	 * Computes legal moves for the current state of the i-th environment, and
+	 * writes its legal-action mask and player to move.
+	 *
+	 * @param i
+	 */
+	private void writeLegalMoves(final int i)
+	{
+		final LudiiStateWrapper state = states[i];
+		final TIntArrayList moveInts = legalMoveInts[i];
+		final int maskOffset = i * numDistinctActions;
+		
+		// Clear the actions that were legal in the previous state
+		for (int j = 0; j < moveInts.size(); ++j)
+		{
+			legalMasks.put(maskOffset + moveInts.getQuick(j), (byte) 0);
+		}
+		
+		final FastArrayList<Move> moves = game.game.moves(state.context).moves();
+		legalMoves[i] = moves;
+		moveInts.resetQuick();
+		
+		for (int j = 0; j < moves.size(); ++j)
+		{
+			final int moveInt = game.moveToInt(moves.get(j));
+			moveInts.add(moveInt);
+			legalMasks.put(maskOffset + moveInt, (byte) 1);
+		}
+		
+		currentPlayerInts.put(i, state.currentPlayer());
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @param numBytes
+	 * @return Direct buffer with given number of bytes, in native byte order
+	 */
+	private static ByteBuffer allocate(final int numBytes)
+	{
+		return ByteBuffer.allocateDirect(numBytes).order(ByteOrder.nativeOrder());
+	}
+	
+	/**
+	 * Splits our environments into contiguous chunks, one per worker, and runs
+	 * the given task for every chunk on its worker (waiting for all of them to
+	 * complete). Rethrows the first exception thrown by any of the tasks.
+	 *
+	 * @param task
+	 */
+	private void runParallel(final EnvRangeTask task)
+	{
+		final CountDownLatch latch = new CountDownLatch(workers.length);
+		final AtomicReference<RuntimeException> exception = new AtomicReference<RuntimeException>();
+		
+		for (int t = 0; t < workers.length; ++t)
+		{
+			final int from = (int) (((long) numEnvs * t) / workers.length);
+			final int to = (int) (((long) numEnvs * (t + 1)) / workers.length);
+			
+			workers[t].submit
+			(
+				() ->
+				{
+					try
+					{
+						task.run(from, to);
+					}
+					catch (final RuntimeException e)
+					{
+						exception.compareAndSet(null, e);
+					}
+					finally
+					{
+						latch.countDown();
+					}
+				}
+			);
+		}
+		
+		try
+		{
+			latch.await();
+		}
+		catch (final InterruptedException e)
+		{
+			// Workers may still be writing observations, masks and rewards, so
+			// the caller must not read our buffers
+			Thread.currentThread().interrupt();
+			exception.compareAndSet(null, new IllegalStateException("Interrupted while stepping environments", e));
+		}
+		
+		if (exception.get() != null)
+			throw exception.get();
+	}
+	
+	/**
+	 * Task to run for a contiguous range of environments
+	 *
+	 * @author Dennis Soemers
+	 */
+	private interface EnvRangeTask
+	{
+		/**
+		 * @param from First environment (inclusive)
+		 * @param to Last environment (exclusive)
+		 */
+		void run(final int from, final int to);
+	}
+	
+	//-------------------------------------------------------------------------
+
+}
@@ -0,0 +1,426 @@
+package utils.data_structures;
+
+import java.util.Arrays;
+
+/**
+ * Hash table from primitive long keys (typically computed from moves, see
+ * MCTS.moveKey()) to visit counts and accumulated scores, as used for
+ * MAST, NST, Progressive History, GRAVE, etc.
+ *
+ * The table is split into a number of stripes, each of which is an
+ * open-addressing (linear probing) hash table with its own lock and its own
+ * parallel primitive arrays for keys, visit counts and accumulated scores.
+ * Threads updating or reading keys in different stripes never block each
+ * other, and no objects are allocated for lookups or updates.
+ *
+ * A key of 0 is reserved to mark empty slots; it is silently remapped to
+ * a different key.
+ *
+ * @author Dennis Soemers
+ */
+public final class MoveStatisticsTable
+{
+
+	//-------------------------------------------------------------------------
+
+	/** Key we use to mark empty slots */
+	private static final long EMPTY_KEY = 0L;
+
+	/** Key we use instead of EMPTY_KEY if that is passed in by a user */
+	private static final long REMAPPED_EMPTY_KEY = 0x9E3779B97F4A7C15L;
+
+	//-------------------------------------------------------------------------
+
+	/** Our stripes */
+	private final Stripe[] stripes;
+
+	/** Number of bits we use to determine stripe index */
+	private final int numStripeBits;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param numStripes Number of stripes (rounded up to a power of 2)
+	 * @param initialCapacityPerStripe Initial number of slots per stripe
+	 * 	(rounded up to a power of 2)
+	 */
+	public MoveStatisticsTable(final int numStripes, final int initialCapacityPerStripe)
+	{
+		numStripeBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, numStripes) - 1);
+		stripes = new Stripe[1 << numStripeBits];
+
+		final int capacity = Integer.highestOneBit(Math.max(2, initialCapacityPerStripe) * 2 - 1);
+		for (int i = 0; i < stripes.length; ++i)
+		{
+			stripes[i] = new Stripe(capacity);
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Adds a sample (one visit with given score) for given key, creating
+	 * a new entry if needed.
+	 *
+	 * @param key
+	 * @param score
+	 */
+	public void addSample(final long key, final double score)
+	{
+		final long k = (key == EMPTY_KEY) ? REMAPPED_EMPTY_KEY : key;
+		final long hash = mix(k);
+		stripeFor(hash).addSample(k, hash, score);
+	}
+
+	/**
+	 * @param key
+	 * @return Visit count for given key (0 if we have no entry for key)
+	 */
+	public double visitCount(final long key)
+	{
+		final long k = (key == EMPTY_KEY) ? REMAPPED_EMPTY_KEY : key;
+		final long hash = mix(k);
+		return stripeFor(hash).visitCount(k, hash);
+	}
+
+	/**
+	 * @param key
+	 * @return Accumulated score for given key (0 if we have no entry for key)
+	 */
+	public double accumulatedScore(final long key)
+	{
+		final long k = (key == EMPTY_KEY) ? REMAPPED_EMPTY_KEY : key;
+		final long hash = mix(k);
+		return stripeFor(hash).accumulatedScore(k, hash);
+	}
+
+	/**
+	 * @param key
+	 * @param defaultValue
+	 * @return Mean score for given key, or the given default value if we
+	 * 	have no visits for key
+	 */
+	public double meanScore(final long key, final double defaultValue)
+	{
+		final long k = (key == EMPTY_KEY) ? REMAPPED_EMPTY_KEY : key;
+		final long hash = mix(k);
+		return stripeFor(hash).meanScore(k, hash, defaultValue);
+	}
+
+	/**
+	 * Multiplies all visit counts and accumulated scores by the given
+	 * decay factor, and removes all entries of which the visit count
+	 * drops below the given minimum.
+	 *
+	 * @param decayFactor
+	 * @param minVisitCount
+	 */
+	public void decay(final double decayFactor, final double minVisitCount)
+	{
+		for (final Stripe stripe : stripes)
+		{
+			stripe.decay(decayFactor, minVisitCount);
+		}
+	}
+
+	/**
+	 * Removes all entries (without shrinking any memory)
+	 */
+	public void clear()
+	{
+		for (final Stripe stripe : stripes)
+		{
+			stripe.clear();
+		}
+	}
+
+	/**
+	 * @return Number of entries in the table
+	 */
+	public int size()
+	{
+		int size = 0;
+		for (final Stripe stripe : stripes)
+		{
+			size += stripe.size();
+		}
+		return size;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param hash
+	 * @return Stripe for given (mixed) hash
+	 */
+	private Stripe stripeFor(final long hash)
+	{
+		if (numStripeBits == 0)
+			return stripes[0];
+
+		return stripes[(int) (hash >>> (Long.SIZE - numStripeBits))];
+	}
+
+	/**
+	 * Finaliser of MurmurHash3, used to spread keys (which are often
+	 * very structured) over stripes and slots.
+	 *
+	 * @param key
+	 * @return Mixed hash
+	 */
+	private static long mix(final long key)
+	{
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * A single stripe: open-addressing hash table with linear probing.
+	 * All methods are synchronized on the stripe.
+	 *
+	 * @author Dennis Soemers
+	 */
+	private static final class Stripe
+	{
+
+		/** Keys (EMPTY_KEY for empty slots) */
+		private long[] keys;
+
+		/** Visit counts (not int because we want to be able to decay) */
+		private double[] visitCounts;
+
+		/** Accumulated scores */
+		private double[] accumulatedScores;
+
+		/** Number of entries */
+		private int size = 0;
+
+		/**
+		 * Constructor
+		 * @param capacity Initial capacity (power of 2)
+		 */
+		protected Stripe(final int capacity)
+		{
+			allocate(capacity);
+		}
+
+		/**
+		 * Adds a sample for given key
+		 * @param key
+		 * @param hash
+		 * @param score
+		 */
+		protected synchronized void addSample(final long key, final long hash, final double score)
+		{
+			int slot = findSlot(key, hash);
+
+			if (keys[slot] == EMPTY_KEY)
+			{
+				if (2 * (size + 1) > keys.length)
+				{
+					rehash(keys.length * 2);
+					slot = findSlot(key, hash);
+				}
+
+				keys[slot] = key;
+				++size;
+			}
+
+			visitCounts[slot] += 1.0;
+			accumulatedScores[slot] += score;
+		}
+
+		/**
+		 * @param key
+		 * @param hash
+		 * @return Visit count for key
+		 */
+		protected synchronized double visitCount(final long key, final long hash)
+		{
+			return visitCounts[findSlot(key, hash)];
+		}
+
+		/**
+		 * @param key
+		 * @param hash
+		 * @return Accumulated score for key
+		 */
+		protected synchronized double accumulatedScore(final long key, final long hash)
+		{
+			return accumulatedScores[findSlot(key, hash)];
+		}
+
+		/**
+		 * @param key
+		 * @param hash
+		 * @param defaultValue
+		 * @return Mean score for key, or default value if no visits
+		 */
+		protected synchronized double meanScore(final long key, final long hash, final double defaultValue)
+		{
+			final int slot = findSlot(key, hash);
+			final double visitCount = visitCounts[slot];
+
+			if (visitCount > 0.0)
+				return accumulatedScores[slot] / visitCount;
+
+			return defaultValue;
+		}
+
+		/**
+		 * Decays all statistics, and removes entries with too few visits
+		 * @param decayFactor
+		 * @param minVisitCount
+		 */
+		protected synchronized void decay(final double decayFactor, final double minVisitCount)
+		{
+			// Simple loops over primitive arrays, easy for JIT to vectorise
+			// (empty slots simply stay at 0)
+			final double[] visits = visitCounts;
+			final double[] scores = accumulatedScores;
+
+			for (int i = 0; i < visits.length; ++i)
+			{
+				visits[i] *= decayFactor;
+			}
+
+			for (int i = 0; i < scores.length; ++i)
+			{
+				scores[i] *= decayFactor;
+			}
+
+			boolean removeAny = false;
+			for (int i = 0; i < keys.length; ++i)
+			{
+				if (keys[i] != EMPTY_KEY && visits[i] < minVisitCount)
+				{
+					removeAny = true;
+					break;
+				}
+			}
+
+			if (removeAny)
+			{
+				// Removing entries from a linear probing table breaks probe
+				// chains, so we simply rebuild the table without them
+				final long[] oldKeys = keys;
+				final double[] oldVisits = visitCounts;
+				final double[] oldScores = accumulatedScores;
+
+				allocate(oldKeys.length);
+				size = 0;
+
+				for (int i = 0; i < oldKeys.length; ++i)
+				{
+					if (oldKeys[i] != EMPTY_KEY && oldVisits[i] >= minVisitCount)
+						insertNew(oldKeys[i], oldVisits[i], oldScores[i]);
+				}
+			}
+		}
+
+		/**
+		 * Removes all entries
+		 */
+		protected synchronized void clear()
+		{
+			Arrays.fill(keys, EMPTY_KEY);
+			Arrays.fill(visitCounts, 0.0);
+			Arrays.fill(accumulatedScores, 0.0);
+			size = 0;
+		}
+
+		/**
+		 * @return Number of entries in stripe
+		 */
+		protected synchronized int size()
+		{
+			return size;
+		}
+
+		//---------------------------------------------------------------------
+
+		/**
+		 * @param key
+		 * @param hash
+		 * @return Slot containing given key, or empty slot where it would go
+		 */
+		private int findSlot(final long key, final long hash)
+		{
+			final int mask = keys.length - 1;
+			int slot = (int) hash & mask;
+
+			while (true)
+			{
+				final long slotKey = keys[slot];
+				if (slotKey == key || slotKey == EMPTY_KEY)
+					return slot;
+
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		/**
+		 * Allocates new (empty) arrays of given capacity
+		 * @param capacity
+		 */
+		private void allocate(final int capacity)
+		{
+			keys = new long[capacity];
+			visitCounts = new double[capacity];
+			accumulatedScores = new double[capacity];
+		}
+
+		/**
+		 * Rehashes all entries into new arrays of given capacity
+		 * @param newCapacity
+		 */
+		private void rehash(final int newCapacity)
+		{
+			final long[] oldKeys = keys;
+			final double[] oldVisits = visitCounts;
+			final double[] oldScores = accumulatedScores;
+
+			allocate(newCapacity);
+
+			for (int i = 0; i < oldKeys.length; ++i)
+			{
+				if (oldKeys[i] != EMPTY_KEY)
+				{
+					final int slot = findSlot(oldKeys[i], mix(oldKeys[i]));
+					keys[slot] = oldKeys[i];
+					visitCounts[slot] = oldVisits[i];
+					accumulatedScores[slot] = oldScores[i];
+				}
+			}
+		}
+
+		/**
+		 * Inserts a key that is known not to be in the table yet (and for
+		 * which we know there is space)
+		 * @param key
+		 * @param visitCount
+		 * @param accumulatedScore
+		 */
+		private void insertNew(final long key, final double visitCount, final double accumulatedScore)
+		{
+			final int slot = findSlot(key, mix(key));
+			keys[slot] = key;
+			visitCounts[slot] = visitCount;
+			accumulatedScores[slot] = accumulatedScore;
+			++size;
+		}
+
+	}
+
+	//-------------------------------------------------------------------------
+
+}
@@ -36,8 +36,11 @@ public interface ExperienceBuffer
 	public List<ExItExperience> sampleExperienceBatchUniformly(final int batchSize);
 	
 	/**
-	 * @return Return the backing array containing ALL experience (including likely
-	 * null entries if the buffer was not completely filled).
+	 * NOTE: buffers may store experience in encoded form, in which case
+	 * this decodes all of it (expensive for large buffers).
+	 * 
+	 * @return Array containing ALL experience (including likely null 
+	 * entries if the buffer was not completely filled).
 	 */
 	public ExItExperience[] allExperience();
 	
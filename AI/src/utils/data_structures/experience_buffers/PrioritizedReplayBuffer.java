@@ -2,21 +2,23 @@ package utils.data_structures.experience_buffers;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import game.Game;
-import game.equipment.container.Container;
-import other.state.container.ContainerState;
+import gnu.trove.list.array.TIntArrayList;
+import training.expert_iteration.EncodedExItExperience;
 import training.expert_iteration.ExItExperience;
-import training.expert_iteration.ExItExperience.ExItExperienceState;
+import training.expert_iteration.ExItExperienceReader;
+import training.expert_iteration.ExItExperienceWriter;
 
 /**
  * Replay Buffer for Prioritized Experience Replay, as described
@@ -29,28 +31,35 @@ import training.expert_iteration.ExItExperience.ExItExperienceState;
  * hyperparameters from the original publication. Changes also inspired by stable-baselines implementation:
  * https://github.com/hill-a/stable-baselines/blob/master/stable_baselines/deepq/replay_buffer.py
  * 
+ * Samples are stored in encoded form (see EncodedExItExperience), and
+ * only decoded when sampled.
+ * 
+ * The buffer is safe for concurrent use by multiple producer threads (adding
+ * experience) and consumer threads (sampling experience and updating priorities),
+ * without locks. Producers reserve slots by atomically incrementing the add count,
+ * and store a sample in their slot before giving it a priority. Priorities
+ * are stored in a SumTree that supports concurrent updates. If a slot is
+ * overwritten by a producer between a consumer sampling it and updating its
+ * priority, the new sample simply ends up with the updated priority.
  *
  * @author Dennis Soemers
  */
-public class PrioritizedReplayBuffer implements Serializable, ExperienceBuffer
+public class PrioritizedReplayBuffer implements ExperienceBuffer
 {
 	
 	//-------------------------------------------------------------------------
 	
-	/** */
-	private static final long serialVersionUID = 1L;
-	
 	/** Our maximum capacity */
 	protected final int replayCapacity;
 	
 	/** Our sum tree data structure */
 	protected final SumTree sumTree;
 	
-	/** This contains our data */
-	protected final ExItExperience[] buffer;
+	/** This contains our (encoded) data */
+	protected final AtomicReferenceArray<EncodedExItExperience> buffer;
 	
-	/** How many elements did we add? */
-	protected long addCount;
+	/** How many elements did we add? (or reserved slots for) */
+	protected final AtomicLong addCount;
 	
 	/** Hyperparameter for sampling. 0 --> uniform, 1 --> proportional to priorities */
 	protected final double alpha;
@@ -82,8 +91,8 @@ public class PrioritizedReplayBuffer implements Serializable, ExperienceBuffer
 	{
 		this.replayCapacity = replayCapacity;
 		this.sumTree = new SumTree(replayCapacity);
-		buffer = new ExItExperience[replayCapacity];		
-		addCount = 0L;
+		buffer = new AtomicReferenceArray<EncodedExItExperience>(replayCapacity);		
+		addCount = new AtomicLong(0L);
 		this.alpha = alpha;
 		this.beta = beta;
 	}
@@ -93,9 +102,7 @@ public class PrioritizedReplayBuffer implements Serializable, ExperienceBuffer
 	@Override
 	public void add(final ExItExperience experience)
 	{
-		sumTree.set(cursor(), sumTree.maxRecordedPriority());
-		buffer[cursor()] = experience;
-		++addCount;
+		addEncoded(EncodedExItExperience.encode(experience), sumTree.maxRecordedPriority());
 	}
 	
 	/**
@@ -105,9 +112,24 @@ public class PrioritizedReplayBuffer implements Serializable, ExperienceBuffer
 	 */
 	public void add(final ExItExperience experience, final float priority)
 	{
-		sumTree.set(cursor(), (float) Math.pow(priority, alpha));
-		buffer[cursor()] = experience;
-		++addCount;
+		addEncoded(EncodedExItExperience.encode(experience), (float) Math.pow(priority, alpha));
+	}
+	
+	/**
+	 * Adds an encoded sample of experience in the next free slot, with given
+	 * (already exponentiated) priority. We first reserve a slot, then store the
+	 * sample, and only then set its priority; slots that are reserved but not 
+	 * yet filled for the first time still have a priority of 0, so consumers
+	 * will not sample them.
+	 * 
+	 * @param encoded
+	 * @param treePriority
+	 */
+	private void addEncoded(final EncodedExItExperience encoded, final float treePriority)
+	{
+		final int slot = (int) (addCount.getAndIncrement() % replayCapacity);
+		buffer.set(slot, encoded);
+		sumTree.set(slot, treePriority);
 	}
 	
 	/**
@@ -129,7 +151,7 @@ public class PrioritizedReplayBuffer implements Serializable, ExperienceBuffer
 	 */
 	public boolean isEmpty()
 	{
-		return addCount == 0L;
+		return addCount.get() == 0L;
 	}
 	
 	/**
@@ -137,7 +159,7 @@ public class PrioritizedReplayBuffer implements Serializable, ExperienceBuffer
 	 */
 	public boolean isFull()
 	{
-		return addCount >= replayCapacity;
+		return addCount.get() >= replayCapacity;
 	}
 	
 	/**
@@ -145,10 +167,7 @@ public class PrioritizedReplayBuffer implements Serializable, ExperienceBuffer
 	 */
 	public int size()
 	{
-		if (isFull())
-			return replayCapacity;
-		else
-			return (int) addCount;
+		return (int) Math.min(replayCapacity, addCount.get());
 	}
 	
 	/**
@@ -163,13 +182,16 @@ public class PrioritizedReplayBuffer implements Serializable, ExperienceBuffer
 	@Override
 	public List<ExItExperience> sampleExperienceBatch(final int batchSize)
 	{
-		final int numSamples = (int) Math.min(batchSize, addCount);
+		// Read size and total priority only once, such that all samples in a 
+		// batch are consistent with each other even with concurrent producers
+		final int currentSize = size();
+		final int numSamples = Math.min(batchSize, currentSize);
 		final List<ExItExperience> batch = new ArrayList<ExItExperience>(numSamples);
 		final int[] indices = sampleIndexBatch(numSamples);
 		
-		final double[] weights = new double[batchSize];
+		final double[] weights = new double[numSamples];
 		double maxWeight = Double.NEGATIVE_INFINITY;
-		final int maxIdx = Math.min(replayCapacity, (int) addCount) - 1;
+		final int maxIdx = currentSize - 1;
 		
 		for (int i = 0; i < numSamples; ++i)
 		{
@@ -181,19 +203,32 @@ public class PrioritizedReplayBuffer implements Serializable, ExperienceBuffer
 		}
 		
 		final float[] priorities = getPriorities(indices);
+		final double totalPriority = sumTree.totalPriority();
+		final TIntArrayList sampledIndices = new TIntArrayList(numSamples);
 		
 		for (int i = 0; i < numSamples; ++i)
 		{
-			batch.add(buffer[indices[i]]);
-			double prob = priorities[i] / sumTree.totalPriority();			
-			weights[i] = Math.pow((1.0 / size()) * (1.0 / prob), beta);
-			maxWeight = Math.max(maxWeight, weights[i]);
+			final EncodedExItExperience sample = buffer.get(indices[i]);
+			
+			if (sample == null || priorities[i] <= 0.f)
+			{
+				// Can only happen when rounding down to the last valid index,
+				// or for slots reserved by producers that did not yet store their
+				// sample; just skip these
+				continue;
+			}
+			
+			batch.add(sample.decode());
+			sampledIndices.add(indices[i]);
+			final double prob = priorities[i] / totalPriority;
+			weights[batch.size() - 1] = Math.pow((1.0 / currentSize) * (1.0 / prob), beta);
+			maxWeight = Math.max(maxWeight, weights[batch.size() - 1]);
 		}
 		
-		for (int i = 0; i < numSamples; ++i)
+		for (int i = 0; i < batch.size(); ++i)
 		{
 			batch.get(i).setWeightPER((float) (weights[i] / maxWeight));
-			batch.get(i).setBufferIdx(indices[i]);
+			batch.get(i).setBufferIdx(sampledIndices.getQuick(i));
 		}
 		
 		return batch;
@@ -202,13 +237,17 @@ public class PrioritizedReplayBuffer implements Serializable, ExperienceBuffer
 	@Override
 	public List<ExItExperience> sampleExperienceBatchUniformly(final int batchSize)
 	{
-		final int numSamples = (int) Math.min(batchSize, addCount);
-		final List<ExItExperience> batch = new ArrayList<ExItExperience>(numSamples);
 		final int bufferSize = size();
+		final int numSamples = Math.min(batchSize, bufferSize);
+		final List<ExItExperience> batch = new ArrayList<ExItExperience>(numSamples);
 		
 		for (int i = 0; i < numSamples; ++i)
 		{
-			batch.add(buffer[ThreadLocalRandom.current().nextInt(bufferSize)]);
+			final EncodedExItExperience sample = buffer.get(ThreadLocalRandom.current().nextInt(bufferSize));
+			
+			// Skip slots that were reserved but not yet filled by concurrent producers
+			if (sample != null)
+				batch.add(sample.decode());
 		}
 
 		return batch;
@@ -217,11 +256,20 @@ public class PrioritizedReplayBuffer implements Serializable, ExperienceBuffer
 	@Override
 	public ExItExperience[] allExperience()
 	{
-		return buffer;
+		final ExItExperience[] allExperience = new ExItExperience[replayCapacity];
+		for (int i = 0; i < size(); ++i)
+		{
+			final EncodedExItExperience sample = buffer.get(i);
+			if (sample != null)
+				allExperience[i] = sample.decode();
+		}
+		return allExperience;
 	}
 	
 	/**
-	 * Sets priority levels 
+	 * Sets priority levels. Safe to call concurrently with other consumers
+	 * and producers.
+	 * 
 	 * @param indices
 	 * @param priorities
 	 */
@@ -267,7 +315,7 @@ public class PrioritizedReplayBuffer implements Serializable, ExperienceBuffer
 	 */
 	public long addCount()
 	{
-		return addCount;
+		return addCount.get();
 	}
 	
 	/**
@@ -275,7 +323,7 @@ public class PrioritizedReplayBuffer implements Serializable, ExperienceBuffer
 	 */
 	public int cursor()
 	{
-		return (int) (addCount % replayCapacity);
+		return (int) (addCount.get() % replayCapacity);
 	}
 	
 	//-------------------------------------------------------------------------
@@ -293,43 +341,30 @@ public class PrioritizedReplayBuffer implements Serializable, ExperienceBuffer
 	{
 		try 
 		(
-			final ObjectInputStream reader = 
-				new ObjectInputStream(new BufferedInputStream(new FileInputStream(filepath)))
+			final DataInputStream in = 
+				new DataInputStream(new BufferedInputStream(new FileInputStream(filepath)))
 		)
 		{
-			final PrioritizedReplayBuffer buffer = (PrioritizedReplayBuffer) reader.readObject();
+			final ExItExperienceReader reader = new ExItExperienceReader(in, game);
+			final int replayCapacity = in.readInt();
+			final double alpha = in.readDouble();
+			final double beta = in.readDouble();
+			final PrioritizedReplayBuffer buffer = new PrioritizedReplayBuffer(replayCapacity, alpha, beta);
+			buffer.addCount.set(in.readLong());
 			
-			// special handling of objects that contain game states;
-			// we need to fix their references to containers for all ItemStates
-			for (final ExItExperience exp : buffer.buffer)
+			for (int i = 0; i < buffer.size(); ++i)
 			{
-				if (exp == null)
-					continue;
-
-				final ExItExperienceState state = exp.state();
-				final ContainerState[] containerStates = state.state().containerStates();
-				
-				for (final ContainerState containerState : containerStates)
-				{
-					if (containerState != null)
-					{
-						final String containerName = containerState.nameFromFile();
-						
-						for (final Container container : game.equipment().containers())
-						{
-							if (container != null && container.name().equals(containerName))
-							{
-								containerState.setContainer(container);
-								break;
-							}
-						}
-					}
-				}
+				buffer.sumTree.set(i, in.readFloat());
+			}
+			
+			while (reader.next())
+			{
+				buffer.buffer.set(reader.slot(), reader.sample());
 			}
 			
 			return buffer;
 		} 
-		catch (final IOException | ClassNotFoundException e) 
+		catch (final IOException e) 
 		{
 			e.printStackTrace();
 		}
@@ -342,13 +377,29 @@ public class PrioritizedReplayBuffer implements Serializable, ExperienceBuffer
 	{
 		try 
 		(
-			final ObjectOutputStream out = 
-				new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(filepath)))
+			final DataOutputStream out = 
+				new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filepath)))
 		)
 		{
-			out.writeObject(this);
-			out.flush();
-			out.close();
+			final ExItExperienceWriter writer = new ExItExperienceWriter(out);
+			out.writeInt(replayCapacity);
+			out.writeDouble(alpha);
+			out.writeDouble(beta);
+			out.writeLong(addCount.get());
+			
+			for (int i = 0; i < size(); ++i)
+			{
+				out.writeFloat(sumTree.get(i));
+			}
+			
+			for (int i = 0; i < size(); ++i)
+			{
+				final EncodedExItExperience sample = buffer.get(i);
+				if (sample != null)
+					writer.write(i, sample);
+			}
+			
+			writer.finish();
 		} 
 		catch (final IOException e) 
 		{
@@ -1,9 +1,9 @@
 package utils.data_structures.experience_buffers;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import main.collections.FVector;
 import main.math.BitTwiddling;
@@ -40,13 +40,20 @@ import main.math.BitTwiddling;
  *	 |0.5|     |1.0|  |0.5|     |0.5|
  *	 +---+     +---+  +---+     +---+
  *
- *	 This is stored in a list of FVectors:
+ *	 This is stored in an array of arrays (one per depth level):
  *	 self.nodes = [ [2.5], [1.5, 1], [0.5, 1, 0.5, 0.5] ]
  *	 For conciseness, we allocate arrays as powers of two, and pad the excess
  *	 elements with zero values.
  *	 This is similar to the usual array-based representation of a complete binary
  *	 tree, but is a little more user-friendly.
  * 
+ * The tree is safe for concurrent use by multiple threads, without locks.
+ * Nodes are stored as doubles in atomic arrays; setting a leaf atomically
+ * swaps its value, and then atomically adds the difference to all its
+ * ancestors. Sums in internal nodes may therefore briefly lag behind leaves
+ * that are being set by other threads, but they are always exact again once
+ * all concurrent updates have finished. Sampling tolerates such temporarily
+ * inconsistent sums (it always returns a valid leaf index).
  * 
  * @author Dennis Soemers
  */
@@ -57,11 +64,11 @@ public class SumTree implements Serializable
 	/** */
 	private static final long serialVersionUID = 1L;
 	
-	/** Our list of nodes (stored in FVectors) */
-	protected final List<FVector> nodes;
+	/** Our nodes, one array per depth level (values are raw bits of doubles) */
+	protected final AtomicLongArray[] nodes;
 	
-	/** Max recorded priority throughout the tree */
-	protected float maxRecordedPriority;
+	/** Max recorded priority throughout the tree (raw bits of a float) */
+	protected final AtomicInteger maxRecordedPriorityBits;
 	
 	//-------------------------------------------------------------------------
 	
@@ -74,21 +81,20 @@ public class SumTree implements Serializable
 	{
 		assert (capacity > 0);
 		
-		nodes = new ArrayList<FVector>();
 		final int treeDepth = BitTwiddling.log2RoundUp(capacity);
+		nodes = new AtomicLongArray[treeDepth + 1];
 		int levelSize = 1;
 		
 		for (int i = 0; i < (treeDepth + 1); ++i)
 		{
-			final FVector nodesAtThisDepth = new FVector(levelSize);
-			nodes.add(nodesAtThisDepth);
-			
+			// NOTE: raw bits of 0.0 are 0L, so new arrays are all zeros
+			nodes[i] = new AtomicLongArray(levelSize);
 			levelSize *= 2;
 		}
 		
-		assert (nodes.get(nodes.size() - 1).dim() == BitTwiddling.nextPowerOf2(capacity));
+		assert (nodes[nodes.length - 1].length() == BitTwiddling.nextPowerOf2(capacity));
 		
-		maxRecordedPriority = 1.f;
+		maxRecordedPriorityBits = new AtomicInteger(Float.floatToRawIntBits(1.f));
 	}
 	
 	//-------------------------------------------------------------------------
@@ -117,36 +123,10 @@ public class SumTree implements Serializable
 	 */
 	public int sample(final double inQueryValue)
 	{
-		assert (totalPriority() != 0.f);
 		assert (inQueryValue >= 0.0);
 		assert (inQueryValue <= 1.0);
 		
-		double queryValue = inQueryValue * totalPriority();
-		
-		// Traverse the sum tree
-		int nodeIdx = 0;
-		for (int i = 1; i < nodes.size(); ++i)
-		{
-			final FVector nodesAtThisDepth = nodes.get(i);
-			
-			// Compute children of previous depth's node.
-			final int leftChild = nodeIdx * 2;
-			final float leftSum = nodesAtThisDepth.get(leftChild);
-			
-			// Each subtree describes a range [0, a), where a is its value.
-			if (queryValue < leftSum)	// Recurse into left subtree.
-			{
-				nodeIdx = leftChild;
-			}
-			else						// Recurse into right subtree.
-			{
-				nodeIdx = leftChild + 1;
-				// Adjust query to be relative to right subtree.
-				queryValue -= leftSum;
-			}
-		}
-		
-		return nodeIdx;
+		return sampleAbsolute(inQueryValue * totalPriority());
 	}
 	
 	/**
@@ -157,12 +137,16 @@ public class SumTree implements Serializable
 	 * each of those segments, and use that random number to sample from the
 	 * SumTree. This is as specified in Schaul et al. (2015).
 	 * 
+	 * We read R only once, so all segments are consistent with each other
+	 * even if other threads concurrently update priorities.
+	 * 
 	 * @param batchSize
 	 * @return Array of size batchSize, sampled from the sum tree.
 	 */
 	public int[] stratifiedSample(final int batchSize)
 	{
-		assert (totalPriority() != 0.0);
+		final double totalPriority = totalPriority();
+		assert (totalPriority != 0.0);
 		
 		final FVector bounds = FVector.linspace(0.f, 1.f, batchSize + 1, true);
 		assert (bounds.dim() == batchSize + 1);
@@ -173,11 +157,61 @@ public class SumTree implements Serializable
 			final float segmentStart = bounds.get(i);
 			final float segmentEnd = bounds.get(i + 1);
 			final double queryVal = ThreadLocalRandom.current().nextDouble(segmentStart, segmentEnd);
-			result[i] = sample(queryVal);
+			result[i] = sampleAbsolute(queryVal * totalPriority);
 		}
 		return result;
 	}
 	
+	/**
+	 * Traverses the tree to find the leaf for an absolute query value 
+	 * (in [0, R), where R is the total priority).
+	 * 
+	 * @param inQueryValue
+	 * @return Sampled index
+	 */
+	private int sampleAbsolute(final double inQueryValue)
+	{
+		double queryValue = inQueryValue;
+		
+		// Traverse the sum tree
+		int nodeIdx = 0;
+		for (int i = 1; i < nodes.length; ++i)
+		{
+			final AtomicLongArray nodesAtThisDepth = nodes[i];
+			
+			// Compute children of previous depth's node.
+			final int leftChild = nodeIdx * 2;
+			final double leftSum = Double.longBitsToDouble(nodesAtThisDepth.get(leftChild));
+			
+			// Each subtree describes a range [0, a), where a is its value.
+			if (queryValue < leftSum)	// Recurse into left subtree.
+			{
+				nodeIdx = leftChild;
+			}
+			else
+			{
+				final double rightSum = Double.longBitsToDouble(nodesAtThisDepth.get(leftChild + 1));
+				
+				if (rightSum > 0.0 || leftSum <= 0.0)	// Recurse into right subtree.
+				{
+					nodeIdx = leftChild + 1;
+					// Adjust query to be relative to right subtree.
+					// (clamped, since sums may be inconsistent due to concurrent updates)
+					queryValue = Math.min(queryValue - leftSum, Math.max(0.0, rightSum - Double.MIN_VALUE));
+				}
+				else
+				{
+					// Only possible with concurrent updates (or rounding errors): 
+					// query value too large, but nothing to find in right subtree
+					nodeIdx = leftChild;
+					queryValue = Math.max(0.0, leftSum - Double.MIN_VALUE);
+				}
+			}
+		}
+		
+		return nodeIdx;
+	}
+	
 	//-------------------------------------------------------------------------
 	
 	/**
@@ -186,13 +220,14 @@ public class SumTree implements Serializable
 	 */
 	public float get(final int nodeIdx)
 	{
-		return nodes.get(nodes.size() - 1).get(nodeIdx);
+		return (float) Double.longBitsToDouble(nodes[nodes.length - 1].get(nodeIdx));
 	}
 	
 	/**
 	 * Sets the value of a given leaf node, and updates internal nodes accordingly.
 	 * 
-	 * This operation takes O(log(capacity)).
+	 * This operation takes O(log(capacity)), and is safe to call concurrently
+	 * with any other operations (including setting the same leaf).
 	 * 
 	 * @param inNodeIdx Index of leaf node to be updated
 	 * @param value Nonnegative value to be assigned to node. A value
@@ -203,26 +238,54 @@ public class SumTree implements Serializable
 		assert (value >= 0.f);
 		
 		int nodeIdx = inNodeIdx;
-		maxRecordedPriority = Math.max(maxRecordedPriority, value);
-		final float deltaValue = value - get(nodeIdx);
+		
+		final int valueBits = Float.floatToRawIntBits(value);
+		maxRecordedPriorityBits.getAndUpdate
+		(
+			(bits) -> (Float.intBitsToFloat(bits) >= value) ? bits : valueBits
+		);
+		
+		// Swapping the leaf makes sure that concurrent sets of the same leaf 
+		// each add the correct difference to the internal nodes
+		final double oldValue = 
+				Double.longBitsToDouble(nodes[nodes.length - 1].getAndSet(nodeIdx, Double.doubleToRawLongBits(value)));
+		final double deltaValue = value - oldValue;
+		nodeIdx /= 2;
 		
 		// Now traverse back the tree, adjusting all sums along the way.
-		for (int i = nodes.size() - 1; i >= 0; --i)
+		for (int i = nodes.length - 2; i >= 0; --i)
 		{
-			final FVector nodesAtThisDepth = nodes.get(i);
-			nodesAtThisDepth.addToEntry(nodeIdx, deltaValue);
+			addToNode(nodes[i], nodeIdx, deltaValue);
 			nodeIdx /= 2;
 		}
 		
 		assert (nodeIdx == 0);
 	}
 	
+	/**
+	 * Atomically adds a value to a node
+	 * @param nodesAtDepth
+	 * @param nodeIdx
+	 * @param delta
+	 */
+	private static void addToNode(final AtomicLongArray nodesAtDepth, final int nodeIdx, final double delta)
+	{
+		while (true)
+		{
+			final long oldBits = nodesAtDepth.get(nodeIdx);
+			final long newBits = Double.doubleToRawLongBits(Double.longBitsToDouble(oldBits) + delta);
+			
+			if (nodesAtDepth.compareAndSet(nodeIdx, oldBits, newBits))
+				return;
+		}
+	}
+	
 	/**
 	 * @return Our max recorded priority
 	 */
 	public float maxRecordedPriority()
 	{
-		return maxRecordedPriority;
+		return Float.intBitsToFloat(maxRecordedPriorityBits.get());
 	}
 	
 	//-------------------------------------------------------------------------
@@ -232,7 +295,7 @@ public class SumTree implements Serializable
 	 */
 	public float totalPriority()
 	{
-		return nodes.get(0).get(0);
+		return (float) Double.longBitsToDouble(nodes[0].get(0));
 	}
 	
 	//-------------------------------------------------------------------------
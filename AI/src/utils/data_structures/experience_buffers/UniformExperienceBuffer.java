@@ -2,43 +2,41 @@ package utils.data_structures.experience_buffers;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
 
 import game.Game;
-import game.equipment.container.Container;
-import other.state.container.ContainerState;
+import training.expert_iteration.EncodedExItExperience;
 import training.expert_iteration.ExItExperience;
-import training.expert_iteration.ExItExperience.ExItExperienceState;
+import training.expert_iteration.ExItExperienceReader;
+import training.expert_iteration.ExItExperienceWriter;
 
 /**
  * A size-restricted, FIFO buffer to contain samples of experience.
+ * Samples are stored in encoded form (see EncodedExItExperience), and
+ * only decoded when sampled.
  * 
  * @author Dennis Soemers
  */
-public class UniformExperienceBuffer implements Serializable, ExperienceBuffer
+public class UniformExperienceBuffer implements ExperienceBuffer
 {
 	
 	//-------------------------------------------------------------------------
 	
-	/** */
-	private static final long serialVersionUID = 1L;
-	
 	/** 
 	 * Maximum number of elements the buffer can contain before removing 
 	 * elements from the front.
 	 */
 	protected final int replayCapacity;
 	
-	/** This contains our data */
-	protected final ExItExperience[] buffer;
+	/** This contains our (encoded) data */
+	protected final EncodedExItExperience[] buffer;
 	
 	/** How many elements did we add? */
 	protected long addCount;
@@ -52,7 +50,7 @@ public class UniformExperienceBuffer implements Serializable, ExperienceBuffer
 	public UniformExperienceBuffer(final int replayCapacity)
 	{
 		this.replayCapacity = replayCapacity;
-		buffer = new ExItExperience[replayCapacity];
+		buffer = new EncodedExItExperience[replayCapacity];
 	}
 	
 	//-------------------------------------------------------------------------
@@ -60,7 +58,7 @@ public class UniformExperienceBuffer implements Serializable, ExperienceBuffer
 	@Override
 	public void add(final ExItExperience experience)
 	{
-		buffer[cursor()] = experience;
+		buffer[cursor()] = EncodedExItExperience.encode(experience);
 		++addCount;
 	}
 	
@@ -108,7 +106,7 @@ public class UniformExperienceBuffer implements Serializable, ExperienceBuffer
 		
 		for (int i = 0; i < numSamples; ++i)
 		{
-			batch.add(buffer[ThreadLocalRandom.current().nextInt(bufferSize)]);
+			batch.add(buffer[ThreadLocalRandom.current().nextInt(bufferSize)].decode());
 		}
 
 		return batch;
@@ -117,7 +115,12 @@ public class UniformExperienceBuffer implements Serializable, ExperienceBuffer
 	@Override
 	public ExItExperience[] allExperience()
 	{
-		return buffer;
+		final ExItExperience[] allExperience = new ExItExperience[replayCapacity];
+		for (int i = 0; i < size(); ++i)
+		{
+			allExperience[i] = buffer[i].decode();
+		}
+		return allExperience;
 	}
 	
 	//-------------------------------------------------------------------------
@@ -145,44 +148,22 @@ public class UniformExperienceBuffer implements Serializable, ExperienceBuffer
 	{
 		try 
 		(
-			final ObjectInputStream reader = 
-				new ObjectInputStream(new BufferedInputStream(new FileInputStream(filepath)))
+			final DataInputStream in = 
+				new DataInputStream(new BufferedInputStream(new FileInputStream(filepath)))
 		)
 		{
-			final UniformExperienceBuffer buffer = (UniformExperienceBuffer) reader.readObject();
+			final ExItExperienceReader reader = new ExItExperienceReader(in, game);
+			final UniformExperienceBuffer buffer = new UniformExperienceBuffer(in.readInt());
+			buffer.addCount = in.readLong();
 			
-			// special handling of objects that contain game states;
-			// we need to fix their references to containers for all ItemStates
-			for (final ExItExperience exp : buffer.buffer)
+			while (reader.next())
 			{
-				if (exp == null)
-					continue;
-				
-				final ExItExperienceState state = exp.state();
-				final ContainerState[] containerStates = state.state().containerStates();
-				
-				for (final ContainerState containerState : containerStates)
-				{
-					if (containerState != null)
-					{
-						final String containerName = containerState.nameFromFile();
-						
-						for (final Container container : game.equipment().containers())
-						{
-							if (container != null && 
-									container.name().equals(containerName))
-							{
-								containerState.setContainer(container);
-								break;
-							}
-						}
-					}
-				}
+				buffer.buffer[reader.slot()] = reader.sample();
 			}
 			
 			return buffer;
 		} 
-		catch (final IOException | ClassNotFoundException e) 
+		catch (final IOException e) 
 		{
 			e.printStackTrace();
 		}
@@ -195,13 +176,20 @@ public class UniformExperienceBuffer implements Serializable, ExperienceBuffer
 	{
 		try 
 		(
-			final ObjectOutputStream out = 
-				new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(filepath)))
+			final DataOutputStream out = 
+				new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filepath)))
 		)
 		{
-			out.writeObject(this);
-			out.flush();
-			out.close();
+			final ExItExperienceWriter writer = new ExItExperienceWriter(out);
+			out.writeInt(replayCapacity);
+			out.writeLong(addCount);
+			
+			for (int i = 0; i < size(); ++i)
+			{
+				writer.write(i, buffer[i]);
+			}
+			
+			writer.finish();
 		} 
 		catch (final IOException e) 
 		{
@@ -0,0 +1,372 @@
+package utils.data_structures.transposition_table;
+
+import java.util.Arrays;
+
+/**
+ * Compact transposition table, backed by a single primitive array, that can
+ * be shared by multiple threads without any locking (e.g. for Lazy SMP).
+ *
+ * The table consists of buckets with a configurable number of slots. Every
+ * slot consists of two longs: a packed data word, and the full hash
+ * code XORed with that data word. A reader only accepts data if XORing the
+ * two words gives back the hash code it is looking for, so slots that are
+ * concurrently being overwritten by a different thread (and hence contain
+ * a key from one write and data from another) are simply treated as misses.
+ *
+ * Instead of Move objects, we store the index of the best move in the list
+ * of legal moves as generated by the game for the corresponding state.
+ *
+ * Every data word also stores the generation (i.e. search) in which it was
+ * written, such that the table can be kept across multiple searches (rather
+ * than re-allocated), with data from older searches being replaced first.
+ *
+ * Layout of a data word (from least significant bit):
+ * 	- 32 bits: float value
+ * 	- 16 bits: index of best move (all 1s if there is no best move)
+ * 	- 8 bits: search depth
+ * 	- 3 bits: value type (same constants as in TranspositionTable)
+ * 	- 5 bits: generation
+ *
+ * A data word of 0 never describes a valid entry (valid value types are non-zero).
+ *
+ * @author Dennis Soemers
+ */
+public class LockFreeTranspositionTable
+{
+
+	//-------------------------------------------------------------------------
+
+	/** Returned by retrieve() if we do not have any data for a given hash */
+	public static final long NO_DATA = 0L;
+
+	/** Index we store for best move if we do not have one */
+	public static final int NO_MOVE_IDX = 0xFFFF;
+
+	/** Largest depth we can store */
+	public static final int MAX_DEPTH = 0xFF;
+
+	/** Number of slots per bucket we use by default (4 slots of 16 bytes fill a typical cache line) */
+	public static final int DEFAULT_SLOTS_PER_BUCKET = 4;
+
+	/** Number of distinct generations we can distinguish between */
+	private static final int NUM_GENERATIONS = 32;
+
+	/**
+	 * When picking a slot to replace, one generation of age counts as
+	 * much as this many levels of search depth
+	 */
+	private static final int AGE_DEPTH_PENALTY = 8;
+
+	/** Shift for move index in data word */
+	private static final int MOVE_IDX_SHIFT = 32;
+
+	/** Shift for depth in data word */
+	private static final int DEPTH_SHIFT = 48;
+
+	/** Shift for value type in data word */
+	private static final int VALUE_TYPE_SHIFT = 56;
+
+	/** Shift for generation in data word */
+	private static final int GENERATION_SHIFT = 59;
+
+	/** Number of bytes per slot */
+	private static final int BYTES_PER_SLOT = 2 * Long.BYTES;
+
+	//-------------------------------------------------------------------------
+
+	/** Number of bits from hashes to use as primary code (i.e. for bucket index) */
+	private final int numBitsPrimaryCode;
+
+	/** Number of slots per bucket */
+	private final int slotsPerBucket;
+
+	/**
+	 * Our table. Slot j of bucket i occupies indices 2(i * slotsPerBucket + j)
+	 * and 2(i * slotsPerBucket + j) + 1, with a (key XOR data, data) pair.
+	 *
+	 * NOTE: we deliberately use plain (non-volatile) reads and writes; any
+	 * torn or stale combinations of key and data are caught by the XOR check.
+	 */
+	private final long[] table;
+
+	/** Current generation (incremented whenever a new search starts) */
+	private int generation = 0;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor. Immediately allocates memory for 2^(numBitsPrimaryCode)
+	 * buckets, with the default number of slots per bucket.
+	 *
+	 * @param numBitsPrimaryCode Number of bits from hashes to use as primary code.
+	 */
+	public LockFreeTranspositionTable(final int numBitsPrimaryCode)
+	{
+		this(numBitsPrimaryCode, DEFAULT_SLOTS_PER_BUCKET);
+	}
+
+	/**
+	 * Constructor. Immediately allocates memory for 2^(numBitsPrimaryCode)
+	 * buckets.
+	 *
+	 * @param numBitsPrimaryCode Number of bits from hashes to use as primary code.
+	 * @param slotsPerBucket Number of slots per bucket
+	 */
+	public LockFreeTranspositionTable(final int numBitsPrimaryCode, final int slotsPerBucket)
+	{
+		this.numBitsPrimaryCode = numBitsPrimaryCode;
+		this.slotsPerBucket = slotsPerBucket;
+		table = new long[(1 << numBitsPrimaryCode) * slotsPerBucket * 2];
+	}
+
+	/**
+	 * @param sizeMB Maximum amount of memory to use, in megabytes
+	 * @param slotsPerBucket Number of slots per bucket
+	 * @return Table with the largest power-of-two number of buckets that fits
+	 * 	in the given amount of memory (but at least one bucket).
+	 */
+	public static LockFreeTranspositionTable withSizeMB(final int sizeMB, final int slotsPerBucket)
+	{
+		final long maxNumBuckets = (((long) sizeMB) << 20) / (BYTES_PER_SLOT * slotsPerBucket);
+
+		// Array length needs to fit in an int
+		final long maxArrayNumBuckets = Integer.MAX_VALUE / (2L * slotsPerBucket);
+
+		final int numBits = 63 - Long.numberOfLeadingZeros(Math.max(1L, Math.min(maxNumBuckets, maxArrayNumBuckets)));
+		return new LockFreeTranspositionTable(numBits, slotsPerBucket);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Clears all data in the table (without reallocating any memory).
+	 * Should not be called while other threads are still using the table.
+	 */
+	public void clear()
+	{
+		Arrays.fill(table, 0L);
+		generation = 0;
+	}
+
+	/**
+	 * Tells the table that a new search is starting. Data stored during
+	 * previous searches remains available, but is the first to be replaced
+	 * when we need space. Should not be called while other threads are
+	 * still using the table.
+	 */
+	public void newSearch()
+	{
+		generation = (generation + 1) % NUM_GENERATIONS;
+	}
+
+	/**
+	 * @param fullHash
+	 * @return Packed data stored for given full hash (full 64bits code),
+	 * or NO_DATA if not found
+	 */
+	public long retrieve(final long fullHash)
+	{
+		final int bucketIdx = bucketIdx(fullHash);
+		final int bucketEnd = bucketIdx + 2 * slotsPerBucket;
+
+		for (int idx = bucketIdx; idx < bucketEnd; idx += 2)
+		{
+			final long data = table[idx + 1];
+			if (data != NO_DATA && (table[idx] ^ data) == fullHash)
+				return data;
+		}
+
+		return NO_DATA;
+	}
+
+	/**
+	 * Stores new data for given full hash (full 64bits code)
+	 * @param bestMoveIdx Index of best move in list of legal moves (or negative if none)
+	 * @param fullHash
+	 * @param value
+	 * @param depth
+	 * @param valueType
+	 */
+	public void store
+	(
+		final int bestMoveIdx,
+		final long fullHash,
+		final float value,
+		final int depth,
+		final byte valueType
+	)
+	{
+		final int bucketIdx = bucketIdx(fullHash);
+		final int bucketEnd = bucketIdx + 2 * slotsPerBucket;
+		final int currentGeneration = generation;
+		final long newData = pack(bestMoveIdx, value, depth, valueType, currentGeneration);
+
+		int replaceIdx = -1;
+		int replaceScore = Integer.MAX_VALUE;
+
+		for (int idx = bucketIdx; idx < bucketEnd; idx += 2)
+		{
+			final long data = table[idx + 1];
+
+			if (data == NO_DATA)
+			{
+				// Empty slot; use this unless we find our own hash later on in the bucket
+				if (replaceScore > Integer.MIN_VALUE)
+				{
+					replaceIdx = idx;
+					replaceScore = Integer.MIN_VALUE;
+				}
+				continue;
+			}
+
+			final int age = (currentGeneration - generation(data) + NUM_GENERATIONS) % NUM_GENERATIONS;
+
+			if ((table[idx] ^ data) == fullHash)
+			{
+				// Slot with identical full hash value; only change data if we've
+				// searched to a deeper depth now, or if data is from an older search
+				if (depth > depth(data) || age > 0)
+					write(idx, fullHash, newData);
+				return;
+			}
+
+			// Prefer replacing data from old searches, and data from shallow searches
+			final int score = depth(data) - AGE_DEPTH_PENALTY * age;
+			if (score < replaceScore)
+			{
+				replaceIdx = idx;
+				replaceScore = score;
+			}
+		}
+
+		write(replaceIdx, fullHash, newData);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Number of slots in which we currently have data
+	 */
+	public int nbEntries()
+	{
+		int res = 0;
+		for (int idx = 1; idx < table.length; idx += 2)
+		{
+			if (table[idx] != NO_DATA)
+				++res;
+		}
+		return res;
+	}
+
+	/**
+	 * @return Total number of slots in the table
+	 */
+	public int capacity()
+	{
+		return table.length / 2;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param data Packed data word
+	 * @return Value stored in given data
+	 */
+	public static float value(final long data)
+	{
+		return Float.intBitsToFloat((int) data);
+	}
+
+	/**
+	 * @param data Packed data word
+	 * @return Index of best move stored in given data, or -1 if there is none
+	 */
+	public static int bestMoveIdx(final long data)
+	{
+		final int idx = (int) ((data >>> MOVE_IDX_SHIFT) & 0xFFFFL);
+		return (idx == NO_MOVE_IDX) ? -1 : idx;
+	}
+
+	/**
+	 * @param data Packed data word
+	 * @return Search depth stored in given data
+	 */
+	public static int depth(final long data)
+	{
+		return (int) ((data >>> DEPTH_SHIFT) & 0xFFL);
+	}
+
+	/**
+	 * @param data Packed data word
+	 * @return Type of value stored in given data
+	 */
+	public static byte valueType(final long data)
+	{
+		return (byte) ((data >>> VALUE_TYPE_SHIFT) & 0x7L);
+	}
+
+	/**
+	 * @param data Packed data word
+	 * @return Generation in which given data was stored
+	 */
+	private static int generation(final long data)
+	{
+		return (int) ((data >>> GENERATION_SHIFT) & 0x1FL);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param fullHash
+	 * @return Index of first long for bucket corresponding to given full hash
+	 */
+	private int bucketIdx(final long fullHash)
+	{
+		if (numBitsPrimaryCode == 0)
+			return 0;
+
+		return ((int) (fullHash >>> (Long.SIZE - numBitsPrimaryCode))) * slotsPerBucket * 2;
+	}
+
+	/**
+	 * Writes data for a single slot
+	 * @param slotIdx
+	 * @param fullHash
+	 * @param data
+	 */
+	private void write(final int slotIdx, final long fullHash, final long data)
+	{
+		table[slotIdx] = fullHash ^ data;
+		table[slotIdx + 1] = data;
+	}
+
+	/**
+	 * @param bestMoveIdx
+	 * @param value
+	 * @param depth
+	 * @param valueType
+	 * @param gen
+	 * @return Packed data word
+	 */
+	private static long pack
+	(
+		final int bestMoveIdx,
+		final float value,
+		final int depth,
+		final byte valueType,
+		final int gen
+	)
+	{
+		final long moveIdx = (bestMoveIdx < 0 || bestMoveIdx >= NO_MOVE_IDX) ? NO_MOVE_IDX : bestMoveIdx;
+		final long clampedDepth = Math.max(0, Math.min(depth, MAX_DEPTH));
+
+		return (Float.floatToRawIntBits(value) & 0xFFFFFFFFL)
+				| (moveIdx << MOVE_IDX_SHIFT)
+				| (clampedDepth << DEPTH_SHIFT)
+				| (((long) valueType & 0x7L) << VALUE_TYPE_SHIFT)
+				| (((long) gen & 0x1FL) << GENERATION_SHIFT);
+	}
+
+	//-------------------------------------------------------------------------
+
+}
@@ -0,0 +1,258 @@
+package utils.data_structures.transposition_table;
+
+import java.util.Arrays;
+
+/**
+ * Transposition table for depth-first proof-number search (df-pn), with
+ * a fixed memory budget. Stores proof and disproof numbers, as well as the
+ * amount of work (number of searched nodes) that went into computing them.
+ *
+ * The table consists of buckets of a fixed number of slots, and is backed
+ * by a single primitive array that can be shared by multiple threads without
+ * any locking. Every slot consists of three longs: a check word, a word with
+ * packed proof and disproof numbers, and a work counter. The check word is
+ * the full hash code XORed with the other two words; a reader only accepts
+ * data if XORing the three words gives back the hash code it is looking for,
+ * so slots that are concurrently being overwritten by a different thread
+ * are simply treated as misses.
+ *
+ * When a bucket is full, we replace the slot with the smallest amount of
+ * work (the "SmallTreeGC" replacement scheme from the df-pn literature).
+ *
+ * @author Dennis Soemers
+ */
+public class ProofNumberTranspositionTable
+{
+
+	//-------------------------------------------------------------------------
+
+	/** Returned by retrieve() if we do not have any data for a given hash */
+	public static final long NO_DATA = 0L;
+
+	/** Number of slots per bucket */
+	private static final int SLOTS_PER_BUCKET = 4;
+
+	/** Number of longs per slot */
+	private static final int LONGS_PER_SLOT = 3;
+
+	/** Number of longs per bucket */
+	private static final int LONGS_PER_BUCKET = SLOTS_PER_BUCKET * LONGS_PER_SLOT;
+
+	//-------------------------------------------------------------------------
+
+	/** Number of bits from hashes to use as primary code (i.e. for bucket index) */
+	private final int numBitsPrimaryCode;
+
+	/**
+	 * Our table. Slot j of bucket i starts at index 3(4i + j), and consists
+	 * of a (key XOR data XOR work, data, work) triple.
+	 */
+	private final long[] table;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor. Immediately allocates memory for 2^(numBitsPrimaryCode)
+	 * buckets.
+	 *
+	 * @param numBitsPrimaryCode Number of bits from hashes to use as primary code.
+	 */
+	public ProofNumberTranspositionTable(final int numBitsPrimaryCode)
+	{
+		this.numBitsPrimaryCode = numBitsPrimaryCode;
+		table = new long[(1 << numBitsPrimaryCode) * LONGS_PER_BUCKET];
+	}
+
+	/**
+	 * @param sizeMB Maximum amount of memory to use, in megabytes
+	 * @return Table with the largest power-of-two number of buckets that fits
+	 * 	in the given amount of memory (but at least one bucket).
+	 */
+	public static ProofNumberTranspositionTable withSizeMB(final int sizeMB)
+	{
+		final long maxNumBuckets = (((long) sizeMB) << 20) / (LONGS_PER_BUCKET * Long.BYTES);
+
+		// Array length needs to fit in an int
+		final long maxArrayNumBuckets = Integer.MAX_VALUE / LONGS_PER_BUCKET;
+
+		final int numBits = 63 - Long.numberOfLeadingZeros(Math.max(1L, Math.min(maxNumBuckets, maxArrayNumBuckets)));
+		return new ProofNumberTranspositionTable(numBits);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Clears all data in the table (without reallocating any memory).
+	 * Should not be called while other threads are still using the table.
+	 */
+	public void clear()
+	{
+		Arrays.fill(table, 0L);
+	}
+
+	/**
+	 * @param fullHash
+	 * @return Packed proof and disproof numbers stored for given full hash
+	 * 	(full 64bits code), or NO_DATA if not found
+	 */
+	public long retrieve(final long fullHash)
+	{
+		final int bucketIdx = bucketIdx(fullHash);
+		final int bucketEnd = bucketIdx + LONGS_PER_BUCKET;
+
+		for (int idx = bucketIdx; idx < bucketEnd; idx += LONGS_PER_SLOT)
+		{
+			final long data = table[idx + 1];
+			if (data != NO_DATA && (table[idx] ^ data ^ table[idx + 2]) == fullHash)
+				return data;
+		}
+
+		return NO_DATA;
+	}
+
+	/**
+	 * Stores new proof and disproof numbers for given full hash (full 64bits code).
+	 * Any older data for the same hash is always overwritten.
+	 *
+	 * @param fullHash
+	 * @param proofNumber
+	 * @param disproofNumber
+	 * @param work Number of nodes searched to compute the given numbers
+	 */
+	public void store
+	(
+		final long fullHash,
+		final int proofNumber,
+		final int disproofNumber,
+		final long work
+	)
+	{
+		final int bucketIdx = bucketIdx(fullHash);
+		final int bucketEnd = bucketIdx + LONGS_PER_BUCKET;
+		final long newData = pack(proofNumber, disproofNumber);
+
+		int replaceIdx = -1;
+		long replaceWork = Long.MAX_VALUE;
+
+		for (int idx = bucketIdx; idx < bucketEnd; idx += LONGS_PER_SLOT)
+		{
+			final long data = table[idx + 1];
+
+			if (data == NO_DATA)
+			{
+				// Empty slot; use this unless we find our own hash later on in the bucket
+				if (replaceWork > Long.MIN_VALUE)
+				{
+					replaceIdx = idx;
+					replaceWork = Long.MIN_VALUE;
+				}
+				continue;
+			}
+
+			final long slotWork = table[idx + 2];
+
+			if ((table[idx] ^ data ^ slotWork) == fullHash)
+			{
+				// Slot with identical full hash value
+				write(idx, fullHash, newData, Math.max(work, slotWork));
+				return;
+			}
+
+			if (slotWork < replaceWork)
+			{
+				replaceIdx = idx;
+				replaceWork = slotWork;
+			}
+		}
+
+		write(replaceIdx, fullHash, newData, work);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Number of slots in which we currently have data
+	 */
+	public int nbEntries()
+	{
+		int res = 0;
+		for (int idx = 1; idx < table.length; idx += LONGS_PER_SLOT)
+		{
+			if (table[idx] != NO_DATA)
+				++res;
+		}
+		return res;
+	}
+
+	/**
+	 * @return Total number of slots in the table
+	 */
+	public int capacity()
+	{
+		return table.length / LONGS_PER_SLOT;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param data Packed data
+	 * @return Proof number stored in given data
+	 */
+	public static int proofNumber(final long data)
+	{
+		return (int) (data >>> 32);
+	}
+
+	/**
+	 * @param data Packed data
+	 * @return Disproof number stored in given data
+	 */
+	public static int disproofNumber(final long data)
+	{
+		return (int) data;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param fullHash
+	 * @return Index of first long for bucket corresponding to given full hash
+	 */
+	private int bucketIdx(final long fullHash)
+	{
+		if (numBitsPrimaryCode == 0)
+			return 0;
+
+		return ((int) (fullHash >>> (Long.SIZE - numBitsPrimaryCode))) * LONGS_PER_BUCKET;
+	}
+
+	/**
+	 * Writes data for a single slot
+	 * @param slotIdx
+	 * @param fullHash
+	 * @param data
+	 * @param work
+	 */
+	private void write(final int slotIdx, final long fullHash, final long data, final long work)
+	{
+		table[slotIdx] = fullHash ^ data ^ work;
+		table[slotIdx + 1] = data;
+		table[slotIdx + 2] = work;
+	}
+
+	/**
+	 * NOTE: proof and disproof numbers are never both 0, so packed data
+	 * is never equal to NO_DATA.
+	 *
+	 * @param proofNumber
+	 * @param disproofNumber
+	 * @return Packed data
+	 */
+	private static long pack(final int proofNumber, final int disproofNumber)
+	{
+		return (((long) proofNumber) << 32) | (disproofNumber & 0xFFFFFFFFL);
+	}
+
+	//-------------------------------------------------------------------------
+
+}
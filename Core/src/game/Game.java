@@ -76,6 +76,7 @@ import game.util.directions.AbsoluteDirection;
 import game.util.directions.DirectionFacing;
 import game.util.equipment.Region;
 import game.util.moves.To;
+import game.util.optimiser.Optimiser;
 import gnu.trove.list.array.TIntArrayList;
 import graphics.ImageUtil;
 import main.Constants;
@@ -98,6 +99,7 @@ import other.concept.ConceptDataType;
 import other.context.Context;
 import other.context.TempContext;
 import other.model.Model;
+import other.move.IncrementalLegalMoves;
 import other.move.Move;
 import other.playout.PlayoutAddToEmpty;
 import other.playout.PlayoutFilter;
@@ -110,6 +112,7 @@ import other.topology.Topology;
 import other.topology.TopologyElement;
 import other.translation.LanguageUtils;
 import other.trial.Trial;
+import other.uf.ConnectivityGraph;
 
 /**
  * Defines the main ludeme that describes the players, mode, equipment and rules of a game.
@@ -180,6 +183,18 @@ public class Game extends BaseLudeme implements API, Serializable
 	
 	/** True if some stochastic elements are in the starting rules. */
 	private boolean stochasticStartingRules = false;
+	
+	/** Number of static ludemes that were replaced by constants after creation (see Optimiser). */
+	private int numFoldedLudemes = 0;
+	
+	/**
+	 * For every phase, whether we incrementally maintain its legal moves
+	 * (see IncrementalLegalMoves). Null if disabled (the default).
+	 */
+	private boolean[] incrementalLegalMovesPhases = null;
+	
+	/** Connectivity graphs shared by ludemes that track connected pieces (see ConnectivityGraph). */
+	private final List<ConnectivityGraph> connectivityGraphs = new ArrayList<ConnectivityGraph>();
 
 	//-----------------------------Shortcuts-----------------------------------
 
@@ -701,6 +716,22 @@ public class Game extends BaseLudeme implements API, Serializable
 		return ((gameFlags & GameType.Stochastic) != 0L);
 	}
 
+	/**
+	 * @return True if moves can be applied and undone (see undo()) on a single
+	 * 	context to explore this game, instead of copying the context for every
+	 * 	move that we want to look at.
+	 */
+	public boolean supportsMakeUnmake()
+	{
+		return
+				(
+					isAlternatingMoveGame() &&
+					!isStochasticGame() &&
+					!hiddenInformation() &&
+					!hasSubgames()
+				);
+	}
+
 	/**
 	 * @return True if the game uses some piece values.
 	 */
@@ -2691,7 +2722,7 @@ public class Game extends BaseLudeme implements API, Serializable
 	@Override
 	public void start(final Context context)
 	{		
-		context.getLock().lock();
+		context.acquireLock();
 		
 		//System.out.println("Starting game with RNG internal state: " + Arrays.toString(((RandomProviderDefaultState)context.rng().saveState()).getState()));
 		
@@ -2825,7 +2856,7 @@ public class Game extends BaseLudeme implements API, Serializable
 		}
 		finally
 		{
-			context.getLock().unlock();
+			context.releaseLock();
 		}
 	}
 
@@ -2835,7 +2866,7 @@ public class Game extends BaseLudeme implements API, Serializable
 	@Override
 	public Moves moves(final Context context)
 	{
-		context.getLock().lock();
+		context.acquireLock();
 		
 		try
 		{
@@ -2853,7 +2884,11 @@ public class Game extends BaseLudeme implements API, Serializable
 					final int mover = context.state().mover();
 					final int indexPhase = context.state().currentPhase(mover);
 					final Phase phase = context.game().rules.phases()[indexPhase];
-					legalMoves = phase.play().moves().eval(context);
+					
+					if (incrementalLegalMovesPhases != null && incrementalLegalMovesPhases[indexPhase])
+						legalMoves = trial.incrementalLegalMoves(players.count()).legalMoves(context, indexPhase);
+					else
+						legalMoves = phase.play().moves().eval(context);
 
 					// Meta-rule: we apply the meta rule if existing.
 					Swap.apply(context, legalMoves);
@@ -2942,7 +2977,7 @@ public class Game extends BaseLudeme implements API, Serializable
 		}
 		finally
 		{
-			context.getLock().unlock();
+			context.releaseLock();
 		}
 	}
 	
@@ -2991,7 +3026,7 @@ public class Game extends BaseLudeme implements API, Serializable
 	 */
 	public Move apply(final Context context, final Move move, final boolean skipEndRules)
 	{
-		context.getLock().lock();
+		context.acquireLock();
 		
 		try
 		{
@@ -3012,7 +3047,7 @@ public class Game extends BaseLudeme implements API, Serializable
 		}
 		finally
 		{
-			context.getLock().unlock();
+			context.releaseLock();
 		}
 	}
 	
@@ -3261,7 +3296,7 @@ public class Game extends BaseLudeme implements API, Serializable
 	@SuppressWarnings("static-method")
 	public Move undo(final Context context)
 	{
-		context.getLock().lock();
+		context.acquireLock();
 		
 		try
 		{
@@ -3280,7 +3315,7 @@ public class Game extends BaseLudeme implements API, Serializable
 		}
 		finally
 		{
-			context.getLock().unlock();
+			context.releaseLock();
 		}
 	}
 	
@@ -3429,7 +3464,7 @@ public class Game extends BaseLudeme implements API, Serializable
 	 */
 	private void postCreation()
 	{
-		//Optimiser.optimiseGame(this);
+		numFoldedLudemes = Optimiser.optimiseGame(this);
 		checkAddMoveCaches(this, true, new HashMap<Object, Set<String>>());
 	}
 	
@@ -3907,6 +3942,67 @@ public class Game extends BaseLudeme implements API, Serializable
 		return finishedPreprocessing;
 	}
 	
+	/**
+	 * Enables or disables incremental maintenance of legal moves (see
+	 * IncrementalLegalMoves), for all phases that support it. Disabled
+	 * by default. Note that this can change the order of legal moves. See
+	 * IncrementalLegalMoves.verify() to check against full generation first.
+	 * 
+	 * @param incremental
+	 * @return Number of phases for which legal moves will be maintained
+	 * 	incrementally.
+	 */
+	public int setIncrementalLegalMoves(final boolean incremental)
+	{
+		incrementalLegalMovesPhases = null;
+		
+		if (!incremental || rules.phases() == null)
+			return 0;
+		
+		final boolean[] phases = new boolean[rules.phases().length];
+		int numPhases = 0;
+		
+		for (int i = 0; i < phases.length; ++i)
+		{
+			phases[i] = IncrementalLegalMoves.supports(this, rules.phases()[i]);
+			if (phases[i])
+				++numPhases;
+		}
+		
+		if (numPhases > 0)
+			incrementalLegalMovesPhases = phases;
+		
+		return numPhases;
+	}
+	
+	/**
+	 * @param type
+	 * @param directions
+	 * @return Connectivity graph for given site type and directions (shared 
+	 * 	by all callers that ask for the same type and directions).
+	 */
+	public synchronized ConnectivityGraph connectivityGraph(final SiteType type, final List<AbsoluteDirection> directions)
+	{
+		for (final ConnectivityGraph graph : connectivityGraphs)
+		{
+			if (graph.matches(type, directions))
+				return graph;
+		}
+		
+		final ConnectivityGraph graph = new ConnectivityGraph(board().topology(), type, directions);
+		connectivityGraphs.add(graph);
+		return graph;
+	}
+	
+	/**
+	 * @return Number of static ludemes that were replaced by constants 
+	 * 	(folded) after creating this game.
+	 */
+	public int numFoldedLudemes()
+	{
+		return numFoldedLudemes;
+	}
+	
 	/**
 	 * @return True if the game contains a component owned by a shared player.
 	 */
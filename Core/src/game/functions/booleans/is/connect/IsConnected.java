@@ -32,6 +32,7 @@ import other.state.container.ContainerState;
 import other.topology.Topology;
 import other.topology.TopologyElement;
 import other.trial.Trial;
+import other.uf.ConnectivityGraph;
 
 /**
  * Is used to detect if regions are connected by a group of pieces.
@@ -74,6 +75,13 @@ public final class IsConnected extends BaseBooleanFunction
 	/** The pre-computed owned regions. */
 	private List<List<ChunkSet>> precomputedOwnedRegions;
 
+	/** 
+	 * Graph along which we track connectivity of pieces incrementally (see 
+	 * PieceConnectivity). Null if we cannot do so, in which case we search 
+	 * for the group of pieces on every call.
+	 */
+	private ConnectivityGraph connectivityGraph = null;
+
 	//-------------------------------------------------------------------------
 
 	/**
@@ -118,6 +126,87 @@ public final class IsConnected extends BaseBooleanFunction
 	
 	@Override
 	public boolean eval(final Context context)
+	{
+		if (connectivityGraph != null)
+		{
+			final boolean result = evalConnectivity(context);
+			assert (result == evalDefault(context));
+			return result;
+		}
+
+		return evalDefault(context);
+	}
+
+	/**
+	 * Uses the connectivity of pieces maintained by the state, such that we 
+	 * only need to check which regions intersect with the group of the piece
+	 * on the starting location.
+	 * 
+	 * @param context
+	 * @return Same as evalDefault()
+	 */
+	private boolean evalConnectivity(final Context context)
+	{
+		final int from = startLocationFn.eval(context);
+
+		// Check if this is a site.
+		if (from < 0 || from >= connectivityGraph.numSites())
+			return false;
+
+		final ContainerState cs = context.containerState(0);
+		final int who = cs.who(from, type);
+
+		// Check if the site is not empty.
+		if (who <= 0)
+			return false;
+
+		final int playerRegion = (roleFunc == null) ? Constants.UNDEFINED : roleFunc.eval(context);
+		final List<ChunkSet> sitesRegions = 
+				(precomputedSitesRegions != null) ? precomputedSitesRegions : precomputedOwnedRegions.get(playerRegion);
+		final int numRegionToConnect = (number != null) ? number.eval(context) : sitesRegions.size();
+
+		if (numRegionToConnect <= 0)
+			return evalDefault(context);
+
+		int numRegionConnected = 0;
+
+		if (playerRegion != Constants.UNDEFINED && who != playerRegion)
+		{
+			// The piece on the starting location does not start a group, only counts itself.
+			for (final ChunkSet regionToConnect : sitesRegions)
+			{
+				if (regionToConnect.get(from))
+					++numRegionConnected;
+			}
+
+			return numRegionConnected >= numRegionToConnect;
+		}
+
+		final ChunkSet group = context.state().pieceConnectivity(connectivityGraph).groupSites(from);
+
+		// Not a piece we track (e.g. a neutral piece)
+		if (group == null)
+			return evalDefault(context);
+
+		for (final ChunkSet regionToConnect : sitesRegions)
+		{
+			if (regionToConnect.intersects(group))
+			{
+				if (++numRegionConnected >= numRegionToConnect)
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Searches for the group of pieces from the starting location.
+	 * 
+	 * @param context
+	 * @return Whether the regions are connected
+	 */
+	private boolean evalDefault(final Context context)
 	{	
 		final Game game = context.game();
 		final int from = startLocationFn.eval(context);
@@ -546,6 +635,24 @@ public final class IsConnected extends BaseBooleanFunction
 				}
 			}
 		}
+
+		// Track connectivity of pieces incrementally if the directions are 
+		// the same for every site and the regions are precomputed.
+		connectivityGraph = null;
+		if 
+		(
+			(precomputedSitesRegions != null || precomputedOwnedRegions != null) &&
+			dirnChoice instanceof Directions &&
+			dirnChoice.isStatic() &&
+			!game.isStacking() &&
+			!game.isDeductionPuzzle()
+		)
+		{
+			final List<AbsoluteDirection> directions = dirnChoice.convertToAbsolute(type, null, null, null, null, null);
+			final ConnectivityGraph graph = game.connectivityGraph(type, directions);
+			if (graph.isSymmetric())
+				connectivityGraph = graph;
+		}
 	}
 
 	// ----------------------Visualisation for the GUI---------------------------------------
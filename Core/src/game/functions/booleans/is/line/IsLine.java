@@ -15,6 +15,7 @@ import game.functions.booleans.BaseBooleanFunction;
 import game.functions.booleans.BooleanConstant;
 import game.functions.booleans.BooleanFunction;
 import game.functions.directions.Directions;
+import game.functions.ints.IntConstant;
 import game.functions.ints.IntFunction;
 import game.functions.ints.last.LastTo;
 import game.functions.region.RegionFunction;
@@ -25,10 +26,12 @@ import game.util.directions.AbsoluteDirection;
 import game.util.graph.Radial;
 import gnu.trove.list.array.TIntArrayList;
 import main.Constants;
+import main.collections.ChunkSet;
 import other.concept.Concept;
 import other.context.Context;
 import other.location.FullLocation;
 import other.location.Location;
+import other.state.container.ContainerFlatBitboardState;
 import other.state.container.ContainerState;
 import other.state.puzzle.ContainerDeductionPuzzleState;
 import other.state.stacking.BaseContainerStateStacking;
@@ -84,6 +87,32 @@ public class IsLine extends BaseBooleanFunction
 	/** Add on Cell/Edge/Vertex. */
 	private SiteType type;
 
+	/**
+	 * For every site, all lines through that site (as arrays of sites), if 
+	 * we can evaluate this ludeme using precomputed lines (see 
+	 * precomputeLines()), null otherwise.
+	 */
+	private int[][][] precomputedLines = null;
+	
+	/** For every line in precomputedLines, the index of the pivot site in that line */
+	private int[][] precomputedLinePivots = null;
+	
+	/** Length of lines we look for when using precomputed lines */
+	private int precomputedLength = Constants.UNDEFINED;
+	
+	/** Do we look for lines of exactly the required length when using precomputed lines? */
+	private boolean precomputedExact = false;
+	
+	/**
+	 * For every cell, masks of all windows of sites that would form a line 
+	 * through that cell. Only precomputed in preprocess() if we can evaluate 
+	 * using bitboards (see ContainerFlatBitboardState), null otherwise.
+	 */
+	private ChunkSet[][] bitboardWindows = null;
+	
+	/** For every window in bitboardWindows, the sites just beyond its ends */
+	private ChunkSet[][] bitboardWindowBorders = null;
+
 	//-------------------------------------------------------------------------
 
 	/**
@@ -160,7 +189,33 @@ public class IsLine extends BaseBooleanFunction
 		
 		if (context.game().isDeductionPuzzle())
 			return evalDeductionPuzzle(context);
-
+		
+		if (precomputedLines != null)
+		{
+			final ContainerState cs = context.state().containerStates()[0];
+			final boolean result;
+			
+			if (bitboardWindows != null && cs instanceof ContainerFlatBitboardState)
+				result = evalBitboard(context, (ContainerFlatBitboardState) cs);
+			else
+				result = evalPrecomputedLines(context, cs);
+			
+			assert (result == evalDefault(context));
+			return result;
+		}
+		
+		return evalDefault(context);
+	}
+	
+	/**
+	 * Default implementation of eval() for games without stacking, which are
+	 * not deduction puzzles.
+	 * 
+	 * @param context
+	 * @return True if a line exists.
+	 */
+	private boolean evalDefault(final Context context)
+	{
 		final boolean contiguous = contiguousFn.eval(context);
 
 		final int[] pivots;
@@ -327,6 +382,248 @@ public class IsLine extends BaseBooleanFunction
 		return false;
 	}
 
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Implementation of eval() using the lines we precomputed in preprocess().
+	 * 
+	 * @param context
+	 * @param cs The container state of the board
+	 * @return True if a line exists.
+	 */
+	private boolean evalPrecomputedLines(final Context context, final ContainerState cs)
+	{
+		final int pivot = through.eval(context);
+		if (pivot < 0 || pivot >= precomputedLines.length)
+			return false;
+		
+		final int whatPivot = cs.what(pivot, type);
+		if (whatPivot == 0)
+			return evalDefault(context);	// Lines of empty sites, rare enough to not bother with
+		
+		final int[][] lines = precomputedLines[pivot];
+		final int[] pivotIndices = precomputedLinePivots[pivot];
+		
+		for (int i = 0; i < lines.length; ++i)
+		{
+			final int[] line = lines[i];
+			final int pivotIdx = pivotIndices[i];
+			int run = 1;
+			
+			for (int j = pivotIdx - 1; j >= 0 && cs.what(line[j], type) == whatPivot; --j)
+				++run;
+			
+			for (int j = pivotIdx + 1; j < line.length && cs.what(line[j], type) == whatPivot; ++j)
+				++run;
+			
+			if (run == precomputedLength || (run > precomputedLength && !precomputedExact))
+				return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Implementation of eval() using the bitboards of the given container state.
+	 * Only called if we precomputed bitboard windows in preprocess().
+	 * 
+	 * @param context
+	 * @param cs
+	 * @return True if a line exists.
+	 */
+	private boolean evalBitboard(final Context context, final ContainerFlatBitboardState cs)
+	{
+		final int pivot = through.eval(context);
+		if (pivot < 0 || pivot >= bitboardWindows.length)
+			return false;
+		
+		final int whatPivot = cs.whatCell(pivot);
+		if (whatPivot == 0)
+			return evalDefault(context);	// Lines of empty sites, rare enough to not bother with
+		
+		final ChunkSet bits = cs.whatBitboard(whatPivot);
+		final ChunkSet[] windows = bitboardWindows[pivot];
+		final ChunkSet[] borders = bitboardWindowBorders[pivot];
+		
+		for (int i = 0; i < windows.length; ++i)
+		{
+			if (bits.matches(windows[i], windows[i]) && (!precomputedExact || !bits.intersects(borders[i])))
+				return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Precomputes all lines through all sites, if we can evaluate this ludeme 
+	 * by only looking at those lines in the given game. This is the case for
+	 * games without stacking, if we use 
+	 * default values for everything other than length, direction, exact and 
+	 * through. Lines through the pivot then only depend on the pivot and the 
+	 * pieces along those lines, and can be checked without allocating 
+	 * anything or re-generating radials.
+	 * 
+	 * If the game uses ContainerFlatBitboardState, we also precompute 
+	 * bitboard masks for all windows of the required length in those lines.
+	 * 
+	 * @param game
+	 */
+	private void precomputeLines(final Game game)
+	{
+		precomputedLines = null;
+		precomputedLinePivots = null;
+		bitboardWindows = null;
+		bitboardWindowBorders = null;
+		
+		if (game.isStacking() || game.isDeductionPuzzle())
+			return;
+		
+		// NOTE: cells beyond the board's cells are in other containers, so
+		// with multiple containers we only support lines of cells
+		if (type != SiteType.Cell && (type != SiteType.Vertex || game.equipment().containers().length != 1))
+			return;
+		
+		if (throughAny != null || whatFn != null || whoFn != null)
+			return;
+		
+		if 
+		(
+			!(length instanceof IntConstant) || !(exactly instanceof BooleanConstant) 
+			|| 
+			!(contiguousFn instanceof BooleanConstant) || !(condition instanceof BooleanConstant)
+		)
+		{
+			return;
+		}
+		
+		// NOTE: constants do not need a context
+		final int len = length.eval(null);
+		if (len < 1 || !contiguousFn.eval(null) || !condition.eval(null))
+			return;
+		
+		final other.topology.Topology graph = game.board().topology();
+		if (graph.trajectories() == null)
+			return;
+		
+		final int numSites = graph.getGraphElements(type).size();
+		final int[][][] lines = new int[numSites][][];
+		final int[][] pivots = new int[numSites][];
+		
+		for (int site = 0; site < numSites; ++site)
+		{
+			final List<int[]> siteLines = new ArrayList<int[]>();
+			final TIntArrayList sitePivots = new TIntArrayList();
+			
+			final List<Radial> radials = graph.trajectories().radials(type, site)
+					.distinctInDirection(dirn.absoluteDirection());
+			
+			for (final Radial radial : radials)
+			{
+				final List<Radial> oppositeRadials = radial.opposites();
+				if (oppositeRadials == null)
+				{
+					siteLines.add(lineSites(radial, null));
+					sitePivots.add(0);
+				}
+				else
+				{
+					for (final Radial oppositeRadial : oppositeRadials)
+					{
+						siteLines.add(lineSites(radial, oppositeRadial));
+						sitePivots.add(oppositeRadial.steps().length - 1);
+					}
+				}
+			}
+			
+			lines[site] = siteLines.toArray(new int[siteLines.size()][]);
+			pivots[site] = sitePivots.toArray();
+		}
+		
+		precomputedLength = len;
+		precomputedExact = exactly.eval(null);
+		precomputedLines = lines;
+		precomputedLinePivots = pivots;
+		
+		if (type == SiteType.Cell && ContainerFlatBitboardState.supports(game, game.board()))
+		{
+			final ChunkSet[][] windows = new ChunkSet[numSites][];
+			final ChunkSet[][] borders = new ChunkSet[numSites][];
+			
+			for (int site = 0; site < numSites; ++site)
+			{
+				final List<ChunkSet> siteWindows = new ArrayList<ChunkSet>();
+				final List<ChunkSet> siteBorders = new ArrayList<ChunkSet>();
+				
+				for (int i = 0; i < lines[site].length; ++i)
+					addBitboardWindows(lines[site][i], pivots[site][i], len, numSites, siteWindows, siteBorders);
+				
+				windows[site] = siteWindows.toArray(new ChunkSet[siteWindows.size()]);
+				borders[site] = siteBorders.toArray(new ChunkSet[siteBorders.size()]);
+			}
+			
+			bitboardWindows = windows;
+			bitboardWindowBorders = borders;
+		}
+	}
+	
+	/**
+	 * @param radial
+	 * @param oppositeRadial Opposite radial (may be null)
+	 * @return Sites of a line that runs backwards along the opposite radial 
+	 * 	(if not null), and then forwards along the radial.
+	 */
+	private static int[] lineSites(final Radial radial, final Radial oppositeRadial)
+	{
+		final int numOpposite = (oppositeRadial == null) ? 0 : oppositeRadial.steps().length - 1;
+		final int[] sites = new int[numOpposite + radial.steps().length];
+		
+		for (int i = 0; i < numOpposite; ++i)
+			sites[i] = oppositeRadial.steps()[numOpposite - i].id();
+		
+		for (int i = 0; i < radial.steps().length; ++i)
+			sites[numOpposite + i] = radial.steps()[i].id();
+		
+		return sites;
+	}
+	
+	/**
+	 * Adds masks for all windows of given length in the given line, which 
+	 * contain the pivot, as well as masks for the sites just beyond their ends.
+	 * 
+	 * @param lineSites
+	 * @param pivotIdx Index of the pivot in lineSites
+	 * @param len
+	 * @param numSites
+	 * @param outWindows
+	 * @param outBorders
+	 */
+	private static void addBitboardWindows
+	(
+		final int[] lineSites, 
+		final int pivotIdx, 
+		final int len, 
+		final int numSites,
+		final List<ChunkSet> outWindows, 
+		final List<ChunkSet> outBorders
+	)
+	{
+		for (int start = Math.max(0, pivotIdx - len + 1); start <= pivotIdx && start + len <= lineSites.length; ++start)
+		{
+			final ChunkSet window = new ChunkSet(1, numSites);
+			for (int i = start; i < start + len; ++i)
+				window.set(lineSites[i]);
+			
+			final ChunkSet border = new ChunkSet(1, numSites);
+			if (start > 0)
+				border.set(lineSites[start - 1]);
+			if (start + len < lineSites.length)
+				border.set(lineSites[start + len]);
+			
+			outWindows.add(window);
+			outBorders.add(border);
+		}
+	}
+
 	//-------------------------------------------------------------------------
 
 	/**
@@ -1061,6 +1358,8 @@ public class IsLine extends BaseBooleanFunction
 		
 		if (throughAny != null)
 			throughAny.preprocess(game);
+		
+		precomputeLines(game);
 	}
 
 	@Override
@@ -18,9 +18,11 @@ import game.types.play.RoleType;
 import game.types.state.GameType;
 import gnu.trove.list.array.TIntArrayList;
 import main.StringRoutines;
+import main.collections.ChunkSet;
 import other.PlayersIndices;
 import other.context.Context;
 import other.location.Location;
+import other.state.container.ContainerFlatBitboardState;
 import other.state.container.ContainerState;
 
 /**
@@ -87,14 +89,93 @@ public final class CountPieces extends BaseIntFunction
 		if (name != null && name.equals("Bag"))
 			return context.state().remainingDominoes().size();
 
-		final int origSite = context.site();
-		final int origLevel = context.level();
-		int count = 0;
 		final int whoId = whoFn.eval(context);
 		
 		// Get the player condition.
 		final TIntArrayList idPlayers = PlayersIndices.getIdPlayers(context, role, whoId);
 		
+		if (canUseBitboards(context, idPlayers))
+		{
+			final int bitboardCount = countBitboard(context, idPlayers);
+			assert (bitboardCount == countDefault(context, idPlayers));
+			return bitboardCount;
+		}
+		
+		return countDefault(context, idPlayers);
+	}
+	
+	/**
+	 * @param context
+	 * @param idPlayers
+	 * @return True if we can count using bitboards (only one piece per site, 
+	 * 	no pieces outside the board, and no conditions other than players and region)
+	 */
+	private boolean canUseBitboards(final Context context, final TIntArrayList idPlayers)
+	{
+		if (name != null || If != null || (type != null && type != SiteType.Cell))
+			return false;
+		
+		if (context.containers().length != 1 || !(context.containerState(0) instanceof ContainerFlatBitboardState))
+			return false;
+		
+		final ContainerFlatBitboardState cs = (ContainerFlatBitboardState) context.containerState(0);
+		for (int i = 0; i < idPlayers.size(); ++i)
+		{
+			final int pid = idPlayers.getQuick(i);
+			
+			// NOTE: player 0 (neutral pieces) not tracked by bitboards
+			if (pid <= 0 || pid >= cs.numWhoBitboards())
+				return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Counts pieces using the bitboards of a ContainerFlatBitboardState.
+	 * 
+	 * @param context
+	 * @param idPlayers
+	 * @return Number of pieces
+	 */
+	private int countBitboard(final Context context, final TIntArrayList idPlayers)
+	{
+		final ContainerFlatBitboardState cs = (ContainerFlatBitboardState) context.containerState(0);
+		final ChunkSet where = (whereFn != null) ? whereFn.eval(context).bitSet() : null;
+		int count = 0;
+		
+		for (int i = 0; i < idPlayers.size(); ++i)
+		{
+			final ChunkSet owned = cs.whoBitboard(idPlayers.getQuick(i));
+			
+			if (where == null)
+			{
+				count += owned.cardinality();
+			}
+			else
+			{
+				final ChunkSet ownedWhere = owned.clone();
+				ownedWhere.and(where);
+				count += ownedWhere.cardinality();
+			}
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Counts pieces by iterating through positions of owned pieces.
+	 * 
+	 * @param context
+	 * @param idPlayers
+	 * @return Number of pieces
+	 */
+	private int countDefault(final Context context, final TIntArrayList idPlayers)
+	{
+		final int origSite = context.site();
+		final int origLevel = context.level();
+		int count = 0;
+		
 		// Get the region condition.
 		final TIntArrayList whereSites = (whereFn != null) ? new TIntArrayList(whereFn.eval(context).sites()) : null;
 		
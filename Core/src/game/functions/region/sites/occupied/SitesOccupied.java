@@ -22,6 +22,7 @@ import other.ContainerId;
 import other.PlayersIndices;
 import other.context.Context;
 import other.location.Location;
+import other.state.container.ContainerFlatBitboardState;
 import other.state.container.ContainerState;
 
 /**
@@ -112,8 +113,6 @@ public final class SitesOccupied extends BaseRegionFunction
 	@Override
 	public Region eval(final Context context)
 	{
-		final TIntArrayList sitesOccupied = new TIntArrayList();
-
 		final int cid = (containerName == null && containerFn == null) ? Constants.UNDEFINED
 				: containerId.eval(context);
 
@@ -140,6 +139,115 @@ public final class SitesOccupied extends BaseRegionFunction
 			}
 		}
 
+		if (canUseBitboards(context, cid, idSpecificComponents, idPlayers))
+		{
+			final Region region = evalBitboard(context, idSpecificComponents, idPlayers);
+			assert (region.equals(evalDefault(context, cid, idSpecificComponents, idPlayers)));
+			return region;
+		}
+		
+		return evalDefault(context, cid, idSpecificComponents, idPlayers);
+	}
+	
+	/**
+	 * @param context
+	 * @param cid
+	 * @param idSpecificComponents
+	 * @param idPlayers
+	 * @return True if we can compute the occupied sites using bitboards (no
+	 * 	pieces outside the board, and only one piece per site)
+	 */
+	private boolean canUseBitboards
+	(
+		final Context context, 
+		final int cid, 
+		final TIntArrayList idSpecificComponents, 
+		final TIntArrayList idPlayers
+	)
+	{
+		if ((type != null && type != SiteType.Cell) || cid > 0 || context.containers().length != 1)
+			return false;
+		
+		if (!(context.containerState(0) instanceof ContainerFlatBitboardState))
+			return false;
+		
+		final ContainerFlatBitboardState cs = (ContainerFlatBitboardState) context.containerState(0);
+		
+		if (idSpecificComponents == null)
+		{
+			for (int i = 0; i < idPlayers.size(); ++i)
+			{
+				final int pid = idPlayers.getQuick(i);
+				
+				// NOTE: player 0 (neutral pieces) not tracked by bitboards
+				if (pid <= 0 || pid >= cs.numWhoBitboards())
+					return false;
+			}
+		}
+		else
+		{
+			for (int i = 0; i < idSpecificComponents.size(); ++i)
+			{
+				final int componentId = idSpecificComponents.getQuick(i);
+				if (componentId <= 0 || componentId >= cs.numWhatBitboards())
+					return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Computes occupied sites using the bitboards of a ContainerFlatBitboardState.
+	 * 
+	 * @param context
+	 * @param idSpecificComponents
+	 * @param idPlayers
+	 * @return Occupied sites
+	 */
+	private static Region evalBitboard
+	(
+		final Context context, 
+		final TIntArrayList idSpecificComponents, 
+		final TIntArrayList idPlayers
+	)
+	{
+		final ContainerFlatBitboardState cs = (ContainerFlatBitboardState) context.containerState(0);
+		final Region region = new Region();
+		
+		if (idSpecificComponents == null)
+		{
+			for (int i = 0; i < idPlayers.size(); ++i)
+				region.bitSet().or(cs.whoBitboard(idPlayers.getQuick(i)));
+		}
+		else
+		{
+			for (int i = 0; i < idSpecificComponents.size(); ++i)
+				region.bitSet().or(cs.whatBitboard(idSpecificComponents.getQuick(i)));
+		}
+		
+		return region;
+	}
+	
+	/**
+	 * Computes occupied sites from the lists of owned pieces.
+	 * 
+	 * @param context
+	 * @param cid
+	 * @param idSpecificComponents
+	 * @param idPlayers
+	 * @return Occupied sites
+	 */
+	private Region evalDefault
+	(
+		final Context context, 
+		final int cid, 
+		final TIntArrayList idSpecificComponents, 
+		final TIntArrayList idPlayers
+	)
+	{
+		final TIntArrayList sitesOccupied = new TIntArrayList();
+		
 		// No specific components
 		if (idSpecificComponents == null)
 		{
@@ -107,7 +107,7 @@ public class Match extends Game
 	@Override
 	public Move apply(final Context context, final Move move, final boolean skipEndRules)
 	{
-		context.getLock().lock();
+		context.acquireLock();
 		
 		try
 		{
@@ -143,14 +143,14 @@ public class Match extends Game
 		}
 		finally
 		{
-			context.getLock().unlock();
+			context.releaseLock();
 		}
 	}
 	
 	@Override
 	public Moves moves(final Context context)
 	{
-		context.getLock().lock();
+		context.acquireLock();
 		
 		try
 		{
@@ -185,7 +185,7 @@ public class Match extends Game
 		}
 		finally
 		{
-			context.getLock().unlock();
+			context.releaseLock();
 		}
 	}
 
@@ -349,7 +349,7 @@ public class Match extends Game
 	@Override
 	public void start(final Context context)
 	{
-		context.getLock().lock();
+		context.acquireLock();
 
 		try
 		{
@@ -376,7 +376,7 @@ public class Match extends Game
 		}
 		finally
 		{
-			context.getLock().unlock();
+			context.releaseLock();
 		}
 	}
 	
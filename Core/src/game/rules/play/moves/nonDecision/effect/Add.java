@@ -879,7 +879,21 @@ public final class Add extends Effect
 	{
 		return type;
 	}
-	
+
+	/**
+	 * @return True if every move we generate adds exactly one piece, without
+	 * 	any local state, level or side effect.
+	 */
+	public boolean addsSinglePlainPiece()
+	{
+		return
+			(
+				localState == null && level == null && sideEffect == null && !onStack
+				&&
+				countFn instanceof IntConstant && countFn.eval(null) == 1
+			);
+	}
+
 	/**
 	 * Disables use of the action cache
 	 */
@@ -24,6 +24,12 @@ import other.trial.Trial;
 /**
  * Optimiser which can optimise a compiled game by injecting more efficient ludemes.
  *
+ * Currently performs constant folding: every int, boolean or region function
+ * that is static (i.e. invariant for the whole game) is evaluated once, and
+ * replaced by an IntConstant, BooleanConstant or RegionConstant in its parent
+ * ludeme. Children of folded ludemes are no longer reachable from the rules,
+ * so we do not visit them.
+ *
  * @author Dennis Soemers
  */
 public class Optimiser
@@ -34,11 +40,12 @@ public class Optimiser
 	/**
 	 * Optimises the given (compiled) game object.
 	 * @param game
+	 * @return Number of ludemes that were replaced by constants
 	 */
-	public static void optimiseGame(final Game game)
+	public static int optimiseGame(final Game game)
 	{
 		final Context dummyContext = new Context(game, new Trial(game));
-		optimiseLudeme(game, dummyContext, new HashMap<Object, Set<String>>());
+		return optimiseLudeme(game, dummyContext, new HashMap<Object, Set<String>>());
 	}
 	
 	//-------------------------------------------------------------------------
@@ -48,14 +55,16 @@ public class Optimiser
 	 * @param ludeme
 	 * @param dummyContext
 	 * @param visited Map of fields we've already visited, to avoid cycles
+	 * @return Number of ludemes that were replaced by constants
 	 */
-	private static void optimiseLudeme
+	private static int optimiseLudeme
 	(
 		final Ludeme ludeme, final Context dummyContext, final Map<Object, Set<String>> visited
 	)
 	{
 		final Class<? extends Ludeme> clazz = ludeme.getClass();
 		final List<Field> fields = ReflectionUtils.getAllFields(clazz);
+		int numFolded = 0;
 		
 		try
 		{
@@ -64,11 +73,11 @@ public class Optimiser
 				if (field.getName().contains("$"))
 					continue;
 				
-				field.setAccessible(true);
-				
 				if ((field.getModifiers() & Modifier.STATIC) != 0)
 					continue;
 				
+				field.setAccessible(true);
+				
 				if (visited.containsKey(ludeme) && visited.get(ludeme).contains(field.getName()))
 					continue;		// avoid stack overflow
 								
@@ -88,142 +97,51 @@ public class Optimiser
 
 					if (Ludeme.class.isAssignableFrom(valueClass))
 					{
-						boolean recurse = true;
+						final Ludeme constant = constantFor((Ludeme) value, dummyContext);
 						
-						if (BaseRegionFunction.class.isAssignableFrom(valueClass) && !RegionConstant.class.isAssignableFrom(valueClass))
+						if (constant != null && field.getType().isInstance(constant))
 						{
-							final BaseRegionFunction baseRegion = (BaseRegionFunction) value;
-							if (baseRegion.isStatic())
-							{
-								final RegionConstant constReg = new RegionConstant(baseRegion.eval(dummyContext));
-								injectLudeme(ludeme, constReg, baseRegion, new HashSet<Object>());
-								recurse = false;
-							}
+							field.set(ludeme, constant);
+							++numFolded;
 						}
-						else if (BaseIntFunction.class.isAssignableFrom(valueClass) && !IntConstant.class.isAssignableFrom(valueClass))
+						else
 						{
-							final BaseIntFunction baseInt = (BaseIntFunction) value;
-							if (baseInt.isStatic())
-							{
-								final IntConstant constInt = new IntConstant(baseInt.eval(dummyContext));
-								injectLudeme(ludeme, constInt, baseInt, new HashSet<Object>());
-								recurse = false;
-							}
-						}
-						else if (BaseBooleanFunction.class.isAssignableFrom(valueClass) && !BaseBooleanFunction.class.isAssignableFrom(valueClass))
-						{
-							final BaseBooleanFunction baseBool = (BaseBooleanFunction) value;
-							if (baseBool.isStatic())
-							{
-								final BooleanConstant constBool = new BooleanConstant(baseBool.eval(dummyContext));
-								injectLudeme(ludeme, constBool, baseBool, new HashSet<Object>());
-								recurse = false;
-							}
+							numFolded += optimiseLudeme((Ludeme) value, dummyContext, visited);
 						}
-						
-						if (recurse)
-							optimiseLudeme((Ludeme) value, dummyContext, visited);
 					}
-					else if (valueClass.isArray())
+					else if (valueClass.isArray() && !valueClass.getComponentType().isPrimitive())
 					{
-						final Object[] array = ReflectionUtils.castArray(value);
+						final Class<?> componentType = valueClass.getComponentType();
+						final int arrLength = Array.getLength(value);
 						
-						for (final Object element : array)
+						for (int i = 0; i < arrLength; ++i)
 						{
-							if (element != null)
+							final Object element = Array.get(value, i);
+							
+							if (element instanceof Ludeme)
 							{
-								final Class<?> elementClass = element.getClass();
+								final Ludeme constant = constantFor((Ludeme) element, dummyContext);
 								
-								if (Ludeme.class.isAssignableFrom(elementClass))
+								if (constant != null && componentType.isInstance(constant))
 								{
-									boolean recurse = true;
-						
-									if (BaseRegionFunction.class.isAssignableFrom(elementClass) && !RegionConstant.class.isAssignableFrom(elementClass))
-									{
-										final BaseRegionFunction baseRegion = (BaseRegionFunction) element;
-										if (baseRegion.isStatic())
-										{
-											final RegionConstant constReg = new RegionConstant(baseRegion.eval(dummyContext));
-											injectLudeme(ludeme, constReg, baseRegion, new HashSet<Object>());
-											recurse = false;
-										}
-									}
-									else if (BaseIntFunction.class.isAssignableFrom(elementClass) && !IntConstant.class.isAssignableFrom(elementClass))
-									{
-										final BaseIntFunction baseInt = (BaseIntFunction) element;
-										if (baseInt.isStatic())
-										{
-											final IntConstant constInt = new IntConstant(baseInt.eval(dummyContext));
-											injectLudeme(ludeme, constInt, baseInt, new HashSet<Object>());
-											recurse = false;
-										}
-									}
-									else if (BaseBooleanFunction.class.isAssignableFrom(elementClass) && !BooleanConstant.class.isAssignableFrom(elementClass))
-									{
-										final BaseBooleanFunction baseBool = (BaseBooleanFunction) element;
-										if (baseBool.isStatic())
-										{
-											final BooleanConstant constInt = new BooleanConstant(baseBool.eval(dummyContext));
-											injectLudeme(ludeme, constInt, baseBool, new HashSet<Object>());
-											recurse = false;
-										}
-									}
-									
-									if (recurse)
-										optimiseLudeme((Ludeme) element, dummyContext, visited);
+									Array.set(value, i, constant);
+									++numFolded;
+								}
+								else
+								{
+									numFolded += optimiseLudeme((Ludeme) element, dummyContext, visited);
 								}
 							}
 						}
 					}
 					else if (Iterable.class.isAssignableFrom(valueClass))
 					{
-						final Iterable<?> iterable = (Iterable<?>) value;
-						
-						for (final Object element : iterable)
+						// NOTE: we do not know the element types of collections,
+						// so we do not replace anything in them; only recurse
+						for (final Object element : (Iterable<?>) value)
 						{
-							if (element != null)
-							{
-								final Class<?> elementClass = element.getClass();
-								
-								if (Ludeme.class.isAssignableFrom(elementClass))
-								{
-									boolean recurse = true;
-						
-									if (BaseRegionFunction.class.isAssignableFrom(elementClass) && !RegionConstant.class.isAssignableFrom(elementClass))
-									{
-										final BaseRegionFunction baseRegion = (BaseRegionFunction) element;
-										if (baseRegion.isStatic())
-										{
-											final RegionConstant constReg = new RegionConstant(baseRegion.eval(dummyContext));
-											injectLudeme(ludeme, constReg, baseRegion, new HashSet<Object>());
-											recurse = false;
-										}
-									}
-									else if (BaseIntFunction.class.isAssignableFrom(elementClass) && !IntConstant.class.isAssignableFrom(elementClass))
-									{
-										final BaseIntFunction baseInt = (BaseIntFunction) element;
-										if (baseInt.isStatic())
-										{
-											final IntConstant constInt = new IntConstant(baseInt.eval(dummyContext));
-											injectLudeme(ludeme, constInt, baseInt, new HashSet<Object>());
-											recurse = false;
-										}
-									}
-									else if (BaseBooleanFunction.class.isAssignableFrom(elementClass) && !BooleanConstant.class.isAssignableFrom(elementClass))
-									{
-										final BaseBooleanFunction baseBool = (BaseBooleanFunction) element;
-										if (baseBool.isStatic())
-										{
-											final BooleanConstant constInt = new BooleanConstant(baseBool.eval(dummyContext));
-											injectLudeme(ludeme, constInt, baseBool, new HashSet<Object>());
-											recurse = false;
-										}
-									}
-									
-									if (recurse)
-										optimiseLudeme((Ludeme) element, dummyContext, visited);
-								}
-							}
+							if (element instanceof Ludeme)
+								numFolded += optimiseLudeme((Ludeme) element, dummyContext, visited);
 						}
 					}
 				}
@@ -233,73 +151,57 @@ public class Optimiser
 		{
 			e.printStackTrace();
 		}
+		
+		return numFolded;
 	}
 	
 	//-------------------------------------------------------------------------
 	
 	/**
-	 * Injects the given new ludeme such that it replaces the original ludeme 
-	 * if the original ludeme is a field of the given parent ludeme
-	 * 
-	 * @param parentObject
-	 * @param newLudeme
-	 * @param origLudeme
-	 * @param inspectedParentObjects Set of parent objects we already looked at (avoid cycles)
-	 * @throws IllegalAccessException 
-	 * @throws IllegalArgumentException 
+	 * @param ludeme
+	 * @param dummyContext
+	 * @return A constant ludeme to replace the given ludeme with, or null if
+	 * 	the given ludeme is not static (or already a constant).
 	 */
-	private static void injectLudeme
-	(
-		final Object parentObject, 
-		final Ludeme newLudeme, 
-		final Ludeme origLudeme,
-		final Set<Object> inspectedParentObjects
-	) throws IllegalArgumentException, IllegalAccessException
+	private static Ludeme constantFor(final Ludeme ludeme, final Context dummyContext)
 	{
-		if (inspectedParentObjects.contains(parentObject))
-			return;
-		
-		inspectedParentObjects.add(parentObject);
-		//System.out.println("injecting " + newLudeme + " as replacement for " + origLudeme + " in " + parentObject);
-		
-		if (parentObject.getClass().isArray())
+		try
 		{
-			final int arrLength = Array.getLength(parentObject);
-			for (int i = 0; i < arrLength; ++i)
+			if (ludeme instanceof BaseRegionFunction && !(ludeme instanceof RegionConstant))
 			{
-				final Object obj = Array.get(parentObject, i);
-				if (obj == null)
-					continue;
-
-				if (obj.getClass().isArray() || Iterable.class.isAssignableFrom(obj.getClass()))
-					injectLudeme(obj, newLudeme, origLudeme, inspectedParentObjects);
-				else if (obj == origLudeme)
-					Array.set(parentObject, i, newLudeme);
+				final BaseRegionFunction baseRegion = (BaseRegionFunction) ludeme;
+				if (baseRegion.isStatic())
+					return new RegionConstant(baseRegion.eval(dummyContext));
 			}
-		}
-		else 
-		{
-			final List<Field> parentFields = ReflectionUtils.getAllFields(parentObject.getClass());
-			for (final Field field : parentFields)
+			else if (ludeme instanceof BaseIntFunction && !(ludeme instanceof IntConstant))
 			{
-				if (field.getName().contains("$"))
-					continue;
-				
-				field.setAccessible(true);
-				
-				if ((field.getModifiers() & Modifier.STATIC) != 0)
-					continue;
-				
-				final Object fieldVal = field.get(parentObject);
-				if (fieldVal == null)
-					continue;
-				
-				if (fieldVal.getClass().isArray() || Iterable.class.isAssignableFrom(fieldVal.getClass()))
-					injectLudeme(fieldVal, newLudeme, origLudeme, inspectedParentObjects);
-				else if (fieldVal == origLudeme)
-					field.set(parentObject, newLudeme);
+				final BaseIntFunction baseInt = (BaseIntFunction) ludeme;
+				if (baseInt.isStatic())
+					return new IntConstant(baseInt.eval(dummyContext));
+			}
+			else if
+			(
+				ludeme instanceof BaseBooleanFunction
+				&&
+				!(ludeme instanceof BooleanConstant)
+				&&
+				!(ludeme instanceof BooleanConstant.TrueConstant)
+				&&
+				!(ludeme instanceof BooleanConstant.FalseConstant)
+			)
+			{
+				final BaseBooleanFunction baseBool = (BaseBooleanFunction) ludeme;
+				if (baseBool.isStatic())
+					return new BooleanConstant(baseBool.eval(dummyContext));
 			}
 		}
+		catch (final RuntimeException e)
+		{
+			// Some "static" ludemes still can't be evaluated without a started
+			// trial; we simply keep those as they are
+		}
+				
+		return null;
 	}
 	
 	//-------------------------------------------------------------------------
@@ -94,6 +94,9 @@ public class UndoData
 
 	/** The decision after voting. */
 	private int isDecided;
+	
+	/** For every player, a bit indicating whether they are stalemated. */
+	private final int stalemated;
 
 	/**
 	 * BitSet used to store all the site already visited (from & to) by each move
@@ -139,6 +142,7 @@ public class UndoData
 	 * @param onTrackIndices		   To access where are each type of piece on each track.
 	 * @param owned		  			   Access to list of sites for each kind of component owned per player.
 	 * @param isDecided		  		   The decision after voting.
+	 * @param stalemated		  	   For every player, a bit indicating whether they are stalemated.
 	 */
 	public UndoData
 	(
@@ -167,7 +171,8 @@ public class UndoData
 		final TIntArrayList sitesToRemove,
 		final OnTrackIndices onTrackIndices,
 		final Owned owned,
-		final int isDecided
+		final int isDecided,
+		final int stalemated
 	)
 	{
 		this.ranking = Arrays.copyOf(ranking, ranking.length);
@@ -196,6 +201,7 @@ public class UndoData
 		this.onTrackIndices = onTrackIndices == null ? null : new OnTrackIndices(onTrackIndices);
 		this.owned = owned == null ? null : owned.copy();
 		this.isDecided = isDecided;
+		this.stalemated = stalemated;
 	}
 
 	//-------------------------------------------------------------------------
@@ -407,4 +413,12 @@ public class UndoData
 	{
 		return isDecided;
 	}
+	
+	/**
+	 * @return For every player, a bit indicating whether they are stalemated.
+	 */
+	public int stalemated()
+	{
+		return stalemated;
+	}
 }
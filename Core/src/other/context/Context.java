@@ -81,7 +81,7 @@ public class Context
 	/** Our Trial. */
 	private Trial trial;
 	
-	/** 
+	/**
 	 * List of trials that have already been completed.
 	 * 
 	 * Will only be non-empty for Matches.		TODO should probably just have it be null for instances then
@@ -151,6 +151,15 @@ public class Context
 	/** Lock for Game methods that should not be executed in parallel on the same Context object. */
 	private transient ReentrantLock lock = new ReentrantLock();
 	
+	/**
+	 * If true, this context is only ever used by a single thread, and Game
+	 * methods skip the lock.
+	 */
+	private transient boolean threadConfined = false;
+	
+	/** Thread that owns this context if it is thread-confined (only tracked with assertions enabled) */
+	private transient Thread ownerThread = null;
+	
 	//-------------------------------------------------------------------------
 	
 	/**
@@ -271,7 +280,11 @@ public class Context
 	 */
 	private Context(final Context other, final Context otherParentCopy, final SplitMix64 rng)
 	{
-		other.getLock().lock();
+		// NOTE: copying only reads the other context, so other threads may copy 
+		// a thread-confined context as long as its owner does not modify it
+		final boolean lockOther = !other.isThreadConfined();
+		if (lockOther)
+			other.getLock().lock();
 		
 		try
 		{
@@ -322,7 +335,8 @@ public class Context
 		}
 		finally
 		{
-			other.getLock().unlock();
+			if (lockOther)
+				other.getLock().unlock();
 		}
 	}
 	
@@ -1544,6 +1558,68 @@ public class Context
 		return lock;
 	}
 	
+	/**
+	 * Acquires the lock for Game methods that should not be executed in 
+	 * parallel on the same Context object, unless this context is 
+	 * thread-confined. Every call must be matched by a call to releaseLock().
+	 */
+	public void acquireLock()
+	{
+		if (threadConfined)
+		{
+			assert (checkOwnerThread());
+			return;
+		}
+		
+		lock.lock();
+	}
+	
+	/**
+	 * Releases the lock acquired by acquireLock()
+	 */
+	public void releaseLock()
+	{
+		if (!threadConfined)
+			lock.unlock();
+	}
+	
+	/**
+	 * @return Whether this context is only ever used by a single thread
+	 */
+	public boolean isThreadConfined()
+	{
+		return threadConfined;
+	}
+	
+	/**
+	 * Sets whether this context is only ever used by a single thread. If it is,
+	 * Game methods no longer lock it. Other threads may still copy it, but 
+	 * only while its owner is not modifying it. With assertions enabled, we 
+	 * check that Game methods only use a thread-confined context from the 
+	 * first thread that used it after it was confined.
+	 * 
+	 * Must not be changed while any thread is executing Game methods on this context.
+	 * 
+	 * @param threadConfined
+	 */
+	public void setThreadConfined(final boolean threadConfined)
+	{
+		this.threadConfined = threadConfined;
+		ownerThread = null;
+	}
+	
+	/**
+	 * Used for assertions only
+	 * @return True if the current thread is allowed to use this thread-confined context
+	 */
+	private boolean checkOwnerThread()
+	{
+		if (ownerThread == null)
+			ownerThread = Thread.currentThread();
+		
+		return (ownerThread == Thread.currentThread());
+	}
+	
 	//-------------------------------------------------------------------------
 
 	/**
@@ -1708,6 +1784,12 @@ public class Context
 		for(int pid = 1; pid < players().size(); pid++)
 			phases[pid] = state().currentPhase(pid);
 		
+		// Store which players are stalemated.
+		int stalemated = 0;
+		for(int pid = 1; pid < players().size(); pid++)
+			if(state().isStalemated(pid))
+				stalemated |= (1 << (pid - 1));
+		
 		final UndoData endData = new UndoData(
 				trial.ranking(),
 				trial.status(), 
@@ -1734,7 +1816,8 @@ public class Context
 				state.sitesToRemove(),
 				state.onTrackIndices(),
 				state.owned(),
-				state.isDecided()
+				state.isDecided(),
+				stalemated
 		);
 		
 		trial.addUndoData(endData);
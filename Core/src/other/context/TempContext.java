@@ -11,6 +11,9 @@ import other.trial.Trial;
  * only intended to be used shortly and temporarily after creation. Changes to
  * the source-context may also seep through into this temp context due to
  * copy-on-write optimisations, making it potentially invalid.
+ * 
+ * Temp contexts are thread-confined by default (see Context.setThreadConfined()),
+ * so Game methods do not lock them.
  *
  * @author Dennis Soemers
  */
@@ -26,6 +29,7 @@ public final class TempContext extends Context
 	public TempContext(final Context other)
 	{
 		super(other);
+		setThreadConfined(true);
 	}
 	
 	//-------------------------------------------------------------------------
@@ -0,0 +1,438 @@
+package other.move;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import game.Game;
+import game.functions.ints.state.Mover;
+import game.functions.region.sites.index.SitesEmpty;
+import game.rules.phase.Phase;
+import game.rules.play.moves.BaseMoves;
+import game.rules.play.moves.Moves;
+import game.rules.play.moves.nonDecision.effect.Add;
+import game.types.play.ModeType;
+import game.util.equipment.Region;
+import main.Constants;
+import main.collections.FastArrayList;
+import other.action.Action;
+import other.action.move.ActionAdd;
+import other.context.Context;
+import other.state.container.BaseContainerState;
+import other.state.container.EmptySitesListener;
+import other.trial.Trial;
+
+/**
+ * Incrementally maintained lists of legal moves, for phases in which the
+ * legal moves are simply to add a piece of the mover to any empty site.
+ *
+ * We listen to the container state of the board, which notifies us whenever
+ * a single site becomes empty or occupied (including through undos), so we
+ * only add or remove the moves for changed sites. Bulk changes (resets,
+ * copies) simply make us regenerate all moves when we next need them.
+ *
+ * Every site has one Move object per player, which we reuse for as long as
+ * the trial lives; callers get a new list, but not new moves. This is safe
+ * because nothing modifies a move after Add generated it (just like the
+ * moves that Add shares when its action cache is enabled).
+ *
+ * The order of moves may differ from that of full regeneration. When
+ * assertions are enabled, every incremental result is validated against
+ * full regeneration.
+ *
+ * Instances should be confined to a single trial (see Trial).
+ *
+ * @author Dennis Soemers
+ */
+public final class IncrementalLegalMoves implements EmptySitesListener
+{
+
+	//-------------------------------------------------------------------------
+
+	/** For every player, the maintained list of moves (null if not built yet, or outdated) */
+	private final FastArrayList<Move>[] movesPerPlayer;
+
+	/** For every player, the phase index in which we built their list of moves */
+	private final int[] phasePerPlayer;
+
+	/** For every player, for every site, index of that site's move in our list (-1 if not in list) */
+	private final int[][] siteToIdx;
+
+	/** For every player, for every site, the move we use for that site */
+	private final Move[][] siteMoves;
+
+	/** For every player, a move we can create moves for other sites from (or null) */
+	private final Move[] templateMoves;
+
+	/** The container state we're listening to */
+	private BaseContainerState listenedState = null;
+
+	/** The region of empty sites in which we track changes */
+	private Region emptyRegion = null;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 * @param numPlayers
+	 */
+	@SuppressWarnings("unchecked")
+	public IncrementalLegalMoves(final int numPlayers)
+	{
+		movesPerPlayer = (FastArrayList<Move>[]) new FastArrayList<?>[numPlayers + 1];
+		phasePerPlayer = new int[numPlayers + 1];
+		siteToIdx = new int[numPlayers + 1][];
+		siteMoves = new Move[numPlayers + 1][];
+		templateMoves = new Move[numPlayers + 1];
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param game
+	 * @param phase
+	 * @return True if we can incrementally maintain legal moves for given phase
+	 */
+	public static boolean supports(final Game game, final Phase phase)
+	{
+		if (game.mode().mode() != ModeType.Alternating || game.isStacking() || game.hasLargePiece() || game.isDeductionPuzzle())
+			return false;
+
+		if (game.usesNoRepeatPositionalInGame() || game.usesNoRepeatPositionalInTurn())
+			return false;
+
+		final Moves moves = phase.play().moves();
+
+		// NOTE: not using equals() here is intentional! Most of our Moves
+		// do not have proper equals() implementations
+		if (!(moves instanceof Add) || moves.then() != null)
+			return false;
+
+		final Add add = (Add) moves;
+		return
+			(
+				add.components().length == 1 &&
+				add.components()[0] instanceof Mover &&
+				add.region() instanceof SitesEmpty.EmptyDefault &&
+				add.site() == null &&
+				add.legal() == null &&
+				add.addsSinglePlainPiece()
+			);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Computes legal moves for the current mover. Should only be called for
+	 * phases for which supports() returns true.
+	 *
+	 * @param context
+	 * @param phaseIdx Index of the mover's current phase
+	 * @return Legal moves (in a new list that the caller may modify)
+	 */
+	public Moves legalMoves(final Context context, final int phaseIdx)
+	{
+		final int mover = context.state().mover();
+		final Add add = (Add) context.game().rules().phases()[phaseIdx].play().moves();
+		final BaseContainerState cs = (BaseContainerState) context.state().containerStates()[0];
+		final Region region = cs.emptyRegion(add.type());
+
+		if (cs != listenedState || cs.emptySitesListener() != this || region != emptyRegion)
+			listenTo(cs, region);
+
+		if (movesPerPlayer[mover] == null || phasePerPlayer[mover] != phaseIdx)
+			regenerate(context, mover, phaseIdx, add);
+
+		final Moves legalMoves = new BaseMoves(null);
+		legalMoves.moves().addAll(movesPerPlayer[mover]);
+
+		assert (matchesFullRegeneration(context, add, legalMoves.moves()));
+		return legalMoves;
+	}
+
+	//-------------------------------------------------------------------------
+
+	@Override
+	public void emptySiteChanged(final Region region, final int idx, final boolean empty)
+	{
+		if (region != emptyRegion)
+			return;
+
+		for (int p = 1; p < movesPerPlayer.length; ++p)
+		{
+			final FastArrayList<Move> moves = movesPerPlayer[p];
+			if (moves == null)
+				continue;
+
+			final int[] playerSiteToIdx = siteToIdx[p];
+			if (idx >= playerSiteToIdx.length)
+			{
+				movesPerPlayer[p] = null;
+				continue;
+			}
+
+			if (empty)
+			{
+				if (playerSiteToIdx[idx] >= 0)
+					continue;
+
+				Move move = siteMoves[p][idx];
+				if (move == null)
+				{
+					if (templateMoves[p] == null)
+					{
+						// Can't create the move, so will have to regenerate
+						movesPerPlayer[p] = null;
+						continue;
+					}
+
+					move = createMove(templateMoves[p], idx);
+					siteMoves[p][idx] = move;
+				}
+
+				playerSiteToIdx[idx] = moves.size();
+				moves.add(move);
+			}
+			else
+			{
+				final int moveIdx = playerSiteToIdx[idx];
+				if (moveIdx < 0)
+					continue;
+
+				moves.removeSwap(moveIdx);
+				playerSiteToIdx[idx] = -1;
+
+				if (moveIdx < moves.size())
+					playerSiteToIdx[moves.get(moveIdx).toNonDecision()] = moveIdx;
+			}
+		}
+	}
+
+	@Override
+	public void emptySitesReset()
+	{
+		Arrays.fill(movesPerPlayer, null);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Starts listening to given container state (instead of the one we
+	 * listened to before, if any), and discards all lists of moves.
+	 * @param cs
+	 * @param region The region of empty sites in which to track changes
+	 */
+	private void listenTo(final BaseContainerState cs, final Region region)
+	{
+		if (listenedState != null && listenedState.emptySitesListener() == this)
+			listenedState.setEmptySitesListener(null);
+
+		cs.setEmptySitesListener(this);
+		listenedState = cs;
+		emptyRegion = region;
+		Arrays.fill(movesPerPlayer, null);
+	}
+
+	/**
+	 * Regenerates the complete list of moves for given player
+	 * @param context
+	 * @param player
+	 * @param phaseIdx
+	 * @param add
+	 */
+	private void regenerate
+	(
+		final Context context,
+		final int player,
+		final int phaseIdx,
+		final Add add
+	)
+	{
+		final FastArrayList<Move> generated = add.eval(context).moves();
+		final int numSites = context.game().board().topology().numSites(add.type());
+
+		if (siteMoves[player] == null || siteMoves[player].length < numSites || phasePerPlayer[player] != phaseIdx)
+		{
+			siteMoves[player] = new Move[numSites];
+			templateMoves[player] = null;
+		}
+
+		if (siteToIdx[player] == null || siteToIdx[player].length < numSites)
+			siteToIdx[player] = new int[numSites];
+
+		Arrays.fill(siteToIdx[player], -1);
+
+		for (int i = 0; i < generated.size(); ++i)
+		{
+			final Move move = generated.get(i);
+			final int site = move.toNonDecision();
+			siteToIdx[player][site] = i;
+			siteMoves[player][site] = move;
+		}
+
+		if (templateMoves[player] == null && !generated.isEmpty())
+			templateMoves[player] = generated.get(0);
+
+		movesPerPlayer[player] = generated;
+		phasePerPlayer[player] = phaseIdx;
+	}
+
+	/**
+	 * @param template A move to add a single plain piece (see supports())
+	 * @param site
+	 * @return A move like the template, but adding the piece to the given site
+	 */
+	private static Move createMove(final Move template, final int site)
+	{
+		final Action action = template.actions().get(0);
+		final Action actionAdd =
+				new ActionAdd
+				(
+					action.toType(), site, action.what(), 1, Constants.UNDEFINED,
+					Constants.UNDEFINED, Constants.UNDEFINED, null
+				);
+		actionAdd.setDecision(action.isDecision());
+
+		final Move move = new Move(actionAdd);
+		move.setFromNonDecision(site);
+		move.setToNonDecision(site);
+
+		if (!template.isOrientedMove())
+		{
+			move.setEdgeMove(site);
+			move.setOrientedMove(false);
+		}
+
+		move.setMover(template.mover());
+		move.setMovesLudeme(template.movesLudeme());
+		return move;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Checks incrementally maintained legal moves against full generation of
+	 * legal moves, in every state of a number of random playouts, for all
+	 * phases that support incremental maintenance. In games that support
+	 * undo, we also check states reached by undoing random moves. This does
+	 * not require incremental legal moves to be enabled for the game.
+	 *
+	 * @param game
+	 * @param numTrials Number of random playouts to run
+	 * @param maxNumMoves Maximum number of moves per playout
+	 * @param rng
+	 * @return Number of states in which incrementally maintained legal
+	 * 	moves did not match full generation.
+	 */
+	public static int verify(final Game game, final int numTrials, final int maxNumMoves, final Random rng)
+	{
+		if (game.mode().mode() != ModeType.Alternating || game.rules().phases() == null)
+			return 0;
+
+		final Phase[] phases = game.rules().phases();
+		final boolean[] supportedPhases = new boolean[phases.length];
+		for (int i = 0; i < phases.length; ++i)
+		{
+			supportedPhases[i] = supports(game, phases[i]);
+		}
+
+		final boolean checkUndo = game.supportsMakeUnmake();
+		int numMismatches = 0;
+
+		for (int t = 0; t < numTrials; ++t)
+		{
+			final Context context = new Context(game, new Trial(game));
+			game.start(context);
+
+			final IncrementalLegalMoves incremental = context.trial().incrementalLegalMoves(game.players().count());
+			int numMoves = 0;
+
+			while (!context.trial().over() && numMoves < maxNumMoves)
+			{
+				numMismatches += numMismatches(context, incremental, phases, supportedPhases);
+
+				final FastArrayList<Move> legalMoves = game.moves(context).moves();
+				if (legalMoves.isEmpty())
+					break;
+
+				final Move move = legalMoves.get(rng.nextInt(legalMoves.size()));
+
+				if (checkUndo && rng.nextBoolean())
+				{
+					game.apply(context, legalMoves.get(rng.nextInt(legalMoves.size())));
+					if (!context.trial().over())
+						numMismatches += numMismatches(context, incremental, phases, supportedPhases);
+
+					game.undo(context);
+					numMismatches += numMismatches(context, incremental, phases, supportedPhases);
+				}
+
+				game.apply(context, move);
+				++numMoves;
+			}
+		}
+
+		return numMismatches;
+	}
+
+	/**
+	 * Used for validation
+	 * @param context
+	 * @param incremental
+	 * @param phases
+	 * @param supportedPhases
+	 * @return 1 if we're in a supported phase and the incrementally maintained
+	 * 	legal moves do not match full generation, 0 otherwise.
+	 */
+	private static int numMismatches
+	(
+		final Context context,
+		final IncrementalLegalMoves incremental,
+		final Phase[] phases,
+		final boolean[] supportedPhases
+	)
+	{
+		final int phaseIdx = context.state().currentPhase(context.state().mover());
+
+		if (!supportedPhases[phaseIdx])
+			return 0;
+
+		final Add add = (Add) phases[phaseIdx].play().moves();
+		return matchesFullRegeneration(context, add, incremental.legalMoves(context, phaseIdx).moves()) ? 0 : 1;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Used for validation
+	 * @param context
+	 * @param add
+	 * @param moves
+	 * @return True if the given moves are (up to order) equal to the moves
+	 * 	generated from scratch.
+	 */
+	private static boolean matchesFullRegeneration(final Context context, final Add add, final FastArrayList<Move> moves)
+	{
+		final FastArrayList<Move> generated = add.eval(context).moves();
+		if (generated.size() != moves.size())
+			return false;
+
+		final Set<Move> generatedSet = new HashSet<Move>();
+		for (final Move move : generated)
+		{
+			generatedSet.add(move);
+		}
+
+		for (final Move move : moves)
+		{
+			if (!generatedSet.contains(move))
+				return false;
+		}
+
+		return true;
+	}
+
+	//-------------------------------------------------------------------------
+
+}
@@ -625,6 +625,7 @@ public class Move extends BaseAction
 			// Step 2: Restore the data modified by the last end rules or nextPhase.
 			// Get the previous end data.
 			final UndoData undoData = trial.endData().isEmpty() ? null : trial.endData().get(trial.endData().size()-1);
+			final boolean ownsUndoData = undoData != null && trial.ownsLastEndData();
 			final double[] ranking = undoData == null ? new double[game.players().size()] : undoData.ranking();
 			final int[] phases = undoData == null ? new int[game.players().size()] : undoData.phases();
 			final Status status = undoData == null ? null : undoData.status();
@@ -646,6 +647,7 @@ public class Move extends BaseAction
 			final OnTrackIndices onTrackIndices = undoData == null ? null : undoData.onTrackIndices();
 			final Owned owned = undoData == null ? null : undoData.owned();
 			final int isDecided = undoData == null ? Constants.UNDEFINED : undoData.isDecided();
+			final int stalemated = undoData == null ? 0 : undoData.stalemated();
 			
 			int active = 0;
 			if(undoData != null)
@@ -681,15 +683,19 @@ public class Move extends BaseAction
 				for(int i = 0; i < losers.size(); i++)
 					context.losers().add(losers.get(i));
 			}
-			context.setActive(active);
 			
+			// Restore active players one by one, so that the Zobrist hash is also restored
+			for (int p = 1; p <= game.players().count(); ++p)
+				context.setActive(p, (active & (1 << (p - 1))) != 0);
+			
+			// Restore scores and payoffs through setters, so that the Zobrist hash is also restored
 			if(context.scores() != null)
 				for(int i = 0; i < context.scores().length; i++)
-					context.scores()[i] = scores[i];
+					context.setScore(i, scores[i]);
 			
 			if(context.payoffs() != null)
 				for(int i = 0; i < context.payoffs().length; i++)
-					context.payoffs()[i] = payoffs[i];
+					context.setPayoff(i, payoffs[i]);
 			
 			context.setNumLossesDecided(numLossesDecided);
 			context.setNumWinsDecided(numWinsDecided);
@@ -749,10 +755,22 @@ public class Move extends BaseAction
 			currentState.setNumTurn(numTurn);
 			currentState.setTurnSamePlayer(numTurnSamePlayer);
 			currentState.setNumConsecutivesPasses(numConsecutivePasses);
-			currentState.setOnTrackIndices(onTrackIndices);
-			currentState.setOwned(owned);
+			if (ownsUndoData)
+			{
+				// Nothing else refers to these snapshots any more, so no need to copy them again
+				currentState.takeOnTrackIndices(onTrackIndices);
+				currentState.takeOwned(owned);
+			}
+			else
+			{
+				currentState.setOnTrackIndices(onTrackIndices);
+				currentState.setOwned(owned);
+			}
 			currentState.setIsDecided(isDecided);
 			
+			for (int p = 1; p <= game.players().count(); ++p)
+				currentState.setStalemated(p, (stalemated & (1 << (p - 1))) != 0);
+			
 			// Step 5: To update the sum of the dice container.
 			if (game.hasHandDice())
 			{
@@ -0,0 +1,229 @@
+package other.playout;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+import game.Game;
+import main.DaemonThreadFactory;
+import other.context.Context;
+import other.context.TempContext;
+
+/**
+ * Runs batches of playouts from a common start state, spread over multiple
+ * worker threads, and collects only their outcomes (in compact primitive
+ * arrays) rather than full Trial objects.
+ *
+ * Every worker thread runs a contiguous range of the playouts. All
+ * contexts used for playouts are copies that are confined to the worker
+ * thread that creates them; the start context itself is only read.
+ *
+ * If any playout throws an exception, the first such exception is rethrown
+ * in the calling thread (after all workers have finished).
+ *
+ * NOTE: must not be called (with more than one thread) from within one of
+ * our own worker threads, since those would then wait for each other.
+ *
+ * @author Dennis Soemers
+ */
+public final class BatchedPlayouts
+{
+
+	//-------------------------------------------------------------------------
+
+	/** Number of threads we use by default */
+	public static final int DEFAULT_NUM_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/** Shared pool of worker threads (lazily created) */
+	private static ExecutorService threadPool = null;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor (private, should not be instantiated)
+	 */
+	private BatchedPlayouts()
+	{
+		// Do not instantiate
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Runs the given number of playouts from the given start context, using
+	 * the default number of threads.
+	 *
+	 * @param context Start context (will not be modified)
+	 * @param numPlayouts Number of playouts to run
+	 * @param playoutMoveSelector Move selector to use in playouts (null for
+	 * 	uniform random). Must be safe to use by multiple threads at once.
+	 * @param maxNumPlayoutActions Maximum number of actions per playout
+	 * 	(negative for no limit)
+	 * @return Outcomes of the playouts
+	 */
+	public static PlayoutOutcomes runPlayouts
+	(
+		final Context context,
+		final int numPlayouts,
+		final PlayoutMoveSelector playoutMoveSelector,
+		final int maxNumPlayoutActions
+	)
+	{
+		return runPlayouts(context, numPlayouts, playoutMoveSelector, maxNumPlayoutActions, DEFAULT_NUM_THREADS);
+	}
+
+	/**
+	 * Runs the given number of playouts from the given start context.
+	 *
+	 * @param context Start context (will not be modified)
+	 * @param numPlayouts Number of playouts to run
+	 * @param playoutMoveSelector Move selector to use in playouts (null for
+	 * 	uniform random). Must be safe to use by multiple threads at once if
+	 * 	numThreads > 1.
+	 * @param maxNumPlayoutActions Maximum number of actions per playout
+	 * 	(negative for no limit)
+	 * @param numThreads Maximum number of threads to use. With 1 thread, all
+	 * 	playouts are run in the calling thread.
+	 * @return Outcomes of the playouts
+	 */
+	public static PlayoutOutcomes runPlayouts
+	(
+		final Context context,
+		final int numPlayouts,
+		final PlayoutMoveSelector playoutMoveSelector,
+		final int maxNumPlayoutActions,
+		final int numThreads
+	)
+	{
+		final PlayoutOutcomes outcomes = new PlayoutOutcomes(numPlayouts, context.game().players().count());
+		final int numTasks = Math.max(1, Math.min(numThreads, numPlayouts));
+
+		if (numTasks == 1)
+		{
+			runRange(context, 0, numPlayouts, playoutMoveSelector, maxNumPlayoutActions, outcomes);
+			return outcomes;
+		}
+
+		final ExecutorService pool = threadPool();
+		final CountDownLatch latch = new CountDownLatch(numTasks - 1);
+		final AtomicReference<RuntimeException> exception = new AtomicReference<RuntimeException>();
+		final int playoutsPerTask = numPlayouts / numTasks;
+		final int remainder = numPlayouts % numTasks;
+		int start = 0;
+
+		for (int t = 0; t < numTasks; ++t)
+		{
+			final int rangeStart = start;
+			final int rangeEnd = rangeStart + playoutsPerTask + (t < remainder ? 1 : 0);
+			start = rangeEnd;
+
+			if (t == numTasks - 1)
+			{
+				// Calling thread runs the last range itself
+				try
+				{
+					runRange(context, rangeStart, rangeEnd, playoutMoveSelector, maxNumPlayoutActions, outcomes);
+				}
+				catch (final RuntimeException e)
+				{
+					exception.compareAndSet(null, e);
+				}
+			}
+			else
+			{
+				pool.submit
+				(
+					() ->
+					{
+						try
+						{
+							runRange(context, rangeStart, rangeEnd, playoutMoveSelector, maxNumPlayoutActions, outcomes);
+						}
+						catch (final RuntimeException e)
+						{
+							exception.compareAndSet(null, e);
+						}
+						finally
+						{
+							latch.countDown();
+						}
+					}
+				);
+			}
+		}
+
+		try
+		{
+			latch.await();
+		}
+		catch (final InterruptedException e)
+		{
+			// Workers may still be running playouts, so outcomes are incomplete
+			Thread.currentThread().interrupt();
+			exception.compareAndSet(null, new IllegalStateException("Interrupted while running playouts", e));
+		}
+
+		// Outcomes of failed playouts would silently count as zeros, so rethrow
+		// the first exception thrown by any of the workers
+		if (exception.get() != null)
+			throw exception.get();
+
+		return outcomes;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Runs a contiguous range of playouts in the current thread
+	 *
+	 * @param context
+	 * @param rangeStart First playout index (inclusive)
+	 * @param rangeEnd Last playout index (exclusive)
+	 * @param playoutMoveSelector
+	 * @param maxNumPlayoutActions
+	 * @param outcomes Outcomes object to write into
+	 */
+	private static void runRange
+	(
+		final Context context,
+		final int rangeStart,
+		final int rangeEnd,
+		final PlayoutMoveSelector playoutMoveSelector,
+		final int maxNumPlayoutActions,
+		final PlayoutOutcomes outcomes
+	)
+	{
+		final Game game = context.game();
+		final ThreadLocalRandom rng = ThreadLocalRandom.current();
+
+		for (int i = rangeStart; i < rangeEnd; ++i)
+		{
+			// NOTE: Context.resetToContext() does not reset all data in a
+			// state, so we cannot safely re-use a single context for
+			// multiple playouts; temp contexts are the cheapest safe copies
+			final TempContext playoutContext = new TempContext(context);
+			final int numStartMoves = playoutContext.trial().numMoves();
+
+			if (!playoutContext.trial().over())
+				game.playout(playoutContext, null, 1.0, playoutMoveSelector, -1, maxNumPlayoutActions, rng);
+
+			outcomes.store(i, playoutContext, playoutContext.trial().numMoves() - numStartMoves);
+		}
+	}
+
+	/**
+	 * @return Shared thread pool (created if it does not exist yet)
+	 */
+	private static synchronized ExecutorService threadPool()
+	{
+		if (threadPool == null)
+			threadPool = Executors.newFixedThreadPool(DEFAULT_NUM_THREADS, DaemonThreadFactory.INSTANCE);
+
+		return threadPool;
+	}
+
+	//-------------------------------------------------------------------------
+
+}
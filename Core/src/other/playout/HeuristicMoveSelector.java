@@ -60,6 +60,10 @@ public class HeuristicMoveSelector extends PlayoutMoveSelector
 		final Game game = context.game();
 		final List<Move> bestMoves = new ArrayList<Move>();
 		float bestValue = Float.NEGATIVE_INFINITY;
+		
+		// In games that support it, we evaluate moves by applying and undoing
+		// them in the playout context, instead of copying it for every move
+		final boolean makeUnmake = game.supportsMakeUnmake();
 
 		// boolean foundLegalMove = false;
 		for (final Move move : maybeLegalMoves)
@@ -67,23 +71,23 @@ public class HeuristicMoveSelector extends PlayoutMoveSelector
 			if (isMoveReallyLegal.checkMove(move))
 			{
 				// foundLegalMove = true;
-				final TempContext copyContext = new TempContext(context);
-				game.apply(copyContext, move);
+				final Context childContext = makeUnmake ? context : new TempContext(context);
+				game.apply(childContext, move);
 
 				float heuristicScore = 0.f;
 
-				if (copyContext.trial().over() || !copyContext.active(p))
+				if (childContext.trial().over() || !childContext.active(p))
 				{
 					// terminal node (at least for maximising player)
-					heuristicScore = (float) RankUtils.agentUtilities(copyContext)[p] * TERMINAL_SCORE_MULT;
+					heuristicScore = (float) RankUtils.agentUtilities(childContext)[p] * TERMINAL_SCORE_MULT;
 				}
 				else
 				{
 					for (int player = 1; player <= game.players().count(); ++player)
 					{
-						if (copyContext.active(player))
+						if (childContext.active(player))
 						{
-							final float playerScore = heuristicValueFunction.computeValue(copyContext, player, 0.f);
+							final float playerScore = heuristicValueFunction.computeValue(childContext, player, 0.f);
 
 							if (player == p)
 							{
@@ -99,6 +103,9 @@ public class HeuristicMoveSelector extends PlayoutMoveSelector
 
 					}
 				}
+				
+				if (makeUnmake)
+					game.undo(childContext);
 
 				if (heuristicScore > bestValue)
 				{
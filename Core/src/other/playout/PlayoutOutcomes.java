@@ -0,0 +1,159 @@
+package other.playout;
+
+import other.RankUtils;
+import other.context.Context;
+import other.state.State;
+
+/**
+ * Compact outcomes of a batch of playouts (see BatchedPlayouts), stored in
+ * flat primitive arrays rather than as full Trial objects.
+ *
+ * @author Dennis Soemers
+ */
+public final class PlayoutOutcomes
+{
+
+	//-------------------------------------------------------------------------
+
+	/** Number of playouts */
+	private final int numPlayouts;
+
+	/** Number of entries per playout in utility arrays (number of players + 1) */
+	private final int stride;
+
+	/**
+	 * Utilities (in [-1, 1]) per playout, indexed by player / role / colour.
+	 * Utilities for playout i start at index i * stride, with index 0 unused.
+	 */
+	private final double[] utilities;
+
+	/**
+	 * Utilities (in [-1, 1]) per playout, indexed by agent (original player
+	 * index, in case a swap occurred). Same layout as utilities.
+	 */
+	private final double[] agentUtilities;
+
+	/** For every playout, the number of moves played in that playout */
+	private final int[] numPlayoutMoves;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 * @param numPlayouts
+	 * @param numPlayers
+	 */
+	PlayoutOutcomes(final int numPlayouts, final int numPlayers)
+	{
+		this.numPlayouts = numPlayouts;
+		this.stride = numPlayers + 1;
+		utilities = new double[numPlayouts * stride];
+		agentUtilities = new double[numPlayouts * stride];
+		numPlayoutMoves = new int[numPlayouts];
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return Number of playouts
+	 */
+	public int numPlayouts()
+	{
+		return numPlayouts;
+	}
+
+	/**
+	 * @param playout
+	 * @param player
+	 * @return Utility for given player in given playout
+	 */
+	public double utility(final int playout, final int player)
+	{
+		return utilities[playout * stride + player];
+	}
+
+	/**
+	 * @param playout
+	 * @param agent
+	 * @return Utility for given agent in given playout
+	 */
+	public double agentUtility(final int playout, final int agent)
+	{
+		return agentUtilities[playout * stride + agent];
+	}
+
+	/**
+	 * @param playout
+	 * @return Number of moves played in given playout
+	 */
+	public int numPlayoutMoves(final int playout)
+	{
+		return numPlayoutMoves[playout];
+	}
+
+	/**
+	 * @param player
+	 * @return Sum of utilities for given player over all playouts
+	 */
+	public double sumUtilities(final int player)
+	{
+		double sum = 0.0;
+		for (int idx = player; idx < utilities.length; idx += stride)
+		{
+			sum += utilities[idx];
+		}
+		return sum;
+	}
+
+	/**
+	 * @param agent
+	 * @return Sum of utilities for given agent over all playouts
+	 */
+	public double sumAgentUtilities(final int agent)
+	{
+		double sum = 0.0;
+		for (int idx = agent; idx < agentUtilities.length; idx += stride)
+		{
+			sum += agentUtilities[idx];
+		}
+		return sum;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Stores the outcome of a single (completed or truncated) playout
+	 * @param playout Index of playout
+	 * @param context Context at the end of the playout
+	 * @param numMoves Number of moves played in playout
+	 */
+	void store(final int playout, final Context context, final int numMoves)
+	{
+		final double[] ranking = context.trial().ranking();
+		final State state = context.state();
+		final int numPlayers = stride - 1;
+		final int offset = playout * stride;
+
+		for (int p = 1; p < stride; ++p)
+		{
+			double rank = ranking[p];
+			if (numPlayers > 1 && rank == 0.0)
+			{
+				// Playout didn't terminate yet; assign "draw" ranks
+				rank = context.computeNextDrawRank();
+			}
+
+			utilities[offset + p] = RankUtils.rankToUtil(rank, numPlayers);
+		}
+
+		for (int p = 1; p < stride; ++p)
+		{
+			agentUtilities[offset + p] = utilities[offset + state.playerToAgent(p)];
+		}
+
+		numPlayoutMoves[playout] = numMoves;
+	}
+
+	//-------------------------------------------------------------------------
+
+}
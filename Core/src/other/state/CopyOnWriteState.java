@@ -1,5 +1,6 @@
 package other.state;
 
+import other.state.container.ContainerState;
 import other.state.track.OnTrackIndices;
 import other.state.track.OnTrackIndicesCOW;
 
@@ -7,6 +8,10 @@ import other.state.track.OnTrackIndicesCOW;
  * A subclass of State, with copy-on-write optimisations. Note
  * that changes to the state that we copy from may seep through
  * into this copy.
+ * 
+ * Chunk sets of container states are shared with the state we
+ * copy from, and only copied when either of the two states
+ * modifies them (see HashedChunkSet.copyOnWriteClone()).
  *
  * @author Dennis Soemers
  */
@@ -37,6 +42,12 @@ public final class CopyOnWriteState extends State
 		return otherOnTrackIndices == null ? null : new OnTrackIndicesCOW(otherOnTrackIndices);
 	}
 	
+	@Override
+	protected ContainerState copyContainerState(final ContainerState otherContainerState)
+	{
+		return otherContainerState.copyOnWriteClone();
+	}
+	
 	//-------------------------------------------------------------------------
 
 }
@@ -39,6 +39,8 @@ import other.state.symmetry.SymmetryValidator;
 import other.state.track.OnTrackIndices;
 import other.state.zhash.ZobristHashGenerator;
 import other.state.zhash.ZobristHashUtilities;
+import other.uf.ConnectivityGraph;
+import other.uf.PieceConnectivity;
 
 /**
  * Game state.
@@ -154,6 +156,13 @@ public class State implements Serializable
 	/** To access where are each type of piece on each track. */
 	private transient OnTrackIndices onTrackIndices;
 
+	/**
+	 * Connectivity of pieces on the board, lazily created and synchronised
+	 * (see PieceConnectivity). Never copied; copies of this state build
+	 * their own when they need it.
+	 */
+	private transient PieceConnectivity pieceConnectivity = null;
+
 	/**
 	 * BitSet used to store all the site already visited (from & to) by each move
 	 * done by the player in a sequence of turns played by the same player.
@@ -327,6 +336,18 @@ public class State implements Serializable
 				;
 	}
 	
+	/** 
+	 * Stalemated flags only get updated when legal moves are computed, so they
+	 * may differ between copies of the same state that computed legal moves
+	 * in different places (e.g. the real game and search trees).
+	 * 
+	 * @return full hash value, but ignoring which players are stalemated 
+	 */ 
+	public long fullHashIgnoringStalemated() 
+	{
+		return fullHash() ^ stalematedHash;
+	}
+	
 	private static final LastFrom LAST_FROM_LUDEME = new LastFrom(null);
 	private static final LastTo LAST_TO_LUDEME = new LastTo(null);
 	
@@ -561,7 +582,7 @@ public class State implements Serializable
 				if (other.containerStates[is] == null)
 					containerStates[is] = null;
 				else
-					containerStates[is] = other.containerStates[is].deepClone();
+					containerStates[is] = copyContainerState(other.containerStates[is]);
 		}
 
 		counter = other.counter;
@@ -966,7 +987,7 @@ public class State implements Serializable
 				if (other.containerStates[is] == null)
 					containerStates[is] = null;
 				else
-					containerStates[is] = other.containerStates[is].deepClone();
+					containerStates[is] = copyContainerState(other.containerStates[is]);
 		}
 
 		counter = other.counter;
@@ -1086,6 +1107,20 @@ public class State implements Serializable
 		return otherOnTrackIndices == null ? null : new OnTrackIndices(otherOnTrackIndices);
 	}
 	
+	/**
+	 * Method for copying another container state.
+	 * 
+	 * NOTE: we override this for optimisations in CopyOnWriteState.
+	 * 
+	 * @param otherContainerState
+	 * @return Copy of the given container state
+	 */
+	@SuppressWarnings("static-method")
+	protected ContainerState copyContainerState(final ContainerState otherContainerState)
+	{
+		return otherContainerState.deepClone();
+	}
+	
 	/**
 	 * To set on track indices.
 	 * @param otherOnTrackIndices The on track indices to set.
@@ -1095,6 +1130,16 @@ public class State implements Serializable
 		this.onTrackIndices = (otherOnTrackIndices == null ? null : new OnTrackIndices(otherOnTrackIndices));
 	}
 	
+	/**
+	 * To set on track indices without copying them. Only for callers that hand
+	 * over an object that nothing else refers to any more (see Move.undo()).
+	 * @param otherOnTrackIndices The on track indices to take over.
+	 */
+	public void takeOnTrackIndices(final OnTrackIndices otherOnTrackIndices)
+	{
+		this.onTrackIndices = otherOnTrackIndices;
+	}
+	
 	//-------------------------------------------------------------------------
 
 	/**
@@ -1738,6 +1783,16 @@ public class State implements Serializable
 		this.owned = owned.copy();
 	}
 	
+	/**
+	 * Set the owned structure without copying it. Only for callers that hand
+	 * over an object that nothing else refers to any more (see Move.undo()).
+	 * @param owned The owned structure to take over.
+	 */
+	public void takeOwned(final Owned owned)
+	{
+		this.owned = owned;
+	}
+	
 	/**
 	 * @return Owned sites per component
 	 */
@@ -2034,6 +2089,20 @@ public class State implements Serializable
 		return onTrackIndices;
 	}
 
+	/**
+	 * @param graph
+	 * @return Connectivity of pieces (on the first container) along the given
+	 * 	graph, synchronised with the current state.
+	 */
+	public PieceConnectivity pieceConnectivity(final ConnectivityGraph graph)
+	{
+		if (pieceConnectivity == null || pieceConnectivity.graph() != graph)
+			pieceConnectivity = new PieceConnectivity(graph, numPlayers());
+
+		pieceConnectivity.sync(containerStates[0]);
+		return pieceConnectivity;
+	}
+
 	//-------------------------------------------------------------------------
 	
 	/**
@@ -18,6 +18,7 @@ import other.state.State;
 import other.state.symmetry.SymmetryType;
 import other.state.symmetry.SymmetryUtils;
 import other.state.symmetry.SymmetryValidator;
+import other.state.zhash.HashedChunkSet;
 
 /**
  * Global State for a container item.
@@ -48,6 +49,9 @@ public abstract class BaseContainerState implements ContainerState
 	/** Offset for this state's container */
 	protected final int offset;
 	
+	/** Listener to notify of changes in empty sites (null if none). Not copied. */
+	private transient EmptySitesListener emptySitesListener = null;
+	
 	//-------------------------------------------------------------------------
 	
 	/**
@@ -93,6 +97,32 @@ public abstract class BaseContainerState implements ContainerState
 	{
 		this.container = other.container;
 		empty.set(other.empty);
+		notifyEmptySitesReset();
+	}
+	
+	/**
+	 * By default simply a deep copy; subclasses that can share data
+	 * between copies override this.
+	 */
+	@Override
+	public ContainerState copyOnWriteClone()
+	{
+		return deepClone();
+	}
+	
+	/**
+	 * Helper method for copy constructors of subclasses
+	 * 
+	 * @param other
+	 * @param copyOnWrite If true, we create a copy-on-write copy of the given chunk set
+	 * @return Copy of given chunk set (or null if it is null)
+	 */
+	protected static HashedChunkSet copyChunkSet(final HashedChunkSet other, final boolean copyOnWrite)
+	{
+		if (other == null)
+			return null;
+		
+		return copyOnWrite ? other.copyOnWriteClone() : other.clone();
 	}
 	
 	/**
@@ -104,6 +134,52 @@ public abstract class BaseContainerState implements ContainerState
 		final int numSites = container.numSites();
 		final int realNumsites = container.index() == 0 ? game.board().topology().cells().size() : numSites;
 		empty.set(realNumsites);
+		notifyEmptySitesReset();
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Sets the listener to notify whenever our empty sites change. Copies of
+	 * this container state do not inherit the listener.
+	 * 
+	 * @param listener The listener (null to remove the current one)
+	 */
+	public void setEmptySitesListener(final EmptySitesListener listener)
+	{
+		emptySitesListener = listener;
+	}
+	
+	/**
+	 * @return The listener we notify whenever our empty sites change (or null)
+	 */
+	public EmptySitesListener emptySitesListener()
+	{
+		return emptySitesListener;
+	}
+	
+	/**
+	 * Notifies our listener (if any) that a single site became empty or occupied.
+	 * Must be called by every method that adds or removes a single empty site.
+	 * 
+	 * @param region The region of empty sites that changed
+	 * @param idx Index of the site in the region
+	 * @param isEmpty
+	 */
+	protected final void notifyEmptySiteChanged(final Region region, final int idx, final boolean isEmpty)
+	{
+		if (emptySitesListener != null)
+			emptySitesListener.emptySiteChanged(region, idx, isEmpty);
+	}
+	
+	/**
+	 * Notifies our listener (if any) that our empty sites may have changed in
+	 * bulk. Must be called by every method that resets or copies empty sites.
+	 */
+	protected final void notifyEmptySitesReset()
+	{
+		if (emptySitesListener != null)
+			emptySitesListener.emptySitesReset();
 	}
 
 	//-------------------------------------------------------------------------
@@ -179,12 +255,14 @@ public abstract class BaseContainerState implements ContainerState
 	public void addToEmptyCell(final int site) 
 	{
 		empty.add(site - offset);
+		notifyEmptySiteChanged(empty, site - offset, true);
 	}
 
 	@Override
 	public void removeFromEmptyCell(final int site) 
 	{
 		empty.remove(site - offset);
+		notifyEmptySiteChanged(empty, site - offset, false);
 	}
 
 	@Override
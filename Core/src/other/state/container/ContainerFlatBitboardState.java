@@ -0,0 +1,285 @@
+package other.state.container;
+
+import game.Game;
+import game.equipment.component.Component;
+import game.equipment.container.Container;
+import game.types.board.SiteType;
+import main.Constants;
+import main.collections.ChunkSet;
+import other.state.State;
+import other.state.zhash.ZobristHashGenerator;
+
+/**
+ * Flat container state for boards with at most one piece per site, which
+ * additionally maintains bitboards: for every player a set of the sites
+ * with pieces they own, and for every component a set of the sites it is
+ * on. These
+ * allow region, count and line queries to be answered with bit operations
+ * instead of site-by-site loops.
+ *
+ * The bitboards are always derived from the who and what chunk sets of
+ * the flat state (they are not part of the hash, equals() or hashCode()).
+ *
+ * @author Dennis Soemers
+ */
+public class ContainerFlatBitboardState extends ContainerFlatState
+{
+
+	//-------------------------------------------------------------------------
+
+	/** */
+	private static final long serialVersionUID = 1L;
+
+	/** Maximum number of sites for which we use bitboards */
+	public static final int MAX_SITES = 128;
+
+	//-------------------------------------------------------------------------
+
+	/** For every component (or what value), the player who owns it */
+	private final int[] owners;
+
+	/** For every player (including Shared), the sites with pieces owned by that player */
+	private ChunkSet[] whoBits;
+
+	/** For every component (or what value), the sites it is on */
+	private ChunkSet[] whatBits;
+
+	/** 
+	 * If true, our bitboards may be shared with other states (see
+	 * copyOnWriteClone()), and we must copy them before we modify them.
+	 * Volatile for the same reason as in HashedChunkSet.
+	 */
+	private transient volatile boolean sharedBitboards = false;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 *
+	 * @param generator
+	 * @param game
+	 * @param container
+	 * @param numSites
+	 * @param maxWhatVal
+	 * @param maxStateVal
+	 * @param maxRotationVal
+	 * @param maxPieceValue
+	 */
+	public ContainerFlatBitboardState
+	(
+		final ZobristHashGenerator generator,
+		final Game game,
+		final Container container,
+		final int numSites,
+		final int maxWhatVal,
+		final int maxStateVal,
+		final int maxRotationVal,
+		final int maxPieceValue
+	)
+	{
+		super
+		(
+			generator, game, container, numSites, maxWhatVal,
+			maxStateVal, Constants.UNDEFINED, maxRotationVal, maxPieceValue
+		);
+
+		final int numPlayers = game.players().count();
+
+		// NOTE: we use the owners of components rather than who values: without
+		// a what chunk set, the who chunk set stores component indices instead
+		final Component[] components = game.equipment().components();
+		owners = new int[components.length];
+		for (int i = 1; i < components.length; ++i)
+			owners[i] = components[i].owner();
+
+		// Owners go up to numPlayers + 1 (for Shared pieces)
+		whoBits = new ChunkSet[numPlayers + 2];
+		for (int i = 0; i < whoBits.length; ++i)
+			whoBits[i] = new ChunkSet(1, numSites);
+
+		whatBits = new ChunkSet[components.length];
+		for (int i = 0; i < whatBits.length; ++i)
+			whatBits[i] = new ChunkSet(1, numSites);
+	}
+
+	/**
+	 * Copy constructor.
+	 *
+	 * @param other
+	 * @param copyOnWrite If true, we share chunk sets with other until they are modified
+	 */
+	protected ContainerFlatBitboardState(final ContainerFlatBitboardState other, final boolean copyOnWrite)
+	{
+		super(other, copyOnWrite);
+
+		owners = other.owners;
+
+		if (copyOnWrite)
+		{
+			other.sharedBitboards = true;
+			whoBits = other.whoBits;
+			whatBits = other.whatBits;
+			sharedBitboards = true;
+		}
+		else
+		{
+			whoBits = cloneBitboards(other.whoBits);
+			whatBits = cloneBitboards(other.whatBits);
+		}
+	}
+
+	@Override
+	public ContainerFlatBitboardState deepClone()
+	{
+		return new ContainerFlatBitboardState(this, false);
+	}
+
+	@Override
+	public ContainerFlatBitboardState copyOnWriteClone()
+	{
+		return new ContainerFlatBitboardState(this, true);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param game
+	 * @param container
+	 * @return True if we can (and want to) use a bitboard state for given container
+	 */
+	public static boolean supports(final Game game, final Container container)
+	{
+		return
+			(
+				container.index() == 0 &&
+				!container.isHand() &&
+				!game.isStacking() &&
+				!game.isGraphGame() &&
+				!game.requiresCount() &&
+				!game.hasLargePiece() &&
+				!game.isDeductionPuzzle() &&
+				container.numSites() <= MAX_SITES
+			);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param bitboards
+	 * @return Deep copy of given array of bitboards
+	 */
+	private static ChunkSet[] cloneBitboards(final ChunkSet[] bitboards)
+	{
+		final ChunkSet[] copy = new ChunkSet[bitboards.length];
+		for (int i = 0; i < copy.length; ++i)
+			copy[i] = bitboards[i].clone();
+		return copy;
+	}
+
+	/**
+	 * Makes sure that we have our own copies of the bitboards, so that we
+	 * can modify them.
+	 */
+	private void ensureOwnBitboards()
+	{
+		if (sharedBitboards)
+		{
+			whoBits = cloneBitboards(whoBits);
+			whatBits = cloneBitboards(whatBits);
+			sharedBitboards = false;
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	@Override
+	public void reset(final State trialState, final Game game)
+	{
+		super.reset(trialState, game);
+		ensureOwnBitboards();
+
+		for (final ChunkSet bits : whoBits)
+			bits.clear();
+
+		for (final ChunkSet bits : whatBits)
+			bits.clear();
+	}
+
+	@Override
+	public void setSite
+	(
+		final State trialState, final int site, final int whoVal, final int whatVal,
+		final int countVal, final int stateVal, final int rotationVal, final int valueVal, final SiteType type
+	)
+	{
+		final int oldWhat = whatCell(site);
+		final int oldWho = owners[oldWhat];
+
+		super.setSite(trialState, site, whoVal, whatVal, countVal, stateVal, rotationVal, valueVal, type);
+
+		final int newWhat = whatCell(site);
+		final int newWho = owners[newWhat];
+
+		if (oldWho != newWho || oldWhat != newWhat)
+			ensureOwnBitboards();
+
+		if (oldWho != newWho)
+		{
+			if (oldWho != 0)
+				whoBits[oldWho].clear(site - offset);
+			if (newWho != 0)
+				whoBits[newWho].set(site - offset);
+		}
+
+		if (oldWhat != newWhat)
+		{
+			if (oldWhat != 0)
+				whatBits[oldWhat].clear(site - offset);
+			if (newWhat != 0)
+				whatBits[newWhat].set(site - offset);
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * NOTE: returns our internal bitboard, which should not be modified!
+	 *
+	 * @param player
+	 * @return Sites with pieces owned by given player
+	 */
+	public ChunkSet whoBitboard(final int player)
+	{
+		return whoBits[player];
+	}
+
+	/**
+	 * NOTE: returns our internal bitboard, which should not be modified!
+	 *
+	 * @param whatVal
+	 * @return Sites with given what value (component index)
+	 */
+	public ChunkSet whatBitboard(final int whatVal)
+	{
+		return whatBits[whatVal];
+	}
+
+	/**
+	 * @return Number of entries for which we have who bitboards
+	 */
+	public int numWhoBitboards()
+	{
+		return whoBits.length;
+	}
+
+	/**
+	 * @return Number of entries for which we have what bitboards
+	 */
+	public int numWhatBitboards()
+	{
+		return whatBits.length;
+	}
+
+	//-------------------------------------------------------------------------
+
+}
@@ -152,6 +152,17 @@ public class ContainerFlatEdgeState extends BaseContainerState
 	 * @param other
 	 */
 	public ContainerFlatEdgeState(final ContainerFlatEdgeState other)
+	{
+		this(other, false);
+	}
+
+	/**
+	 * Copy constructor.
+	 *
+	 * @param other
+	 * @param copyOnWrite If true, we share chunk sets with other until they are modified
+	 */
+	protected ContainerFlatEdgeState(final ContainerFlatEdgeState other, final boolean copyOnWrite)
 	{
 		super(other);
 
@@ -197,12 +208,12 @@ public class ContainerFlatEdgeState extends BaseContainerState
 			hiddenStateEdge = null;
 		}
 
-		this.whoEdge = (other.whoEdge == null) ? null : other.whoEdge.clone();
-		this.whatEdge = (other.whatEdge == null) ? null : other.whatEdge.clone();
-		this.countEdge = (other.countEdge == null) ? null : other.countEdge.clone();
-		this.stateEdge = (other.stateEdge == null) ? null : other.stateEdge.clone();
-		this.rotationEdge = (other.rotationEdge == null) ? null : other.rotationEdge.clone();
-		this.valueEdge = (other.valueEdge == null) ? null : other.valueEdge.clone();
+		this.whoEdge = copyChunkSet(other.whoEdge, copyOnWrite);
+		this.whatEdge = copyChunkSet(other.whatEdge, copyOnWrite);
+		this.countEdge = copyChunkSet(other.countEdge, copyOnWrite);
+		this.stateEdge = copyChunkSet(other.stateEdge, copyOnWrite);
+		this.rotationEdge = copyChunkSet(other.rotationEdge, copyOnWrite);
+		this.valueEdge = copyChunkSet(other.valueEdge, copyOnWrite);
 		this.emptyEdge = (other.emptyEdge == null) ? null : new Region(other.emptyEdge);
 	}
 
@@ -212,6 +223,12 @@ public class ContainerFlatEdgeState extends BaseContainerState
 		return new ContainerFlatEdgeState(this);
 	}
 
+	@Override
+	public ContainerFlatEdgeState copyOnWriteClone()
+	{
+		return new ContainerFlatEdgeState(this, true);
+	}
+
 	//-------------------------------------------------------------------------
 
 	@Override
@@ -1240,12 +1257,14 @@ public class ContainerFlatEdgeState extends BaseContainerState
 	public void addToEmpty(final int site, final SiteType graphType)
 	{
 		emptyEdge.add(site);
+		notifyEmptySiteChanged(emptyEdge, site, true);
 	}
 
 	@Override
 	public void removeFromEmpty(final int site, final SiteType graphType)
 	{
 		emptyEdge.remove(site);
+		notifyEmptySiteChanged(emptyEdge, site, false);
 	}
 
 	@Override
@@ -1276,12 +1295,14 @@ public class ContainerFlatEdgeState extends BaseContainerState
 	public void addToEmptyCell(final int site)
 	{
 		emptyEdge.add(site);
+		notifyEmptySiteChanged(emptyEdge, site, true);
 	}
 
 	@Override
 	public void removeFromEmptyCell(final int site)
 	{
 		emptyEdge.remove(site);
+		notifyEmptySiteChanged(emptyEdge, site, false);
 	}
 
 	//-------------------------------------------------------------------------
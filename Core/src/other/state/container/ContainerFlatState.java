@@ -158,10 +158,21 @@ public class ContainerFlatState extends BaseContainerState
 	 * @param other
 	 */
 	public ContainerFlatState(final ContainerFlatState other)
+	{
+		this(other, false);
+	}
+
+	/**
+	 * Copy constructor.
+	 *
+	 * @param other
+	 * @param copyOnWrite If true, we share chunk sets with other until they are modified
+	 */
+	protected ContainerFlatState(final ContainerFlatState other, final boolean copyOnWrite)
 	{
 		super(other);
 
-		who = (other.who == null) ? null : other.who.clone();
+		who = copyChunkSet(other.who, copyOnWrite);
 
 		if (other.hidden != null)
 		{
@@ -205,11 +216,11 @@ public class ContainerFlatState extends BaseContainerState
 		}
 
 		playable = (other.playable == null) ? null : other.playable.clone();
-		what = (other.what == null) ? null : other.what.clone();
-		count = (other.count == null) ? null : other.count.clone();
-		state = (other.state == null) ? null : other.state.clone();
-		rotation = (other.rotation == null) ? null : other.rotation.clone();
-		value = (other.value == null) ? null : other.value.clone();
+		what = copyChunkSet(other.what, copyOnWrite);
+		count = copyChunkSet(other.count, copyOnWrite);
+		state = copyChunkSet(other.state, copyOnWrite);
+		rotation = copyChunkSet(other.rotation, copyOnWrite);
+		value = copyChunkSet(other.value, copyOnWrite);
 	}
 
 	@Override
@@ -218,6 +229,12 @@ public class ContainerFlatState extends BaseContainerState
 		return new ContainerFlatState(this);
 	}
 	
+	@Override
+	public ContainerFlatState copyOnWriteClone()
+	{
+		return new ContainerFlatState(this, true);
+	}
+	
 	//-------------------------------------------------------------------------
 
 	@Override
@@ -152,6 +152,17 @@ public class ContainerFlatVertexState extends BaseContainerState
 	 * @param other
 	 */
 	public ContainerFlatVertexState(final ContainerFlatVertexState other)
+	{
+		this(other, false);
+	}
+
+	/**
+	 * Copy constructor.
+	 *
+	 * @param other
+	 * @param copyOnWrite If true, we share chunk sets with other until they are modified
+	 */
+	protected ContainerFlatVertexState(final ContainerFlatVertexState other, final boolean copyOnWrite)
 	{
 		super(other);
 
@@ -197,12 +208,12 @@ public class ContainerFlatVertexState extends BaseContainerState
 			hiddenStateVertex = null;
 		}
 
-		this.whoVertex = (other.whoVertex == null) ? null : other.whoVertex.clone();
-		this.whatVertex = (other.whatVertex == null) ? null : other.whatVertex.clone();
-		this.countVertex = (other.countVertex == null) ? null : other.countVertex.clone();
-		this.stateVertex = (other.stateVertex == null) ? null : other.stateVertex.clone();
-		this.rotationVertex = (other.rotationVertex == null) ? null : other.rotationVertex.clone();
-		this.valueVertex = (other.valueVertex == null) ? null : other.valueVertex.clone();
+		this.whoVertex = copyChunkSet(other.whoVertex, copyOnWrite);
+		this.whatVertex = copyChunkSet(other.whatVertex, copyOnWrite);
+		this.countVertex = copyChunkSet(other.countVertex, copyOnWrite);
+		this.stateVertex = copyChunkSet(other.stateVertex, copyOnWrite);
+		this.rotationVertex = copyChunkSet(other.rotationVertex, copyOnWrite);
+		this.valueVertex = copyChunkSet(other.valueVertex, copyOnWrite);
 		this.emptyVertex = (other.emptyVertex == null) ? null : new Region(other.emptyVertex);
 	}
 
@@ -212,6 +223,12 @@ public class ContainerFlatVertexState extends BaseContainerState
 		return new ContainerFlatVertexState(this);
 	}
 
+	@Override
+	public ContainerFlatVertexState copyOnWriteClone()
+	{
+		return new ContainerFlatVertexState(this, true);
+	}
+
 	//-------------------------------------------------------------------------
 
 	@Override
@@ -1244,12 +1261,14 @@ public class ContainerFlatVertexState extends BaseContainerState
 	public void addToEmpty(final int site, final SiteType graphType)
 	{
 		emptyVertex.add(site);
+		notifyEmptySiteChanged(emptyVertex, site, true);
 	}
 
 	@Override
 	public void removeFromEmpty(final int site, final SiteType graphType)
 	{
 		emptyVertex.remove(site);
+		notifyEmptySiteChanged(emptyVertex, site, false);
 	}
 
 	@Override
@@ -1280,12 +1299,14 @@ public class ContainerFlatVertexState extends BaseContainerState
 	public void addToEmptyCell(final int site)
 	{
 		emptyVertex.add(site);
+		notifyEmptySiteChanged(emptyVertex, site, true);
 	}
 
 	@Override
 	public void removeFromEmptyCell(final int site)
 	{
 		emptyVertex.remove(site);
+		notifyEmptySiteChanged(emptyVertex, site, false);
 	}
 
 	//-------------------------------------------------------------------------
@@ -225,7 +225,18 @@ public class ContainerGraphState extends ContainerFlatState
 	 */
 	private ContainerGraphState(final ContainerGraphState other)
 	{
-		super(other);
+		this(other, false);
+	}
+
+	/**
+	 * Copy constructor.
+	 * 
+	 * @param other
+	 * @param copyOnWrite If true, we share chunk sets with other until they are modified
+	 */
+	private ContainerGraphState(final ContainerGraphState other, final boolean copyOnWrite)
+	{
+		super(other, copyOnWrite);
 
 		if (other.hiddenEdge != null)
 		{
@@ -311,23 +322,23 @@ public class ContainerGraphState extends ContainerFlatState
 			hiddenStateVertex = null;
 		}
 
-		this.whoEdge   = (other.whoEdge == null) ? null : other.whoEdge.clone();
-		this.whoVertex = (other.whoVertex == null) ? null : other.whoVertex.clone();
+		this.whoEdge   = copyChunkSet(other.whoEdge, copyOnWrite);
+		this.whoVertex = copyChunkSet(other.whoVertex, copyOnWrite);
 
-		this.whatEdge   = (other.whatEdge == null) ? null : other.whatEdge.clone();
-		this.whatVertex = (other.whatVertex == null) ? null : other.whatVertex.clone();
+		this.whatEdge   = copyChunkSet(other.whatEdge, copyOnWrite);
+		this.whatVertex = copyChunkSet(other.whatVertex, copyOnWrite);
 
-		this.countEdge   = (other.countEdge == null) ? null : other.countEdge.clone();
-		this.countVertex = (other.countVertex == null) ? null : other.countVertex.clone();
+		this.countEdge   = copyChunkSet(other.countEdge, copyOnWrite);
+		this.countVertex = copyChunkSet(other.countVertex, copyOnWrite);
 
-		this.stateEdge   = (other.stateEdge == null) ? null : other.stateEdge.clone();
-		this.stateVertex = (other.stateVertex == null) ? null : other.stateVertex.clone();
+		this.stateEdge   = copyChunkSet(other.stateEdge, copyOnWrite);
+		this.stateVertex = copyChunkSet(other.stateVertex, copyOnWrite);
 
-		this.rotationEdge   = (other.rotationEdge == null) ? null : other.rotationEdge.clone();
-		this.rotationVertex = (other.rotationVertex == null) ? null : other.rotationVertex.clone();
+		this.rotationEdge   = copyChunkSet(other.rotationEdge, copyOnWrite);
+		this.rotationVertex = copyChunkSet(other.rotationVertex, copyOnWrite);
 
-		this.valueVertex = (other.valueVertex == null) ? null : other.valueVertex.clone();
-		this.valueEdge = (other.valueEdge == null) ? null : other.valueEdge.clone();
+		this.valueVertex = copyChunkSet(other.valueVertex, copyOnWrite);
+		this.valueEdge = copyChunkSet(other.valueEdge, copyOnWrite);
 
 		this.emptyEdge = (other.emptyEdge == null) ? null : new Region(other.emptyEdge);
 		this.emptyVertex = (other.emptyVertex == null) ? null : new Region(other.emptyVertex);
@@ -339,6 +350,12 @@ public class ContainerGraphState extends ContainerFlatState
 		return new ContainerGraphState(this);
 	}
 
+	@Override
+	public ContainerGraphState copyOnWriteClone()
+	{
+		return new ContainerGraphState(this, true);
+	}
+
 	@Override
 	public void reset(final State trialState, final Game game)
 	{
@@ -1157,22 +1174,40 @@ public class ContainerGraphState extends ContainerFlatState
 	public void addToEmpty(final int site, final SiteType type)
 	{
 		if (type.equals(SiteType.Cell))
+		{
 			empty.add(site - offset);
+			notifyEmptySiteChanged(empty, site - offset, true);
+		}
 		else if (type.equals(SiteType.Edge))
+		{
 			emptyEdge.add(site);
+			notifyEmptySiteChanged(emptyEdge, site, true);
+		}
 		else
+		{
 			emptyVertex.add(site);
+			notifyEmptySiteChanged(emptyVertex, site, true);
+		}
 	}
 
 	@Override
 	public void removeFromEmpty(final int site, final SiteType type)
 	{
 		if (type.equals(SiteType.Cell))
+		{
 			empty.remove(site - offset);
+			notifyEmptySiteChanged(empty, site - offset, false);
+		}
 		else if (type.equals(SiteType.Edge))
+		{
 			emptyEdge.remove(site);
+			notifyEmptySiteChanged(emptyEdge, site, false);
+		}
 		else
+		{
 			emptyVertex.remove(site);
+			notifyEmptySiteChanged(emptyVertex, site, false);
+		}
 	}
 
 	@Override
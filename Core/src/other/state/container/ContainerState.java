@@ -55,6 +55,12 @@ public interface ContainerState extends Serializable
 	 * @return Deep copy of self.
 	 */
 	public ContainerState deepClone();
+	
+	/**
+	 * @return Copy of self which may share data with this container state
+	 * 	until either of the two is modified (used by CopyOnWriteState). 
+	 */
+	public ContainerState copyOnWriteClone();
 
 	//-------------------------------------------------------------------------
 
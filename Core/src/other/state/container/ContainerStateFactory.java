@@ -137,6 +137,10 @@ public class ContainerStateFactory
 					maxRotationVal, maxPieceValue);
 		}
 
+		if (ContainerFlatBitboardState.supports(game, container))
+			return new ContainerFlatBitboardState(generator, game, container, numChunks, maxWhatVal, maxStateVal,
+					maxRotationVal, maxPieceValue);
+
 		return new ContainerFlatState(generator, game, container, numChunks, maxWhatVal, maxStateVal, maxCountVal,
 				maxRotationVal, maxPieceValue);
 	}
@@ -0,0 +1,31 @@
+package other.state.container;
+
+import game.util.equipment.Region;
+
+/**
+ * Listener that a container state notifies whenever its sets of empty sites
+ * change (see BaseContainerState.setEmptySitesListener()).
+ *
+ * @author Dennis Soemers
+ */
+public interface EmptySitesListener
+{
+
+	/**
+	 * Called whenever a single site was added to, or removed from, one of the
+	 * regions of empty sites (as returned by ContainerState.emptyRegion()).
+	 * May also be called if the site already was (non-)empty.
+	 *
+	 * @param region The region of empty sites that changed
+	 * @param idx Index of the site in the region
+	 * @param empty True if the site is now empty, false if it is now occupied
+	 */
+	public void emptySiteChanged(final Region region, final int idx, final boolean empty);
+
+	/**
+	 * Called whenever the empty sites may have changed in bulk (reset of the
+	 * container state, or copy of a different container state into it).
+	 */
+	public void emptySitesReset();
+
+}
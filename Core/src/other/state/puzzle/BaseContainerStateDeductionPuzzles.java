@@ -66,6 +66,12 @@ public abstract class BaseContainerStateDeductionPuzzles implements ContainerSta
 	
 	//-------------------------------------------------------------------------
 	
+	@Override
+	public ContainerState copyOnWriteClone()
+	{
+		return deepClone();
+	}
+	
 	/**
 	 * Reset this state.
 	 */
@@ -1047,22 +1047,40 @@ public class ContainerGraphStateStacks extends ContainerStateStacks
 	public void addToEmpty(final int site, final SiteType graphType)
 	{
 		if (graphType.equals(SiteType.Cell))
+		{
 			empty.add(site - offset);
+			notifyEmptySiteChanged(empty, site - offset, true);
+		}
 		else if (graphType.equals(SiteType.Edge))
+		{
 			emptyEdge.add(site);
+			notifyEmptySiteChanged(emptyEdge, site, true);
+		}
 		else
+		{
 			emptyVertex.add(site);
+			notifyEmptySiteChanged(emptyVertex, site, true);
+		}
 	}
 
 	@Override
 	public void removeFromEmpty(final int site, final SiteType graphType)
 	{
 		if (graphType.equals(SiteType.Cell))
+		{
 			empty.remove(site - offset);
+			notifyEmptySiteChanged(empty, site - offset, false);
+		}
 		else if (graphType.equals(SiteType.Edge))
+		{
 			emptyEdge.remove(site);
+			notifyEmptySiteChanged(emptyEdge, site, false);
+		}
 		else
+		{
 			emptyVertex.remove(site);
+			notifyEmptySiteChanged(emptyVertex, site, false);
+		}
 	}
 
 	@Override
@@ -19,9 +19,18 @@ public class HashedChunkSet implements Serializable
 	private static final long serialVersionUID = 1L;
 	
 	/** Which sites are hidden to which players. */
-	private final ChunkSet internalState;
+	private ChunkSet internalState;
 	private final long[][] hashes;
 	
+	/** 
+	 * If true, our internal state may be shared with other HashedChunkSets (see
+	 * copyOnWriteClone()), and we must copy it before we modify it. 
+	 * 
+	 * Volatile because copyOnWriteClone() also sets it in the object that is
+	 * copied, which may belong to a different thread than the one copying it.
+	 */
+	private transient volatile boolean sharedInternalState = false;
+	
 	/**
 	 * @param generator
 	 * @param maxChunkVal
@@ -53,6 +62,35 @@ public class HashedChunkSet implements Serializable
 		this.internalState = that.internalState.clone();
 		this.hashes = that.hashes;	// Safe to just store a reference
 	}
+	
+	/**
+	 * Copy constructor, used by copyOnWriteClone(). Shares the internal state
+	 * with the given object; whichever of the two objects is modified first
+	 * will copy it at that point.
+	 * 
+	 * @param that
+	 * @param copyOnWrite Dummy parameter to distinguish from the deep-copy constructor
+	 */
+	private HashedChunkSet(final HashedChunkSet that, @SuppressWarnings("unused") final boolean copyOnWrite) 
+	{
+		that.sharedInternalState = true;
+		this.internalState = that.internalState;
+		this.hashes = that.hashes;
+		this.sharedInternalState = true;
+	}
+	
+	/**
+	 * Makes sure that we have our own copy of the internal state, before
+	 * we modify it.
+	 */
+	private void ensureOwnInternalState()
+	{
+		if (sharedInternalState)
+		{
+			internalState = internalState.clone();
+			sharedInternalState = false;
+		}
+	}
 
 	/* ----------------------------------------------------------------------------------------------------
 	 * The following methods change state, and therefore need to manage the hash value
@@ -68,6 +106,7 @@ public class HashedChunkSet implements Serializable
 		for (int site = 0; site < hashes.length; site++)
 			hashDelta ^= hashes[site][internalState.getChunk(site)];
 		
+		ensureOwnInternalState();
 		internalState.clear();
 		
 		trialState.updateStateHash(hashDelta);
@@ -136,6 +175,7 @@ public class HashedChunkSet implements Serializable
 		for (int site = 0; site < hashes.length; site++)
 			hashDelta ^= hashes[site][internalState.getChunk(site)] ^ hashes[site][src.internalState.getChunk(site)];
 		
+		ensureOwnInternalState();
 		internalState.clear();
 		internalState.or(src.internalState);
 		
@@ -150,6 +190,7 @@ public class HashedChunkSet implements Serializable
 	 */
 	public void setBit(final State trialState, final int chunk, final int bit, final boolean value) 
 	{
+		ensureOwnInternalState();
 		long hashDelta = hashes[chunk][internalState.getChunk(chunk)];		
 		internalState.setBit(chunk, bit, value);
 		hashDelta ^= hashes[chunk][internalState.getChunk(chunk)];
@@ -164,6 +205,7 @@ public class HashedChunkSet implements Serializable
 	 */
 	public void setChunk(final State trialState, final int site, final int val)
 	{
+		ensureOwnInternalState();
 		long hashDelta = hashes[site][internalState.getAndSetChunk(site, val)];		
 		hashDelta ^= hashes[site][val];
 
@@ -179,6 +221,22 @@ public class HashedChunkSet implements Serializable
 	{
 		return new HashedChunkSet(this);
 	}
+	
+	/**
+	 * NOTE: the returned object shares its internal state with this object,
+	 * until either of them is modified. This makes the copy cheap if only few
+	 * of the copied chunk sets are ever modified (e.g. in playouts on copies
+	 * of contexts). Several threads may copy the same object at the same
+	 * time, and each thread may then modify its own copy. Like any other
+	 * copy, it is not safe to copy an object while another thread is
+	 * modifying that same object.
+	 * 
+	 * @return Copy-on-write copy of this object
+	 */
+	public HashedChunkSet copyOnWriteClone()
+	{
+		return new HashedChunkSet(this, true);
+	}
 
 	/**
 	 * @return copy of the internal state of this hashed chunkset
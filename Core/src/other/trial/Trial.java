@@ -30,6 +30,7 @@ import main.collections.FastTLongArrayList;
 import other.UndoData;
 import other.context.Context;
 import other.context.TempContext;
+import other.move.IncrementalLegalMoves;
 import other.move.Move;
 import other.move.MoveSequence;
 import other.state.State;
@@ -88,6 +89,13 @@ public class Trial implements Serializable
 	 * simulations for example)
 	 */
 	protected transient AuxilTrialData auxilTrialData = null;
+	
+	/**
+	 * Incrementally maintained legal moves (only used if enabled for the game,
+	 * see Game.setIncrementalLegalMoves()). Created lazily, and intentionally
+	 * not copied by the copy constructor; copies simply build their own.
+	 */
+	private transient IncrementalLegalMoves incrementalLegalMoves = null;
 
 	//------------------------------Data used to undo--------------------------------
 	
@@ -96,6 +104,14 @@ public class Trial implements Serializable
 	 */
 	private List<UndoData> endData = null;
 	
+	/**
+	 * Number of entries at the start of endData that are shared with other
+	 * trials, because one was copied from the other. Their snapshots must
+	 * not be modified. Volatile because copying a trial writes it in the
+	 * trial that is copied from.
+	 */
+	private volatile int numSharedEndData = 0;
+	
 	/**
 	 * The list of all the RNG states at each state.
 	 */
@@ -165,6 +181,8 @@ public class Trial implements Serializable
 		{
 			endData = new ArrayList<UndoData>(other.endData);
 			RNGStates = new ArrayList<RandomProviderState>(other.RNGStates);
+			numSharedEndData = endData.size();
+			other.numSharedEndData = endData.size();
 		}
 	}
 	
@@ -196,6 +214,8 @@ public class Trial implements Serializable
 		ranking = Arrays.copyOf(trial.ranking, trial.ranking.length);
 		endData = new ArrayList<UndoData>(trial.endData);
 		RNGStates = new ArrayList<RandomProviderState>(trial.RNGStates);
+		numSharedEndData = endData.size();
+		trial.numSharedEndData = endData.size();
 	}
 
 	//-------------------------------------------------------------------------
@@ -273,6 +293,19 @@ public class Trial implements Serializable
 		status = res;
 	}
 
+	/**
+	 * @param numPlayers
+	 * @return Incrementally maintained legal moves for this trial (created if
+	 * 	we did not have them yet)
+	 */
+	public IncrementalLegalMoves incrementalLegalMoves(final int numPlayers)
+	{
+		if (incrementalLegalMoves == null)
+			incrementalLegalMoves = new IncrementalLegalMoves(numPlayers);
+		
+		return incrementalLegalMoves;
+	}
+
 	/**
 	 * @return Cached legal moves
 	 */
@@ -1017,6 +1050,17 @@ public class Trial implements Serializable
 	public void removeLastEndData()
 	{
 		endData.remove(endData.size()-1);
+		if (numSharedEndData > endData.size())
+			numSharedEndData = endData.size();
+	}
+	
+	/**
+	 * @return True if the last end data is not shared with any other trial,
+	 * 	so its snapshots may be taken over when it is removed.
+	 */
+	public boolean ownsLastEndData()
+	{
+		return endData.size() > numSharedEndData;
 	}
 	
 	/**
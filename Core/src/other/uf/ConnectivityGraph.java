@@ -0,0 +1,150 @@
+package other.uf;
+
+import java.util.List;
+
+import game.types.board.SiteType;
+import game.util.directions.AbsoluteDirection;
+import game.util.graph.Step;
+import gnu.trove.list.array.TIntArrayList;
+import other.topology.Topology;
+
+/**
+ * Immutable graph of sites of one type, in which two sites are neighbours
+ * if there is a step between them in any of a given list of absolute
+ * directions. Used by PieceConnectivity to determine which pieces are
+ * connected to each other.
+ *
+ * Instances are shared by all ludemes that use the same site type and
+ * directions (see Game.connectivityGraph()).
+ *
+ * @author Dennis Soemers
+ */
+public final class ConnectivityGraph
+{
+
+	//-------------------------------------------------------------------------
+
+	/** Type of sites in this graph */
+	private final SiteType type;
+
+	/** Directions in which we look for neighbours */
+	private final List<AbsoluteDirection> directions;
+
+	/** For every site, its neighbours */
+	private final int[][] neighbours;
+
+	/** True if, for every site, that site is also a neighbour of all its neighbours */
+	private final boolean symmetric;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 * @param topology
+	 * @param type
+	 * @param directions
+	 */
+	public ConnectivityGraph(final Topology topology, final SiteType type, final List<AbsoluteDirection> directions)
+	{
+		this.type = type;
+		this.directions = directions;
+
+		final int numSites = topology.getGraphElements(type).size();
+		neighbours = new int[numSites][];
+
+		for (int site = 0; site < numSites; ++site)
+		{
+			final TIntArrayList siteNeighbours = new TIntArrayList();
+
+			for (final AbsoluteDirection direction : directions)
+			{
+				for (final Step step : topology.trajectories().steps(type, site, type, direction))
+				{
+					final int to = step.to().id();
+					if (to != site && !siteNeighbours.contains(to))
+						siteNeighbours.add(to);
+				}
+			}
+
+			neighbours[site] = siteNeighbours.toArray();
+		}
+
+		boolean isSymmetric = true;
+		outer:
+		for (int site = 0; site < numSites; ++site)
+		{
+			for (final int neighbour : neighbours[site])
+			{
+				boolean found = false;
+				for (final int neighbourOfNeighbour : neighbours[neighbour])
+				{
+					if (neighbourOfNeighbour == site)
+					{
+						found = true;
+						break;
+					}
+				}
+
+				if (!found)
+				{
+					isSymmetric = false;
+					break outer;
+				}
+			}
+		}
+
+		symmetric = isSymmetric;
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @param otherType
+	 * @param otherDirections
+	 * @return True if this graph was built for the given type and directions
+	 */
+	public boolean matches(final SiteType otherType, final List<AbsoluteDirection> otherDirections)
+	{
+		return type == otherType && directions.equals(otherDirections);
+	}
+
+	/**
+	 * @return Type of sites in this graph
+	 */
+	public SiteType type()
+	{
+		return type;
+	}
+
+	/**
+	 * @return Number of sites in this graph
+	 */
+	public int numSites()
+	{
+		return neighbours.length;
+	}
+
+	/**
+	 * @param site
+	 * @return Neighbours of given site (should not be modified)
+	 */
+	public int[] neighbours(final int site)
+	{
+		return neighbours[site];
+	}
+
+	/**
+	 * Only symmetric graphs can be used for connectivity of pieces, since
+	 * groups of pieces found by search along asymmetric relations may
+	 * depend on where the search starts.
+	 *
+	 * @return True if this graph is symmetric
+	 */
+	public boolean isSymmetric()
+	{
+		return symmetric;
+	}
+
+	//-------------------------------------------------------------------------
+
+}
@@ -0,0 +1,308 @@
+package other.uf;
+
+import game.types.board.SiteType;
+import gnu.trove.list.array.TIntArrayList;
+import main.collections.ChunkSet;
+import other.state.container.ContainerFlatBitboardState;
+import other.state.container.ContainerState;
+
+/**
+ * Disjoint-set (union-find) structure over the pieces on the board, in
+ * which two pieces are in the same group if they have the same owner and
+ * are connected through neighbours (in a ConnectivityGraph) with that same
+ * owner. For every group, we keep the set of all its sites, so that we can
+ * quickly check which regions a group touches.
+ *
+ * The structure is synchronised lazily with a container state, whenever
+ * we call sync(). Pieces that were added since the last synchronisation
+ * are simply merged into their neighbours' groups. For pieces that were
+ * removed (or changed owner), we roll back all unions in reverse order of
+ * insertion, until all of those pieces are removed, and then re-add the
+ * remaining pieces that we had to roll back. This means that undoing the
+ * last move only costs the rollback of the last added piece, and that
+ * the structure is correct regardless of how the state changed.
+ *
+ * We use union by size without path compression, so that every union can
+ * be rolled back in constant time.
+ *
+ * @author Dennis Soemers
+ */
+public final class PieceConnectivity
+{
+
+	//-------------------------------------------------------------------------
+
+	/** Graph that determines which sites are neighbours */
+	private final ConnectivityGraph graph;
+
+	/** Number of players (pieces owned by other values are not tracked) */
+	private final int numPlayers;
+
+	/** Parent of every site in its tree (-1 for sites without a tracked piece) */
+	private final int[] parent;
+
+	/** For every root, the number of sites in its tree */
+	private final int[] size;
+
+	/** For every site we track, the owner of its piece */
+	private final int[] owner;
+
+	/** For every root, the sites in its tree (also remembered for former roots) */
+	private final ChunkSet[] members;
+
+	/** For every player, the sites we track with pieces owned by that player */
+	private final ChunkSet[] trackedPerPlayer;
+
+	/** All the sites we track */
+	private final ChunkSet tracked;
+
+	/** Sites in order of insertion */
+	private final int[] insertionStack;
+
+	/** Number of sites on the insertion stack */
+	private int insertionStackSize = 0;
+
+	/** For every entry of the insertion stack, the index of its first union in unionChildren */
+	private final int[] unionsStart;
+
+	/** For every union we performed, the root that was attached below another root */
+	private final TIntArrayList unionChildren = new TIntArrayList();
+
+	/** Reusable set of sites that changed since the last synchronisation */
+	private final ChunkSet changedSites;
+
+	/** Reusable set of sites with pieces that we do not track yet */
+	private final ChunkSet untrackedSites;
+
+	/** Reusable list of sites that we rolled back, but need to re-add */
+	private final TIntArrayList sitesToReAdd = new TIntArrayList();
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Constructor
+	 * @param graph
+	 * @param numPlayers
+	 */
+	public PieceConnectivity(final ConnectivityGraph graph, final int numPlayers)
+	{
+		this.graph = graph;
+		this.numPlayers = numPlayers;
+
+		final int numSites = graph.numSites();
+		parent = new int[numSites];
+		size = new int[numSites];
+		owner = new int[numSites];
+		members = new ChunkSet[numSites];
+		insertionStack = new int[numSites];
+		unionsStart = new int[numSites];
+
+		for (int site = 0; site < numSites; ++site)
+			parent[site] = -1;
+
+		trackedPerPlayer = new ChunkSet[numPlayers + 1];
+		for (int p = 1; p <= numPlayers; ++p)
+			trackedPerPlayer[p] = new ChunkSet(1, numSites);
+
+		tracked = new ChunkSet(1, numSites);
+		changedSites = new ChunkSet(1, numSites);
+		untrackedSites = new ChunkSet(1, numSites);
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * @return The graph we use to determine neighbours
+	 */
+	public ConnectivityGraph graph()
+	{
+		return graph;
+	}
+
+	/**
+	 * NOTE: should only be called after synchronising with the current state.
+	 *
+	 * @param site
+	 * @return Sites of the group that the piece on given site belongs to
+	 * 	(should not be modified), or null if we do not track a piece on that site.
+	 */
+	public ChunkSet groupSites(final int site)
+	{
+		if (site >= parent.length || parent[site] < 0)
+			return null;
+
+		return members[find(site)];
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Synchronises this structure with the given container state.
+	 * @param cs
+	 */
+	public void sync(final ContainerState cs)
+	{
+		final SiteType type = graph.type();
+		final int numSites = graph.numSites();
+
+		// Find all sites whose piece (or owner) changed
+		changedSites.clear();
+
+		if (type == SiteType.Cell && cs instanceof ContainerFlatBitboardState)
+		{
+			final ContainerFlatBitboardState bitboardState = (ContainerFlatBitboardState) cs;
+			for (int p = 1; p <= numPlayers && p < bitboardState.numWhoBitboards(); ++p)
+			{
+				untrackedSites.clear();
+				untrackedSites.or(trackedPerPlayer[p]);
+				untrackedSites.xor(bitboardState.whoBitboard(p));
+				changedSites.or(untrackedSites);
+			}
+		}
+		else
+		{
+			for (int site = tracked.nextSetBit(0); site >= 0; site = tracked.nextSetBit(site + 1))
+			{
+				if (cs.who(site, type) != owner[site])
+					changedSites.set(site);
+			}
+
+			untrackedSites.clear();
+			untrackedSites.set(0, numSites);
+			untrackedSites.andNot(cs.emptyRegion(type).bitSet());
+			untrackedSites.andNot(tracked);
+
+			for (int site = untrackedSites.nextSetBit(0); site >= 0; site = untrackedSites.nextSetBit(site + 1))
+			{
+				final int who = cs.who(site, type);
+				if (who > 0 && who <= numPlayers)
+					changedSites.set(site);
+			}
+		}
+
+		if (changedSites.isEmpty())
+			return;
+
+		// Roll back until none of the changed sites are tracked anymore
+		sitesToReAdd.resetQuick();
+		while (changedSites.intersects(tracked))
+		{
+			final int site = insertionStack[insertionStackSize - 1];
+			removeLast();
+
+			if (!changedSites.get(site))
+				sitesToReAdd.add(site);
+		}
+
+		// Re-add the sites we rolled back (in their original order), and add the new sites
+		for (int i = sitesToReAdd.size() - 1; i >= 0; --i)
+		{
+			final int site = sitesToReAdd.getQuick(i);
+			add(site, cs.who(site, type));
+		}
+
+		for (int site = changedSites.nextSetBit(0); site >= 0; site = changedSites.nextSetBit(site + 1))
+		{
+			final int who = cs.who(site, type);
+			if (who > 0 && who <= numPlayers)
+				add(site, who);
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Starts tracking a piece of given owner on given site
+	 * @param site
+	 * @param who
+	 */
+	private void add(final int site, final int who)
+	{
+		parent[site] = site;
+		size[site] = 1;
+		owner[site] = who;
+
+		if (members[site] == null)
+			members[site] = new ChunkSet(1, graph.numSites());
+		else
+			members[site].clear();
+
+		members[site].set(site);
+		tracked.set(site);
+		trackedPerPlayer[who].set(site);
+
+		unionsStart[insertionStackSize] = unionChildren.size();
+		insertionStack[insertionStackSize++] = site;
+
+		for (final int neighbour : graph.neighbours(site))
+		{
+			if (parent[neighbour] >= 0 && owner[neighbour] == who)
+				union(site, neighbour);
+		}
+	}
+
+	/**
+	 * Stops tracking the site we most recently started tracking, rolling
+	 * back all the unions caused by it.
+	 */
+	private void removeLast()
+	{
+		final int stackIdx = --insertionStackSize;
+		final int site = insertionStack[stackIdx];
+		final int firstUnion = unionsStart[stackIdx];
+
+		for (int i = unionChildren.size() - 1; i >= firstUnion; --i)
+		{
+			final int child = unionChildren.getQuick(i);
+			final int root = parent[child];
+			size[root] -= size[child];
+			members[root].andNot(members[child]);
+			parent[child] = child;
+		}
+
+		unionChildren.remove(firstUnion, unionChildren.size() - firstUnion);
+
+		tracked.clear(site);
+		trackedPerPlayer[owner[site]].clear(site);
+		parent[site] = -1;
+		owner[site] = 0;
+	}
+
+	/**
+	 * Merges the groups of two given sites
+	 * @param siteA
+	 * @param siteB
+	 */
+	private void union(final int siteA, final int siteB)
+	{
+		final int rootA = find(siteA);
+		final int rootB = find(siteB);
+
+		if (rootA == rootB)
+			return;
+
+		final int big = (size[rootA] >= size[rootB]) ? rootA : rootB;
+		final int small = (big == rootA) ? rootB : rootA;
+
+		parent[small] = big;
+		size[big] += size[small];
+		members[big].or(members[small]);
+		unionChildren.add(small);
+	}
+
+	/**
+	 * @param site
+	 * @return Root of the tree that given (tracked) site is in
+	 */
+	private int find(final int site)
+	{
+		int root = site;
+		while (parent[root] != root)
+			root = parent[root];
+
+		return root;
+	}
+
+	//-------------------------------------------------------------------------
+
+}
@@ -327,12 +327,7 @@ public abstract class BaseFeatureSet
 		final Context context, final FastArrayList<Move> moves, final boolean thresholded
 	)
 	{
-		final FeatureVector[] featureVectors = new FeatureVector[moves.size()];
-		for (int i = 0; i < moves.size(); ++i)
-		{
-			featureVectors[i] = computeFeatureVector(context, moves.get(i), thresholded);
-		}
-		return featureVectors;
+		return computeFeatureVectors(context.state(), context.trial().lastMove(), moves, thresholded);
 	}
 	
 	/**
@@ -381,37 +376,120 @@ public abstract class BaseFeatureSet
 		final State state, final Move lastMove, final FastArrayList<Move> moves, final boolean thresholded
 	)
 	{
-		final int lastFrom = FeatureUtils.fromPos(lastMove);
-		final int lastTo = FeatureUtils.toPos(lastMove);
+		// Spatial features for all moves at once, so that subclasses can share work across moves
+		final TIntArrayList[] activeSpatialFeatureIndices = 
+				computeSparseSpatialFeatureVectors(state, lastMove, moves, thresholded);
 		
 		final FeatureVector[] featureVectors = new FeatureVector[moves.size()];
 		for (int i = 0; i < moves.size(); ++i)
 		{
 			final Move move = moves.get(i);
-			final int from = FeatureUtils.fromPos(move);
-			final int to = FeatureUtils.toPos(move);
-			
-			final TIntArrayList activeSpatialFeatureIndices = 
-				getActiveSpatialFeatureIndices
-				(
-					state,
-					lastFrom, lastTo,
-					from, to,
-					move.mover(),
-					thresholded
-				);
-			
 			final float[] aspatialFeatureValues = new float[aspatialFeatures.length];
 			for (int j = 0; j < aspatialFeatures.length; ++j)
 			{
 				aspatialFeatureValues[j] = aspatialFeatures[j].featureVal(state, move);
 			}
 			
-			featureVectors[i] = new FeatureVector(activeSpatialFeatureIndices, new FVector(aspatialFeatureValues));
+			featureVectors[i] = new FeatureVector(activeSpatialFeatureIndices[i], new FVector(aspatialFeatureValues));
 		}
 		return featureVectors;
 	}
 	
+	/**
+	 * @param context
+	 * @param moves
+	 * @param weights Weights of a linear function (first for aspatial, then for spatial features)
+	 * @param thresholded
+	 * @return Vector of logits (weighted sums of feature values) for all the given moves
+	 * 	in given context
+	 */
+	public FVector computeLogits
+	(
+		final Context context, 
+		final FastArrayList<Move> moves, 
+		final WeightVector weights, 
+		final boolean thresholded
+	)
+	{
+		return computeLogits(context.state(), context.trial().lastMove(), moves, weights, thresholded);
+	}
+	
+	/**
+	 * Computes logits for all given moves in a single pass, without building 
+	 * feature vectors for them. Gives the same results as taking the dot product
+	 * of the given weights with every feature vector from computeFeatureVectors().
+	 * 
+	 * @param state
+	 * @param lastMove
+	 * @param moves
+	 * @param weights Weights of a linear function (first for aspatial, then for spatial features)
+	 * @param thresholded
+	 * @return Vector of logits (weighted sums of feature values) for all the given moves
+	 * 	in given state
+	 */
+	public FVector computeLogits
+	(
+		final State state, 
+		final Move lastMove, 
+		final FastArrayList<Move> moves, 
+		final WeightVector weights, 
+		final boolean thresholded
+	)
+	{
+		final FVector allWeights = weights.allWeights();
+		final float[] logits = new float[moves.size()];
+		
+		computeSpatialLogits(state, lastMove, moves, allWeights, aspatialFeatures.length, thresholded, logits);
+		
+		for (int i = 0; i < moves.size(); ++i)
+		{
+			final Move move = moves.get(i);
+			
+			float aspatialLogit = 0.f;
+			for (int j = 0; j < aspatialFeatures.length; ++j)
+			{
+				aspatialLogit += aspatialFeatures[j].featureVal(state, move) * allWeights.get(j);
+			}
+			
+			logits[i] = aspatialLogit + logits[i];
+		}
+		
+		return FVector.wrap(logits);
+	}
+	
+	/**
+	 * Computes, for every given move, the sum of the weights of all the spatial
+	 * features that are active for that move. The default implementation simply
+	 * builds sparse feature vectors; subclasses may override this to avoid that.
+	 * 
+	 * @param state
+	 * @param lastMove
+	 * @param moves
+	 * @param weights Vector of weights
+	 * @param weightsOffset Index of weight for first spatial feature in weights vector
+	 * @param thresholded
+	 * @param outLogits Array in which to store sum of weights for every move
+	 */
+	protected void computeSpatialLogits
+	(
+		final State state, 
+		final Move lastMove, 
+		final FastArrayList<Move> moves, 
+		final FVector weights,
+		final int weightsOffset,
+		final boolean thresholded,
+		final float[] outLogits
+	)
+	{
+		final TIntArrayList[] activeSpatialFeatureIndices = 
+				computeSparseSpatialFeatureVectors(state, lastMove, moves, thresholded);
+		
+		for (int i = 0; i < moves.size(); ++i)
+		{
+			outLogits[i] = weights.dotSparse(activeSpatialFeatureIndices[i], weightsOffset);
+		}
+	}
+	
 	//-------------------------------------------------------------------------
 	
 	/**
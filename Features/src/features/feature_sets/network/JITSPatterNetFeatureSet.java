@@ -17,6 +17,7 @@ import java.util.stream.Stream;
 import features.Feature;
 import features.aspatial.AspatialFeature;
 import features.feature_sets.BaseFeatureSet;
+import features.spatial.FeatureUtils;
 import features.spatial.RelativeFeature;
 import features.spatial.SpatialFeature;
 import features.spatial.Walk;
@@ -28,6 +29,8 @@ import game.Game;
 import gnu.trove.list.array.TFloatArrayList;
 import gnu.trove.list.array.TIntArrayList;
 import main.collections.ArrayUtils;
+import main.collections.FVector;
+import main.collections.FastArrayList;
 import main.collections.FastTIntArrayList;
 import other.context.Context;
 import other.move.Move;
@@ -42,6 +45,10 @@ import other.trial.Trial;
  * NOTE: for better JIT behaviour, we assume that every feature has either
  * the to or the from position as anchor
  *
+ * SPatterNets are stored in the SPatterNetCache, which is shared with all other
+ * feature sets with the same features (for the same game) and has a bounded
+ * memory footprint; evicted SPatterNets are simply rebuilt when needed again.
+ *
  * @author Dennis Soemers
  */
 public class JITSPatterNetFeatureSet extends BaseFeatureSet
@@ -69,6 +76,13 @@ public class JITSPatterNetFeatureSet extends BaseFeatureSet
 	protected static final Map<FeatureLists, JITSPatterNetFeatureSet> featureSetsCache = 
 			new ConcurrentHashMap<FeatureLists, JITSPatterNetFeatureSet>();
 	
+	/** Empty bitset, for SPatterNets without thresholding (never modified) */
+	private static final BitSet EMPTY_BITSET = new BitSet();
+	
+	/** Per-thread key used to look up the group of SPatterNets for a reactive key */
+	private static final ThreadLocal<ProactiveFeaturesKey> REACTIVE_GROUP_KEY = 
+			ThreadLocal.withInitial(() -> new ProactiveFeaturesKey());
+	
 	//-------------------------------------------------------------------------
 	
 	/** JIT map (mix of proactive and reactive keys) */
@@ -250,6 +264,77 @@ public class JITSPatterNetFeatureSet extends BaseFeatureSet
 	
 	//-------------------------------------------------------------------------
 
+	@Override
+	public TIntArrayList[] computeSparseSpatialFeatureVectors
+	(
+		final State state, 
+		final Move lastDecisionMove,
+		final FastArrayList<Move> actions,
+		final boolean thresholded
+	)
+	{
+		// One bitboard snapshot of the state, shared by the nets for all the actions
+		final StateBitboards bitboards = (actions.size() > 1) ? StateBitboards.create(state) : null;
+		
+		final int lastFrom = FeatureUtils.fromPos(lastDecisionMove);
+		final int lastTo = FeatureUtils.toPos(lastDecisionMove);
+		
+		final TIntArrayList[] sparseFeatureVectors = new TIntArrayList[actions.size()];
+		for (int i = 0; i < actions.size(); ++i)
+		{
+			final Move action = actions.get(i);
+			final FastTIntArrayList featureIndices = new FastTIntArrayList(this.getNumSpatialFeatures());
+			addActiveSpatialFeatureIndices
+			(
+				state, bitboards, 
+				lastFrom, lastTo, 
+				FeatureUtils.fromPos(action), FeatureUtils.toPos(action), 
+				action.mover(), 
+				thresholded,
+				featureIndices
+			);
+			sparseFeatureVectors[i] = featureIndices;
+		}
+		
+		return sparseFeatureVectors;
+	}
+	
+	@Override
+	protected void computeSpatialLogits
+	(
+		final State state, 
+		final Move lastMove, 
+		final FastArrayList<Move> moves, 
+		final FVector weights,
+		final int weightsOffset,
+		final boolean thresholded,
+		final float[] outLogits
+	)
+	{
+		// One bitboard snapshot of the state, and one list of active features, shared by all the moves
+		final StateBitboards bitboards = (moves.size() > 1) ? StateBitboards.create(state) : null;
+		final FastTIntArrayList featureIndices = new FastTIntArrayList(this.getNumSpatialFeatures());
+		
+		final int lastFrom = FeatureUtils.fromPos(lastMove);
+		final int lastTo = FeatureUtils.toPos(lastMove);
+		
+		for (int i = 0; i < moves.size(); ++i)
+		{
+			final Move move = moves.get(i);
+			featureIndices.resetQuick();
+			addActiveSpatialFeatureIndices
+			(
+				state, bitboards, 
+				lastFrom, lastTo, 
+				FeatureUtils.fromPos(move), FeatureUtils.toPos(move), 
+				move.mover(), 
+				thresholded,
+				featureIndices
+			);
+			outLogits[i] = weights.dotSparse(featureIndices, weightsOffset);
+		}
+	}
+	
 	@Override
 	public TIntArrayList getActiveSpatialFeatureIndices
 	(
@@ -263,7 +348,35 @@ public class JITSPatterNetFeatureSet extends BaseFeatureSet
 	)
 	{
 		final FastTIntArrayList featureIndices = new FastTIntArrayList(this.getNumSpatialFeatures());
-		
+		addActiveSpatialFeatureIndices(state, null, lastFrom, lastTo, from, to, player, thresholded, featureIndices);
+		return featureIndices;
+	}
+	
+	/**
+	 * @param state
+	 * @param bitboards Bitboard snapshot of the state (may be null)
+	 * @param lastFrom
+	 * @param lastTo
+	 * @param from
+	 * @param to
+	 * @param player
+	 * @param thresholded
+	 * @param featureIndices List to which we add the indices of all the features 
+	 * 	that are active for the given state+action pair
+	 */
+	private void addActiveSpatialFeatureIndices
+	(
+		final State state,
+		final StateBitboards bitboards,
+		final int lastFrom,
+		final int lastTo,
+		final int from,
+		final int to,
+		final int player,
+		final boolean thresholded,
+		final FastTIntArrayList featureIndices
+	)
+	{
 //		System.out.println("lastFrom = " + lastFrom);
 //		System.out.println("lastTo = " + lastTo);
 //		System.out.println("from = " + from);
@@ -312,7 +425,7 @@ public class JITSPatterNetFeatureSet extends BaseFeatureSet
 						final SPatterNet set = thresholded ? jitMap.spatterNetThresholded(key, state) : jitMap.spatterNet(key, state);
 
 						if (set != null)
-							featureIndices.addAll(set.getActiveFeatures(state));
+							set.addActiveFeatures(state, bitboards, featureIndices);
 					}
 				}
 			}
@@ -345,18 +458,17 @@ public class JITSPatterNetFeatureSet extends BaseFeatureSet
 							{
 								// Reactive instances
 								reactiveKey.resetData(player, lastFromPos, lastToPos, fromPos, toPos);
-								final SPatterNet set = jitMap.spatterNet(reactiveKey, state);
+								final SPatterNet set = 
+										thresholded ? jitMap.spatterNetThresholded(reactiveKey, state) : jitMap.spatterNet(reactiveKey, state);
 	
 								if (set != null)
-									featureIndices.addAll(set.getActiveFeatures(state));
+									set.addActiveFeatures(state, bitboards, featureIndices);
 							}
 						}
 					}
 				}
 			}
 		}
-		
-		return featureIndices;
 	}
 
 	@Override
@@ -557,8 +669,8 @@ public class JITSPatterNetFeatureSet extends BaseFeatureSet
 	//-------------------------------------------------------------------------
 	
 	/**
-	 * Wrapper around a collection of maps from keys (reactive or proactive) to SPatterNets
-	 * or PropFeatureInstanceSets.
+	 * Wrapper around a map from keys (reactive or proactive) to PropFeatureInstanceSets, 
+	 * and namespaces of the shared SPatterNetCache in which we look up SPatterNets.
 	 *
 	 * @author Dennis Soemers
 	 */
@@ -568,11 +680,11 @@ public class JITSPatterNetFeatureSet extends BaseFeatureSet
 		/** Map to prop-feature-instance-set represenation */
 		private final Map<MoveFeaturesKey, PropFeatureInstanceSet> propInstanceSetMap;
 		
-		/** Map to SPatterNet represenation (without thresholding) */
-		private final Map<MoveFeaturesKey, SPatterNet> spatterNetMap;
+		/** Namespace of shared cache for SPatterNet represenation (without thresholding) */
+		private final SPatterNetCache.Namespace spatterNets;
 		
-		/** Map to SPatterNet represenation (thresholded) */
-		private final Map<MoveFeaturesKey, SPatterNet> spatterNetMapThresholded;
+		/** Namespace of shared cache for SPatterNet represenation (thresholded) */
+		private final SPatterNetCache.Namespace spatterNetsThresholded;
 		
 		/**
 		 * Constructor
@@ -580,401 +692,286 @@ public class JITSPatterNetFeatureSet extends BaseFeatureSet
 		public JITMap()
 		{
 			this.propInstanceSetMap = new ConcurrentHashMap<MoveFeaturesKey, PropFeatureInstanceSet>();
-			this.spatterNetMap = new ConcurrentHashMap<MoveFeaturesKey, SPatterNet>();
-			this.spatterNetMapThresholded = new ConcurrentHashMap<MoveFeaturesKey, SPatterNet>();
+			
+			final FeatureLists featureLists = 
+					new FeatureLists(Arrays.asList(aspatialFeatures), Arrays.asList(spatialFeatures));
+			this.spatterNets = SPatterNetCache.instance().namespace(featureLists, game.get(), new BitSet());
+			this.spatterNetsThresholded = SPatterNetCache.instance().namespace(featureLists, game.get(), thresholdedFeatures);
 		}
 		
 		/**
+		 * Collects all the feature instances for a given proactive key: proactive
+		 * instances in a single bipartite graph, and reactive instances in one
+		 * bipartite graph per reactive key (with the same player, from, and to).
+		 * 
 		 * @param key
 		 * @param state
-		 * @return PropFeatureInstanceSet for given key
+		 * @param proactiveBipartiteGraph Graph to collect proactive instances in
+		 * @param reactiveGraphs Map to collect graphs of reactive instances in
 		 */
-		public PropFeatureInstanceSet propFeatureInstanceSet(final MoveFeaturesKey key, final State state)
+		private void collectInstances
+		(
+			final MoveFeaturesKey key, 
+			final State state,
+			final BipartiteGraphFeatureInstanceSet proactiveBipartiteGraph,
+			final Map<ReactiveFeaturesKey, BipartiteGraphFeatureInstanceSet> reactiveGraphs
+		)
 		{
-			PropFeatureInstanceSet set = propInstanceSetMap.get(key);
-			
-			final boolean isKeyReactive = (key.lastFrom() >= 0 || key.lastTo() >= 0);
-			
-			if (set == null && !isKeyReactive)	// NOTE: we assume that proactive features are always computed before reactive ones
+			for (final SpatialFeature feature : JITSPatterNetFeatureSet.this.spatialFeatures())
 			{
-				// JIT: instantiate net for this key
-				final BipartiteGraphFeatureInstanceSet proactiveBipartiteGraph = new BipartiteGraphFeatureInstanceSet();
-				final Map<ReactiveFeaturesKey, BipartiteGraphFeatureInstanceSet> reactiveGraphs = 
-						new HashMap<ReactiveFeaturesKey, BipartiteGraphFeatureInstanceSet>();
+				final RelativeFeature relFeature = (RelativeFeature)feature;
 				
-				for (final SpatialFeature feature : JITSPatterNetFeatureSet.this.spatialFeatures())
-				{
-					final RelativeFeature relFeature = (RelativeFeature)feature;
-					
-					final List<FeatureInstance> newInstances = new ArrayList<FeatureInstance>();
+				final List<FeatureInstance> newInstances = new ArrayList<FeatureInstance>();
 
-					if 
+				if 
+				(
+					key.from() >= 0 
+					&& 
+					relFeature.fromPosition() != null 
+					&&
+					((key.to() >= 0) == (relFeature.toPosition() != null))
+				)
+				{
+					// Try instantiating with from as anchor
+					newInstances.addAll
 					(
-						key.from() >= 0 
-						&& 
-						relFeature.fromPosition() != null 
-						&&
-						((key.to() >= 0) == (relFeature.toPosition() != null))
-					)
-					{
-						// Try instantiating with from as anchor
-						newInstances.addAll
+						feature.instantiateFeature
 						(
-							feature.instantiateFeature
-							(
-								JITSPatterNetFeatureSet.this.gameRef().get(), 
-								state.containerStates()[0], 
-								state.mover(), 
-								key.from(), 
-								key.from(),
-								key.to(),
-								-1,
-								-1
-							)
-						);
-					}
+							JITSPatterNetFeatureSet.this.gameRef().get(), 
+							state.containerStates()[0], 
+							state.mover(), 
+							key.from(), 
+							key.from(),
+							key.to(),
+							-1,
+							-1
+						)
+					);
+				}
 
-					if 
+				if 
+				(
+					key.to() >= 0
+					&& 
+					relFeature.toPosition() != null
+					&&
+					((key.from() >= 0) == (relFeature.fromPosition() != null))
+				)
+				{
+					// Try instantiating with to as anchor
+					newInstances.addAll
 					(
-						key.to() >= 0
-						&& 
-						relFeature.toPosition() != null
-						&&
-						((key.from() >= 0) == (relFeature.fromPosition() != null))
-					)
-					{
-						// Try instantiating with to as anchor
-						newInstances.addAll
+						feature.instantiateFeature
 						(
-							feature.instantiateFeature
-							(
-								JITSPatterNetFeatureSet.this.gameRef().get(), 
-								state.containerStates()[0], 
-								state.mover(), 
-								key.to(), 
-								key.from(),
-								key.to(),
-								-1,
-								-1
-							)
-						);
-					}
+							JITSPatterNetFeatureSet.this.gameRef().get(), 
+							state.containerStates()[0], 
+							state.mover(), 
+							key.to(), 
+							key.from(),
+							key.to(),
+							-1,
+							-1
+						)
+					);
+				}
 
-					if (feature.isReactive())
+				if (feature.isReactive())
+				{
+					// Can have different instances for different reactive keys
+					final ReactiveFeaturesKey reactiveKey = new ReactiveFeaturesKey();
+					
+					for (final FeatureInstance instance : newInstances)
 					{
-						// Can have different instances for different reactive keys
-						final ReactiveFeaturesKey reactiveKey = new ReactiveFeaturesKey();
+						reactiveKey.resetData(key.playerIdx(), instance.lastFrom(), instance.lastTo(), key.from(), key.to());
+						BipartiteGraphFeatureInstanceSet bipartite = reactiveGraphs.get(reactiveKey);
 						
-						for (final FeatureInstance instance : newInstances)
+						if (bipartite == null)
 						{
-							reactiveKey.resetData(key.playerIdx(), instance.lastFrom(), instance.lastTo(), key.from(), key.to());
-							BipartiteGraphFeatureInstanceSet bipartite = reactiveGraphs.get(reactiveKey);
-							
-							if (bipartite == null)
-							{
-								bipartite = new BipartiteGraphFeatureInstanceSet();
-								reactiveGraphs.put(new ReactiveFeaturesKey(reactiveKey), bipartite);
-							}
-							
-							bipartite.insertInstance(instance);
-						}
-					}
-					else
-					{
-						// Just collect them all in the bipartite graph for proactive features
-						for (final FeatureInstance instance : newInstances)
-						{
-							proactiveBipartiteGraph.insertInstance(instance);
+							bipartite = new BipartiteGraphFeatureInstanceSet();
+							reactiveGraphs.put(new ReactiveFeaturesKey(reactiveKey), bipartite);
 						}
+						
+						bipartite.insertInstance(instance);
 					}
 				}
-				
-				for (final Entry<ReactiveFeaturesKey, BipartiteGraphFeatureInstanceSet> entry : reactiveGraphs.entrySet())
+				else
 				{
-					propInstanceSetMap.put
-					(
-						entry.getKey(), 
-						entry.getValue().toPropFeatureInstanceSet()
-					);
+					// Just collect them all in the bipartite graph for proactive features
+					for (final FeatureInstance instance : newInstances)
+					{
+						proactiveBipartiteGraph.insertInstance(instance);
+					}
 				}
-
-				set = proactiveBipartiteGraph.toPropFeatureInstanceSet();
-				propInstanceSetMap.put(new ProactiveFeaturesKey((ProactiveFeaturesKey)key), set);
 			}
-			
-			return set;
 		}
 		
 		/**
 		 * @param key
 		 * @param state
-		 * @return SPatterNet for given key
+		 * @return PropFeatureInstanceSet for given key
 		 */
-		public SPatterNet spatterNet(final MoveFeaturesKey key, final State state)
+		public PropFeatureInstanceSet propFeatureInstanceSet(final MoveFeaturesKey key, final State state)
 		{
-			SPatterNet net = spatterNetMap.get(key);
+			PropFeatureInstanceSet set = propInstanceSetMap.get(key);
 			
 			final boolean isKeyReactive = (key.lastFrom() >= 0 || key.lastTo() >= 0);
-						
-			if (net == null && !isKeyReactive)		// NOTE: we assume that proactive features are always computed before reactive ones
+			
+			if (set == null && !isKeyReactive)	// NOTE: we assume that proactive features are always computed before reactive ones
 			{
 				// JIT: instantiate net for this key
 				final BipartiteGraphFeatureInstanceSet proactiveBipartiteGraph = new BipartiteGraphFeatureInstanceSet();
 				final Map<ReactiveFeaturesKey, BipartiteGraphFeatureInstanceSet> reactiveGraphs = 
 						new HashMap<ReactiveFeaturesKey, BipartiteGraphFeatureInstanceSet>();
 				
-				for (final SpatialFeature feature : JITSPatterNetFeatureSet.this.spatialFeatures())
-				{
-					final RelativeFeature relFeature = (RelativeFeature)feature;
-					
-					final List<FeatureInstance> newInstances = new ArrayList<FeatureInstance>();
-
-					if 
-					(
-						key.from() >= 0 
-						&& 
-						relFeature.fromPosition() != null 
-						&&
-						((key.to() >= 0) == (relFeature.toPosition() != null))
-					)
-					{
-						// Try instantiating with from as anchor
-						newInstances.addAll
-						(
-							feature.instantiateFeature
-							(
-								JITSPatterNetFeatureSet.this.gameRef().get(), 
-								state.containerStates()[0], 
-								state.mover(), 
-								key.from(), 
-								key.from(),
-								key.to(),
-								-1,
-								-1
-							)
-						);
-					}
-
-					if 
-					(
-						key.to() >= 0
-						&& 
-						relFeature.toPosition() != null
-						&&
-						((key.from() >= 0) == (relFeature.fromPosition() != null))
-					)
-					{
-						// Try instantiating with to as anchor
-						newInstances.addAll
-						(
-							feature.instantiateFeature
-							(
-								JITSPatterNetFeatureSet.this.gameRef().get(), 
-								state.containerStates()[0], 
-								state.mover(), 
-								key.to(), 
-								key.from(),
-								key.to(),
-								-1,
-								-1
-							)
-						);
-					}
-
-					if (feature.isReactive())
-					{
-						// Can have different instances for different reactive keys
-						final ReactiveFeaturesKey reactiveKey = new ReactiveFeaturesKey();
-						
-						for (final FeatureInstance instance : newInstances)
-						{
-							reactiveKey.resetData(key.playerIdx(), instance.lastFrom(), instance.lastTo(), key.from(), key.to());
-							BipartiteGraphFeatureInstanceSet bipartite = reactiveGraphs.get(reactiveKey);
-							
-							if (bipartite == null)
-							{
-								bipartite = new BipartiteGraphFeatureInstanceSet();
-								reactiveGraphs.put(new ReactiveFeaturesKey(reactiveKey), bipartite);
-							}
-							
-							bipartite.insertInstance(instance);
-						}
-					}
-					else
-					{
-						// Just collect them all in the bipartite graph for proactive features
-						for (final FeatureInstance instance : newInstances)
-						{
-							proactiveBipartiteGraph.insertInstance(instance);
-						}
-					}
-				}
+				collectInstances(key, state, proactiveBipartiteGraph, reactiveGraphs);
 				
 				for (final Entry<ReactiveFeaturesKey, BipartiteGraphFeatureInstanceSet> entry : reactiveGraphs.entrySet())
 				{
-					spatterNetMap.put
+					propInstanceSetMap.put
 					(
 						entry.getKey(), 
-						entry.getValue().toSPatterNet(getNumSpatialFeatures(), new BitSet(), gameRef().get(), key.playerIdx())
+						entry.getValue().toPropFeatureInstanceSet()
 					);
 				}
 
-				if (isKeyReactive)
-				{
-					net = spatterNetMap.get(key);
-				}
-				else
-				{
-					net = proactiveBipartiteGraph.toSPatterNet(getNumSpatialFeatures(), new BitSet(), gameRef().get(), key.playerIdx());
-					spatterNetMap.put(new ProactiveFeaturesKey((ProactiveFeaturesKey)key), net);
-				}
+				set = proactiveBipartiteGraph.toPropFeatureInstanceSet();
+				propInstanceSetMap.put(new ProactiveFeaturesKey((ProactiveFeaturesKey)key), set);
 			}
 			
-			return net;
+			return set;
 		}
 		
 		/**
+		 * Builds the group of SPatterNets for a given proactive key.
+		 * 
 		 * @param key
 		 * @param state
-		 * @return SPatterNet (with thresholding) for given key
+		 * @param thresholded Thresholded features for the proactive net (reactive
+		 * 	nets are never thresholded)
+		 * @return The group of SPatterNets
 		 */
-		public SPatterNet spatterNetThresholded(final MoveFeaturesKey key, final State state)
+		private SPatterNetCache.NetGroup buildNetGroup
+		(
+			final ProactiveFeaturesKey key, 
+			final State state, 
+			final BitSet thresholded
+		)
 		{
-			SPatterNet net = spatterNetMapThresholded.get(key);
+			final BipartiteGraphFeatureInstanceSet proactiveBipartiteGraph = new BipartiteGraphFeatureInstanceSet();
+			final Map<ReactiveFeaturesKey, BipartiteGraphFeatureInstanceSet> reactiveGraphs = 
+					new HashMap<ReactiveFeaturesKey, BipartiteGraphFeatureInstanceSet>();
+			
+			collectInstances(key, state, proactiveBipartiteGraph, reactiveGraphs);
 			
+			final Map<ReactiveFeaturesKey, SPatterNet> reactiveNets = 
+					new HashMap<ReactiveFeaturesKey, SPatterNet>(reactiveGraphs.size() * 2);
+			
+			for (final Entry<ReactiveFeaturesKey, BipartiteGraphFeatureInstanceSet> entry : reactiveGraphs.entrySet())
+			{
+				reactiveNets.put
+				(
+					entry.getKey(), 
+					entry.getValue().toSPatterNet(getNumSpatialFeatures(), new BitSet(), gameRef().get(), key.playerIdx())
+				);
+			}
+			
+			final SPatterNet proactiveNet = 
+					proactiveBipartiteGraph.toSPatterNet(getNumSpatialFeatures(), thresholded, gameRef().get(), key.playerIdx());
+			
+			return new SPatterNetCache.NetGroup(proactiveNet, reactiveNets);
+		}
+		
+		/**
+		 * Looks up the SPatterNet for a given key in a namespace of the shared cache, 
+		 * building the group of SPatterNets it belongs to if necessary.
+		 * 
+		 * @param namespace
+		 * @param key
+		 * @param state
+		 * @param thresholded
+		 * @return SPatterNet for given key (null if there are no features for a reactive key)
+		 */
+		private SPatterNet lookup
+		(
+			final SPatterNetCache.Namespace namespace, 
+			final MoveFeaturesKey key, 
+			final State state,
+			final BitSet thresholded
+		)
+		{
 			final boolean isKeyReactive = (key.lastFrom() >= 0 || key.lastTo() >= 0);
-						
-			if (net == null && !isKeyReactive)		// NOTE: we assume that proactive features are always computed before reactive ones
+			final ProactiveFeaturesKey groupKey;
+			
+			if (isKeyReactive)
 			{
-				// JIT: instantiate net for this key
-				final BipartiteGraphFeatureInstanceSet proactiveBipartiteGraph = new BipartiteGraphFeatureInstanceSet();
-				final Map<ReactiveFeaturesKey, BipartiteGraphFeatureInstanceSet> reactiveGraphs = 
-						new HashMap<ReactiveFeaturesKey, BipartiteGraphFeatureInstanceSet>();
-				
-				for (final SpatialFeature feature : JITSPatterNetFeatureSet.this.spatialFeatures())
-				{
-					final RelativeFeature relFeature = (RelativeFeature)feature;
-					
-					final List<FeatureInstance> newInstances = new ArrayList<FeatureInstance>();
-
-					if 
-					(
-						key.from() >= 0 
-						&& 
-						relFeature.fromPosition() != null 
-						&&
-						((key.to() >= 0) == (relFeature.toPosition() != null))
-					)
-					{
-						// Try instantiating with from as anchor
-						newInstances.addAll
-						(
-							feature.instantiateFeature
-							(
-								JITSPatterNetFeatureSet.this.gameRef().get(), 
-								state.containerStates()[0], 
-								state.mover(), 
-								key.from(), 
-								key.from(),
-								key.to(),
-								-1,
-								-1
-							)
-						);
-					}
-
-					if 
-					(
-						key.to() >= 0
-						&& 
-						relFeature.toPosition() != null
-						&&
-						((key.from() >= 0) == (relFeature.fromPosition() != null))
-					)
-					{
-						// Try instantiating with to as anchor
-						newInstances.addAll
-						(
-							feature.instantiateFeature
-							(
-								JITSPatterNetFeatureSet.this.gameRef().get(), 
-								state.containerStates()[0], 
-								state.mover(), 
-								key.to(), 
-								key.from(),
-								key.to(),
-								-1,
-								-1
-							)
-						);
-					}
-
-					if (feature.isReactive())
-					{
-						// Can have different instances for different reactive keys
-						final ReactiveFeaturesKey reactiveKey = new ReactiveFeaturesKey();
-						
-						for (final FeatureInstance instance : newInstances)
-						{
-							reactiveKey.resetData(key.playerIdx(), instance.lastFrom(), instance.lastTo(), key.from(), key.to());
-							BipartiteGraphFeatureInstanceSet bipartite = reactiveGraphs.get(reactiveKey);
-							
-							if (bipartite == null)
-							{
-								bipartite = new BipartiteGraphFeatureInstanceSet();
-								reactiveGraphs.put(new ReactiveFeaturesKey(reactiveKey), bipartite);
-							}
-							
-							bipartite.insertInstance(instance);
-						}
-					}
-					else
-					{
-						// Just collect them all in the bipartite graph for proactive features
-						for (final FeatureInstance instance : newInstances)
-						{
-							proactiveBipartiteGraph.insertInstance(instance);
-						}
-					}
-				}
-				
-				for (final Entry<ReactiveFeaturesKey, BipartiteGraphFeatureInstanceSet> entry : reactiveGraphs.entrySet())
-				{
-					spatterNetMap.put
-					(
-						entry.getKey(), 
-						entry.getValue().toSPatterNet(getNumSpatialFeatures(), new BitSet(), gameRef().get(), key.playerIdx())
-					);
-				}
-
-				if (isKeyReactive)
-				{
-					net = spatterNetMapThresholded.get(key);
-				}
-				else
-				{
-					net = proactiveBipartiteGraph.toSPatterNet(getNumSpatialFeatures(), thresholdedFeatures, gameRef().get(), key.playerIdx());
-					spatterNetMapThresholded.put(new ProactiveFeaturesKey((ProactiveFeaturesKey)key), net);
-				}
+				// Reactive nets are grouped under proactive key with same player, from, and to
+				groupKey = REACTIVE_GROUP_KEY.get();
+				groupKey.resetData(key.playerIdx(), key.from(), key.to());
+			}
+			else
+			{
+				groupKey = (ProactiveFeaturesKey) key;
 			}
 			
-			return net;
+			SPatterNetCache.NetGroup group = namespace.getIfPresent(groupKey);
+			
+			if (group == null)
+			{
+				// JIT: instantiate nets for this key (unless another thread beats us to it)
+				group = namespace.get(groupKey, (k) -> buildNetGroup(k, state, thresholded));
+			}
+			
+			return isKeyReactive ? group.reactiveNets().get(key) : group.proactiveNet();
+		}
+		
+		/**
+		 * @param key
+		 * @param state
+		 * @return SPatterNet for given key
+		 */
+		public SPatterNet spatterNet(final MoveFeaturesKey key, final State state)
+		{
+			return lookup(spatterNets, key, state, EMPTY_BITSET);
 		}
 		
 		/**
-		 * @return Map of SPatterNets
+		 * @param key
+		 * @param state
+		 * @return SPatterNet (with thresholding) for given key
+		 */
+		public SPatterNet spatterNetThresholded(final MoveFeaturesKey key, final State state)
+		{
+			return lookup(spatterNetsThresholded, key, state, thresholdedFeatures);
+		}
+		
+		/**
+		 * @return Map of SPatterNets (snapshot of what's currently cached)
 		 */
 		public Map<MoveFeaturesKey, SPatterNet> spatterNetMap()
 		{
-			return spatterNetMap;
+			final Map<MoveFeaturesKey, SPatterNet> map = new HashMap<MoveFeaturesKey, SPatterNet>();
+			for (final Entry<ProactiveFeaturesKey, SPatterNetCache.NetGroup> entry : spatterNets.snapshot().entrySet())
+			{
+				if (entry.getValue().proactiveNet() != null)
+					map.put(entry.getKey(), entry.getValue().proactiveNet());
+				
+				map.putAll(entry.getValue().reactiveNets());
+			}
+			return map;
 		}
 		
 		/**
-		 * @return Map of SPatterNets (thresholded)
+		 * @return Map of SPatterNets (thresholded, snapshot of what's currently cached)
 		 */
 		public Map<MoveFeaturesKey, SPatterNet> spatterNetMapThresholded()
 		{
-			return spatterNetMapThresholded;
+			final Map<MoveFeaturesKey, SPatterNet> map = new HashMap<MoveFeaturesKey, SPatterNet>();
+			for (final Entry<ProactiveFeaturesKey, SPatterNetCache.NetGroup> entry : spatterNetsThresholded.snapshot().entrySet())
+			{
+				if (entry.getValue().proactiveNet() != null)
+					map.put(entry.getKey(), entry.getValue().proactiveNet());
+			}
+			return map;
 		}
 	}
 	
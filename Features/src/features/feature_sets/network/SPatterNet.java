@@ -1,11 +1,17 @@
 package features.feature_sets.network;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.List;
 
 import features.spatial.cache.footprints.BaseFootprint;
 import features.spatial.cache.footprints.FullFootprint;
 import features.spatial.instances.AtomicProposition;
+import features.spatial.instances.AtomicProposition.StateVectorTypes;
+import game.types.board.SiteType;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
 import main.collections.ChunkSet;
 import main.collections.FastTIntArrayList;
 import other.state.State;
@@ -65,6 +71,34 @@ public class SPatterNet
 	/** Bitset with a 1 entry for every single instance, except those for features that are always active */
 	protected final BitSet INIT_INSTANCES_ACTIVE;
 	
+	/** For every bitboard tested by our packed instance tests, the site type */
+	protected final SiteType[] bitboardSiteTypes;
+	
+	/** For every bitboard tested by our packed instance tests, the state vector type */
+	protected final StateVectorTypes[] bitboardVectorTypes;
+	
+	/** For every bitboard tested by our packed instance tests, the who or what value */
+	protected final int[] bitboardValues;
+	
+	/** 
+	 * For every feature instance, index of its first packed test (with one extra entry at the end).
+	 * Every packed test covers all the propositions of an instance that look at the same
+	 * word of the same bitboard.
+	 */
+	protected final int[] instanceTestStarts;
+	
+	/** For every packed test, the bitboard it looks at */
+	protected final int[] testBitboards;
+	
+	/** For every packed test, the index of the word it looks at */
+	protected final int[] testWords;
+	
+	/** For every packed test, the bits that must be set in the word */
+	protected final long[] testMustSet;
+	
+	/** For every packed test, the bits that must be clear in the word */
+	protected final long[] testMustClear;
+	
 	//-------------------------------------------------------------------------
 	
 	/**
@@ -213,6 +247,82 @@ public class SPatterNet
 			//INIT_INSTANCES_ACTIVE.andNot(instancesPerFeature[i]);
 		}
 		
+		// Pack the complete (not yet pruned) sets of propositions of instances into
+		// tests against words of bitboards
+		final TLongArrayList bitboardKeys = new TLongArrayList();
+		final List<SiteType> siteTypesList = new ArrayList<SiteType>();
+		final List<StateVectorTypes> vectorTypesList = new ArrayList<StateVectorTypes>();
+		final TIntArrayList valuesList = new TIntArrayList();
+		
+		this.instanceTestStarts = new int[propsPerInstance.length + 1];
+		final TIntArrayList testBitboardsList = new TIntArrayList();
+		final TIntArrayList testWordsList = new TIntArrayList();
+		final TLongArrayList testMustSetList = new TLongArrayList();
+		final TLongArrayList testMustClearList = new TLongArrayList();
+		
+		for (int i = 0; i < propsPerInstance.length; ++i)
+		{
+			final int firstTest = testBitboardsList.size();
+			instanceTestStarts[i] = firstTest;
+			
+			for (int j = propsPerInstance[i].nextSetBit(0); j >= 0; j = propsPerInstance[i].nextSetBit(j + 1))
+			{
+				final AtomicProposition prop = propositions[j];
+				final StateVectorTypes vectorType = prop.stateVectorType();
+				final int value = (vectorType == StateVectorTypes.Empty) ? 0 : prop.value();
+				final long bitboardKey = 
+						((long) prop.graphElementType().ordinal() << 40) | ((long) vectorType.ordinal() << 32) | value;
+				
+				int bitboard = bitboardKeys.indexOf(bitboardKey);
+				if (bitboard < 0)
+				{
+					bitboard = bitboardKeys.size();
+					bitboardKeys.add(bitboardKey);
+					siteTypesList.add(prop.graphElementType());
+					vectorTypesList.add(vectorType);
+					valuesList.add(value);
+				}
+				
+				final int site = prop.testedSite();
+				final int word = site >> 6;
+				final long bit = 1L << site;
+				
+				// Find existing test of this instance for the same word, or create a new one
+				int test = -1;
+				for (int k = firstTest; k < testBitboardsList.size(); ++k)
+				{
+					if (testBitboardsList.getQuick(k) == bitboard && testWordsList.getQuick(k) == word)
+					{
+						test = k;
+						break;
+					}
+				}
+				
+				if (test < 0)
+				{
+					test = testBitboardsList.size();
+					testBitboardsList.add(bitboard);
+					testWordsList.add(word);
+					testMustSetList.add(0L);
+					testMustClearList.add(0L);
+				}
+				
+				if (prop.negated())
+					testMustClearList.setQuick(test, testMustClearList.getQuick(test) | bit);
+				else
+					testMustSetList.setQuick(test, testMustSetList.getQuick(test) | bit);
+			}
+		}
+		instanceTestStarts[propsPerInstance.length] = testBitboardsList.size();
+		
+		this.bitboardSiteTypes = siteTypesList.toArray(new SiteType[siteTypesList.size()]);
+		this.bitboardVectorTypes = vectorTypesList.toArray(new StateVectorTypes[vectorTypesList.size()]);
+		this.bitboardValues = valuesList.toArray();
+		this.testBitboards = testBitboardsList.toArray();
+		this.testWords = testWordsList.toArray();
+		this.testMustSet = testMustSetList.toArray();
+		this.testMustClear = testMustClearList.toArray();
+		
 		// Remove propositions for instances if those propositions also appear in earlier propositions,
 		// and those other instances are guaranteed to get checked before the later instances.
 		//
@@ -466,6 +576,87 @@ public class SPatterNet
 		return activeFeatures;
 	}
 	
+	/**
+	 * Adds all active features for given state to the given list, using the
+	 * bitboard snapshot if we have one (in which case no memory is allocated).
+	 * 
+	 * @param state
+	 * @param bitboards Bitboard snapshot of the state (may be null)
+	 * @param outFeatures List to add active features to
+	 */
+	public void addActiveFeatures
+	(
+		final State state, 
+		final StateBitboards bitboards, 
+		final FastTIntArrayList outFeatures
+	)
+	{
+		if (bitboards != null)
+			addActiveFeatures(bitboards, outFeatures);
+		else
+			outFeatures.addAll(getActiveFeatures(state));
+	}
+	
+	/**
+	 * Equivalent to getActiveFeatures(State), but checks every feature instance
+	 * as a whole with AND / compare operations on words of a bitboard snapshot
+	 * of the state, rather than testing propositions one by one. Best used when
+	 * the same snapshot can be shared by many nets (i.e., for many moves).
+	 * 
+	 * @param bitboards Bitboard snapshot of the state
+	 * @return List of active features for the state of the given snapshot
+	 */
+	public FastTIntArrayList getActiveFeatures(final StateBitboards bitboards)
+	{
+		final FastTIntArrayList activeFeatures = new FastTIntArrayList(instancesPerFeature.length + autoActiveFeatures.length);
+		addActiveFeatures(bitboards, activeFeatures);
+		return activeFeatures;
+	}
+	
+	/**
+	 * Adds all active features for the state of the given bitboard snapshot
+	 * to the given list. Only uses scratch space of the snapshot, so does not
+	 * allocate any memory (unless the list needs to grow).
+	 * 
+	 * @param bitboards Bitboard snapshot of the state
+	 * @param outFeatures List to add active features to
+	 */
+	public void addActiveFeatures(final StateBitboards bitboards, final FastTIntArrayList outFeatures)
+	{
+		outFeatures.add(autoActiveFeatures);
+		
+		// Look up the bitboards we need once, rather than once per test
+		final long[][] boards = bitboards.lookupBitboards(bitboardSiteTypes, bitboardVectorTypes, bitboardValues);
+		
+		final BitSet activeInstances = bitboards.scratchInstances();
+		activeInstances.clear();
+		activeInstances.or(INIT_INSTANCES_ACTIVE);
+		
+		outer:
+		for 
+		(
+			int instanceToCheck = activeInstances.nextSetBit(0); 
+			instanceToCheck >= 0; 
+			instanceToCheck = activeInstances.nextSetBit(instanceToCheck + 1))
+		{
+			for (int test = instanceTestStarts[instanceToCheck]; test < instanceTestStarts[instanceToCheck + 1]; ++test)
+			{
+				final long word = boards[testBitboards[test]][testWords[test]];
+				final long mustSet = testMustSet[test];
+				
+				if ((word & mustSet) != mustSet || (word & testMustClear[test]) != 0L)
+					continue outer;
+			}
+			
+			// If we reach this point, the feature instance (and hence the feature) is active
+			final int newActiveFeature = featureIndices[instanceToCheck];
+			outFeatures.add(newActiveFeature);
+			
+			// This also means that we can skip any remaining instances for the same feature
+			activeInstances.andNot(instancesPerFeature[newActiveFeature - featureOffset]);
+		}
+	}
+	
 	//-------------------------------------------------------------------------
 	
 	/**
@@ -586,6 +777,95 @@ public class SPatterNet
 		return propositions.length;
 	}
 	
+	/**
+	 * @return Approximate number of bytes of memory used by this SPatterNet
+	 * 	(rough estimate, assuming compressed object pointers)
+	 */
+	public long approxMemoryFootprint()
+	{
+		// Header + fields of this object
+		long bytes = 64L;
+		
+		bytes += intArrayBytes(featureIndices);
+		bytes += intArrayBytes(autoActiveFeatures);
+		bytes += 16L + 4L * ALL_PROPS_ACTIVE.length;
+		bytes += bitSetBytes(INIT_INSTANCES_ACTIVE);
+		
+		// Propositions are small objects, with a few ints/longs each
+		bytes += 16L + 4L * propositions.length + 32L * propositions.length;
+		
+		bytes += bitSetArrayBytes(instancesPerProp);
+		bytes += bitSetArrayBytes(instancesPerFeature);
+		bytes += bitSetArrayBytes(deactivateInstancesIfTrue);
+		bytes += bitSetArrayBytes(deactivateInstancesIfFalse);
+		bytes += intMatrixBytes(propsPerInstance);
+		bytes += intMatrixBytes(provesPropsIfTruePerProp);
+		bytes += intMatrixBytes(provesPropsIfFalsePerProp);
+		
+		// Packed instance tests
+		bytes += 16L + 4L * bitboardSiteTypes.length;
+		bytes += 16L + 4L * bitboardVectorTypes.length;
+		bytes += intArrayBytes(bitboardValues);
+		bytes += intArrayBytes(instanceTestStarts);
+		bytes += intArrayBytes(testBitboards);
+		bytes += intArrayBytes(testWords);
+		bytes += 32L + 16L * testMustSet.length;
+		
+		return bytes;
+	}
+	
+	/**
+	 * @param array
+	 * @return Approximate number of bytes used by given array
+	 */
+	private static long intArrayBytes(final int[] array)
+	{
+		return (array == null) ? 0L : 16L + 4L * array.length;
+	}
+	
+	/**
+	 * @param matrix
+	 * @return Approximate number of bytes used by given array of arrays
+	 */
+	private static long intMatrixBytes(final int[][] matrix)
+	{
+		if (matrix == null)
+			return 0L;
+		
+		long bytes = 16L + 4L * matrix.length;
+		for (final int[] array : matrix)
+		{
+			bytes += intArrayBytes(array);
+		}
+		return bytes;
+	}
+	
+	/**
+	 * @param bitset
+	 * @return Approximate number of bytes used by given bitset
+	 */
+	private static long bitSetBytes(final BitSet bitset)
+	{
+		return (bitset == null) ? 0L : 24L + 16L + bitset.size() / 8;
+	}
+	
+	/**
+	 * @param bitsets
+	 * @return Approximate number of bytes used by given array of bitsets
+	 */
+	private static long bitSetArrayBytes(final BitSet[] bitsets)
+	{
+		if (bitsets == null)
+			return 0L;
+		
+		long bytes = 16L + 4L * bitsets.length;
+		for (final BitSet bitset : bitsets)
+		{
+			bytes += bitSetBytes(bitset);
+		}
+		return bytes;
+	}
+	
 	//-------------------------------------------------------------------------
 
 }
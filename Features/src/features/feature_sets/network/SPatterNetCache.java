@@ -0,0 +1,620 @@
+package features.feature_sets.network;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import features.feature_sets.BaseFeatureSet.ProactiveFeaturesKey;
+import features.feature_sets.BaseFeatureSet.ReactiveFeaturesKey;
+import game.Game;
+
+/**
+ * Bounded cache of SPatterNets compiled just-in-time by JITSPatterNetFeatureSets,
+ * shared by all feature set objects (in the same JVM) that have equal lists of
+ * features, for the same game (and with the same thresholded features).
+ *
+ * Every entry of the cache is the group of SPatterNets built for a single
+ * proactive key: the net for proactive features, and the nets for all reactive
+ * keys with the same player, from and to positions. The approximate memory
+ * footprint of every group is tracked, and whenever the total footprint exceeds
+ * our memory budget, we evict least-recently-used groups (approximately, based
+ * on a logical clock that ticks on every miss) until we're back below 90% of the
+ * budget. Evicted groups are simply rebuilt if they are needed again later.
+ *
+ * Groups for different keys can be built concurrently without any locking. If
+ * multiple threads need the same missing group at the same time, only one of
+ * them builds it and the others wait for that result.
+ *
+ * @author Dennis Soemers
+ */
+public final class SPatterNetCache
+{
+
+	//-------------------------------------------------------------------------
+	
+	/** Default memory budget (in bytes): a quarter of the max heap size */
+	public static final long DEFAULT_MEMORY_BUDGET = Runtime.getRuntime().maxMemory() / 4L;
+	
+	/** Fraction of the memory budget that we evict down to once we exceed the budget */
+	private static final double EVICT_TO_FRACTION = 0.9;
+	
+	/** The cache shared by all JITSPatterNetFeatureSets */
+	private static final SPatterNetCache INSTANCE = new SPatterNetCache(DEFAULT_MEMORY_BUDGET);
+	
+	//-------------------------------------------------------------------------
+	
+	/** Max number of bytes we may use (approximately) */
+	private volatile long memoryBudget;
+	
+	/** Namespaces (one per combination of feature lists, game, and thresholded features) */
+	private final Map<NamespaceKey, Namespace> namespaces = new ConcurrentHashMap<NamespaceKey, Namespace>();
+	
+	/** Approximate number of bytes used by all groups currently in the cache */
+	private final AtomicLong footprint = new AtomicLong(0L);
+	
+	/** Number of groups currently in the cache */
+	private final AtomicLong numEntries = new AtomicLong(0L);
+	
+	/** Logical clock used for LRU eviction (ticks on every miss) */
+	private final AtomicLong clock = new AtomicLong(0L);
+	
+	/** Number of cache hits (adder rather than atomic, since we increment this on every lookup) */
+	private final LongAdder hits = new LongAdder();
+	
+	/** Number of cache misses (i.e., number of groups built) */
+	private final LongAdder misses = new LongAdder();
+	
+	/** Number of groups evicted */
+	private final AtomicLong evictions = new AtomicLong(0L);
+	
+	/** Set to true while a thread is evicting groups (only one thread evicts at a time) */
+	private final AtomicBoolean evicting = new AtomicBoolean(false);
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 * @param memoryBudget Max number of bytes we may use (approximately)
+	 */
+	public SPatterNetCache(final long memoryBudget)
+	{
+		this.memoryBudget = memoryBudget;
+	}
+	
+	/**
+	 * @return The cache shared by all JITSPatterNetFeatureSets
+	 */
+	public static SPatterNetCache instance()
+	{
+		return INSTANCE;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @param featureLists Object describing the features of a feature set (must
+	 * 	implement equals() and hashCode() based on the features)
+	 * @param game
+	 * @param thresholdedFeatures Bitset of thresholded features (empty if no thresholding)
+	 * @return Namespace in which feature sets with the given features, for the
+	 * 	given game, and with the given thresholded features can share SPatterNets.
+	 */
+	public Namespace namespace(final Object featureLists, final Game game, final BitSet thresholdedFeatures)
+	{
+		final NamespaceKey key = new NamespaceKey(featureLists, game, (BitSet) thresholdedFeatures.clone());
+		final Namespace namespace = namespaces.get(key);
+		
+		if (namespace != null)
+			return namespace;
+		
+		final Namespace newNamespace = new Namespace(game);
+		final Namespace oldNamespace = namespaces.putIfAbsent(key, newNamespace);
+		return (oldNamespace != null) ? oldNamespace : newNamespace;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Removes everything from the cache (does not reset hit/miss statistics).
+	 * Groups that are still being built while we clear are not removed.
+	 */
+	public void clear()
+	{
+		for (final Namespace namespace : namespaces.values())
+		{
+			for (final Entry<ProactiveFeaturesKey, CacheEntry> entry : namespace.entries.entrySet())
+			{
+				if (entry.getValue().future.isDone())
+					remove(namespace, entry.getKey(), entry.getValue(), false);
+			}
+		}
+		
+		namespaces.clear();
+	}
+	
+	/**
+	 * Sets a new memory budget, and immediately evicts groups if we exceed it.
+	 * @param newBudget Max number of bytes we may use (approximately)
+	 */
+	public void setMemoryBudget(final long newBudget)
+	{
+		memoryBudget = newBudget;
+		evictIfNecessary();
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @return Max number of bytes we may use (approximately)
+	 */
+	public long memoryBudget()
+	{
+		return memoryBudget;
+	}
+	
+	/**
+	 * @return Approximate number of bytes used by all SPatterNets currently in the cache
+	 */
+	public long footprint()
+	{
+		return footprint.get();
+	}
+	
+	/**
+	 * @return Number of groups of SPatterNets currently in the cache
+	 */
+	public long numEntries()
+	{
+		return numEntries.get();
+	}
+	
+	/**
+	 * @return Number of cache hits
+	 */
+	public long hits()
+	{
+		return hits.sum();
+	}
+	
+	/**
+	 * @return Number of cache misses
+	 */
+	public long misses()
+	{
+		return misses.sum();
+	}
+	
+	/**
+	 * @return Number of groups of SPatterNets evicted so far
+	 */
+	public long evictions()
+	{
+		return evictions.get();
+	}
+	
+	/**
+	 * @return Fraction of lookups that were cache hits
+	 */
+	public double hitRate()
+	{
+		final long numHits = hits.sum();
+		final long numLookups = numHits + misses.sum();
+		return (numLookups == 0L) ? 0.0 : (double) numHits / numLookups;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return String.format
+				(
+					"SPatterNetCache[entries=%d, footprint=%d/%d bytes, hits=%d, misses=%d, hit rate=%.4f, evictions=%d]",
+					Long.valueOf(numEntries()), Long.valueOf(footprint()), Long.valueOf(memoryBudget()),
+					Long.valueOf(hits()), Long.valueOf(misses()), Double.valueOf(hitRate()), Long.valueOf(evictions())
+				);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Evicts least-recently-used groups until we're back below our budget
+	 * (if we exceed it, and no other thread is already evicting).
+	 */
+	void evictIfNecessary()
+	{
+		if (footprint.get() <= memoryBudget || !evicting.compareAndSet(false, true))
+			return;
+		
+		try
+		{
+			final List<EvictionCandidate> candidates = new ArrayList<EvictionCandidate>();
+			final Iterator<Namespace> namespacesIt = namespaces.values().iterator();
+			
+			while (namespacesIt.hasNext())
+			{
+				final Namespace namespace = namespacesIt.next();
+				final boolean gameCollected = (namespace.game.get() == null);
+				
+				for (final Entry<ProactiveFeaturesKey, CacheEntry> entry : namespace.entries.entrySet())
+				{
+					final CacheEntry cacheEntry = entry.getValue();
+					
+					if (!cacheEntry.future.isDone())
+						continue;	// Still being built
+					
+					if (gameCollected)
+						remove(namespace, entry.getKey(), cacheEntry, true);
+					else
+						candidates.add(new EvictionCandidate(namespace, entry.getKey(), cacheEntry));
+				}
+				
+				if (gameCollected)
+					namespacesIt.remove();
+			}
+			
+			Collections.sort(candidates);
+			
+			final long target = (long) (EVICT_TO_FRACTION * memoryBudget);
+			for (final EvictionCandidate candidate : candidates)
+			{
+				if (footprint.get() <= target)
+					break;
+				
+				remove(candidate.namespace, candidate.key, candidate.entry, true);
+			}
+		}
+		finally
+		{
+			evicting.set(false);
+		}
+	}
+	
+	/**
+	 * Removes a (completed) entry from a namespace (if it's still in there)
+	 * @param namespace
+	 * @param key
+	 * @param entry
+	 * @param isEviction
+	 */
+	private void remove
+	(
+		final Namespace namespace,
+		final ProactiveFeaturesKey key,
+		final CacheEntry entry,
+		final boolean isEviction
+	)
+	{
+		if (namespace.entries.remove(key, entry))
+		{
+			footprint.addAndGet(-entry.bytes);
+			numEntries.decrementAndGet();
+			
+			if (isEviction)
+				evictions.incrementAndGet();
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Part of the cache in which feature sets with equal features, for the same
+	 * game, and with the same thresholded features, share SPatterNets.
+	 *
+	 * @author Dennis Soemers
+	 */
+	public final class Namespace
+	{
+		
+		/** The game (weak reference, we don't want to prevent it from being garbage collected) */
+		protected final WeakReference<Game> game;
+		
+		/** Our entries */
+		protected final Map<ProactiveFeaturesKey, CacheEntry> entries =
+				new ConcurrentHashMap<ProactiveFeaturesKey, CacheEntry>();
+		
+		/**
+		 * Constructor
+		 * @param game
+		 */
+		protected Namespace(final Game game)
+		{
+			this.game = new WeakReference<Game>(game);
+		}
+		
+		/**
+		 * @param key
+		 * @return Group of SPatterNets for given (proactive) key, or null if we 
+		 * 	don't have it (waits for it if it is currently being built).
+		 */
+		public NetGroup getIfPresent(final ProactiveFeaturesKey key)
+		{
+			final CacheEntry entry = entries.get(key);
+			
+			if (entry == null)
+				return null;
+			
+			hits.increment();
+			return entry.access();
+		}
+		
+		/**
+		 * @param key
+		 * @param builder Function to build the group for given key if we don't have it
+		 * @return Group of SPatterNets for given (proactive) key.
+		 */
+		public NetGroup get(final ProactiveFeaturesKey key, final Function<ProactiveFeaturesKey, NetGroup> builder)
+		{
+			final NetGroup cached = getIfPresent(key);
+			
+			if (cached != null)
+				return cached;
+			
+			final ProactiveFeaturesKey keyCopy = new ProactiveFeaturesKey(key);
+			final CacheEntry newEntry = new CacheEntry();
+			final CacheEntry oldEntry = entries.putIfAbsent(keyCopy, newEntry);
+			
+			if (oldEntry != null)
+			{
+				// Another thread is already building (or has just built) this group
+				hits.increment();
+				return oldEntry.access();
+			}
+			
+			misses.increment();
+			final NetGroup group;
+			
+			try
+			{
+				group = builder.apply(keyCopy);
+			}
+			catch (final RuntimeException e)
+			{
+				entries.remove(keyCopy, newEntry);
+				newEntry.future.completeExceptionally(e);
+				throw e;
+			}
+			
+			// NOTE: we account for memory before completing the future, and only 
+			// completed entries are ever removed, so removals always see correct sizes
+			newEntry.bytes = group.approxMemoryFootprint();
+			newEntry.lastAccess = clock.incrementAndGet();
+			footprint.addAndGet(newEntry.bytes);
+			numEntries.incrementAndGet();
+			newEntry.future.complete(group);
+			
+			evictIfNecessary();
+			return group;
+		}
+		
+		/**
+		 * @return Snapshot of all the groups currently in this namespace
+		 */
+		public Map<ProactiveFeaturesKey, NetGroup> snapshot()
+		{
+			final Map<ProactiveFeaturesKey, NetGroup> snapshot = new ConcurrentHashMap<ProactiveFeaturesKey, NetGroup>();
+			for (final Entry<ProactiveFeaturesKey, CacheEntry> entry : entries.entrySet())
+			{
+				final NetGroup group = entry.getValue().future.getNow(null);
+				if (group != null)
+					snapshot.put(entry.getKey(), group);
+			}
+			return snapshot;
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Group of SPatterNets built for a single proactive key: the net for
+	 * proactive features, and nets for all reactive keys with the same
+	 * player, from, and to positions.
+	 *
+	 * @author Dennis Soemers
+	 */
+	public static final class NetGroup
+	{
+		/** SPatterNet for proactive features (may be null) */
+		protected final SPatterNet proactiveNet;
+		
+		/** SPatterNets for reactive features (should not be modified after construction) */
+		protected final Map<ReactiveFeaturesKey, SPatterNet> reactiveNets;
+		
+		/**
+		 * Constructor
+		 * @param proactiveNet
+		 * @param reactiveNets
+		 */
+		public NetGroup(final SPatterNet proactiveNet, final Map<ReactiveFeaturesKey, SPatterNet> reactiveNets)
+		{
+			this.proactiveNet = proactiveNet;
+			this.reactiveNets = reactiveNets;
+		}
+		
+		/**
+		 * @return SPatterNet for proactive features (may be null)
+		 */
+		public SPatterNet proactiveNet()
+		{
+			return proactiveNet;
+		}
+		
+		/**
+		 * @return SPatterNets for reactive features
+		 */
+		public Map<ReactiveFeaturesKey, SPatterNet> reactiveNets()
+		{
+			return reactiveNets;
+		}
+		
+		/**
+		 * @return Approximate number of bytes used by this group
+		 */
+		public long approxMemoryFootprint()
+		{
+			// Object headers, plus a rough estimate of hash map overhead (entry + key) per reactive net
+			long bytes = 32L + 64L;
+			
+			if (proactiveNet != null)
+				bytes += proactiveNet.approxMemoryFootprint();
+			
+			for (final SPatterNet net : reactiveNets.values())
+			{
+				bytes += 80L + net.approxMemoryFootprint();
+			}
+			
+			return bytes;
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Entry of the cache
+	 *
+	 * @author Dennis Soemers
+	 */
+	private final class CacheEntry
+	{
+		/** Future that will contain the group once it has been built */
+		protected final CompletableFuture<NetGroup> future = new CompletableFuture<NetGroup>();
+		
+		/** Value of our clock when this entry was last accessed */
+		protected volatile long lastAccess = 0L;
+		
+		/** Approximate number of bytes used by our group */
+		protected volatile long bytes = 0L;
+		
+		/**
+		 * Constructor
+		 */
+		protected CacheEntry()
+		{
+			// Nothing to do here
+		}
+		
+		/**
+		 * Marks this entry as accessed, and returns its group (waiting for
+		 * it to be built if necessary)
+		 * @return The group
+		 */
+		protected NetGroup access()
+		{
+			final long now = clock.get();
+			
+			// Avoid writing to shared memory if we don't need to
+			if (lastAccess != now)
+				lastAccess = now;
+			
+			return future.join();
+		}
+	}
+	
+	/**
+	 * Candidate for eviction; sorts by time of last access
+	 *
+	 * @author Dennis Soemers
+	 */
+	private static final class EvictionCandidate implements Comparable<EvictionCandidate>
+	{
+		/** Namespace */
+		protected final Namespace namespace;
+		/** Key in namespace */
+		protected final ProactiveFeaturesKey key;
+		/** The entry */
+		protected final CacheEntry entry;
+		/** Time of last access (copied so sorting is stable with concurrent accesses) */
+		protected final long lastAccess;
+		
+		/**
+		 * Constructor
+		 * @param namespace
+		 * @param key
+		 * @param entry
+		 */
+		protected EvictionCandidate(final Namespace namespace, final ProactiveFeaturesKey key, final CacheEntry entry)
+		{
+			this.namespace = namespace;
+			this.key = key;
+			this.entry = entry;
+			this.lastAccess = entry.lastAccess;
+		}
+		
+		@Override
+		public int compareTo(final EvictionCandidate other)
+		{
+			return Long.compare(lastAccess, other.lastAccess);
+		}
+	}
+	
+	/**
+	 * Key for a namespace: lists of features, game (compared by identity),
+	 * and bitset of thresholded features.
+	 *
+	 * @author Dennis Soemers
+	 */
+	private static final class NamespaceKey
+	{
+		/** Lists of features */
+		protected final Object featureLists;
+		/** The game (weak reference, we don't want to prevent it from being garbage collected) */
+		protected final WeakReference<Game> game;
+		/** Identity hash code of game */
+		protected final int gameHash;
+		/** Thresholded features */
+		protected final BitSet thresholdedFeatures;
+		/** Cached hash code */
+		protected final int hashCode;
+		
+		/**
+		 * Constructor
+		 * @param featureLists
+		 * @param game
+		 * @param thresholdedFeatures
+		 */
+		protected NamespaceKey(final Object featureLists, final Game game, final BitSet thresholdedFeatures)
+		{
+			this.featureLists = featureLists;
+			this.game = new WeakReference<Game>(game);
+			this.gameHash = System.identityHashCode(game);
+			this.thresholdedFeatures = thresholdedFeatures;
+			this.hashCode = Objects.hash(featureLists, Integer.valueOf(gameHash), thresholdedFeatures);
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return hashCode;
+		}
+		
+		@Override
+		public boolean equals(final Object obj)
+		{
+			if (this == obj)
+				return true;
+			if (!(obj instanceof NamespaceKey))
+				return false;
+			
+			final NamespaceKey other = (NamespaceKey) obj;
+			final Game thisGame = game.get();
+			return hashCode == other.hashCode
+					&& thisGame != null
+					&& thisGame == other.game.get()
+					&& Objects.equals(thresholdedFeatures, other.thresholdedFeatures)
+					&& Objects.equals(featureLists, other.featureLists);
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+
+}
@@ -15,6 +15,7 @@ import java.util.stream.Stream;
 import features.Feature;
 import features.aspatial.AspatialFeature;
 import features.feature_sets.BaseFeatureSet;
+import features.spatial.FeatureUtils;
 import features.spatial.SpatialFeature;
 import features.spatial.Walk;
 import features.spatial.cache.ActiveFeaturesCache;
@@ -24,8 +25,11 @@ import features.spatial.instances.FeatureInstance;
 import game.Game;
 import gnu.trove.list.array.TFloatArrayList;
 import gnu.trove.list.array.TIntArrayList;
+import main.collections.FVector;
+import main.collections.FastArrayList;
 import main.collections.FastTIntArrayList;
 import other.context.Context;
+import other.move.Move;
 import other.state.State;
 import other.state.container.ContainerState;
 import other.trial.Trial;
@@ -285,6 +289,77 @@ public class SPatterNetFeatureSet extends BaseFeatureSet
 	
 	//-------------------------------------------------------------------------
 
+	@Override
+	public TIntArrayList[] computeSparseSpatialFeatureVectors
+	(
+		final State state, 
+		final Move lastDecisionMove,
+		final FastArrayList<Move> actions,
+		final boolean thresholded
+	)
+	{
+		// One bitboard snapshot of the state, shared by the nets for all the actions
+		final StateBitboards bitboards = (actions.size() > 1) ? StateBitboards.create(state) : null;
+		
+		final int lastFrom = FeatureUtils.fromPos(lastDecisionMove);
+		final int lastTo = FeatureUtils.toPos(lastDecisionMove);
+		
+		final TIntArrayList[] sparseFeatureVectors = new TIntArrayList[actions.size()];
+		for (int i = 0; i < actions.size(); ++i)
+		{
+			final Move action = actions.get(i);
+			final FastTIntArrayList featureIndices = new FastTIntArrayList(this.getNumSpatialFeatures());
+			addActiveSpatialFeatureIndices
+			(
+				state, bitboards, 
+				lastFrom, lastTo, 
+				FeatureUtils.fromPos(action), FeatureUtils.toPos(action), 
+				action.mover(), 
+				thresholded,
+				featureIndices
+			);
+			sparseFeatureVectors[i] = featureIndices;
+		}
+		
+		return sparseFeatureVectors;
+	}
+	
+	@Override
+	protected void computeSpatialLogits
+	(
+		final State state, 
+		final Move lastMove, 
+		final FastArrayList<Move> moves, 
+		final FVector weights,
+		final int weightsOffset,
+		final boolean thresholded,
+		final float[] outLogits
+	)
+	{
+		// One bitboard snapshot of the state, and one list of active features, shared by all the moves
+		final StateBitboards bitboards = (moves.size() > 1) ? StateBitboards.create(state) : null;
+		final FastTIntArrayList featureIndices = new FastTIntArrayList(this.getNumSpatialFeatures());
+		
+		final int lastFrom = FeatureUtils.fromPos(lastMove);
+		final int lastTo = FeatureUtils.toPos(lastMove);
+		
+		for (int i = 0; i < moves.size(); ++i)
+		{
+			final Move move = moves.get(i);
+			featureIndices.resetQuick();
+			addActiveSpatialFeatureIndices
+			(
+				state, bitboards, 
+				lastFrom, lastTo, 
+				FeatureUtils.fromPos(move), FeatureUtils.toPos(move), 
+				move.mover(), 
+				thresholded,
+				featureIndices
+			);
+			outLogits[i] = weights.dotSparse(featureIndices, weightsOffset);
+		}
+	}
+	
 	@Override
 	public TIntArrayList getActiveSpatialFeatureIndices
 	(
@@ -296,6 +371,36 @@ public class SPatterNetFeatureSet extends BaseFeatureSet
 		final int player,
 		final boolean thresholded
 	)
+	{
+		final FastTIntArrayList featureIndices = new FastTIntArrayList(this.getNumSpatialFeatures());
+		addActiveSpatialFeatureIndices(state, null, lastFrom, lastTo, from, to, player, thresholded, featureIndices);
+		return featureIndices;
+	}
+	
+	/**
+	 * @param state
+	 * @param bitboards Bitboard snapshot of the state (may be null)
+	 * @param lastFrom
+	 * @param lastTo
+	 * @param from
+	 * @param to
+	 * @param player
+	 * @param thresholded
+	 * @param featureIndices List to which we add the indices of all the features 
+	 * 	that are active for the given state+action pair
+	 */
+	private void addActiveSpatialFeatureIndices
+	(
+		final State state,
+		final StateBitboards bitboards,
+		final int lastFrom,
+		final int lastTo,
+		final int from,
+		final int to,
+		final int player,
+		final boolean thresholded,
+		final FastTIntArrayList featureIndices
+	)
 	{
 		final HashMap<ReactiveFeaturesKey, SPatterNet> reactiveFeaturesMap;
 		final HashMap<ProactiveFeaturesKey, SPatterNet> proactiveFeaturesMap;
@@ -310,8 +415,6 @@ public class SPatterNetFeatureSet extends BaseFeatureSet
 			proactiveFeaturesMap = proactiveFeatures;
 		}
 		
-		final FastTIntArrayList featureIndices = new FastTIntArrayList(this.getNumSpatialFeatures());
-		
 //		System.out.println("lastFrom = " + lastFrom);
 //		System.out.println("lastTo = " + lastTo);
 //		System.out.println("from = " + from);
@@ -363,7 +466,7 @@ public class SPatterNetFeatureSet extends BaseFeatureSet
 							final SPatterNet set = proactiveFeaturesMap.get(key);
 							
 							if (set != null)
-								featureIndices.addAll(set.getActiveFeatures(state));
+								set.addActiveFeatures(state, bitboards, featureIndices);
 						}
 					}
 				}
@@ -404,7 +507,7 @@ public class SPatterNetFeatureSet extends BaseFeatureSet
 										final SPatterNet set = reactiveFeaturesMap.get(reactiveKey);
 										
 										if (set != null)
-											featureIndices.addAll(set.getActiveFeatures(state));
+											set.addActiveFeatures(state, bitboards, featureIndices);
 									}
 								}
 							}
@@ -413,8 +516,6 @@ public class SPatterNetFeatureSet extends BaseFeatureSet
 				}
 			}
 		}
-		
-		return featureIndices;
 	}
 
 	@Override
@@ -0,0 +1,226 @@
+package features.feature_sets.network;
+
+import java.util.BitSet;
+
+import features.spatial.instances.AtomicProposition.StateVectorTypes;
+import game.types.board.SiteType;
+import main.collections.ChunkSet;
+import other.state.State;
+import other.state.container.ContainerFlatState;
+import other.state.container.ContainerState;
+
+/**
+ * Bitboard snapshot of the parts of a game state that are tested by the
+ * atomic propositions of feature instances. For every site type, we store one
+ * bitboard (array of longs with one bit per site) of empty sites, one bitboard
+ * per "who" value, and one bitboard per "what" value.
+ *
+ * A snapshot is computed once per state, and can then be shared by all the
+ * SPatterNets that we evaluate for all the legal moves in that state. Those
+ * nets can then check complete feature instances with a few AND / compare
+ * operations on words of these bitboards, rather than testing propositions
+ * one by one against the state's chunk sets.
+ *
+ * Snapshots are only supported for flat container states (which are the only
+ * ones for which SPatterNets are used in practice); for any other kind of
+ * container state, create() returns null.
+ *
+ * A snapshot also holds some scratch space used by SPatterNets while they are
+ * evaluated against it, so it should only be used by one thread at a time.
+ *
+ * @author Dennis Soemers
+ */
+public final class StateBitboards
+{
+
+	//-------------------------------------------------------------------------
+	
+	/** Site types we support, indexed by ordinal */
+	private static final SiteType[] SITE_TYPES = SiteType.values();
+	
+	/** For every site type, bitboard of empty sites */
+	private final long[][] empty;
+	
+	/** For every site type, for every who value, bitboard of sites with that value */
+	private final long[][][] who;
+	
+	/** For every site type, for every what value, bitboard of sites with that value */
+	private final long[][][] what;
+	
+	/** For every site type, a bitboard without any sites (returned for values that never occur) */
+	private final long[][] noSites;
+	
+	/** Scratch space: bitboards looked up for the SPatterNet we're currently evaluating */
+	private long[][] netBitboards = new long[0][];
+	
+	/** Scratch space: active instances of the SPatterNet we're currently evaluating */
+	private final BitSet netInstances = new BitSet();
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 * @param containerState
+	 */
+	private StateBitboards(final ContainerState containerState)
+	{
+		empty = new long[SITE_TYPES.length][];
+		who = new long[SITE_TYPES.length][][];
+		what = new long[SITE_TYPES.length][][];
+		noSites = new long[SITE_TYPES.length][];
+		
+		for (final SiteType siteType : SITE_TYPES)
+		{
+			final int t = siteType.ordinal();
+			final int numSites = containerState.container().topology().getGraphElements(siteType).size();
+			final int numWords = (numSites + 63) >> 6;
+			
+			noSites[t] = new long[numWords];
+			empty[t] = new long[numWords];
+			
+			final ChunkSet emptyChunkSet;
+			final ChunkSet whoChunkSet;
+			final ChunkSet whatChunkSet;
+			
+			switch (siteType)
+			{
+			case Cell:
+				emptyChunkSet = containerState.emptyChunkSetCell();
+				whoChunkSet = containerState.cloneWhoCell();
+				whatChunkSet = containerState.cloneWhatCell();
+				break;
+			case Vertex:
+				emptyChunkSet = containerState.emptyChunkSetVertex();
+				whoChunkSet = containerState.cloneWhoVertex();
+				whatChunkSet = containerState.cloneWhatVertex();
+				break;
+			case Edge:
+				emptyChunkSet = containerState.emptyChunkSetEdge();
+				whoChunkSet = containerState.cloneWhoEdge();
+				whatChunkSet = containerState.cloneWhatEdge();
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported site type: " + siteType);
+			}
+			
+			if (emptyChunkSet != null)
+			{
+				for (int site = emptyChunkSet.nextSetBit(0); site >= 0 && site < numSites; site = emptyChunkSet.nextSetBit(site + 1))
+				{
+					empty[t][site >> 6] |= (1L << site);
+				}
+			}
+			
+			who[t] = valueBitboards(whoChunkSet, numSites, numWords);
+			what[t] = valueBitboards(whatChunkSet, numSites, numWords);
+		}
+	}
+	
+	/**
+	 * @param state
+	 * @return Bitboard snapshot of given state, or null if we do not support
+	 * 	snapshots for the kind of container state used by the given state.
+	 */
+	public static StateBitboards create(final State state)
+	{
+		final ContainerState containerState = state.containerStates()[0];
+		
+		if (!(containerState instanceof ContainerFlatState))
+			return null;
+		
+		return new StateBitboards(containerState);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * NOTE: returns our internal bitboard, which should not be modified!
+	 *
+	 * @param siteType
+	 * @param stateVectorType
+	 * @param value Who or what value (ignored for Empty)
+	 * @return Bitboard of sites (of given type) that are empty, or that have the given
+	 * 	who or what value. Always has one bit for every site of the given type.
+	 */
+	public long[] bitboard(final SiteType siteType, final StateVectorTypes stateVectorType, final int value)
+	{
+		final int t = siteType.ordinal();
+		
+		switch (stateVectorType)
+		{
+		case Empty:
+			return empty[t];
+		case Who:
+			return (value < who[t].length) ? who[t][value] : noSites[t];
+		case What:
+			return (value < what[t].length) ? what[t][value] : noSites[t];
+		default:
+			return noSites[t];
+		}
+	}
+	
+	/**
+	 * NOTE: returns scratch space that is overwritten by the next call!
+	 * 
+	 * @param siteTypes
+	 * @param stateVectorTypes
+	 * @param values
+	 * @return Array with, for every given triple of site type, state vector type,
+	 * 	and value, the corresponding bitboard.
+	 */
+	long[][] lookupBitboards(final SiteType[] siteTypes, final StateVectorTypes[] stateVectorTypes, final int[] values)
+	{
+		if (netBitboards.length < siteTypes.length)
+			netBitboards = new long[siteTypes.length][];
+		
+		for (int i = 0; i < siteTypes.length; ++i)
+		{
+			netBitboards[i] = bitboard(siteTypes[i], stateVectorTypes[i], values[i]);
+		}
+		
+		return netBitboards;
+	}
+	
+	/**
+	 * NOTE: returns scratch space that is shared by all SPatterNets evaluated against this snapshot!
+	 * @return Bitset that SPatterNets can use to track active instances
+	 */
+	BitSet scratchInstances()
+	{
+		return netInstances;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @param chunkSet
+	 * @param numSites
+	 * @param numWords
+	 * @return For every value that occurs in the given chunk set, a bitboard of the
+	 * 	sites with that value (empty array if the chunk set is null)
+	 */
+	private static long[][] valueBitboards(final ChunkSet chunkSet, final int numSites, final int numWords)
+	{
+		if (chunkSet == null)
+			return new long[0][];
+		
+		final int maxSite = Math.min(numSites, chunkSet.numChunks());
+		
+		int maxValue = 0;
+		for (int site = 0; site < maxSite; ++site)
+		{
+			maxValue = Math.max(maxValue, chunkSet.getChunk(site));
+		}
+		
+		final long[][] bitboards = new long[maxValue + 1][numWords];
+		for (int site = 0; site < maxSite; ++site)
+		{
+			bitboards[chunkSet.getChunk(site)][site >> 6] |= (1L << site);
+		}
+		
+		return bitboards;
+	}
+	
+	//-------------------------------------------------------------------------
+
+}
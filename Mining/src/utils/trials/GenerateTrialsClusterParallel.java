@@ -242,6 +242,7 @@ public class GenerateTrialsClusterParallel
 				
 											final Trial trial = new Trial(rulesetGame);
 											final Context context = new Context(rulesetGame, trial);
+											context.setThreadConfined(true);
 						
 											final byte[] startRNGState = ((RandomProviderDefaultState) context.rng().saveState()).getState();
 											rulesetGame.start(context);
@@ -400,6 +401,7 @@ public class GenerateTrialsClusterParallel
 										
 									final Trial trial = new Trial(game);
 									final Context context = new Context(game, trial);
+									context.setThreadConfined(true);
 						
 									final byte[] startRNGState = ((RandomProviderDefaultState) context.rng().saveState()).getState();
 									game.start(context);
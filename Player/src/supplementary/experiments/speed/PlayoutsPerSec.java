@@ -40,6 +40,7 @@ import metadata.ai.features.trees.FeatureTrees;
 import metadata.ai.features.trees.classifiers.DecisionTree;
 import other.GameLoader;
 import other.context.Context;
+import other.move.IncrementalLegalMoves;
 import other.playout.PlayoutMoveSelector;
 import other.trial.Trial;
 import playout_move_selectors.DecisionTreeMoveSelector;
@@ -88,6 +89,9 @@ public final class PlayoutsPerSec
 	/** If true, we disable custom (optimised) playout strategies on any games played */
 	private boolean noCustomPlayouts;
 	
+	/** If true, we incrementally maintain legal moves where possible (see IncrementalLegalMoves), after verifying them */
+	private boolean incrementalLegalMoves;
+	
 	//-------------------------------------------------------------------------
 	
 	/**
@@ -219,9 +223,25 @@ public final class PlayoutsPerSec
 				game.disableCustomPlayouts();
 			}
 			
+			if (incrementalLegalMoves)
+			{
+				// Only enable if incremental legal moves match full generation in random playouts
+				final int numMismatches = IncrementalLegalMoves.verify(game, 10, 500, new Random(seed));
+				final int numPhases = (numMismatches == 0) ? game.setIncrementalLegalMoves(true) : 0;
+				
+				if (!suppressPrints)
+				{
+					System.out.println
+					(
+						"Incrementally maintaining legal moves in " + numPhases + " phases (" + 
+						numMismatches + " mismatches with full generation)."
+					);
+				}
+			}
+			
 			final String[] result = new String[4];
 			if (game != null && !suppressPrints)
-				System.out.println("Run: " + game.name());
+				System.out.println("Run: " + game.name() + " (" + game.numFoldedLudemes() + " ludemes folded into constants)");
 
 			result[0] = game.name();
 			
@@ -230,6 +250,7 @@ public final class PlayoutsPerSec
 
 			final Trial trial = new Trial(game);
 			final Context context = new Context(game, trial);
+			context.setThreadConfined(true);
 
 			// Warming up
 			long stopAt = 0L;
@@ -808,6 +829,12 @@ public final class PlayoutsPerSec
 				.withNumVals(0)
 				.withType(OptionTypes.Boolean));
 		
+		argParse.addOption(new ArgOption()
+				.withNames("--incremental-legal-moves")
+				.help("Use this to incrementally maintain legal moves where possible (verified against full generation first). Custom playouts may bypass this.")
+				.withNumVals(0)
+				.withType(OptionTypes.Boolean));
+		
 		argParse.addOption(new ArgOption()
 				.withNames("--features-to-use")
 				.help("Features to use (no features are used by default)")
@@ -838,6 +865,7 @@ public final class PlayoutsPerSec
 		experiment.exportCSV = argParse.getValueString("--export-csv");
 		experiment.suppressPrints = argParse.getValueBool("--suppress-prints");
 		experiment.noCustomPlayouts = argParse.getValueBool("--no-custom-playouts");
+		experiment.incrementalLegalMoves = argParse.getValueBool("--incremental-legal-moves");
 		
 		experiment.featuresToUse = argParse.getValueString("--features-to-use");
 		experiment.featureSetType = argParse.getValueString("--feature-set-type");
@@ -0,0 +1,265 @@
+package supplementary.experiments.speed;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import main.CommandLineArgParse;
+import main.CommandLineArgParse.ArgOption;
+import main.CommandLineArgParse.OptionTypes;
+import training.expert_iteration.ExItExperience;
+import utils.data_structures.experience_buffers.PrioritizedReplayBuffer;
+
+/**
+ * Experiment for measuring throughput of the Prioritized Experience Replay
+ * buffer when used concurrently by multiple threads. For every number of
+ * threads, we separately measure:
+ * 	- Producer throughput: number of samples added per second.
+ * 	- Consumer throughput: number of batches sampled (and re-prioritised) per second.
+ * 	- Mixed throughput: half the threads produce, half the threads consume.
+ *
+ * @author Dennis Soemers
+ */
+public final class ReplayBufferThroughput
+{
+	/** Number of seconds of warming up (per measurement) */
+	private int warmingUpSecs;
+	
+	/** Number of seconds over which we measure throughput (per measurement) */
+	private int measureSecs;
+	
+	/** Capacity of the replay buffer */
+	private int replayCapacity;
+	
+	/** Batch size for consumers */
+	private int batchSize;
+	
+	/** Numbers of threads for which to measure throughput */
+	private List<Integer> numThreads;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 */
+	private ReplayBufferThroughput()
+	{
+		// Nothing to do here
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Start the experiment
+	 */
+	public void startExperiment()
+	{
+		System.out.println("threads,producer adds/s,consumer batches/s,mixed adds/s,mixed batches/s");
+		
+		for (final Integer n : numThreads)
+		{
+			final int threads = n.intValue();
+			
+			final PrioritizedReplayBuffer producerBuffer = new PrioritizedReplayBuffer(replayCapacity);
+			final double adds = measure(producerBuffer, threads, 0)[0];
+			
+			final PrioritizedReplayBuffer consumerBuffer = filledBuffer();
+			final double batches = measure(consumerBuffer, 0, threads)[1];
+			
+			final PrioritizedReplayBuffer mixedBuffer = filledBuffer();
+			final int numProducers = Math.max(1, threads / 2);
+			final int numConsumers = Math.max(1, threads - numProducers);
+			final double[] mixed = measure(mixedBuffer, numProducers, numConsumers);
+			
+			System.out.println
+			(
+				threads + "," +
+				String.format("%.1f", Double.valueOf(adds)) + "," +
+				String.format("%.1f", Double.valueOf(batches)) + "," +
+				String.format("%.1f", Double.valueOf(mixed[0])) + "," +
+				String.format("%.1f", Double.valueOf(mixed[1]))
+			);
+		}
+	}
+	
+	/**
+	 * @return Replay buffer filled up to capacity
+	 */
+	private PrioritizedReplayBuffer filledBuffer()
+	{
+		final PrioritizedReplayBuffer buffer = new PrioritizedReplayBuffer(replayCapacity);
+		for (int i = 0; i < replayCapacity; ++i)
+		{
+			buffer.add(blankExperience(), 0.01f + ThreadLocalRandom.current().nextFloat());
+		}
+		return buffer;
+	}
+	
+	/**
+	 * @return Blank sample of experience
+	 */
+	private static ExItExperience blankExperience()
+	{
+		return new ExItExperience(null, null, null, null, null, 1.f);
+	}
+	
+	/**
+	 * Measures throughput with given numbers of producers and consumers
+	 *
+	 * @param buffer
+	 * @param numProducers
+	 * @param numConsumers
+	 * @return Array with number of adds per second, and number of batches per second
+	 */
+	private double[] measure(final PrioritizedReplayBuffer buffer, final int numProducers, final int numConsumers)
+	{
+		final AtomicLong numAdds = new AtomicLong(0L);
+		final AtomicLong numBatches = new AtomicLong(0L);
+		final AtomicBoolean measuring = new AtomicBoolean(false);
+		final AtomicBoolean stop = new AtomicBoolean(false);
+		final CountDownLatch latch = new CountDownLatch(numProducers + numConsumers);
+		
+		final ExecutorService threadPool = Executors.newFixedThreadPool(numProducers + numConsumers);
+		
+		for (int i = 0; i < numProducers; ++i)
+		{
+			threadPool.submit
+			(
+				() ->
+				{
+					long localAdds = 0L;
+					while (!stop.get())
+					{
+						buffer.add(blankExperience(), 0.01f + ThreadLocalRandom.current().nextFloat());
+						if (measuring.get())
+							++localAdds;
+					}
+					numAdds.addAndGet(localAdds);
+					latch.countDown();
+				}
+			);
+		}
+		
+		for (int i = 0; i < numConsumers; ++i)
+		{
+			threadPool.submit
+			(
+				() ->
+				{
+					long localBatches = 0L;
+					final float[] priorities = new float[batchSize];
+					while (!stop.get())
+					{
+						final List<ExItExperience> batch = buffer.sampleExperienceBatch(batchSize);
+						final int[] indices = new int[batch.size()];
+						for (int j = 0; j < indices.length; ++j)
+						{
+							indices[j] = batch.get(j).bufferIdx();
+							priorities[j] = 0.01f + ThreadLocalRandom.current().nextFloat();
+						}
+						buffer.setPriorities(indices, Arrays.copyOf(priorities, indices.length));
+						
+						if (measuring.get())
+							++localBatches;
+					}
+					numBatches.addAndGet(localBatches);
+					latch.countDown();
+				}
+			);
+		}
+		
+		try
+		{
+			Thread.sleep(warmingUpSecs * 1000L);
+			measuring.set(true);
+			final long startTime = System.nanoTime();
+			Thread.sleep(measureSecs * 1000L);
+			measuring.set(false);
+			final double secs = (System.nanoTime() - startTime) / 1.0e9;
+			stop.set(true);
+			latch.await();
+			threadPool.shutdown();
+			threadPool.awaitTermination(1, TimeUnit.MINUTES);
+			
+			return new double[]{numAdds.get() / secs, numBatches.get() / secs};
+		}
+		catch (final InterruptedException e)
+		{
+			e.printStackTrace();
+		}
+		
+		return new double[]{Double.NaN, Double.NaN};
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Main method
+	 * @param args
+	 */
+	@SuppressWarnings("unchecked")
+	public static void main(final String[] args)
+	{
+		// define options for arg parser
+		final CommandLineArgParse argParse =
+				new CommandLineArgParse
+				(
+					true,
+					"Measure throughput of concurrent producers and consumers of a Prioritized Experience Replay buffer."
+				);
+		
+		argParse.addOption(new ArgOption()
+				.withNames("--warming-up-secs", "--warming-up")
+				.help("Number of seconds of warming up (per measurement).")
+				.withDefault(Integer.valueOf(2))
+				.withNumVals(1)
+				.withType(OptionTypes.Int));
+		argParse.addOption(new ArgOption()
+				.withNames("--measure-secs")
+				.help("Number of seconds over which we measure throughput (per measurement).")
+				.withDefault(Integer.valueOf(5))
+				.withNumVals(1)
+				.withType(OptionTypes.Int));
+		argParse.addOption(new ArgOption()
+				.withNames("--replay-capacity")
+				.help("Capacity of the replay buffer.")
+				.withDefault(Integer.valueOf(2500))
+				.withNumVals(1)
+				.withType(OptionTypes.Int));
+		argParse.addOption(new ArgOption()
+				.withNames("--batch-size")
+				.help("Batch size for consumers.")
+				.withDefault(Integer.valueOf(30))
+				.withNumVals(1)
+				.withType(OptionTypes.Int));
+		argParse.addOption(new ArgOption()
+				.withNames("--num-threads")
+				.help("Numbers of threads for which to measure throughput.")
+				.withDefault(Arrays.asList(Integer.valueOf(1), Integer.valueOf(2), Integer.valueOf(4),
+						Integer.valueOf(8), Integer.valueOf(16), Integer.valueOf(32)))
+				.withNumVals("+")
+				.withType(OptionTypes.Int));
+		
+		// Parse the args
+		if (!argParse.parseArguments(args))
+			return;
+		
+		// use the parsed args
+		final ReplayBufferThroughput experiment = new ReplayBufferThroughput();
+		
+		experiment.warmingUpSecs = argParse.getValueInt("--warming-up-secs");
+		experiment.measureSecs = argParse.getValueInt("--measure-secs");
+		experiment.replayCapacity = argParse.getValueInt("--replay-capacity");
+		experiment.batchSize = argParse.getValueInt("--batch-size");
+		experiment.numThreads = (List<Integer>) argParse.getValue("--num-threads");
+		
+		experiment.startExperiment();
+	}
+
+}
@@ -0,0 +1,148 @@
+package ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import game.Game;
+import main.collections.FastArrayList;
+import other.GameLoader;
+import other.context.Context;
+import other.move.Move;
+import search.minimax.AlphaBetaSearch;
+
+/**
+ * Unit test for alpha-beta search with Lazy SMP, transposition tables and
+ * make/unmake. Checks that solved Tic-Tac-Toe positions get their correct
+ * values in every configuration, and that searches never modify the context
+ * they are given. See TestApplyUndo for the undo that make/unmake relies on.
+ *
+ * @author Dennis Soemers
+ */
+public class TestAlphaBetaSearch
+{
+
+	/** Thread counts to test */
+	private static final int[] NUM_THREADS = new int[] {1, 3};
+	
+	/** Games in which we search random positions with make/unmake */
+	private static final String[] MAKE_UNMAKE_GAMES = new String[] {"Breakthrough.lud", "Chess.lud", "Mu Torere.lud"};
+	
+	/** Depth for searches of random positions */
+	private static final int MAKE_UNMAKE_DEPTH = 2;
+	
+	/** Number of random positions per game */
+	private static final int NUM_MAKE_UNMAKE_POSITIONS = 10;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Tests solved Tic-Tac-Toe positions in all configurations
+	 */
+	@Test
+	@SuppressWarnings("static-method")
+	public void testSolvedPositions()
+	{
+		final Game game = GameLoader.loadGameFromName("Tic-Tac-Toe.lud");
+		
+		for (final int numThreads : NUM_THREADS)
+		{
+			for (final boolean transpositionTable : new boolean[] {true, false})
+			{
+				for (final boolean makeUnmake : new boolean[] {false, true})
+				{
+					final String config = "threads = " + numThreads + ", TT = " + transpositionTable + ", make/unmake = " + makeUnmake;
+					
+					// Empty board is a draw, so neither a proven win nor a proven loss
+					final Context emptyBoard = TicTacToePositions.emptyBoard(game);
+					assertTrue(config, Math.abs(search(game, emptyBoard, numThreads, transpositionTable, makeUnmake, 9)) < 0.9);
+					
+					// Player 1 in the centre and player 2 on an edge is a win for player 1
+					final Context centreEdge = TicTacToePositions.centreEdge(game);
+					assertTrue(config, search(game, centreEdge, numThreads, transpositionTable, makeUnmake, 7) > 0.9);
+					
+					// Player 2 to move, facing two open lines of player 1: a loss for player 2
+					final Context doubleThreat = TicTacToePositions.doubleThreat(game);
+					assertTrue(config, search(game, doubleThreat, numThreads, transpositionTable, makeUnmake, 4) < -0.9);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Tests make/unmake searches, with and without helper threads, in random
+	 * positions of games with captures and promotions
+	 */
+	@Test
+	@SuppressWarnings("static-method")
+	public void testMakeUnmake()
+	{
+		for (final String gameName : MAKE_UNMAKE_GAMES)
+		{
+			final Game game = GameLoader.loadGameFromName(gameName);
+			final Random rng = new Random(gameName.hashCode());
+			final Context context = TicTacToePositions.startContext(game);
+			
+			for (int i = 0; i < NUM_MAKE_UNMAKE_POSITIONS && !context.trial().over(); ++i)
+			{
+				for (final int numThreads : NUM_THREADS)
+				{
+					final double value = search(game, context, numThreads, true, true, MAKE_UNMAKE_DEPTH);
+					assertTrue(gameName + ", position " + i, value >= -1.0 && value <= 1.0);
+				}
+				
+				final FastArrayList<Move> legalMoves = game.moves(context).moves();
+				game.apply(context, legalMoves.get(rng.nextInt(legalMoves.size())));
+			}
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Runs a depth-limited search for the mover in given context, and checks
+	 * that the search did not modify the context.
+	 *
+	 * @param game
+	 * @param context
+	 * @param numThreads
+	 * @param transpositionTable
+	 * @param makeUnmake
+	 * @param depth
+	 * @return Value estimate of the search for the mover
+	 */
+	private static double search
+	(
+		final Game game,
+		final Context context,
+		final int numThreads,
+		final boolean transpositionTable,
+		final boolean makeUnmake,
+		final int depth
+	)
+	{
+		final AlphaBetaSearch alphaBeta = new AlphaBetaSearch(transpositionTable);
+		alphaBeta.setNumThreads(numThreads);
+		alphaBeta.setAllowMakeUnmake(makeUnmake);
+		alphaBeta.initAI(game, context.state().mover());
+		
+		final long hashBefore = context.state().fullHash(context);
+		final int numMovesBefore = context.trial().numMoves();
+		
+		final Move move = alphaBeta.selectAction(game, context, -1.0, -1, depth);
+		assertNotNull(move);
+		assertEquals(hashBefore, context.state().fullHash(context));
+		assertEquals(numMovesBefore, context.trial().numMoves());
+		
+		final double value = alphaBeta.estimateValue();
+		alphaBeta.closeAI();
+		return value;
+	}
+	
+	//-------------------------------------------------------------------------
+
+}
@@ -0,0 +1,99 @@
+package ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+
+import game.Game;
+import other.GameLoader;
+import other.context.Context;
+import other.move.Move;
+import search.pns.DepthFirstProofNumberSearch;
+import search.pns.PNSNode.PNSNodeValues;
+import search.pns.ProofNumberSearch.ProofGoals;
+
+/**
+ * Unit test to check that df-pn correctly proves and disproves small
+ * solved positions of Tic-Tac-Toe, with one or more threads, and also
+ * with a transposition table that is far too small to hold the tree.
+ *
+ * @author Dennis Soemers
+ */
+public class TestDepthFirstProofNumberSearch
+{
+
+	/** Thread counts to test */
+	private static final int[] NUM_THREADS = new int[] {1, 3};
+	
+	/** Transposition table sizes (in MB) to test; 0 gives just a single bucket */
+	private static final int[] TT_SIZES_MB = new int[] {DepthFirstProofNumberSearch.DEFAULT_TT_SIZE_MB, 0};
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * The test to run
+	 */
+	@Test
+	@SuppressWarnings("static-method")
+	public void test()
+	{
+		final Game game = GameLoader.loadGameFromName("Tic-Tac-Toe.lud");
+		
+		for (final int numThreads : NUM_THREADS)
+		{
+			for (final int ttSizeMB : TT_SIZES_MB)
+			{
+				// Empty board is a draw: neither a win nor a loss for player 1
+				final Context emptyBoard = TicTacToePositions.emptyBoard(game);
+				assertEquals(PNSNodeValues.FALSE, solve(game, emptyBoard, ProofGoals.PROVE_WIN, numThreads, ttSizeMB));
+				assertEquals(PNSNodeValues.FALSE, solve(game, emptyBoard, ProofGoals.PROVE_LOSS, numThreads, ttSizeMB));
+				
+				// Player 1 in the centre and player 2 on an edge is a win for player 1
+				final Context centreEdge = TicTacToePositions.centreEdge(game);
+				assertEquals(PNSNodeValues.TRUE, solve(game, centreEdge, ProofGoals.PROVE_WIN, numThreads, ttSizeMB));
+				
+				// Player 2 to move, after player 1 has two open lines through the
+				// centre and player 2 failed to block either: a loss for player 2
+				final Context doubleThreat = TicTacToePositions.doubleThreat(game);
+				assertEquals(PNSNodeValues.TRUE, solve(game, doubleThreat, ProofGoals.PROVE_LOSS, numThreads, ttSizeMB));
+				assertEquals(PNSNodeValues.FALSE, solve(game, doubleThreat, ProofGoals.PROVE_WIN, numThreads, ttSizeMB));
+			}
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @param game
+	 * @param context
+	 * @param proofGoal
+	 * @param numThreads
+	 * @param ttSizeMB
+	 * @return Result of a df-pn search for the mover in given context
+	 */
+	private static PNSNodeValues solve
+	(
+		final Game game,
+		final Context context,
+		final ProofGoals proofGoal,
+		final int numThreads,
+		final int ttSizeMB
+	)
+	{
+		final DepthFirstProofNumberSearch dfpn = new DepthFirstProofNumberSearch(proofGoal);
+		dfpn.setNumThreads(numThreads);
+		dfpn.setTranspositionTableSizeMB(ttSizeMB);
+		dfpn.initAI(game, context.state().mover());
+		
+		final Move move = dfpn.selectAction(game, new Context(context), -1.0, -1, -1);
+		assertNotNull(move);
+		final PNSNodeValues result = dfpn.lastResult();
+		
+		dfpn.closeAI();
+		return result;
+	}
+	
+	//-------------------------------------------------------------------------
+
+}
@@ -0,0 +1,189 @@
+package ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import utils.data_structures.transposition_table.LockFreeTranspositionTable;
+import utils.data_structures.transposition_table.TranspositionTable;
+
+/**
+ * Unit tests for the lock-free transposition table used by Lazy SMP
+ * alpha-beta search: storing and retrieving data, replacement within
+ * buckets across searches, sizing, and concurrent use by many threads.
+ *
+ * @author Dennis Soemers
+ */
+@SuppressWarnings("static-method")
+public class TestLockFreeTranspositionTable
+{
+
+	/** Number of threads for the concurrency test */
+	private static final int NUM_THREADS = 4;
+	
+	/** Number of stores per thread for the concurrency test */
+	private static final int NUM_STORES_PER_THREAD = 200000;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Tests storing and retrieving data
+	 */
+	@Test
+	public void testStoreRetrieve()
+	{
+		final LockFreeTranspositionTable table = new LockFreeTranspositionTable(4);
+		final long hash = 0x0123456789ABCDEFL;
+		
+		assertEquals(LockFreeTranspositionTable.NO_DATA, table.retrieve(hash));
+		
+		table.store(7, hash, 0.25f, 3, TranspositionTable.LOWER_BOUND);
+		long data = table.retrieve(hash);
+		assertEquals(0.25f, LockFreeTranspositionTable.value(data), 0.f);
+		assertEquals(7, LockFreeTranspositionTable.bestMoveIdx(data));
+		assertEquals(3, LockFreeTranspositionTable.depth(data));
+		assertEquals(TranspositionTable.LOWER_BOUND, LockFreeTranspositionTable.valueType(data));
+		
+		// Shallower data for the same state in the same search is ignored
+		table.store(1, hash, -1.f, 2, TranspositionTable.EXACT_VALUE);
+		data = table.retrieve(hash);
+		assertEquals(0.25f, LockFreeTranspositionTable.value(data), 0.f);
+		
+		// Deeper data replaces it
+		table.store(-1, hash, -1.f, 4, TranspositionTable.EXACT_VALUE);
+		data = table.retrieve(hash);
+		assertEquals(-1.f, LockFreeTranspositionTable.value(data), 0.f);
+		assertEquals(-1, LockFreeTranspositionTable.bestMoveIdx(data));
+		assertEquals(4, LockFreeTranspositionTable.depth(data));
+		assertEquals(TranspositionTable.EXACT_VALUE, LockFreeTranspositionTable.valueType(data));
+		
+		// Same bucket, different hash: no data
+		assertEquals(LockFreeTranspositionTable.NO_DATA, table.retrieve(hash ^ 1L));
+	}
+	
+	/**
+	 * Tests that data from older searches is replaced before data from the
+	 * current search, even if it is (somewhat) deeper
+	 */
+	@Test
+	public void testReplacement()
+	{
+		// A single bucket with the default number of slots
+		final LockFreeTranspositionTable table = new LockFreeTranspositionTable(0);
+		final int numSlots = LockFreeTranspositionTable.DEFAULT_SLOTS_PER_BUCKET;
+		assertEquals(numSlots, table.capacity());
+		
+		for (long hash = 1L; hash <= numSlots; ++hash)
+			table.store(0, hash, 0.f, 5, TranspositionTable.EXACT_VALUE);
+		assertEquals(numSlots, table.nbEntries());
+		
+		table.newSearch();
+		
+		for (long hash = numSlots + 1L; hash <= 2L * numSlots; ++hash)
+			table.store(0, hash, 0.f, 1, TranspositionTable.EXACT_VALUE);
+		
+		for (long hash = 1L; hash <= numSlots; ++hash)
+			assertEquals(LockFreeTranspositionTable.NO_DATA, table.retrieve(hash));
+		
+		for (long hash = numSlots + 1L; hash <= 2L * numSlots; ++hash)
+			assertTrue(table.retrieve(hash) != LockFreeTranspositionTable.NO_DATA);
+		
+		table.clear();
+		assertEquals(0, table.nbEntries());
+	}
+	
+	/**
+	 * Tests that tables sized in megabytes fit in, and fill at least half of, the given size
+	 */
+	@Test
+	public void testSizeMB()
+	{
+		for (final int sizeMB : new int[] {1, 3, 16})
+		{
+			final long numBytes = LockFreeTranspositionTable.withSizeMB(sizeMB, 4).capacity() * 2L * Long.BYTES;
+			assertTrue(numBytes <= (((long) sizeMB) << 20));
+			assertTrue(numBytes > (((long) sizeMB) << 19));
+		}
+		
+		// Always at least one bucket
+		assertEquals(4, LockFreeTranspositionTable.withSizeMB(0, 4).capacity());
+	}
+	
+	/**
+	 * Tests that threads concurrently storing and retrieving data in a small
+	 * table never retrieve data that was stored for a different hash
+	 */
+	@Test
+	public void testConcurrentUse() throws InterruptedException
+	{
+		final LockFreeTranspositionTable table = new LockFreeTranspositionTable(6);
+		final ExecutorService threadPool = Executors.newFixedThreadPool(NUM_THREADS);
+		final CountDownLatch latch = new CountDownLatch(NUM_THREADS);
+		final AtomicReference<AssertionError> failure = new AtomicReference<AssertionError>();
+		
+		for (int t = 0; t < NUM_THREADS; ++t)
+		{
+			final long seed = t;
+			threadPool.submit
+			(
+				() ->
+				{
+					try
+					{
+						final SplittableRandom rng = new SplittableRandom(seed);
+						for (int i = 0; i < NUM_STORES_PER_THREAD; ++i)
+						{
+							final long hash = rng.nextLong();
+							table.store(valueFor(hash) & 0xFF, hash, valueFor(hash), valueFor(hash) & 0x7F, TranspositionTable.EXACT_VALUE);
+							
+							final long probe = rng.nextLong();
+							final long data = table.retrieve((i % 2 == 0) ? hash : probe);
+							if (data != LockFreeTranspositionTable.NO_DATA)
+							{
+								final long retrievedHash = (i % 2 == 0) ? hash : probe;
+								assertEquals((float) valueFor(retrievedHash), LockFreeTranspositionTable.value(data), 0.f);
+								assertEquals(valueFor(retrievedHash) & 0xFF, LockFreeTranspositionTable.bestMoveIdx(data));
+								assertEquals(valueFor(retrievedHash) & 0x7F, LockFreeTranspositionTable.depth(data));
+							}
+						}
+					}
+					catch (final AssertionError e)
+					{
+						failure.compareAndSet(null, e);
+					}
+					finally
+					{
+						latch.countDown();
+					}
+				}
+			);
+		}
+		
+		latch.await();
+		threadPool.shutdown();
+		
+		if (failure.get() != null)
+			throw failure.get();
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @param hash
+	 * @return Value that we store for given hash in the concurrency test
+	 */
+	private static int valueFor(final long hash)
+	{
+		return (int) (hash ^ (hash >>> 32)) & 0xFFFF;
+	}
+	
+	//-------------------------------------------------------------------------
+
+}
@@ -0,0 +1,105 @@
+package ai;
+
+import game.Game;
+import other.context.Context;
+import other.move.Move;
+import other.trial.Trial;
+
+/**
+ * Solved Tic-Tac-Toe positions shared by the unit tests of our search
+ * algorithms. Every call returns a fresh context, so tests may modify them.
+ *
+ * @author Dennis Soemers
+ */
+public final class TicTacToePositions
+{
+
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Constructor
+	 */
+	private TicTacToePositions()
+	{
+		// Don't need constructor
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @param game
+	 * @return Context for the initial game state
+	 */
+	public static Context startContext(final Game game)
+	{
+		final Context context = new Context(game, new Trial(game));
+		game.start(context);
+		return context;
+	}
+	
+	/**
+	 * Empty board, player 1 to move: a draw
+	 * @param game Tic-Tac-Toe
+	 * @return Context for the position
+	 */
+	public static Context emptyBoard(final Game game)
+	{
+		return startContext(game);
+	}
+	
+	/**
+	 * Player 1 in the centre and player 2 on an edge, player 1 to move:
+	 * a win for player 1
+	 * @param game Tic-Tac-Toe
+	 * @return Context for the position
+	 */
+	public static Context centreEdge(final Game game)
+	{
+		final Context context = startContext(game);
+		applyAddMove(game, context, 4);
+		applyAddMove(game, context, 1);
+		return context;
+	}
+	
+	/**
+	 * Player 2 to move, after player 1 has two open lines through the centre
+	 * and player 2 failed to block either: a loss for player 2
+	 * @param game Tic-Tac-Toe
+	 * @return Context for the position
+	 */
+	public static Context doubleThreat(final Game game)
+	{
+		final Context context = startContext(game);
+		applyAddMove(game, context, 4);
+		applyAddMove(game, context, 1);
+		applyAddMove(game, context, 0);
+		applyAddMove(game, context, 2);
+		applyAddMove(game, context, 6);
+		return context;
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Applies the legal move that adds a piece on the given site
+	 * @param game
+	 * @param context
+	 * @param site
+	 */
+	private static void applyAddMove(final Game game, final Context context, final int site)
+	{
+		for (final Move move : game.moves(context).moves())
+		{
+			if (move.to() == site)
+			{
+				game.apply(context, move);
+				return;
+			}
+		}
+		
+		throw new IllegalArgumentException("No legal move to site " + site);
+	}
+	
+	//-------------------------------------------------------------------------
+
+}
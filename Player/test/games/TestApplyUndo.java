@@ -0,0 +1,194 @@
+package games;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import game.Game;
+import main.collections.FastArrayList;
+import other.GameLoader;
+import other.context.Context;
+import other.move.Move;
+import other.trial.Trial;
+
+/**
+ * Unit test to check that undoing a move restores the Zobrist hash, the
+ * lists of owned pieces and the legal moves of the state before the move,
+ * as required for searching by make/unmake. Also checks undo on copies of
+ * contexts, which share their undo data with the context they were copied
+ * from, and undo of passes in games where players may have to pass.
+ *
+ * @author Dennis Soemers
+ */
+public class TestApplyUndo
+{
+
+	/** Games to test */
+	private static final String[] GAMES = new String[]
+			{
+				"Tic-Tac-Toe.lud",
+				"Breakthrough.lud",
+				"Chess.lud",
+				"Mu Torere.lud",
+				"Hex.lud",
+				"Reversi.lud",
+				"Dots and Boxes.lud"
+			};
+	
+	/** Games in which players sometimes have to pass */
+	private static final String[] PASS_GAMES = new String[]
+			{
+				"Reversi.lud",
+				"Dots and Boxes.lud"
+			};
+	
+	/** Number of trials per game */
+	private static final int NUM_TRIALS = 3;
+	
+	/** Max number of moves per trial */
+	private static final int MAX_NUM_MOVES = 150;
+	
+	/** Max number of trials per game in which we look for passes to undo */
+	private static final int MAX_NUM_PASS_TRIALS = 100;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * The test to run
+	 */
+	@Test
+	@SuppressWarnings("static-method")
+	public void test()
+	{
+		for (final String gameName : GAMES)
+		{
+			final Game game = GameLoader.loadGameFromName(gameName);
+			final Random rng = new Random(gameName.hashCode());
+			
+			for (int t = 0; t < NUM_TRIALS; ++t)
+			{
+				final Context context = new Context(game, new Trial(game));
+				game.start(context);
+				
+				while (!context.trial().over() && context.trial().numMoves() < MAX_NUM_MOVES)
+				{
+					final FastArrayList<Move> legalMoves = game.moves(context).moves();
+					final String before = describe(game, context);
+					final String ownedBefore = owned(game, context);
+					final Move move = legalMoves.get(rng.nextInt(legalMoves.size()));
+					
+					// Apply and undo in the same context
+					game.apply(context, move);
+					game.undo(context);
+					assertEquals(gameName, before, describe(game, context));
+					
+					// Apply and copy, such that the copy shares the undo data of the
+					// move. Undo and play on in the copy, then undo in the original.
+					// NOTE: the copy's undo does not remove the move from its trial, 
+					// so we only check its owned pieces
+					game.apply(context, move);
+					final Context copy = new Context(context);
+					game.undo(copy);
+					assertEquals(gameName, ownedBefore, owned(game, copy));
+					final FastArrayList<Move> copyMoves = game.moves(copy).moves();
+					if (!copyMoves.isEmpty())
+						game.apply(copy, copyMoves.get(rng.nextInt(copyMoves.size())));
+					game.undo(context);
+					assertEquals(gameName, before, describe(game, context));
+					
+					game.apply(context, move);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Plays random trials of games with passes, and checks that applying and
+	 * undoing passes (and the moves we play) restores the Zobrist hash. Keeps
+	 * playing trials until we have seen passes, because in some games they
+	 * only happen near the end of some trials.
+	 */
+	@Test
+	@SuppressWarnings("static-method")
+	public void testPasses()
+	{
+		for (final String gameName : PASS_GAMES)
+		{
+			final Game game = GameLoader.loadGameFromName(gameName);
+			final Random rng = new Random(gameName.hashCode());
+			int numPassesUndone = 0;
+			
+			for (int t = 0; t < NUM_TRIALS || (numPassesUndone == 0 && t < MAX_NUM_PASS_TRIALS); ++t)
+			{
+				final Context context = new Context(game, new Trial(game));
+				game.start(context);
+				
+				while (!context.trial().over())
+				{
+					// NOTE: computing legal moves also updates the stalemated flags
+					// that are part of the hash, so we take the hash after computing them
+					final FastArrayList<Move> legalMoves = new FastArrayList<Move>(game.moves(context).moves());
+					final long hashBefore = context.state().fullHash(context);
+					
+					for (final Move move : legalMoves)
+					{
+						if (move.isPass())
+						{
+							game.apply(context, move);
+							game.undo(context);
+							assertEquals(gameName + ", " + move, hashBefore, context.state().fullHash(context));
+							++numPassesUndone;
+						}
+					}
+					
+					final Move move = legalMoves.get(rng.nextInt(legalMoves.size()));
+					game.apply(context, move);
+					game.undo(context);
+					assertEquals(gameName + ", " + move, hashBefore, context.state().fullHash(context));
+					
+					game.apply(context, move);
+				}
+			}
+			
+			assertTrue(gameName, numPassesUndone > 0);
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @param game
+	 * @param context
+	 * @return Description of the hash, owned pieces and legal moves in given context
+	 */
+	private static String describe(final Game game, final Context context)
+	{
+		return 
+			"hash = " + context.state().fullHash(context) + 
+			", " + owned(game, context) + 
+			", moves = " + game.moves(new Context(context)).moves();
+	}
+	
+	/**
+	 * @param game
+	 * @param context
+	 * @return Description of the owned pieces in given context
+	 */
+	private static String owned(final Game game, final Context context)
+	{
+		final StringBuilder sb = new StringBuilder();
+		for (int p = 1; p <= game.players().count() + 1; ++p)
+		{
+			if (p > 1)
+				sb.append(", ");
+			sb.append("owned by ").append(p).append(" = ").append(context.state().owned().sites(p));
+		}
+		return sb.toString();
+	}
+	
+	//-------------------------------------------------------------------------
+
+}
@@ -0,0 +1,58 @@
+package games;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import game.Game;
+import other.GameLoader;
+import other.move.IncrementalLegalMoves;
+
+/**
+ * Unit test to check that incrementally maintained legal moves (see
+ * IncrementalLegalMoves) always match full generation of legal moves
+ * in random playouts.
+ *
+ * @author Dennis Soemers
+ */
+public class TestIncrementalLegalMoves
+{
+
+	/** Games to test */
+	private static final String[] GAMES = new String[]
+			{
+				"Tic-Tac-Toe.lud",
+				"Hex.lud",
+				"Gomoku.lud",
+				"Havannah.lud",
+				"Yavalath.lud"
+			};
+	
+	/** Number of trials per game */
+	private static final int NUM_TRIALS = 20;
+	
+	/** Max number of moves per trial */
+	private static final int MAX_NUM_MOVES = 500;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * The test to run
+	 */
+	@Test
+	@SuppressWarnings("static-method")
+	public void test()
+	{
+		for (final String gameName : GAMES)
+		{
+			final Game game = GameLoader.loadGameFromName(gameName);
+			assertEquals(gameName, 1, game.setIncrementalLegalMoves(true));
+			assertEquals(gameName, 0, IncrementalLegalMoves.verify(game, NUM_TRIALS, MAX_NUM_MOVES, new Random(gameName.hashCode())));
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+
+}
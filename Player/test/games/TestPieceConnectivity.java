@@ -0,0 +1,149 @@
+package games;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import game.Game;
+import game.types.board.SiteType;
+import game.util.directions.AbsoluteDirection;
+import gnu.trove.list.array.TIntArrayList;
+import main.collections.ChunkSet;
+import main.collections.FastArrayList;
+import other.GameLoader;
+import other.context.Context;
+import other.move.Move;
+import other.state.container.ContainerState;
+import other.trial.Trial;
+import other.uf.ConnectivityGraph;
+import other.uf.PieceConnectivity;
+
+/**
+ * Unit test to check that the incrementally maintained connectivity of
+ * pieces (see PieceConnectivity) always matches the groups found by
+ * searching from scratch, when playing random moves and randomly undoing
+ * moves, and in copies of contexts.
+ *
+ * @author Dennis Soemers
+ */
+public class TestPieceConnectivity
+{
+
+	/** Games to test */
+	private static final String[] GAMES = new String[]
+			{
+				"Hex.lud",
+				"Havannah.lud",
+				"Y.lud",
+				"Gonnect.lud",
+				"Three-Player Hex.lud"
+			};
+
+	/** Number of trials per game */
+	private static final int NUM_TRIALS = 20;
+
+	/** Probability of undoing (some) moves after applying a move */
+	private static final double UNDO_PROB = 0.2;
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * The test to run
+	 */
+	@Test
+	public void test()
+	{
+		for (final String gameName : GAMES)
+		{
+			final Game game = GameLoader.loadGameFromName(gameName);
+			final SiteType type = game.board().defaultSite();
+			final ConnectivityGraph graph = game.connectivityGraph(type, Arrays.asList(AbsoluteDirection.Adjacent));
+			final Random rng = new Random(gameName.hashCode());
+
+			for (int t = 0; t < NUM_TRIALS; ++t)
+			{
+				final Context context = new Context(game, new Trial(game));
+				game.start(context);
+
+				while (!context.trial().over())
+				{
+					final FastArrayList<Move> legalMoves = game.moves(context).moves();
+					game.apply(context, legalMoves.get(rng.nextInt(legalMoves.size())));
+					checkConnectivity(context, graph);
+
+					if (rng.nextDouble() < UNDO_PROB)
+					{
+						final int numUndos = 1 + rng.nextInt(3);
+						for (int i = 0; i < numUndos; ++i)
+						{
+							if (context.trial().numMoves() <= context.trial().numInitialPlacementMoves())
+								break;
+
+							game.undo(context);
+						}
+
+						checkConnectivity(context, graph);
+					}
+				}
+
+				// NOTE: only copying at the end, since copying a context prevents 
+				// us from undoing moves that were played before the copy
+				checkConnectivity(new Context(context), graph);
+			}
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+	/**
+	 * Checks the group of every piece against a search from scratch
+	 * @param context
+	 * @param graph
+	 */
+	private static void checkConnectivity(final Context context, final ConnectivityGraph graph)
+	{
+		final PieceConnectivity connectivity = context.state().pieceConnectivity(graph);
+		final ContainerState cs = context.state().containerStates()[0];
+		final SiteType type = graph.type();
+		final int numPlayers = context.game().players().count();
+
+		for (int site = 0; site < graph.numSites(); ++site)
+		{
+			final int who = cs.who(site, type);
+
+			if (who <= 0 || who > numPlayers)
+			{
+				assertNull(connectivity.groupSites(site));
+				continue;
+			}
+
+			// Search for the group from scratch
+			final ChunkSet expected = new ChunkSet();
+			final TIntArrayList toVisit = new TIntArrayList();
+			expected.set(site);
+			toVisit.add(site);
+
+			while (!toVisit.isEmpty())
+			{
+				final int current = toVisit.removeAt(toVisit.size() - 1);
+				for (final int neighbour : graph.neighbours(current))
+				{
+					if (!expected.get(neighbour) && cs.who(neighbour, type) == who)
+					{
+						expected.set(neighbour);
+						toVisit.add(neighbour);
+					}
+				}
+			}
+
+			assertEquals(expected, connectivity.groupSites(site));
+		}
+	}
+
+	//-------------------------------------------------------------------------
+
+}
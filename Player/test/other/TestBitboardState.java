@@ -0,0 +1,135 @@
+package other;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import game.Game;
+import main.collections.FastArrayList;
+import other.context.Context;
+import other.context.TempContext;
+import other.move.Move;
+import other.state.container.ContainerFlatBitboardState;
+import other.trial.Trial;
+
+/**
+ * Unit test to check that the bitboards of ContainerFlatBitboardState always
+ * match the pieces on the sites, also in games with Shared pieces, and also
+ * for copy-on-write copies of which either the original or the copy is
+ * modified afterwards.
+ *
+ * @author Dennis Soemers
+ */
+public class TestBitboardState
+{
+
+	/** Games to test (TacTix and First Attack only have a Shared piece) */
+	private static final String[] GAMES = new String[]
+			{
+				"TacTix.lud",
+				"First Attack.lud",
+				"Tic-Tac-Toe.lud",
+				"Hex.lud"
+			};
+	
+	/** Number of trials per game */
+	private static final int NUM_TRIALS = 5;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * The test to run
+	 */
+	@Test
+	@SuppressWarnings("static-method")
+	public void test()
+	{
+		for (final String gameName : GAMES)
+		{
+			final Game game = GameLoader.loadGameFromName(gameName);
+			final Random rng = new Random(gameName.hashCode());
+			
+			for (int t = 0; t < NUM_TRIALS; ++t)
+			{
+				final Context context = new Context(game, new Trial(game));
+				game.start(context);
+				assertTrue(gameName, context.containerState(0) instanceof ContainerFlatBitboardState);
+				checkBitboards(gameName, context);
+				
+				while (!context.trial().over())
+				{
+					final FastArrayList<Move> legalMoves = game.moves(context).moves();
+					final Move move = legalMoves.get(rng.nextInt(legalMoves.size()));
+					
+					// Modify the original, and make sure the copy is unaffected
+					final Context copy = new TempContext(context);
+					final String copyCells = cells(copy);
+					game.apply(context, move);
+					checkBitboards(gameName, context);
+					checkBitboards(gameName, copy);
+					assertEquals(gameName, copyCells, cells(copy));
+					
+					// Modify a copy, and make sure the original is unaffected
+					final Context otherCopy = new TempContext(context);
+					final String originalCells = cells(context);
+					final FastArrayList<Move> copyMoves = game.moves(otherCopy).moves();
+					if (!otherCopy.trial().over() && !copyMoves.isEmpty())
+					{
+						game.apply(otherCopy, copyMoves.get(rng.nextInt(copyMoves.size())));
+						checkBitboards(gameName, otherCopy);
+					}
+					checkBitboards(gameName, context);
+					assertEquals(gameName, originalCells, cells(context));
+				}
+			}
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Checks that the bitboards in given context match the owners and what
+	 * values of its sites
+	 * @param gameName
+	 * @param context
+	 */
+	private static void checkBitboards(final String gameName, final Context context)
+	{
+		final ContainerFlatBitboardState cs = (ContainerFlatBitboardState) context.containerState(0);
+		final int numSites = context.game().board().numSites();
+		
+		for (int site = 0; site < numSites; ++site)
+		{
+			final int what = cs.whatCell(site);
+			final int owner = (what == 0) ? 0 : context.components()[what].owner();
+			
+			for (int i = 1; i < cs.numWhoBitboards(); ++i)
+				assertEquals(gameName + ", site " + site, i == owner, cs.whoBitboard(i).get(site));
+			
+			for (int i = 1; i < cs.numWhatBitboards(); ++i)
+				assertEquals(gameName + ", site " + site, i == what, cs.whatBitboard(i).get(site));
+		}
+	}
+	
+	/**
+	 * @param context
+	 * @return String representation of who and what values of all sites
+	 */
+	private static String cells(final Context context)
+	{
+		final ContainerFlatBitboardState cs = (ContainerFlatBitboardState) context.containerState(0);
+		final int numSites = context.game().board().numSites();
+		final StringBuilder sb = new StringBuilder();
+		
+		for (int site = 0; site < numSites; ++site)
+			sb.append(cs.whoCell(site)).append('/').append(cs.whatCell(site)).append(' ');
+		
+		return sb.toString();
+	}
+	
+	//-------------------------------------------------------------------------
+
+}
@@ -0,0 +1,150 @@
+package other;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import game.Game;
+import other.context.Context;
+import other.state.State;
+import other.state.zhash.HashedChunkSet;
+import other.state.zhash.ZobristHashGenerator;
+import other.trial.Trial;
+
+/**
+ * Unit tests to check that copy-on-write copies of HashedChunkSets never
+ * see modifications of the object they were copied from, or the other way
+ * around, also when many threads copy the same object at the same time.
+ *
+ * @author Dennis Soemers
+ */
+@SuppressWarnings("static-method")
+public class TestHashedChunkSet
+{
+
+	/** Number of chunks in our sets */
+	private static final int NUM_CHUNKS = 64;
+	
+	/** Max value of chunks in our sets */
+	private static final int MAX_CHUNK_VAL = 7;
+	
+	/** Number of threads for the concurrency test */
+	private static final int NUM_THREADS = 8;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Tests modifying originals and copies one after the other
+	 */
+	@Test
+	public void testCopyOnWrite()
+	{
+		final State state = startState();
+		final HashedChunkSet original = new HashedChunkSet(new ZobristHashGenerator(), MAX_CHUNK_VAL, NUM_CHUNKS);
+		original.setChunk(state, 0, 1);
+		
+		// Modify the original
+		final HashedChunkSet copy = original.copyOnWriteClone();
+		original.setChunk(state, 1, 2);
+		assertEquals(0, copy.getChunk(1));
+		assertEquals(1, copy.getChunk(0));
+		
+		// Modify the copy
+		copy.setChunk(state, 2, 3);
+		assertEquals(0, original.getChunk(2));
+		assertEquals(2, original.getChunk(1));
+		
+		// Copy of a copy, then modify the copy we copied from
+		final HashedChunkSet copyOfCopy = copy.copyOnWriteClone();
+		copy.setBit(state, 3, 0, true);
+		assertEquals(0, copyOfCopy.getChunk(3));
+		assertEquals(3, copyOfCopy.getChunk(2));
+		
+		// Clear an unmodified copy
+		final HashedChunkSet cleared = original.copyOnWriteClone();
+		cleared.clear(state);
+		assertEquals(1, original.getChunk(0));
+		assertEquals(0, cleared.getChunk(0));
+	}
+	
+	/**
+	 * Tests many threads copying the same object at the same time, each
+	 * modifying their own copy, followed by a modification of the original
+	 */
+	@Test
+	public void testConcurrentCopies() throws InterruptedException
+	{
+		final HashedChunkSet original = new HashedChunkSet(new ZobristHashGenerator(), MAX_CHUNK_VAL, NUM_CHUNKS);
+		final HashedChunkSet[] copies = new HashedChunkSet[NUM_THREADS];
+		final ExecutorService threadPool = Executors.newFixedThreadPool(NUM_THREADS);
+		final CountDownLatch latch = new CountDownLatch(NUM_THREADS);
+		final AtomicReference<RuntimeException> exception = new AtomicReference<RuntimeException>();
+		
+		for (int t = 0; t < NUM_THREADS; ++t)
+		{
+			final int threadIdx = t;
+			threadPool.submit
+			(
+				() ->
+				{
+					try
+					{
+						final State state = startState();
+						final HashedChunkSet copy = original.copyOnWriteClone();
+						for (int chunk = 0; chunk < NUM_CHUNKS; ++chunk)
+							copy.setChunk(state, chunk, 1 + (threadIdx % MAX_CHUNK_VAL));
+						copies[threadIdx] = copy;
+					}
+					catch (final RuntimeException e)
+					{
+						exception.compareAndSet(null, e);
+					}
+					finally
+					{
+						latch.countDown();
+					}
+				}
+			);
+		}
+		
+		latch.await();
+		threadPool.shutdown();
+		
+		if (exception.get() != null)
+			throw exception.get();
+		
+		final State state = startState();
+		for (int chunk = 0; chunk < NUM_CHUNKS; ++chunk)
+		{
+			assertEquals(0, original.getChunk(chunk));
+			original.setChunk(state, chunk, MAX_CHUNK_VAL);
+		}
+		
+		for (int t = 0; t < NUM_THREADS; ++t)
+		{
+			for (int chunk = 0; chunk < NUM_CHUNKS; ++chunk)
+				assertEquals(1 + (t % MAX_CHUNK_VAL), copies[t].getChunk(chunk));
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @return A state for which chunk sets can update the hash
+	 */
+	private static State startState()
+	{
+		final Game game = GameLoader.loadGameFromName("Tic-Tac-Toe.lud");
+		final Context context = new Context(game, new Trial(game));
+		game.start(context);
+		return context.state();
+	}
+	
+	//-------------------------------------------------------------------------
+
+}
@@ -0,0 +1,201 @@
+package training;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.rng.core.RandomProviderDefaultState;
+import org.junit.Test;
+
+import game.Game;
+import main.collections.FVector;
+import main.collections.FastArrayList;
+import other.GameLoader;
+import other.context.Context;
+import other.move.Move;
+import other.trial.Trial;
+import training.expert_iteration.EncodedExItExperience;
+import training.expert_iteration.ExItExperience;
+import training.expert_iteration.ExItExperience.ExItExperienceState;
+import training.expert_iteration.ExItGameRecord;
+import utils.data_structures.experience_buffers.PrioritizedReplayBuffer;
+import utils.data_structures.experience_buffers.UniformExperienceBuffer;
+
+/**
+ * Unit test to check that samples of ExIt experience are unchanged after
+ * encoding them as game records and decoding them again, and after writing
+ * experience buffers to files and reading them back.
+ *
+ * @author Dennis Soemers
+ */
+public class TestExItExperienceEncoding
+{
+
+	/** Games to test */
+	private static final String[] GAMES = new String[] {"Tic-Tac-Toe.lud", "Breakthrough.lud"};
+	
+	/** Max number of moves per game */
+	private static final int MAX_NUM_MOVES = 60;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * The test to run
+	 * @throws IOException
+	 */
+	@Test
+	@SuppressWarnings("static-method")
+	public void test() throws IOException
+	{
+		for (final String gameName : GAMES)
+		{
+			final Game game = GameLoader.loadGameFromName(gameName);
+			final List<ExItExperience> samples = playGame(game, new Random(gameName.hashCode()));
+			
+			// Encode and decode every sample
+			for (final ExItExperience sample : samples)
+			{
+				final EncodedExItExperience encoded = EncodedExItExperience.encode(sample);
+				assertTrue(gameName, encoded.isEncoded());
+				assertSameSample(gameName, sample, encoded.decode());
+			}
+			
+			// Write buffers to files and read them back
+			final PrioritizedReplayBuffer prioritizedBuffer = new PrioritizedReplayBuffer(samples.size());
+			final UniformExperienceBuffer uniformBuffer = new UniformExperienceBuffer(samples.size());
+			for (int i = 0; i < samples.size(); ++i)
+			{
+				prioritizedBuffer.add(samples.get(i), 1.f + i);
+				uniformBuffer.add(samples.get(i));
+			}
+			
+			final File file = File.createTempFile("TestExItExperienceEncoding", ".buf");
+			file.deleteOnExit();
+			
+			prioritizedBuffer.writeToFile(file.getAbsolutePath());
+			final PrioritizedReplayBuffer readPrioritizedBuffer = PrioritizedReplayBuffer.fromFile(game, file.getAbsolutePath());
+			assertNotNull(gameName, readPrioritizedBuffer);
+			assertEquals(gameName, samples.size(), readPrioritizedBuffer.size());
+			assertEquals(gameName, prioritizedBuffer.addCount(), readPrioritizedBuffer.addCount());
+			
+			final int[] indices = new int[samples.size()];
+			for (int i = 0; i < indices.length; ++i)
+				indices[i] = i;
+			assertArrayEquals(prioritizedBuffer.getPriorities(indices), readPrioritizedBuffer.getPriorities(indices), 0.f);
+			
+			final ExItExperience[] readPrioritizedSamples = readPrioritizedBuffer.allExperience();
+			for (int i = 0; i < samples.size(); ++i)
+				assertSameSample(gameName, samples.get(i), readPrioritizedSamples[i]);
+			
+			uniformBuffer.writeToFile(file.getAbsolutePath());
+			final UniformExperienceBuffer readUniformBuffer = UniformExperienceBuffer.fromFile(game, file.getAbsolutePath());
+			assertNotNull(gameName, readUniformBuffer);
+			
+			final ExItExperience[] readUniformSamples = readUniformBuffer.allExperience();
+			for (int i = 0; i < samples.size(); ++i)
+				assertSameSample(gameName, samples.get(i), readUniformSamples[i]);
+			
+			file.delete();
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Plays a random game, and generates one sample of experience (with random
+	 * expert data) for every move in it.
+	 *
+	 * @param game
+	 * @param rng
+	 * @return Samples of experience, with the record of the game set
+	 */
+	private static List<ExItExperience> playGame(final Game game, final Random rng)
+	{
+		final Context context = new Context(game, new Trial(game));
+		final RandomProviderDefaultState rngStartState = (RandomProviderDefaultState) context.rng().saveState();
+		game.start(context);
+		
+		final List<ExItExperience> samples = new ArrayList<ExItExperience>();
+		while (!context.trial().over() && context.trial().numMoves() < MAX_NUM_MOVES)
+		{
+			final FastArrayList<Move> legalMoves = new FastArrayList<Move>(game.moves(context).moves());
+			
+			final FVector expertDistribution = new FVector(legalMoves.size());
+			final FVector expertValueEstimates = new FVector(legalMoves.size());
+			for (int i = 0; i < legalMoves.size(); ++i)
+			{
+				expertDistribution.set(i, rng.nextFloat());
+				expertValueEstimates.set(i, 2.f * rng.nextFloat() - 1.f);
+			}
+			expertDistribution.normalise();
+			
+			final Context copyContext = new Context(context);
+			final ExItExperience sample =
+					new ExItExperience
+					(
+						copyContext,
+						new ExItExperienceState(copyContext),
+						legalMoves,
+						expertDistribution,
+						expertValueEstimates,
+						rng.nextFloat()
+					);
+			
+			if (rng.nextBoolean())
+				sample.winningMoves().set(rng.nextInt(legalMoves.size()));
+			samples.add(sample);
+			
+			game.apply(context, legalMoves.get(rng.nextInt(legalMoves.size())));
+		}
+		
+		final ExItGameRecord gameRecord = new ExItGameRecord(game, rngStartState, context.trial().generateCompleteMovesList());
+		for (final ExItExperience sample : samples)
+		{
+			sample.setEpisodeDuration(context.trial().numMoves());
+			sample.setPlayerOutcomes(new double[] {0.0, 1.0, -1.0});
+			sample.setGameRecord(gameRecord);
+		}
+		
+		return samples;
+	}
+	
+	/**
+	 * Checks that a decoded sample matches the original sample
+	 * @param gameName
+	 * @param expected
+	 * @param actual
+	 */
+	private static void assertSameSample(final String gameName, final ExItExperience expected, final ExItExperience actual)
+	{
+		assertNotNull(gameName, actual);
+		assertEquals(gameName, expected.state().state().fullHash(), actual.state().state().fullHash());
+		assertEquals(gameName, expected.state().lastDecisionMove(), actual.state().lastDecisionMove());
+		assertEquals(gameName, expected.context().trial().numMoves(), actual.context().trial().numMoves());
+		
+		assertEquals(gameName, expected.moves().size(), actual.moves().size());
+		for (int i = 0; i < expected.moves().size(); ++i)
+		{
+			assertEquals(gameName, expected.moves().get(i), actual.moves().get(i));
+			assertEquals(gameName, expected.moves().get(i).mover(), actual.moves().get(i).mover());
+		}
+		
+		assertEquals(gameName, expected.expertDistribution(), actual.expertDistribution());
+		assertEquals(gameName, expected.expertValueEstimates(), actual.expertValueEstimates());
+		assertEquals(gameName, expected.weightVisitCount(), actual.weightVisitCount(), 0.f);
+		assertEquals(gameName, expected.episodeDuration(), actual.episodeDuration());
+		assertArrayEquals(gameName, expected.playerOutcomes(), actual.playerOutcomes(), 0.0);
+		assertEquals(gameName, expected.winningMoves(), actual.winningMoves());
+		assertEquals(gameName, expected.losingMoves(), actual.losingMoves());
+		assertEquals(gameName, expected.antiDefeatingMoves(), actual.antiDefeatingMoves());
+	}
+	
+	//-------------------------------------------------------------------------
+
+}
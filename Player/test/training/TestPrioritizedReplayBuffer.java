@@ -0,0 +1,279 @@
+package training;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import game.Game;
+import main.collections.FVector;
+import main.collections.FastArrayList;
+import other.GameLoader;
+import other.context.Context;
+import other.move.Move;
+import other.trial.Trial;
+import training.expert_iteration.ExItExperience;
+import training.expert_iteration.ExItExperience.ExItExperienceState;
+import utils.data_structures.experience_buffers.PrioritizedReplayBuffer;
+import utils.data_structures.experience_buffers.SumTree;
+
+/**
+ * Unit tests for the sum tree and the prioritized replay buffer: sampling
+ * proportional to priorities, and consistent sums, sizes and samples when
+ * many threads use them at the same time.
+ *
+ * @author Dennis Soemers
+ */
+@SuppressWarnings("static-method")
+public class TestPrioritizedReplayBuffer
+{
+
+	/** Number of threads for the concurrency tests */
+	private static final int NUM_THREADS = 8;
+	
+	/** Number of operations per thread for the concurrency tests */
+	private static final int NUM_OPS_PER_THREAD = 50000;
+	
+	/** Capacity of sum trees and buffers in the concurrency tests */
+	private static final int CAPACITY = 100;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Tests that samples are drawn proportional to priorities, and never for
+	 * leaves with a priority of 0
+	 */
+	@Test
+	public void testSampling()
+	{
+		// Capacity that is not a power of 2, so the tree has padding leaves
+		final SumTree sumTree = new SumTree(5);
+		final float[] priorities = new float[] {1.f, 0.f, 2.f, 0.f, 1.f};
+		for (int i = 0; i < priorities.length; ++i)
+			sumTree.set(i, priorities[i]);
+		
+		assertEquals(4.f, sumTree.totalPriority(), 0.f);
+		assertEquals(2.f, sumTree.maxRecordedPriority(), 0.f);
+		
+		assertEquals(0, sumTree.sample(0.0));
+		assertEquals(0, sumTree.sample(0.2));
+		assertEquals(2, sumTree.sample(0.3));
+		assertEquals(2, sumTree.sample(0.7));
+		assertEquals(4, sumTree.sample(0.8));
+		assertEquals(4, sumTree.sample(1.0));
+		
+		final int batchSize = 1000;
+		final int[] counts = new int[priorities.length];
+		for (final int idx : sumTree.stratifiedSample(batchSize))
+		{
+			assertTrue(idx >= 0 && idx < priorities.length);
+			++counts[idx];
+		}
+		
+		for (int i = 0; i < priorities.length; ++i)
+			assertEquals(batchSize * priorities[i] / 4.f, counts[i], 2.0);
+	}
+	
+	/**
+	 * Tests that the total priority is exactly the sum of all leaves after
+	 * many threads have concurrently set (often the same) leaves
+	 */
+	@Test
+	public void testConcurrentSumTree() throws InterruptedException
+	{
+		final SumTree sumTree = new SumTree(CAPACITY);
+		final ExecutorService threadPool = Executors.newFixedThreadPool(NUM_THREADS);
+		final CountDownLatch latch = new CountDownLatch(NUM_THREADS);
+		final AtomicReference<RuntimeException> exception = new AtomicReference<RuntimeException>();
+		
+		for (int t = 0; t < NUM_THREADS; ++t)
+		{
+			final long seed = t;
+			threadPool.submit
+			(
+				() ->
+				{
+					try
+					{
+						final SplittableRandom rng = new SplittableRandom(seed);
+						for (int i = 0; i < NUM_OPS_PER_THREAD; ++i)
+						{
+							sumTree.set(rng.nextInt(CAPACITY), (float) rng.nextDouble(10.0));
+							final int sampled = sumTree.sample(rng.nextDouble());
+							if (sampled < 0 || sampled >= CAPACITY)
+								throw new IllegalStateException("Sampled invalid index: " + sampled);
+						}
+					}
+					catch (final RuntimeException e)
+					{
+						exception.compareAndSet(null, e);
+					}
+					finally
+					{
+						latch.countDown();
+					}
+				}
+			);
+		}
+		
+		latch.await();
+		threadPool.shutdown();
+		
+		if (exception.get() != null)
+			throw exception.get();
+		
+		double sumLeaves = 0.0;
+		float maxLeaf = 0.f;
+		for (int i = 0; i < CAPACITY; ++i)
+		{
+			sumLeaves += sumTree.get(i);
+			maxLeaf = Math.max(maxLeaf, sumTree.get(i));
+		}
+		
+		assertEquals(sumLeaves, sumTree.totalPriority(), 1E-3);
+		assertTrue(sumTree.maxRecordedPriority() >= maxLeaf);
+	}
+	
+	/**
+	 * Tests many producers adding experience to a buffer while a consumer
+	 * samples batches from it and updates priorities
+	 */
+	@Test
+	public void testConcurrentBuffer() throws InterruptedException
+	{
+		final ExItExperience experience = experience();
+		final PrioritizedReplayBuffer buffer = new PrioritizedReplayBuffer(CAPACITY);
+		final ExecutorService threadPool = Executors.newFixedThreadPool(NUM_THREADS + 1);
+		final CountDownLatch producersLatch = new CountDownLatch(NUM_THREADS);
+		final CountDownLatch consumerLatch = new CountDownLatch(1);
+		final AtomicBoolean producersDone = new AtomicBoolean(false);
+		final AtomicReference<RuntimeException> exception = new AtomicReference<RuntimeException>();
+		
+		for (int t = 0; t < NUM_THREADS; ++t)
+		{
+			final long seed = t;
+			threadPool.submit
+			(
+				() ->
+				{
+					try
+					{
+						final SplittableRandom rng = new SplittableRandom(seed);
+						for (int i = 0; i < NUM_OPS_PER_THREAD; ++i)
+						{
+							if (rng.nextBoolean())
+								buffer.add(experience);
+							else
+								buffer.add(experience, (float) rng.nextDouble(0.1, 10.0));
+						}
+					}
+					catch (final RuntimeException e)
+					{
+						exception.compareAndSet(null, e);
+					}
+					finally
+					{
+						producersLatch.countDown();
+					}
+				}
+			);
+		}
+		
+		threadPool.submit
+		(
+			() ->
+			{
+				try
+				{
+					final SplittableRandom rng = new SplittableRandom(NUM_THREADS);
+					while (!producersDone.get())
+					{
+						if (buffer.isEmpty())
+							continue;
+						
+						final List<ExItExperience> batch = buffer.sampleExperienceBatch(16);
+						final int[] indices = new int[batch.size()];
+						final float[] priorities = new float[batch.size()];
+						for (int i = 0; i < batch.size(); ++i)
+						{
+							final ExItExperience sample = batch.get(i);
+							if (sample.weightPER() <= 0.f || sample.weightPER() > 1.f)
+								throw new IllegalStateException("Invalid importance sampling weight: " + sample.weightPER());
+							indices[i] = sample.bufferIdx();
+							priorities[i] = (float) rng.nextDouble(0.1, 10.0);
+						}
+						buffer.setPriorities(indices, priorities);
+					}
+				}
+				catch (final RuntimeException e)
+				{
+					exception.compareAndSet(null, e);
+				}
+				finally
+				{
+					consumerLatch.countDown();
+				}
+			}
+		);
+		
+		producersLatch.await();
+		producersDone.set(true);
+		consumerLatch.await();
+		threadPool.shutdown();
+		
+		if (exception.get() != null)
+			throw exception.get();
+		
+		assertEquals((long) NUM_THREADS * NUM_OPS_PER_THREAD, buffer.addCount());
+		assertEquals(CAPACITY, buffer.size());
+		
+		final ExItExperience[] allExperience = buffer.allExperience();
+		double sumPriorities = 0.0;
+		for (int i = 0; i < CAPACITY; ++i)
+		{
+			assertNotNull(allExperience[i]);
+			assertTrue(buffer.sumTree().get(i) > 0.f);
+			sumPriorities += buffer.sumTree().get(i);
+		}
+		
+		assertEquals(sumPriorities, buffer.sumTree().totalPriority(), 1E-3);
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * @return A sample of experience for the initial state of Tic-Tac-Toe
+	 */
+	private static ExItExperience experience()
+	{
+		final Game game = GameLoader.loadGameFromName("Tic-Tac-Toe.lud");
+		final Context context = new Context(game, new Trial(game));
+		game.start(context);
+		
+		final FastArrayList<Move> legalMoves = new FastArrayList<Move>(game.moves(context).moves());
+		final FVector expertDistribution = new FVector(legalMoves.size());
+		expertDistribution.fill(0, legalMoves.size(), 1.f / legalMoves.size());
+		
+		return new ExItExperience
+				(
+					context,
+					new ExItExperienceState(context),
+					legalMoves,
+					expertDistribution,
+					new FVector(legalMoves.size()),
+					1.f
+				);
+	}
+	
+	//-------------------------------------------------------------------------
+
+}
@@ -0,0 +1,220 @@
+package training;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import features.FeatureVector;
+import gnu.trove.list.array.TIntArrayList;
+import main.collections.FVector;
+import training.expert_iteration.gradients.SparseGradientBatch;
+
+/**
+ * Unit test to check that the sparse minibatch kernel computes the same
+ * cross-entropy gradients as a straightforward dense computation, with
+ * any number of threads, and when batches of different sizes reuse the
+ * same buffers.
+ *
+ * @author Dennis Soemers
+ */
+public class TestSparseGradientBatch
+{
+
+	/** Thread counts to test */
+	private static final int[] NUM_THREADS = new int[] {1, 3};
+	
+	/** Batch sizes to test (one after the other, with the same object) */
+	private static final int[] BATCH_SIZES = new int[] {20, 5, 32, 1};
+	
+	/** Number of aspatial features */
+	private static final int NUM_ASPATIAL = 3;
+	
+	/** Number of spatial features */
+	private static final int NUM_SPATIAL = 30;
+	
+	/** Max number of legal moves per sample */
+	private static final int MAX_NUM_MOVES = 8;
+	
+	/** Tolerance for differences between sparse and dense gradients */
+	private static final double TOLERANCE = 1E-4;
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * The test to run
+	 */
+	@Test
+	@SuppressWarnings("static-method")
+	public void test()
+	{
+		final Random rng = new Random(4096L);
+		final int dim = NUM_ASPATIAL + NUM_SPATIAL;
+		
+		for (final int numThreads : NUM_THREADS)
+		{
+			final SparseGradientBatch batch = new SparseGradientBatch(numThreads);
+			
+			for (final int batchSize : BATCH_SIZES)
+			{
+				final FeatureVector[][] featureVectors = new FeatureVector[batchSize][];
+				final FVector[] targets = new FVector[batchSize];
+				final float[] sampleWeights = new float[batchSize];
+				
+				for (int s = 0; s < batchSize; ++s)
+				{
+					final int numMoves = 1 + rng.nextInt(MAX_NUM_MOVES);
+					featureVectors[s] = new FeatureVector[numMoves];
+					targets[s] = new FVector(numMoves);
+					
+					for (int m = 0; m < numMoves; ++m)
+					{
+						final TIntArrayList activeSpatial = new TIntArrayList();
+						for (int f = 0; f < NUM_SPATIAL; ++f)
+						{
+							if (rng.nextInt(4) == 0)
+								activeSpatial.add(f);
+						}
+						
+						final FVector aspatial = new FVector(NUM_ASPATIAL);
+						for (int f = 0; f < NUM_ASPATIAL; ++f)
+							aspatial.set(f, rng.nextFloat());
+						
+						featureVectors[s][m] = new FeatureVector(activeSpatial, aspatial);
+						targets[s].set(m, rng.nextFloat());
+					}
+					
+					targets[s].normalise();
+					sampleWeights[s] = rng.nextFloat();
+				}
+				
+				final FVector weights = new FVector(dim);
+				for (int i = 0; i < dim; ++i)
+					weights.set(i, 2.f * rng.nextFloat() - 1.f);
+				
+				final FVector gradients = new FVector(dim);
+				final float[] absErrorSums = new float[batchSize];
+				batch.build(featureVectors);
+				batch.computeCrossEntropyGradients(weights, targets, sampleWeights, gradients, absErrorSums);
+				
+				final double[] expectedAbsErrorSums = new double[batchSize];
+				final double[] expectedGradients =
+						denseGradients(featureVectors, weights, targets, sampleWeights, expectedAbsErrorSums);
+				
+				final String config = "threads = " + numThreads + ", batch size = " + batchSize;
+				for (int i = 0; i < dim; ++i)
+					assertEquals(config, expectedGradients[i], gradients.get(i), TOLERANCE);
+				for (int s = 0; s < batchSize; ++s)
+					assertEquals(config, expectedAbsErrorSums[s], absErrorSums[s], TOLERANCE);
+			}
+			
+			batch.close();
+		}
+	}
+	
+	/**
+	 * Tests that exceptions thrown while computing gradients on other
+	 * threads are not swallowed, but thrown to the caller
+	 */
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	@SuppressWarnings("static-method")
+	public void testExceptionPropagation()
+	{
+		final int batchSize = 6;
+		final FeatureVector[][] featureVectors = new FeatureVector[batchSize][];
+		final FVector[] targets = new FVector[batchSize];
+		final float[] sampleWeights = new float[batchSize];
+		
+		for (int s = 0; s < batchSize; ++s)
+		{
+			featureVectors[s] = new FeatureVector[] 
+					{
+						new FeatureVector(new TIntArrayList(new int[] {0}), new FVector(NUM_ASPATIAL)),
+						new FeatureVector(new TIntArrayList(new int[] {1}), new FVector(NUM_ASPATIAL))
+					};
+			targets[s] = FVector.ones(2);
+			sampleWeights[s] = 1.f;
+		}
+		
+		// Target with too few entries for the last sample, handled by the last thread
+		targets[batchSize - 1] = FVector.ones(1);
+		
+		final SparseGradientBatch batch = new SparseGradientBatch(3);
+		try
+		{
+			batch.build(featureVectors);
+			batch.computeCrossEntropyGradients
+			(
+				new FVector(NUM_ASPATIAL + NUM_SPATIAL), targets, sampleWeights, 
+				new FVector(NUM_ASPATIAL + NUM_SPATIAL), null
+			);
+		}
+		finally
+		{
+			batch.close();
+		}
+	}
+	
+	//-------------------------------------------------------------------------
+	
+	/**
+	 * Computes gradients densely, one sample and one move at a time
+	 *
+	 * @param featureVectors
+	 * @param weights
+	 * @param targets
+	 * @param sampleWeights
+	 * @param outAbsErrorSums
+	 * @return Sum of weighted gradients over all samples
+	 */
+	private static double[] denseGradients
+	(
+		final FeatureVector[][] featureVectors,
+		final FVector weights,
+		final FVector[] targets,
+		final float[] sampleWeights,
+		final double[] outAbsErrorSums
+	)
+	{
+		final double[] gradients = new double[weights.dim()];
+		
+		for (int s = 0; s < featureVectors.length; ++s)
+		{
+			final int numMoves = featureVectors[s].length;
+			final double[][] denseFeatures = new double[numMoves][weights.dim()];
+			final double[] probs = new double[numMoves];
+			double sumExponents = 0.0;
+			
+			for (int m = 0; m < numMoves; ++m)
+			{
+				final FeatureVector featureVector = featureVectors[s][m];
+				for (int f = 0; f < NUM_ASPATIAL; ++f)
+					denseFeatures[m][f] = featureVector.aspatialFeatureValues().get(f);
+				for (int k = 0; k < featureVector.activeSpatialFeatureIndices().size(); ++k)
+					denseFeatures[m][NUM_ASPATIAL + featureVector.activeSpatialFeatureIndices().getQuick(k)] = 1.0;
+				
+				double logit = 0.0;
+				for (int i = 0; i < weights.dim(); ++i)
+					logit += denseFeatures[m][i] * weights.get(i);
+				
+				probs[m] = Math.exp(logit);
+				sumExponents += probs[m];
+			}
+			
+			for (int m = 0; m < numMoves; ++m)
+			{
+				final double error = probs[m] / sumExponents - targets[s].get(m);
+				outAbsErrorSums[s] += Math.abs(error);
+				
+				for (int i = 0; i < weights.dim(); ++i)
+					gradients[i] += sampleWeights[s] * error * denseFeatures[m][i];
+			}
+		}
+		
+		return gradients;
+	}
+	
+	//-------------------------------------------------------------------------
+
+}